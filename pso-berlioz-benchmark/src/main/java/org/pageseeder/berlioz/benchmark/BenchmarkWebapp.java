@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.pageseeder.berlioz.BerliozException;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.content.ServiceLoader;
+import org.pageseeder.berlioz.content.ServiceRegistry;
+import org.pageseeder.berlioz.servlet.BerliozConfig;
+import org.pageseeder.mock.servlet.MockServletConfig;
+import org.pageseeder.mock.servlet.MockServletContext;
+
+/**
+ * A synthetic Web application used by the benchmarks.
+ *
+ * <p>The application is created in a temporary directory and includes a services configuration
+ * with the specified number of routes mixing static, variable and wildcard patterns, and a
+ * <code>/generate</code> service invoking the specified number of {@link MockGenerator}.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class BenchmarkWebapp {
+
+  /**
+   * The path to the stylesheet relative to the WEB-INF directory.
+   */
+  static final String STYLESHEET = "xslt/benchmark.xsl";
+
+  /**
+   * The root directory of the Web application.
+   */
+  private final File _root;
+
+  /**
+   * The number of routes.
+   */
+  private final int _routes;
+
+  /**
+   * @param root   The root directory of the Web application.
+   * @param routes The number of routes.
+   */
+  private BenchmarkWebapp(File root, int routes) {
+    this._root = root;
+    this._routes = routes;
+  }
+
+  /**
+   * Creates a new Web application in a temporary directory and loads its services.
+   *
+   * @param routes     The number of routes to generate.
+   * @param generators The number of generators for the <code>/generate</code> service.
+   *
+   * @return the Web application.
+   *
+   * @throws IOException      If the files could not be written.
+   * @throws BerliozException If the services could not be loaded.
+   */
+  static BenchmarkWebapp create(int routes, int generators) throws IOException, BerliozException {
+    File root = Files.createTempDirectory("berlioz-benchmark").toFile();
+    File config = new File(root, "WEB-INF/config");
+    File xslt = new File(root, "WEB-INF/xslt");
+    config.mkdirs();
+    xslt.mkdirs();
+    write(new File(config, "config.properties"), "");
+    writeServices(new File(config, "services.xml"), routes, generators);
+    writeStylesheet(new File(root, "WEB-INF/"+STYLESHEET));
+    GlobalSettings.setup(new File(root, "WEB-INF"));
+    GlobalSettings.load();
+    ServiceLoader loader = ServiceLoader.getInstance();
+    loader.clear();
+    loader.load();
+    return new BenchmarkWebapp(root, routes);
+  }
+
+  /**
+   * @return the registry of services.
+   */
+  ServiceRegistry registry() {
+    return ServiceLoader.getInstance().getDefaultRegistry();
+  }
+
+  /**
+   * Creates a new Berlioz configuration for this application using the benchmark stylesheet.
+   *
+   * @param name The name of the servlet.
+   *
+   * @return the Berlioz configuration.
+   */
+  BerliozConfig newConfig(String name) {
+    MockServletConfig servletConfig = new MockServletConfig(name, new MockServletContext(this._root));
+    servletConfig.setInitParameter("stylesheet", STYLESHEET);
+    return BerliozConfig.newConfig(servletConfig);
+  }
+
+  /**
+   * Returns a URL matching the specified route.
+   *
+   * @param route The index of the route.
+   *
+   * @return the corresponding URL
+   */
+  String url(int route) {
+    int i = route % this._routes;
+    switch (i % 3) {
+      case 0: return "/static/section"+i+"/page.html";
+      case 1: return "/group"+i+"/item-"+route+"/view.html";
+      default: return "/files"+i+"/a/b/c"+route+".html";
+    }
+  }
+
+  /**
+   * Deletes all the files of the Web application.
+   */
+  void delete() {
+    ServiceLoader.getInstance().clear();
+    delete(this._root);
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the services configuration.
+   *
+   * @param file       The file to write.
+   * @param routes     The number of routes to generate.
+   * @param generators The number of generators for the <code>/generate</code> service.
+   *
+   * @throws IOException If the file could not be written.
+   */
+  private static void writeServices(File file, int routes, int generators) throws IOException {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.println("<?xml version=\"1.0\"?>");
+      out.println("<!DOCTYPE service-config PUBLIC \"-//Berlioz//DTD::Services 1.0//EN\""
+          + " \"http://www.pageseeder.org/schema/berlioz/services-1.0.dtd\">");
+      out.println("<service-config version=\"1.0\">");
+      out.println("<services group=\"routes\">");
+      String generator = MockGenerator.class.getName();
+      for (int i = 0; i < routes; i++) {
+        String pattern;
+        switch (i % 3) {
+          case 0: pattern = "/static/section"+i+"/page.html"; break;
+          case 1: pattern = "/group"+i+"/{item}/view.html"; break;
+          default: pattern = "/files"+i+"/*"; break;
+        }
+        out.println("  <service id=\"route-"+i+"\" method=\"get\">");
+        out.println("    <url pattern=\""+pattern+"\"/>");
+        out.println("    <generator class=\""+generator+"\" name=\"route\"/>");
+        out.println("  </service>");
+      }
+      out.println("</services>");
+      out.println("<services group=\"generate\">");
+      out.println("  <service id=\"generate\" method=\"get\">");
+      out.println("    <url pattern=\"/generate\"/>");
+      for (int i = 0; i < generators; i++) {
+        out.println("    <generator class=\""+generator+"\" name=\"gen-"+i+"\">");
+        out.println("      <parameter name=\"items\" value=\"20\"/>");
+        out.println("    </generator>");
+      }
+      out.println("  </service>");
+      out.println("</services>");
+      out.println("</service-config>");
+    }
+  }
+
+  /**
+   * Writes a stylesheet producing HTML from the content of each generator.
+   *
+   * @param file The file to write.
+   *
+   * @throws IOException If the file could not be written.
+   */
+  private static void writeStylesheet(File file) throws IOException {
+    write(file, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">\n"
+        + "<xsl:output method=\"html\" indent=\"no\"/>\n"
+        + "<xsl:template match=\"/\"><html><body><xsl:apply-templates select=\"root/content\"/></body></html></xsl:template>\n"
+        + "<xsl:template match=\"content\"><section id=\"{@name}\"><xsl:apply-templates select=\"list/item\"/></section></xsl:template>\n"
+        + "<xsl:template match=\"item\"><p class=\"item-{@id}\"><b><xsl:value-of select=\"@title\"/></b> <xsl:value-of select=\".\"/></p></xsl:template>\n"
+        + "</xsl:stylesheet>\n");
+  }
+
+  /**
+   * Writes the specified text to a file using UTF-8.
+   *
+   * @param file The file to write.
+   * @param text The text to write.
+   *
+   * @throws IOException If the file could not be written.
+   */
+  private static void write(File file, String text) throws IOException {
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Deletes the specified file or directory recursively.
+   *
+   * @param file The file or directory to delete.
+   */
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import org.pageseeder.berlioz.util.LogHistogram;
+
+/**
+ * The results of a load test.
+ *
+ * <p>Each thread of the load test records its own results which are then added together,
+ * so this class is not thread-safe.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class LoadReport {
+
+  /**
+   * The highest HTTP status code counted.
+   */
+  private static final int MAX_STATUS = 599;
+
+  /**
+   * The latency of the requests in microseconds.
+   */
+  private final LogHistogram _latency = new LogHistogram();
+
+  /**
+   * The number of responses for each HTTP status code.
+   */
+  private final long[] _statuses = new long[MAX_STATUS + 1];
+
+  /**
+   * The number of requests.
+   */
+  private long requests = 0;
+
+  /**
+   * The number of requests which failed with an exception.
+   */
+  private long exceptions = 0;
+
+  /**
+   * The number of bytes written in the responses.
+   */
+  private long bytes = 0;
+
+  /**
+   * The number of bytes allocated by the threads handling the requests (-1 if unknown).
+   */
+  private long allocated = 0;
+
+  /**
+   * The number of threads.
+   */
+  private int threads = 0;
+
+  /**
+   * The duration of the measurement in nanoseconds.
+   */
+  private long duration = 0;
+
+  /**
+   * Records a completed request.
+   *
+   * @param status The HTTP status code of the response.
+   * @param micros The time taken in microseconds.
+   * @param size   The number of bytes written in the response.
+   */
+  void record(int status, long micros, long size) {
+    this.requests++;
+    this._statuses[Math.max(0, Math.min(status, MAX_STATUS))]++;
+    this._latency.record(micros);
+    this.bytes += size;
+  }
+
+  /**
+   * Records a request which failed with an exception.
+   *
+   * @param micros The time taken in microseconds.
+   */
+  void exception(long micros) {
+    this.requests++;
+    this.exceptions++;
+    this._latency.record(micros);
+  }
+
+  /**
+   * Records the number of bytes allocated by a thread.
+   *
+   * @param bytes The number of bytes allocated or -1 if unknown.
+   */
+  void allocated(long bytes) {
+    this.allocated = this.allocated < 0 || bytes < 0? -1 : this.allocated + bytes;
+  }
+
+  /**
+   * Sets the measurement duration.
+   *
+   * @param nanos The duration of the measurement in nanoseconds.
+   */
+  void duration(long nanos) {
+    this.duration = nanos;
+  }
+
+  /**
+   * Adds the results of a thread to this report.
+   *
+   * @param report The results of a thread.
+   */
+  void add(LoadReport report) {
+    this._latency.add(report._latency);
+    for (int i = 0; i <= MAX_STATUS; i++) {
+      this._statuses[i] += report._statuses[i];
+    }
+    this.requests += report.requests;
+    this.exceptions += report.exceptions;
+    this.bytes += report.bytes;
+    allocated(report.allocated);
+    this.threads++;
+  }
+
+  /**
+   * @return the number of requests which resulted in an error status or exception.
+   */
+  long errors() {
+    long errors = this.exceptions;
+    for (int i = 400; i <= MAX_STATUS; i++) {
+      errors += this._statuses[i];
+    }
+    return errors;
+  }
+
+  /**
+   * Prints the report.
+   *
+   * @param out The stream to print to.
+   * @param mix The URLs requested including their own statistics.
+   */
+  void print(PrintStream out, URLMix mix) {
+    double seconds = this.duration / 1e9;
+    long errors = errors();
+    out.println("Berlioz load test");
+    out.println(format("  Threads:      %d", this.threads));
+    out.println(format("  Duration:     %.1fs", seconds));
+    out.println(format("  Requests:     %d", this.requests));
+    out.println(format("  Throughput:   %.1f req/s", seconds > 0? this.requests / seconds : 0));
+    out.println(format("  Errors:       %d (%.2f%%), %d exceptions", errors, percent(errors, this.requests), this.exceptions));
+    StringBuilder statuses = new StringBuilder();
+    for (int i = 0; i <= MAX_STATUS; i++) {
+      if (this._statuses[i] > 0) {
+        statuses.append(' ').append(i).append('=').append(this._statuses[i]);
+      }
+    }
+    out.println("  Status:      "+statuses);
+    out.println(format("  Latency:      mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+        millis(this._latency.mean()), millis(this._latency.percentile(50)), millis(this._latency.percentile(90)),
+        millis(this._latency.percentile(99)), millis(this._latency.percentile(99.9)), millis(this._latency.max())));
+    if (this.allocated >= 0 && this.requests > 0) {
+      out.println(format("  Allocation:   %.1f KB/request", this.allocated / 1024.0 / this.requests));
+    } else {
+      out.println("  Allocation:   not available on this JVM");
+    }
+    out.println(format("  Response:     %.1f KB/request", this.requests > 0? this.bytes / 1024.0 / this.requests : 0));
+    out.println();
+    out.println(format("  %10s %8s %10s %10s  %s", "Requests", "Errors", "Mean(ms)", "p99(ms)", "URL"));
+    for (URLMix.Entry entry : mix.entries()) {
+      LogHistogram latency = entry.latency();
+      out.println(format("  %10d %8d %10.3f %10.3f  %s", latency.count(), entry.errors().sum(),
+          millis(latency.mean()), millis(latency.percentile(99)), entry.label()));
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Formats the specified values independently of the default locale.
+   *
+   * @param format The format.
+   * @param args   The values.
+   *
+   * @return the formatted string.
+   */
+  private static String format(String format, Object... args) {
+    return String.format(Locale.ROOT, format, args);
+  }
+
+  /**
+   * @param micros A number of microseconds.
+   *
+   * @return the corresponding number of milliseconds.
+   */
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+  /**
+   * @param count The count.
+   * @param total The total.
+   *
+   * @return the count as a percentage of the total.
+   */
+  private static double percent(long count, long total) {
+    return total > 0? count * 100.0 / total : 0;
+  }
+
+}
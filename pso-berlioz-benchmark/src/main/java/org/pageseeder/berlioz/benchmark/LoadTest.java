@@ -0,0 +1,627 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.content.ServiceLoader;
+import org.pageseeder.berlioz.servlet.BerliozServlet;
+import org.pageseeder.mock.servlet.MockHttpServletRequest;
+import org.pageseeder.mock.servlet.MockHttpServletResponse;
+import org.pageseeder.mock.servlet.MockServletConfig;
+import org.pageseeder.mock.servlet.MockServletContext;
+
+/**
+ * Sends requests to a Berlioz servlet from multiple threads in the same JVM.
+ *
+ * <p>The load test creates a Web application in a temporary directory from a services
+ * configuration and an optional XSLT directory, then invokes {@link BerliozServlet#service}
+ * directly with mock requests for the URLs in a {@link URLMix}. After a warmup period, it
+ * reports the throughput, latency percentiles, error rates and the memory allocated for each
+ * request so that configurations can be compared without deploying to a servlet container.
+ *
+ * <p>The generators declared in the services configuration must be on the class path.
+ *
+ * <p>Usage:
+ * <pre>
+ * LoadTest -services services.xml -urls urls.txt [-xslt dir] [-stylesheet path]
+ *          [-threads n] [-duration seconds] [-warmup seconds] [-gzip]
+ *          [-set name=value]* [-init name=value]*
+ * </pre>
+ *
+ * <p>Use <code>-set</code> to specify Berlioz global settings (for example
+ * <code>berlioz.xslt.cache=false</code>) and <code>-init</code> for the initialisation
+ * parameters of the servlet (for example <code>http-compression=true</code>).
+ *
+ * <p>The allocation only includes the memory allocated by the threads sending requests,
+ * including the mock request and response, but not by other threads such as those used by
+ * services invoking generators in parallel.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class LoadTest {
+
+  /**
+   * The services configuration.
+   */
+  private final File _services;
+
+  /**
+   * The URLs to request.
+   */
+  private final URLMix _mix;
+
+  /**
+   * The directory containing the XSLT stylesheets (may be <code>null</code>).
+   */
+  private final @Nullable File _xslt;
+
+  /**
+   * The path to the stylesheet relative to the XSLT directory.
+   */
+  private final String _stylesheet;
+
+  /**
+   * The number of threads sending requests.
+   */
+  private final int _threads;
+
+  /**
+   * The warmup duration in seconds.
+   */
+  private final int _warmup;
+
+  /**
+   * The measurement duration in seconds.
+   */
+  private final int _duration;
+
+  /**
+   * Whether to accept GZIP compressed responses.
+   */
+  private final boolean _gzip;
+
+  /**
+   * The Berlioz global settings.
+   */
+  private final Properties _settings;
+
+  /**
+   * The initialisation parameters of the servlet.
+   */
+  private final Map<String, String> _init;
+
+  /**
+   * Use the builder.
+   */
+  private LoadTest(Builder builder, File services, URLMix mix) {
+    this._services = services;
+    this._mix = mix;
+    this._xslt = builder.xslt;
+    this._stylesheet = builder.stylesheet;
+    this._threads = builder.threads;
+    this._warmup = builder.warmup;
+    this._duration = builder.duration;
+    this._gzip = builder.gzip;
+    this._settings = builder.settings;
+    this._init = builder.init;
+  }
+
+  /**
+   * Runs the load test.
+   *
+   * @return the results of the load test.
+   *
+   * @throws IOException          If the Web application could not be created.
+   * @throws ServletException     If the Berlioz servlet could not be initialised.
+   * @throws InterruptedException If interrupted while waiting for the threads to complete.
+   */
+  LoadReport run() throws IOException, ServletException, InterruptedException {
+    File root = Files.createTempDirectory("berlioz-loadtest").toFile();
+    try {
+      File webinf = createWebapp(root);
+      GlobalSettings.setup(webinf);
+      GlobalSettings.load();
+      ServiceLoader.getInstance().clear();
+      MockServletConfig config = new MockServletConfig("LoadTest", new MockServletContext(root));
+      if (this._xslt != null) {
+        config.setInitParameter("stylesheet", "xslt/"+this._stylesheet);
+      } else {
+        config.setInitParameter("content-type", "application/xml;charset=utf-8");
+      }
+      for (Map.Entry<String, String> p : this._init.entrySet()) {
+        config.setInitParameter(p.getKey(), p.getValue());
+      }
+      BerliozServlet servlet = new BerliozServlet();
+      servlet.init(config);
+      try {
+        return execute(servlet);
+      } finally {
+        servlet.destroy();
+        ServiceLoader.getInstance().clear();
+      }
+    } finally {
+      delete(root);
+    }
+  }
+
+  /**
+   * Runs a load test from the command line and prints the report.
+   *
+   * @param args The command line arguments.
+   *
+   * @throws Exception If the load test could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    Builder builder = new Builder();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        if ("-gzip".equals(arg)) {
+          builder.gzip(true);
+        } else if (i + 1 < args.length) {
+          String value = args[++i];
+          switch (arg) {
+            case "-services":   builder.services(new File(value)); break;
+            case "-urls":       builder.urls(new File(value)); break;
+            case "-xslt":       builder.xslt(new File(value)); break;
+            case "-stylesheet": builder.stylesheet(value); break;
+            case "-threads":    builder.threads(Integer.parseInt(value)); break;
+            case "-duration":   builder.duration(Integer.parseInt(value)); break;
+            case "-warmup":     builder.warmup(Integer.parseInt(value)); break;
+            case "-set":        builder.set(name(value), value(value)); break;
+            case "-init":       builder.init(name(value), value(value)); break;
+            default: throw new IllegalArgumentException("Unknown option "+arg);
+          }
+        } else throw new IllegalArgumentException("Missing value for "+arg);
+      }
+      LoadTest test = builder.build();
+      test.run().print(System.out, test._mix);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.err.println("Usage: LoadTest -services services.xml -urls urls.txt [-xslt dir] [-stylesheet path]");
+      System.err.println("         [-threads n] [-duration seconds] [-warmup seconds] [-gzip]");
+      System.err.println("         [-set name=value]* [-init name=value]*");
+      System.exit(1);
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Sends requests from each thread for the warmup and measurement durations.
+   *
+   * @param servlet The Berlioz servlet.
+   *
+   * @return the results of all threads.
+   *
+   * @throws InterruptedException If interrupted while waiting for the threads to complete.
+   */
+  private LoadReport execute(final BerliozServlet servlet) throws InterruptedException {
+    final CountDownLatch ready = new CountDownLatch(1);
+    final long start = System.nanoTime();
+    final long measure = start + TimeUnit.SECONDS.toNanos(this._warmup);
+    final long end = measure + TimeUnit.SECONDS.toNanos(this._duration);
+    final LoadReport[] reports = new LoadReport[this._threads];
+    Thread[] threads = new Thread[this._threads];
+    for (int i = 0; i < this._threads; i++) {
+      final LoadReport report = new LoadReport();
+      reports[i] = report;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ready.await();
+            sendRequests(servlet, report, measure, end);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }, "berlioz-loadtest-"+i);
+      threads[i].start();
+    }
+    ready.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    LoadReport total = new LoadReport();
+    for (LoadReport report : reports) {
+      total.add(report);
+    }
+    total.duration(Math.max(System.nanoTime(), end) - measure);
+    return total;
+  }
+
+  /**
+   * Sends requests until the end of the load test, recording results after the warmup.
+   *
+   * @param servlet The Berlioz servlet.
+   * @param report  The results for the current thread.
+   * @param measure When to start recording results.
+   * @param end     When to stop sending requests.
+   */
+  private void sendRequests(BerliozServlet servlet, LoadReport report, long measure, long end) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long allocated = -1;
+    long now = System.nanoTime();
+    while (now < end) {
+      boolean measuring = now >= measure;
+      if (measuring && allocated == -1) {
+        allocated = allocatedBytes();
+      }
+      URLMix.Entry entry = this._mix.next(random);
+      MockHttpServletRequest req = entry.newRequest(random);
+      if (this._gzip) {
+        req.setHeader("Accept-Encoding", "gzip");
+      }
+      CountingResponse res = new CountingResponse();
+      long t = System.nanoTime();
+      try {
+        servlet.service(req, res);
+        now = System.nanoTime();
+        if (measuring) {
+          long micros = (now - t) / 1000;
+          report.record(res.getStatus(), micros, res.size());
+          entry.latency().record(micros);
+          if (res.getStatus() >= 400) {
+            entry.errors().increment();
+          }
+        }
+      } catch (ServletException | IOException | RuntimeException ex) {
+        now = System.nanoTime();
+        if (measuring) {
+          long micros = (now - t) / 1000;
+          report.exception(micros);
+          entry.latency().record(micros);
+          entry.errors().increment();
+        }
+      }
+    }
+    report.allocated(allocated != -1? allocatedBytes() - allocated : -1);
+  }
+
+  /**
+   * Creates the Web application for the load test.
+   *
+   * @param root The root directory of the Web application.
+   *
+   * @return the WEB-INF directory.
+   *
+   * @throws IOException If the files could not be copied or written.
+   */
+  private File createWebapp(File root) throws IOException {
+    File webinf = new File(root, "WEB-INF");
+    File config = new File(webinf, "config");
+    config.mkdirs();
+    Files.copy(this._services.toPath(), new File(config, "services.xml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    try (OutputStream out = Files.newOutputStream(new File(config, "config.properties").toPath())) {
+      this._settings.store(out, "Berlioz load test");
+    }
+    File xslt = this._xslt;
+    if (xslt != null) {
+      copy(xslt, new File(webinf, "xslt"));
+    }
+    return webinf;
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread.
+   *
+   * @return the number of bytes allocated or -1 if not supported by this JVM.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+      if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  /**
+   * Copies a directory recursively.
+   *
+   * @param from The directory to copy.
+   * @param to   The target directory.
+   *
+   * @throws IOException If a file could not be copied.
+   */
+  private static void copy(File from, File to) throws IOException {
+    to.mkdirs();
+    File[] files = from.listFiles();
+    if (files == null) throw new IOException("Unable to list files in "+from);
+    for (File f : files) {
+      File target = new File(to, f.getName());
+      if (f.isDirectory()) {
+        copy(f, target);
+      } else {
+        Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+
+  /**
+   * Deletes the specified file or directory recursively.
+   *
+   * @param file The file or directory to delete.
+   */
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * @param pair A name-value pair separated by '='
+   *
+   * @return the name.
+   */
+  private static String name(String pair) {
+    int equal = pair.indexOf('=');
+    if (equal <= 0) throw new IllegalArgumentException("Expected name=value but found "+pair);
+    return pair.substring(0, equal);
+  }
+
+  /**
+   * @param pair A name-value pair separated by '='
+   *
+   * @return the value.
+   */
+  private static String value(String pair) {
+    return pair.substring(pair.indexOf('=') + 1);
+  }
+
+  /**
+   * Builds a load test.
+   */
+  static final class Builder {
+
+    private @Nullable File services;
+
+    private @Nullable File urls;
+
+    private @Nullable File xslt;
+
+    private String stylesheet = "global.xsl";
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int warmup = 10;
+
+    private int duration = 30;
+
+    private boolean gzip = false;
+
+    private final Properties settings = new Properties();
+
+    private final Map<String, String> init = new LinkedHashMap<>();
+
+    /**
+     * @param services The services configuration (required)
+     * @return this builder
+     */
+    Builder services(File services) {
+      this.services = services;
+      return this;
+    }
+
+    /**
+     * @param urls The file containing the URL mix (required)
+     * @return this builder
+     */
+    Builder urls(File urls) {
+      this.urls = urls;
+      return this;
+    }
+
+    /**
+     * @param xslt The directory containing the XSLT stylesheets.
+     * @return this builder
+     */
+    Builder xslt(File xslt) {
+      this.xslt = xslt;
+      return this;
+    }
+
+    /**
+     * @param stylesheet The path to the stylesheet relative to the XSLT directory.
+     * @return this builder
+     */
+    Builder stylesheet(String stylesheet) {
+      this.stylesheet = stylesheet;
+      return this;
+    }
+
+    /**
+     * @param threads The number of threads sending requests.
+     * @return this builder
+     */
+    Builder threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param seconds The warmup duration in seconds.
+     * @return this builder
+     */
+    Builder warmup(int seconds) {
+      this.warmup = seconds;
+      return this;
+    }
+
+    /**
+     * @param seconds The measurement duration in seconds.
+     * @return this builder
+     */
+    Builder duration(int seconds) {
+      this.duration = seconds;
+      return this;
+    }
+
+    /**
+     * @param gzip Whether to accept GZIP compressed responses.
+     * @return this builder
+     */
+    Builder gzip(boolean gzip) {
+      this.gzip = gzip;
+      return this;
+    }
+
+    /**
+     * @param name  The name of a Berlioz global setting.
+     * @param value Its value.
+     * @return this builder
+     */
+    Builder set(String name, String value) {
+      this.settings.setProperty(name, value);
+      return this;
+    }
+
+    /**
+     * @param name  The name of a servlet initialisation parameter.
+     * @param value Its value.
+     * @return this builder
+     */
+    Builder init(String name, String value) {
+      this.init.put(name, value);
+      return this;
+    }
+
+    /**
+     * @return the load test.
+     *
+     * @throws IOException If the URL mix could not be read.
+     * @throws IllegalArgumentException If the services or URLs are missing or invalid.
+     */
+    LoadTest build() throws IOException {
+      File services = this.services;
+      File urls = this.urls;
+      if (services == null || !services.isFile())
+        throw new IllegalArgumentException("A services configuration file must be specified");
+      if (urls == null || !urls.isFile())
+        throw new IllegalArgumentException("A URL mix file must be specified");
+      if (this.threads <= 0 || this.duration <= 0 || this.warmup < 0)
+        throw new IllegalArgumentException("The threads and duration must be positive");
+      return new LoadTest(this, services, URLMix.parse(urls));
+    }
+  }
+
+  /**
+   * A response counting the bytes written instead of storing them.
+   */
+  private static final class CountingResponse extends MockHttpServletResponse {
+
+    /**
+     * Counts the bytes written to the output stream.
+     */
+    private final ServletOutputStream _stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        CountingResponse.this.size++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        CountingResponse.this.size += len;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+      }
+    };
+
+    /**
+     * Counts the UTF-8 bytes written to the writer.
+     */
+    private final PrintWriter _writer = new PrintWriter(new Writer() {
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+        long bytes = len;
+        for (int i = off; i < off + len; i++) {
+          char c = cbuf[i];
+          if (c >= 0x80) {
+            bytes += c < 0x800 || Character.isSurrogate(c)? 1 : 2;
+          }
+        }
+        CountingResponse.this.size += bytes;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+
+    /**
+     * The number of bytes written.
+     */
+    private long size = 0;
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return this._stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+      return this._writer;
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    long size() {
+      return this.size;
+    }
+  }
+
+}
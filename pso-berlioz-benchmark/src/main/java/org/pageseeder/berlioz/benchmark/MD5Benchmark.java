@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.util.MD5;
+
+/**
+ * Measures the time taken to compute MD5 hashes used for etags.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MD5Benchmark {
+
+  /**
+   * The number of characters to hash.
+   */
+  @Param({"64", "4096", "262144"})
+  public int length;
+
+  private String text;
+
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    StringBuilder text = new StringBuilder(this.length);
+    for (int i = 0; text.length() < this.length; i++) {
+      text.append((char)('a' + i % 26));
+    }
+    this.text = text.toString();
+    this.file = File.createTempFile("berlioz-md5", ".txt");
+    Files.write(this.file.toPath(), this.text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.file.delete();
+  }
+
+  @Benchmark
+  public String hashText() {
+    return MD5.hash(this.text);
+  }
+
+  @Benchmark
+  public String hashFile() throws IOException {
+    return MD5.hash(this.file, true);
+  }
+
+  @Benchmark
+  public String hashFileWeak() throws IOException {
+    return MD5.hash(this.file, false);
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.bundler.CSSMin;
+import org.pageseeder.berlioz.bundler.JSMin;
+
+/**
+ * Measures the time taken to minimize style sheets and scripts.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MinifierBenchmark {
+
+  /**
+   * The approximate number of characters to minimize.
+   */
+  @Param({"4096", "262144"})
+  public int length;
+
+  private String css;
+
+  private byte[] js;
+
+  @Setup
+  public void setup() {
+    StringBuilder css = new StringBuilder(this.length + 256);
+    for (int i = 0; css.length() < this.length; i++) {
+      css.append("/* Rules for block ").append(i).append(" */\n");
+      css.append(".block-").append(i).append(" > .title, .block-").append(i).append(":hover {\n");
+      css.append("  margin : 0px 0px 10px 0px;\n  color : #FFFFFF;\n  background: url(\"images/bg-").append(i)
+         .append(".png\") no-repeat;\n  font-weight : bold ;\n}\n\n");
+    }
+    this.css = css.toString();
+    StringBuilder js = new StringBuilder(this.length + 256);
+    for (int i = 0; js.length() < this.length; i++) {
+      js.append("// Function number ").append(i).append('\n');
+      js.append("function block").append(i).append(" ( element , options ) {\n");
+      js.append("  var total = 0 ;\n  for ( var i = 0 ; i < options.length ; i++ ) {\n");
+      js.append("    total += options[i] / 2 + element.offset ; /* accumulate */\n  }\n");
+      js.append("  return 'block-").append(i).append(": ' + total ;\n}\n\n");
+    }
+    this.js = js.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public String cssmin() {
+    StringWriter out = new StringWriter(this.css.length());
+    PrintWriter min = new PrintWriter(out);
+    CSSMin.minimize(new StringReader(this.css), min);
+    min.flush();
+    return out.toString();
+  }
+
+  @Benchmark
+  public byte[] jsmin() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(this.js.length);
+    new JSMin(new ByteArrayInputStream(this.js), out).jsmin();
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.IOException;
+
+import org.pageseeder.berlioz.content.ContentGenerator;
+import org.pageseeder.berlioz.content.ContentRequest;
+import org.pageseeder.xmlwriter.XMLWriter;
+
+/**
+ * Generates a list of items without accessing any external resource.
+ *
+ * <h3>Parameters</h3>
+ * <p>The <code>items</code> parameter specifies the number of items to generate (5 by default).
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class MockGenerator implements ContentGenerator {
+
+  @Override
+  public void process(ContentRequest req, XMLWriter xml) throws IOException {
+    int items = req.getIntParameter("items", 5);
+    xml.openElement("list", true);
+    xml.attribute("size", items);
+    for (int i = 0; i < items; i++) {
+      xml.openElement("item");
+      xml.attribute("id", i);
+      xml.attribute("title", "Item #"+i);
+      xml.writeText("Some text to transform & escape <for> item "+i);
+      xml.closeElement();
+    }
+    xml.closeElement();
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.util.ResourceCompressor;
+
+/**
+ * Measures the time taken to compress HTML responses using GZIP.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceCompressorBenchmark {
+
+  /**
+   * The approximate number of characters to compress.
+   */
+  @Param({"1024", "65536", "1048576"})
+  public int length;
+
+  private String content;
+
+  private ByteArrayOutputStream out;
+
+  @Setup
+  public void setup() {
+    StringBuilder html = new StringBuilder(this.length + 128);
+    html.append("<html><body>");
+    for (int i = 0; html.length() < this.length; i++) {
+      html.append("<p class=\"item-").append(i).append("\"><b>Item #").append(i).append("</b> Some text for item ")
+          .append(i * 31 % 977).append("</p>\n");
+    }
+    html.append("</body></html>");
+    this.content = html.toString();
+    this.out = new ByteArrayOutputStream(this.length);
+  }
+
+  @Benchmark
+  public byte[] compress() {
+    return ResourceCompressor.compress(this.content, StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public long compressToStream() throws IOException {
+    this.out.reset();
+    return ResourceCompressor.compress(this.content, StandardCharsets.UTF_8, this.out);
+  }
+
+}
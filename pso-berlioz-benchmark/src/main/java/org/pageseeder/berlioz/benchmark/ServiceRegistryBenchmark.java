@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.content.MatchingService;
+import org.pageseeder.berlioz.content.ServiceRegistry;
+
+/**
+ * Measures the time taken to find the service matching a URL in large sets of routes.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceRegistryBenchmark {
+
+  /**
+   * The number of URLs to cycle through.
+   */
+  private static final int URLS = 1024;
+
+  /**
+   * The number of routes in the registry.
+   */
+  @Param({"100", "1000", "10000"})
+  public int routes;
+
+  private BenchmarkWebapp webapp;
+
+  private ServiceRegistry registry;
+
+  private String[] urls;
+
+  private String first;
+
+  private String last;
+
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    this.webapp = BenchmarkWebapp.create(this.routes, 1);
+    this.registry = this.webapp.registry();
+    this.urls = new String[URLS];
+    Random random = new Random(42);
+    for (int i = 0; i < URLS; i++) {
+      this.urls[i] = this.webapp.url(random.nextInt(this.routes));
+    }
+    this.first = this.webapp.url(0);
+    this.last = this.webapp.url(this.routes - 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.webapp.delete();
+  }
+
+  @Benchmark
+  public MatchingService matchFirst() {
+    return this.registry.get(this.first, "GET");
+  }
+
+  @Benchmark
+  public MatchingService matchLast() {
+    return this.registry.get(this.last, "GET");
+  }
+
+  @Benchmark
+  public MatchingService matchRandom() {
+    String url = this.urls[this.index++ & (URLS - 1)];
+    return this.registry.get(url, "GET");
+  }
+
+  @Benchmark
+  public MatchingService matchNone() {
+    return this.registry.get("/not/a/route.html", "GET");
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.furi.URIPattern;
+import org.pageseeder.berlioz.furi.URIResolveResult;
+import org.pageseeder.berlioz.furi.URIResolver;
+
+/**
+ * Measures the time taken to resolve the variables of a URI pattern.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URIResolverBenchmark {
+
+  /**
+   * The kind of pattern to resolve.
+   */
+  @Param({"static", "variables", "wildcard"})
+  public String kind;
+
+  private URIPattern pattern;
+
+  private String url;
+
+  @Setup
+  public void setup() {
+    switch (this.kind) {
+      case "static":
+        this.pattern = new URIPattern("/static/section/page.html");
+        this.url = "/static/section/page.html";
+        break;
+      case "variables":
+        this.pattern = new URIPattern("/{group}/{item}/view.{format}");
+        this.url = "/group12/item-3456/view.html";
+        break;
+      default:
+        this.pattern = new URIPattern("/files/*");
+        this.url = "/files/a/b/c/document.html";
+        break;
+    }
+  }
+
+  @Benchmark
+  public URIResolveResult resolve() {
+    return new URIResolver(this.url).resolve(this.pattern);
+  }
+
+}
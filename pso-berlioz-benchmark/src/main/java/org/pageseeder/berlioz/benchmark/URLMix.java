@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pageseeder.berlioz.http.HttpMethod;
+import org.pageseeder.berlioz.util.LogHistogram;
+import org.pageseeder.mock.servlet.MockHttpServletRequest;
+
+/**
+ * A weighted list of URLs to request during a load test.
+ *
+ * <p>The mix is read from a text file with one URL per line, optionally preceded by a weight
+ * and an HTTP method (<code>GET</code> by default). Blank lines and lines starting with
+ * <code>#</code> are ignored, for example:
+ *
+ * <pre>
+ * # weight method url
+ * 10 /home.html
+ * 5 /products/{random}.html
+ * 1 POST /search.html?q=berlioz
+ * /about.html
+ * </pre>
+ *
+ * <p>The <code>{random}</code> token is replaced by a random number for each request so that
+ * URL patterns with variables can be exercised without being served from a cache.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class URLMix {
+
+  /**
+   * The base URL used for relative URLs.
+   */
+  private static final String BASE = "http://localhost:8080";
+
+  /**
+   * Token replaced by a random number.
+   */
+  private static final String RANDOM = "{random}";
+
+  /**
+   * The entries in the mix.
+   */
+  private final List<Entry> _entries;
+
+  /**
+   * The cumulative weights of the entries.
+   */
+  private final int[] _cumulative;
+
+  /**
+   * @param entries The entries in the mix.
+   */
+  private URLMix(List<Entry> entries) {
+    this._entries = Collections.unmodifiableList(entries);
+    this._cumulative = new int[entries.size()];
+    int total = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      total += entries.get(i)._weight;
+      this._cumulative[i] = total;
+    }
+  }
+
+  /**
+   * Parses the specified URL mix file.
+   *
+   * @param file The file to parse.
+   *
+   * @return the corresponding URL mix.
+   *
+   * @throws IOException If the file could not be read.
+   * @throws IllegalArgumentException If the file contains an invalid line or no URL.
+   */
+  static URLMix parse(File file) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        entries.add(parseLine(line, number));
+      }
+    }
+    if (entries.isEmpty()) throw new IllegalArgumentException("No URL found in "+file);
+    return new URLMix(entries);
+  }
+
+  /**
+   * @return the entries in this mix.
+   */
+  List<Entry> entries() {
+    return this._entries;
+  }
+
+  /**
+   * Selects an entry in proportion to its weight.
+   *
+   * @param random The random number generator.
+   *
+   * @return the selected entry.
+   */
+  Entry next(Random random) {
+    int n = random.nextInt(this._cumulative[this._cumulative.length - 1]);
+    int low = 0;
+    int high = this._cumulative.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this._cumulative[mid] > n) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return this._entries.get(low);
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Parses a line of the URL mix file.
+   *
+   * @param line   The line to parse.
+   * @param number The line number.
+   *
+   * @return the corresponding entry.
+   */
+  private static Entry parseLine(String line, int number) {
+    String[] tokens = line.split("\\s+");
+    int i = 0;
+    int weight = 1;
+    HttpMethod method = HttpMethod.GET;
+    if (i < tokens.length - 1 && tokens[i].matches("\\d+")) {
+      weight = Integer.parseInt(tokens[i++]);
+    }
+    if (i < tokens.length - 1) {
+      try {
+        method = HttpMethod.valueOf(tokens[i++]);
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException("Invalid method at line "+number+": "+tokens[i-1]);
+      }
+    }
+    if (i != tokens.length - 1 || weight <= 0)
+      throw new IllegalArgumentException("Invalid URL mix at line "+number+": "+line);
+    String url = tokens[i];
+    if (url.startsWith("/")) {
+      url = BASE + url;
+    }
+    return new Entry(weight, method, url);
+  }
+
+  /**
+   * A URL to request and its statistics.
+   */
+  static final class Entry {
+
+    /**
+     * The weight of this entry.
+     */
+    private final int _weight;
+
+    /**
+     * The HTTP method to use.
+     */
+    private final HttpMethod _method;
+
+    /**
+     * The URL to request.
+     */
+    private final String _url;
+
+    /**
+     * The latency of the requests in microseconds.
+     */
+    private final LogHistogram _latency = new LogHistogram();
+
+    /**
+     * The number of errors.
+     */
+    private final LongAdder _errors = new LongAdder();
+
+    /**
+     * @param weight The weight of this entry.
+     * @param method The HTTP method to use.
+     * @param url    The URL to request.
+     */
+    Entry(int weight, HttpMethod method, String url) {
+      this._weight = weight;
+      this._method = method;
+      this._url = url;
+    }
+
+    /**
+     * Creates a new request for this entry.
+     *
+     * @param random The random number generator used for the <code>{random}</code> token.
+     *
+     * @return a new request.
+     */
+    MockHttpServletRequest newRequest(Random random) {
+      String url = this._url;
+      if (url.contains(RANDOM)) {
+        url = url.replace(RANDOM, Integer.toString(random.nextInt(Integer.MAX_VALUE)));
+      }
+      URI uri = URI.create(url);
+      MockHttpServletRequest req = new MockHttpServletRequest(uri, this._method.name());
+      String query = uri.getRawQuery();
+      if (query != null) {
+        for (String pair : query.split("&")) {
+          int equal = pair.indexOf('=');
+          if (equal > 0) {
+            req.addParameter(decode(pair.substring(0, equal)), decode(pair.substring(equal+1)));
+          } else if (!pair.isEmpty()) {
+            req.addParameter(decode(pair), "");
+          }
+        }
+      }
+      req.setHeader("Host", uri.getHost()+(uri.getPort() != -1? ":"+uri.getPort() : ""));
+      req.setHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+      return req;
+    }
+
+    /**
+     * @return the HTTP method and URL of this entry.
+     */
+    String label() {
+      return this._method.name()+' '+this._url;
+    }
+
+    /**
+     * @return the latency of the requests in microseconds.
+     */
+    LogHistogram latency() {
+      return this._latency;
+    }
+
+    /**
+     * @return the number of errors.
+     */
+    LongAdder errors() {
+      return this._errors;
+    }
+
+    /**
+     * Decodes a URL encoded query string component.
+     *
+     * @param s The string to decode.
+     *
+     * @return the decoded string.
+     */
+    private static String decode(String s) {
+      try {
+        return URLDecoder.decode(s, "utf-8");
+      } catch (UnsupportedEncodingException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+  }
+
+}
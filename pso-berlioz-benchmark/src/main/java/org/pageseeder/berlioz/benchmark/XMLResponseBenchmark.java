@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.content.MatchingService;
+import org.pageseeder.berlioz.servlet.BerliozConfig;
+import org.pageseeder.berlioz.servlet.XMLResponse;
+import org.pageseeder.mock.servlet.MockHttpServletRequest;
+import org.pageseeder.mock.servlet.MockHttpServletResponse;
+
+/**
+ * Measures the time taken to generate the XML of a service invoking several generators.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XMLResponseBenchmark {
+
+  /**
+   * The number of generators invoked by the service.
+   */
+  @Param({"1", "10", "50"})
+  public int generators;
+
+  private BenchmarkWebapp webapp;
+
+  private BerliozConfig config;
+
+  private MatchingService match;
+
+  private URI url;
+
+  @Setup
+  public void setup() throws Exception {
+    this.webapp = BenchmarkWebapp.create(1, this.generators);
+    this.config = this.webapp.newConfig("xml-response");
+    this.match = this.webapp.registry().get("/generate", "GET");
+    this.url = URI.create("http://localhost:8080/generate");
+  }
+
+  @TearDown
+  public void tearDown() {
+    BerliozConfig.unregister(this.config);
+    this.webapp.delete();
+  }
+
+  @Benchmark
+  public String generate() throws IOException {
+    MockHttpServletRequest req = new MockHttpServletRequest(this.url, "GET");
+    MockHttpServletResponse res = new MockHttpServletResponse();
+    XMLResponse response = new XMLResponse(req, res, this.config, this.match, false);
+    return response.generate();
+  }
+
+}
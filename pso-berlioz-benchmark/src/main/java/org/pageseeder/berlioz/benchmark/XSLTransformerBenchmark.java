@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.berlioz.content.MatchingService;
+import org.pageseeder.berlioz.content.Service;
+import org.pageseeder.berlioz.servlet.BerliozConfig;
+import org.pageseeder.berlioz.servlet.XMLResponse;
+import org.pageseeder.berlioz.servlet.XSLTransformResult;
+import org.pageseeder.berlioz.servlet.XSLTransformer;
+import org.pageseeder.mock.servlet.MockHttpServletRequest;
+import org.pageseeder.mock.servlet.MockHttpServletResponse;
+
+/**
+ * Measures the time taken to transform the XML generated by a service using cached templates.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XSLTransformerBenchmark {
+
+  /**
+   * The number of generators contributing to the XML to transform.
+   */
+  @Param({"1", "10", "50"})
+  public int generators;
+
+  private BenchmarkWebapp webapp;
+
+  private BerliozConfig config;
+
+  private Service service;
+
+  private XSLTransformer transformer;
+
+  private String content;
+
+  private MockHttpServletRequest req;
+
+  @Setup
+  public void setup() throws Exception {
+    this.webapp = BenchmarkWebapp.create(1, this.generators);
+    this.config = this.webapp.newConfig("xslt");
+    MatchingService match = this.webapp.registry().get("/generate", "GET");
+    this.req = new MockHttpServletRequest(URI.create("http://localhost:8080/generate"), "GET");
+    XMLResponse response = new XMLResponse(this.req, new MockHttpServletResponse(), this.config, match, false);
+    this.content = response.generate();
+    this.service = match.service();
+    this.transformer = this.config.getTransformer(this.service);
+  }
+
+  @TearDown
+  public void tearDown() {
+    BerliozConfig.unregister(this.config);
+    XSLTransformer.clearAllCache();
+    this.webapp.delete();
+  }
+
+  @Benchmark
+  public XSLTransformResult transform() {
+    return this.transformer.transform(this.content, this.req, this.service);
+  }
+
+}
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
@@ -308,8 +311,15 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
   @Override
   public long getDateHeader(String name) {
-    // TODO Auto-generated method stub
-    return 0;
+    String value = getHeader(name);
+    if (value == null) return -1;
+    SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return dateFormat.parse(value).getTime();
+    } catch (ParseException ex) {
+      throw new IllegalArgumentException("Not a date: "+value);
+    }
   }
 
   @Override
@@ -355,8 +365,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
   @Override
   public String getContextPath() {
-    // TODO Auto-generated method stub
-    return null;
+    return "";
   }
 
   @Override
@@ -400,8 +409,8 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
   @Override
   public String getServletPath() {
-    // TODO Auto-generated method stub
-    return null;
+    // As if mapped to '*.suffix'
+    return this.url.getPath();
   }
 
   @Override
@@ -507,7 +516,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
   public void addParameter(String name, String value) {
     String[] values = this.parameters.get(name);
-    values = Arrays.copyOf(values, values.length+1);
+    values = values != null? Arrays.copyOf(values, values.length+1) : new String[1];
     values[values.length-1] = value;
     this.parameters.put(name, values);
   }
@@ -29,10 +29,17 @@ public class MockServletConfig implements ServletConfig {
 
   private Map<String, String> parameters = new HashMap<>();
 
+  private ServletContext context = null;
+
   public MockServletConfig() {
     this.servletName = "org.example.UnnamedServlet";
   }
 
+  public MockServletConfig(String servletName, ServletContext context) {
+    this.servletName = servletName;
+    this.context = context;
+  }
+
   @Override
   public String getInitParameter(String name) {
     return this.parameters.get(name);
@@ -40,13 +47,12 @@ public class MockServletConfig implements ServletConfig {
 
   @Override
   public Enumeration<String> getInitParameterNames() {
-    return Collections.enumeration(this.parameters.values());
+    return Collections.enumeration(this.parameters.keySet());
   }
 
   @Override
   public ServletContext getServletContext() {
-    // TODO Auto-generated method stub
-    return null;
+    return this.context;
   }
 
   @Override
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2016 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.mock.servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterRegistration;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.SessionCookieConfig;
+import javax.servlet.SessionTrackingMode;
+import javax.servlet.descriptor.JspConfigDescriptor;
+
+/**
+ * A servlet context mocking a Web application deployed in a directory.
+ *
+ * <p>Real paths and resources are resolved against the root directory of the application.
+ */
+public class MockServletContext implements ServletContext {
+
+  private final File root;
+
+  private String contextPath = "";
+
+  private Map<String, String> parameters = new HashMap<>();
+
+  private Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+  public MockServletContext(File root) {
+    this.root = root;
+  }
+
+  public void setContextPath(String contextPath) {
+    this.contextPath = contextPath;
+  }
+
+  @Override
+  public String getContextPath() {
+    return this.contextPath;
+  }
+
+  @Override
+  public ServletContext getContext(String uripath) {
+    return null;
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 3;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getEffectiveMajorVersion() {
+    return 3;
+  }
+
+  @Override
+  public int getEffectiveMinorVersion() {
+    return 1;
+  }
+
+  @Override
+  public String getMimeType(String file) {
+    return null;
+  }
+
+  @Override
+  public Set<String> getResourcePaths(String path) {
+    File dir = new File(this.root, path);
+    String[] names = dir.list();
+    if (names == null) return null;
+    Set<String> paths = new HashSet<>();
+    String prefix = path.endsWith("/")? path : path+'/';
+    for (String name : names) {
+      paths.add(prefix+name+(new File(dir, name).isDirectory()? "/" : ""));
+    }
+    return paths;
+  }
+
+  @Override
+  public URL getResource(String path) throws MalformedURLException {
+    File file = new File(this.root, path);
+    return file.exists()? file.toURI().toURL() : null;
+  }
+
+  @Override
+  public InputStream getResourceAsStream(String path) {
+    try {
+      return new FileInputStream(new File(this.root, path));
+    } catch (FileNotFoundException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public RequestDispatcher getRequestDispatcher(String path) {
+    return null;
+  }
+
+  @Override
+  public RequestDispatcher getNamedDispatcher(String name) {
+    return null;
+  }
+
+  @Override
+  @Deprecated
+  public Servlet getServlet(String name) throws ServletException {
+    return null;
+  }
+
+  @Override
+  @Deprecated
+  public Enumeration<Servlet> getServlets() {
+    return Collections.emptyEnumeration();
+  }
+
+  @Override
+  @Deprecated
+  public Enumeration<String> getServletNames() {
+    return Collections.emptyEnumeration();
+  }
+
+  @Override
+  public void log(String msg) {
+  }
+
+  @Override
+  @Deprecated
+  public void log(Exception exception, String msg) {
+  }
+
+  @Override
+  public void log(String message, Throwable throwable) {
+  }
+
+  @Override
+  public String getRealPath(String path) {
+    return new File(this.root, path).getAbsolutePath();
+  }
+
+  @Override
+  public String getServerInfo() {
+    return "MockServletContext/3.1";
+  }
+
+  @Override
+  public String getInitParameter(String name) {
+    return this.parameters.get(name);
+  }
+
+  @Override
+  public Enumeration<String> getInitParameterNames() {
+    return Collections.enumeration(this.parameters.keySet());
+  }
+
+  @Override
+  public boolean setInitParameter(String name, String value) {
+    if (this.parameters.containsKey(name)) return false;
+    this.parameters.put(name, value);
+    return true;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return this.attributes.get(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return Collections.enumeration(this.attributes.keySet());
+  }
+
+  @Override
+  public void setAttribute(String name, Object object) {
+    if (object == null) {
+      this.attributes.remove(name);
+    } else {
+      this.attributes.put(name, object);
+    }
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    this.attributes.remove(name);
+  }
+
+  @Override
+  public String getServletContextName() {
+    return this.root.getName();
+  }
+
+  @Override
+  public ServletRegistration.Dynamic addServlet(String servletName, String className) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ServletRegistration.Dynamic addServlet(String servletName, Servlet servlet) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ServletRegistration.Dynamic addServlet(String servletName, Class<? extends Servlet> servletClass) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T extends Servlet> T createServlet(Class<T> c) throws ServletException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ServletRegistration getServletRegistration(String servletName) {
+    return null;
+  }
+
+  @Override
+  public Map<String, ? extends ServletRegistration> getServletRegistrations() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public FilterRegistration.Dynamic addFilter(String filterName, String className) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FilterRegistration.Dynamic addFilter(String filterName, Filter filter) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FilterRegistration.Dynamic addFilter(String filterName, Class<? extends Filter> filterClass) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T extends Filter> T createFilter(Class<T> c) throws ServletException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FilterRegistration getFilterRegistration(String filterName) {
+    return null;
+  }
+
+  @Override
+  public Map<String, ? extends FilterRegistration> getFilterRegistrations() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public SessionCookieConfig getSessionCookieConfig() {
+    return null;
+  }
+
+  @Override
+  public void setSessionTrackingModes(Set<SessionTrackingMode> sessionTrackingModes) {
+  }
+
+  @Override
+  public Set<SessionTrackingMode> getDefaultSessionTrackingModes() {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public Set<SessionTrackingMode> getEffectiveSessionTrackingModes() {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public void addListener(String className) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T extends EventListener> void addListener(T t) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addListener(Class<? extends EventListener> listenerClass) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T extends EventListener> T createListener(Class<T> c) throws ServletException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public JspConfigDescriptor getJspConfigDescriptor() {
+    return null;
+  }
+
+  @Override
+  public ClassLoader getClassLoader() {
+    return MockServletContext.class.getClassLoader();
+  }
+
+  @Override
+  public void declareRoles(String... roleNames) {
+  }
+
+  @Override
+  public String getVirtualServerName() {
+    return "localhost";
+  }
+
+}
@@ -22,7 +22,7 @@ package org.pageseeder.berlioz;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.10.3
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.8.4
  */
 public enum BerliozOption {
@@ -143,6 +143,77 @@ public enum BerliozOption {
    */
   HTTP_CACHE_CONTROL("berlioz.http.cache-control", ""),
 
+  /**
+   * A boolean global option to indicate whether Berlioz should keep the rendered responses of
+   * cacheable services in memory.
+   *
+   * <p>Responses are cached using the ETag computed for the response, so that subsequent requests
+   * resolving to the same ETag are sent without invoking the generators or transforming the
+   * content. Only successful GET and HEAD responses are cached.
+   *
+   * <p>The maximum size of the cache in bytes can be specified using the
+   * <code>berlioz.http.response-cache.max-bytes</code> property (32MB by default).
+   *
+   * <h3>Property</h3>
+   * <table summary="HTTP response cache usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.http.response-cache</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="HTTP response cache recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>false</code></td><td><code>true</code></td></tr></tbody>
+   * </table>
+   * <p>This option should only be enabled when the ETags of generators reliably reflect their
+   * content.
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  HTTP_RESPONSE_CACHE("berlioz.http.response-cache", Boolean.FALSE),
+
+  /**
+   * A string global option to specify a seed for the ETags shared by all the servers of a cluster.
+   *
+   * <p>By default, each server generates a random seed for the ETags of the responses and stores
+   * it in the <code>berlioz.etag</code> private file, so that the same response has a different
+   * ETag on each server.
+   *
+   * <p>When this option is specified, the seed is derived from its value, the version of Berlioz
+   * and the content of the configuration files, so that servers deploying the same application
+   * compute the same ETags. A deploy or version identifier is a suitable value.
+   *
+   * <p>When this option is specified, the seed also includes a generation saved in the
+   * <code>berlioz.etag-generation</code> private file. The <code>reset-etags</code> control
+   * parameter changes the generation: <code>reset-etags=true</code> increments it, while
+   * <code>reset-etags=[token]</code> sets it to the token, so sending the same token to every
+   * server resets the ETags to the same values on all servers.
+   *
+   * <h3>Property</h3>
+   * <table summary="HTTP ETag seed usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.http.etag-seed</code></td>
+   *     <td><code>""</code><i>(Empty string)</i></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="HTTP ETag seed recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>""</code><i>(Empty string)</i></td><td><code>[deploy identifier]</code></td></tr></tbody>
+   * </table>
+   * <p>A shared seed is only useful when the application runs on several servers.
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  HTTP_ETAG_SEED("berlioz.http.etag-seed", ""),
+
   /**
    * A boolean global option to indicate whether Berlioz should use its own error handler when
    * an error occurs.
@@ -213,6 +284,76 @@ public enum BerliozOption {
    */
   PROFILE("berlioz.profile", Boolean.FALSE),
 
+  /**
+   * A boolean global option to indicate whether the content generators of a service should be
+   * invoked in parallel.
+   *
+   * <p>When enabled, the generators are invoked concurrently on a bounded executor and their
+   * content is still written in the order they are declared in the service. The status, errors
+   * and profile information are handled as if the generators had been invoked sequentially.
+   *
+   * <p>Services can override this option using the <code>parallel</code> attribute.
+   *
+   * <p>The maximum number of generators invoked concurrently can be specified with the
+   * <code>berlioz.generator.threads</code> property.
+   *
+   * <h3>Property</h3>
+   * <table summary="Parallel generators usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.generator.parallel</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="Parallel generators recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>false</code></td><td><code>false</code></td></tr></tbody>
+   * </table>
+   * <p>Only enable this option globally if all generators are thread-safe and do not depend on
+   * each other; otherwise, enable it for specific services only.</p>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  GENERATOR_PARALLEL("berlioz.generator.parallel", Boolean.FALSE),
+
+  /**
+   * A boolean global option to indicate whether the XML produced by cacheable content generators
+   * should be kept in memory.
+   *
+   * <p>When enabled, the XML of a generator implementing <code>Cacheable</code> is reused for
+   * any service as long as the generator class, its parameters and its ETag are the same; the
+   * generator is not invoked again. Only generators which completed successfully without
+   * changing the status or redirecting are cached.
+   *
+   * <p>The maximum size of the cache in bytes can be specified using the
+   * <code>berlioz.generator.fragment-cache.max-bytes</code> property (16MB by default).
+   *
+   * <h3>Property</h3>
+   * <table summary="Fragment cache usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.generator.fragment-cache</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="Fragment cache recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>false</code></td><td><code>true</code></td></tr></tbody>
+   * </table>
+   * <p>Only enable this option if the ETags of cacheable generators reflect everything their
+   * content depends on other than their parameters, including the user if the content is
+   * personalised.</p>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  GENERATOR_FRAGMENT_CACHE("berlioz.generator.fragment-cache", Boolean.FALSE),
+
   /**
    * A boolean global option to indicate whether to enable the caching of XSLT templates.
    *
@@ -237,6 +378,123 @@ public enum BerliozOption {
    */
   XSLT_CACHE("berlioz.xslt.cache", Boolean.TRUE),
 
+  /**
+   * A boolean global option to indicate whether the XML produced by the generators should be
+   * sent directly to the XSLT processor as SAX events.
+   *
+   * <p>When enabled, Berlioz does not serialise the XML response as a string before parsing it
+   * again for the transformation.
+   *
+   * <h3>Property</h3>
+   * <table summary="XSLT pipeline usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.xslt.pipeline</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="XSLT pipeline recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>false</code></td><td><code>true</code></td></tr></tbody>
+   * </table>
+   * <p>The XML source is not available when transforming the content using a pipeline, so
+   * it is easier to debug XSLT files when this option is disabled.</p>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  XSLT_PIPELINE("berlioz.xslt.pipeline", Boolean.FALSE),
+
+  /**
+   * A boolean global option to indicate whether the XSLT templates used by a Berlioz servlet
+   * should be compiled when the servlet is initialised.
+   *
+   * <p>When enabled, the templates for all the services are compiled in parallel before the
+   * servlet handles any request, so that the first request for each service does not have to
+   * wait for the templates to be compiled. This option has no effect if the XSLT cache is
+   * disabled.
+   *
+   * <p>The maximum number of templates compiled concurrently can be specified with the
+   * <code>berlioz.xslt.precompile.threads</code> property.
+   *
+   * <h3>Property</h3>
+   * <table summary="XSLT precompile usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.xslt.precompile</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="XSLT precompile recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>false</code></td><td><code>true</code></td></tr></tbody>
+   * </table>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  XSLT_PRECOMPILE("berlioz.xslt.precompile", Boolean.FALSE),
+
+  /**
+   * A boolean global option to indicate whether Berlioz should track changes made to the XSLT
+   * stylesheets, services files and bundled files instead of checking them on requests.
+   *
+   * <p>When enabled, only the templates, ETags, bundles and services affected by a change are
+   * invalidated and reloaded on the next request. Changes are detected using a watch service
+   * unless the <code>berlioz.hot-reload.mode</code> property is set to <code>poll</code>.
+   *
+   * <h3>Property</h3>
+   * <table summary="Hot reload usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.hot-reload</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="Hot reload recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>true</code></td><td><code>false</code></td></tr></tbody>
+   * </table>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  HOT_RELOAD("berlioz.hot-reload", Boolean.FALSE),
+
+  /**
+   * A boolean global option to indicate whether Berlioz should report the time spent in each
+   * phase of a request using the <code>Server-Timing</code> response header.
+   *
+   * <p>The percentage of requests which include the header can be specified with the
+   * <code>berlioz.http.server-timing.sample-rate</code> property. The header is always included
+   * when profiling is requested with the <code>berlioz-profile</code> control parameter.
+   *
+   * <h3>Property</h3>
+   * <table summary="Server-Timing usage">
+   *   <tr><th>Name</th><th>Value</th></tr>
+   *   <tr>
+   *     <td><code>berlioz.http.server-timing</code></td>
+   *     <td><code>false</code></td>
+   *   </tr>
+   * </table>
+   *
+   * <h3>Recommended values</h3>
+   * <table summary="Server-Timing recommended value">
+   *   <tr><th>Development</th><th>Production</th></tr>
+   *   <tbody><tr><td><code>true</code></td><td><code>false</code></td></tr></tbody>
+   * </table>
+   *
+   * @since Berlioz 0.11.5
+   */
+  @Beta
+  HTTP_SERVER_TIMING("berlioz.http.server-timing", Boolean.FALSE),
+
   /**
    * Indicates the version of the XML header format  berlioz should use.
    *
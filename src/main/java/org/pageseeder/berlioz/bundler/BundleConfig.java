@@ -21,7 +21,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.pageseeder.berlioz.GlobalSettings;
@@ -36,7 +37,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class BundleConfig implements Serializable {
@@ -89,9 +90,9 @@ public final class BundleConfig implements Serializable {
   private final List<BundleDefinition> _definitions;
 
   /**
-   * The list of bundle instances mapped to service IDs.
+   * The list of bundle instances mapped to service groups and IDs.
    */
-  private final Map<String, List<BundleInstance>> _instances = new WeakHashMap<>();
+  private final ConcurrentMap<String, List<BundleInstance>> _instances = new ConcurrentHashMap<>();
 
   /**
    * The type of bundle config.
@@ -233,10 +234,15 @@ public final class BundleConfig implements Serializable {
    * @return the corresponding configuration.
    */
   public List<BundleInstance> getInstances(Service service) {
-    List<BundleInstance> instances = this._instances.get(service.id());
+    // Instances only depend on the group and ID of the service
+    String key = service.group()+'/'+service.id();
+    List<BundleInstance> instances = this._instances.get(key);
     if (instances == null) {
       instances = instantiate(service);
-      this._instances.put(service.id(), instances);
+      List<BundleInstance> existing = this._instances.putIfAbsent(key, instances);
+      if (existing != null) {
+        instances = existing;
+      }
     }
     return instances;
   }
@@ -51,7 +51,6 @@
  */
 package org.pageseeder.berlioz.bundler;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -61,16 +60,13 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,6 +76,12 @@ import org.slf4j.LoggerFactory;
  *
  * <p>It removes unnecessary whitespace and comments.
  *
+ * <p>The CSS is minimized in a single pass as it is read: only the selector or declaration being
+ * read is buffered, so the memory used does not depend on the size of the style sheet.
+ *
+ * <p>Comments starting with <code>/**</code> are preserved and anything between the
+ * <code>/*!nomin*&#47;</code> and <code>/*!min*&#47;</code> comments is copied as is.
+ *
  * <p>Originally by Barry van Oudtshoorn and released under BSD licence, with bug
  * reports, fixes, and contributions by
  * <ul>
@@ -91,7 +93,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class CSSMin {
@@ -114,6 +116,47 @@ public final class CSSMin {
     return Collections.unmodifiableMap(weights);
   }
 
+  /**
+   * Color names which are longer than their hex code.
+   */
+  private static final Map<String, String> COLOR_NAMES = new HashMap<>();
+
+  /**
+   * Color hex codes which are longer than their name.
+   */
+  private static final Map<String, String> COLOR_VALUES = new HashMap<>();
+  static {
+    for (int i = 0; i < Constants.HTML_COLOR_NAMES.length; i++) {
+      String name = Constants.HTML_COLOR_NAMES[i];
+      String value = Constants.HTML_COLOR_VALUES[i];
+      if (value.length() < name.length()) {
+        COLOR_NAMES.put(name, value);
+      } else if (name.length() < value.length()) {
+        COLOR_VALUES.put(value, name);
+      }
+    }
+  }
+
+  /**
+   * Matches quoted URLs.
+   */
+  private static final Pattern QUOTED_URL = Pattern.compile("(?i)url\\(('|\")?(.*?)\\1\\)");
+
+  /**
+   * The units which can be removed after 0.
+   */
+  private static final String[] ZERO_UNITS = { "px", "em", "in", "cm", "mm", "pc", "pt", "ex" };
+
+  /**
+   * The comment starting a region which must not be minimized.
+   */
+  private static final String NOMIN = "!nomin";
+
+  /**
+   * The comment ending a region which must not be minimized.
+   */
+  private static final char[] END_NOMIN = "/*!min*/".toCharArray();
+
   /** Utility class. */
   private CSSMin() {
   }
@@ -149,651 +192,815 @@ public final class CSSMin {
    * @param min   Where to write the result to
    */
   public static void minimize(Reader input, PrintWriter min) {
-    try {
-      StringBuilder buffer = toBuffer(input);
-      String comment = stripComments(buffer);
-      LOGGER.debug("Parsing and processing selectors.");
-
-      // Reset for selector
-      List<Rule> rules = new ArrayList<>();
-      int line = 0;
-      int n = 0; // Current position in stream
-      int j = 0; // Number of open braces
-      char c;    // Character being read
-      for (int i = 0; i < buffer.length(); i++) {
-        c = buffer.charAt(i);
-        if (j < 0) throw new ParsingException("Unbalanced braces!", -1, -1);
-        if (c == '{') {
-          j++;
-        } else if (c == '}') {
-          j--;
-          if (j == 0) {
-            try {
-              rules.add(new Rule(buffer.substring(n, i + 1)));
-            } catch (ParsingException ex) {
-              LOGGER.warn(ex.getMessage()+" L:"+line);
-            }
-            n = i + 1;
-          }
-        } else if (c == '\n') {
-          line++;
-        }
-      }
-
-      // Let's write it out
-      int countRules = 0;
-      min.println(comment);
-      for (Rule rule : rules) {
-        if (countRules % 10 == 0 || rule._subrules.size() > 0) {
-          min.println();
-        }
-        min.print(rule.toString());
-        countRules++;
-      }
-      min.println();
-      min.close();
-
+    try (PrintWriter out = min) {
+      new Minimizer(input, out).process();
+      out.println();
       LOGGER.debug("Process completed successfully.");
-
-    } catch (Exception ex) {
-      ex.printStackTrace(System.err);
-      LOGGER.error(ex.getMessage());
+    } catch (IOException | ParsingException ex) {
+      LOGGER.error("Unable to minimize CSS: {}", ex.getMessage());
     }
-
   }
 
   /**
-   * Loads the content of the styles as CSS trimming empty lines (to preserve line count)
+   * Minify CSS from a reader to an output stream reporting any error to the caller.
    *
-   * @param input the CSS code to read.
-   * @return the buffer.
+   * <p>The output stream is flushed but not closed.
    *
-   * @throws IOException Should an error occur while reading the file.
-   */
-   private static StringBuilder toBuffer(Reader input) throws IOException {
-     BufferedReader br = new BufferedReader(input);
-     StringBuilder buffer = new StringBuilder();
-     String s;
-     while ((s = br.readLine()) != null) {
-       if (s.trim().length() > 0) {
-         buffer.append(s);
-       }
-       buffer.append('\n');
-     }
-     return buffer;
-   }
-
-   /**
-    * Strips comments from the buffer.
-    *
-    * @param buffer the buffer to strip the comments from.
-    * @return the updated buffer.
-    *
-    * @throws ParsingException Should an error occur while reading the file.
-    */
-  private static String stripComments(StringBuilder buffer) throws ParsingException {
-    int n = 0;
-    int k = 0;
-    boolean keep = false;
-    StringBuilder comments = new StringBuilder();
-    // Find the start of the comment
-    while ((n = buffer.indexOf("/*", n)) != -1) {
-      if (buffer.charAt(n + 2) == '*') { // Retain special comments
-        keep = true;
-      }
-      k = buffer.indexOf("*/", n + 2);
-      if (k == -1) throw new ParsingException("Unterminated comment. Aborting.", -1, -1);
-      int s = 0;
-      for (int i = n; i < k; i++) {
-        if (buffer.charAt(i) == '\n') {
-          s++;
-        }
-      }
-      if (keep) {
-        comments.append(buffer.substring(n, k+2));
-      }
-      buffer.delete(n, k + 2);
-      for (int i = 0; i < s; i++) {
-        buffer.insert(n, '\n');
-      }
-      keep = false;
-    }
-    return cleanComment(comments.toString());
-  }
-
-  /**
-   * Clean the comment by removing unnecessary white space.
+   * @param input Where to read the CSS from
+   * @param out   Where to send the result
    *
-   * @param comment the comment string to clean.
+   * @throws IOException If thrown while reading the CSS or writing the result.
+   * @throws ParsingException If the CSS could not be minimized.
    *
-   * @return the clean comment.
+   * @since Berlioz 0.11.5
    */
-  private static String cleanComment(String comment) {
-    StringBuilder clean = new StringBuilder(comment);
-    int n = 0;
-    while ((n = clean.indexOf("\n * ", n)) != -1) {
-      clean.delete(n, n+3);
-    }
-    while ((n = clean.indexOf("\n", n)) != -1) {
-      clean.delete(n, n+1);
-    }
-    return clean.toString();
+  public static void minimizeTo(Reader input, OutputStream out) throws IOException, ParsingException {
+    Writer min = new OutputStreamWriter(out, Charset.forName("utf8"));
+    new Minimizer(input, min).process();
+    min.write(System.lineSeparator());
+    min.flush();
   }
 
   /**
-   * A CSS rule.
+   * Reads the CSS and writes the minimized CSS as it goes.
    *
-   * For example, "div { border: solid 1px red; color: blue; }"
+   * <p>Whitespace is collapsed and comments are removed as characters are read; each selector
+   * and declaration is accumulated until the character ending it and written immediately.
    */
-  private static class Rule {
+  private static final class Minimizer {
+
+    /** Where to read the CSS from */
+    private final Reader _input;
 
-    /** The selector */
-    private final String _selector;
+    /** Where to write the result to */
+    private final Writer _min;
 
-    /** Properties inside the selector. */
-    private final Property[] _properties;
+    /** The read buffer */
+    private final char[] _buffer = new char[8192];
 
-    /** Properties inside the selector. */
-    private final List<Rule> _subrules;
+    /** The selector, statement or declaration being read */
+    private final StringBuilder _pending = new StringBuilder(256);
+
+    /** The position in the read buffer */
+    private int position = 0;
+
+    /** The number of characters in the read buffer */
+    private int limit = 0;
+
+    /** The current line for error reporting */
+    private int line = 1;
+
+    /** The number of open braces */
+    private int depth = 0;
+
+    /** The number of open parentheses in the pending text */
+    private int parentheses = 0;
+
+    /** Whether the last item written in the block at each depth is a declaration */
+    private boolean[] declared = new boolean[8];
+
+    /** The number of top-level rules written */
+    private int rules = 0;
+
+    /** Whether the last item written at the top level is a statement */
+    private boolean statement = false;
 
     /**
-     * Creates a new Selector using the supplied strings.
-     *
-     * @param rule The entire rule starting with the selector
+     * @param input Where to read the CSS from
+     * @param min   Where to write the result to
+     */
+    Minimizer(Reader input, Writer min) {
+      this._input = input;
+      this._min = min;
+    }
+
+    /**
+     * Minimizes the entire input.
      *
-     * @throws ParsingException If the selector is incomplete and cannot be parsed.
+     * @throws IOException If thrown while reading or writing.
+     * @throws ParsingException If a comment is not terminated.
      */
-    public Rule(String rule) throws ParsingException {
-      String[] parts = rule.split("\\{");
-      if (parts.length < 2) // TODO detect line and column
-        throw new ParsingException("Warning: Incomplete selector: " + rule, -1, -1);
-
-      // Always starts with the selector
-      String selector = parts[0].toString().trim();
-      selector = selector.replaceAll("\\s?(\\+|~|,|=|~=|\\^=|\\$=|\\*=|\\|=|>)\\s?", "$1");
-      this._selector = selector;
-
-      // Let's compute properties and subrules (initialise with defaults)
-      Property[] properties = new Property[]{};
-      List<Rule> subrules = Collections.emptyList();
-
-      // We're dealing with a nested property, eg @-webkit-keyframes or @media
-      if (parts.length > 2) {
-        subrules = new ArrayList<>();
-        parts = rule.split("\\{|\\}");
-        for (int i = 1; i < parts.length; i += 2) {
-          // sub selector
-          parts[i] = parts[i].trim();
-          if (parts[i].length() > 0 && (i+1) < parts.length) {
-            // properties of sub selector
-            parts[i + 1] = parts[i + 1].trim();
-            if (parts[i + 1].length() > 0) {
-              subrules.add(new Rule(parts[i] + "{" + parts[i + 1] + "}"));
+    void process() throws IOException, ParsingException {
+      int c;
+      while ((c = read()) != -1) {
+        switch (c) {
+          case '/':
+            if (peek() == '*') {
+              read();
+              comment();
+            } else {
+              this._pending.append('/');
+            }
+            break;
+          case '"':
+          case '\'':
+            string((char)c);
+            break;
+          case '(':
+            this.parentheses++;
+            this._pending.append('(');
+            break;
+          case ')':
+            if (this.parentheses > 0) {
+              this.parentheses--;
+            }
+            this._pending.append(')');
+            break;
+          case '{':
+            this.parentheses = 0;
+            open();
+            break;
+          case '}':
+            this.parentheses = 0;
+            close();
+            break;
+          case ';':
+            if (this.parentheses > 0) {
+              this._pending.append(';');
+            } else {
+              statement();
+            }
+            break;
+          default:
+            if (c <= ' ') {
+              space();
+            } else {
+              this._pending.append((char)c);
             }
-          }
         }
-      } else {
-        String contents = parts[parts.length - 1].trim();
-        if (contents.charAt(contents.length() - 1) != '}') throw new ParsingException("Unterminated selector: " +rule, -1, -1);
-        // No need to include empty selectors
-        if (contents.length() > 1) {
-          contents = contents.substring(0, contents.length() - 1);
-          properties = parseProperties(contents);
+      }
+      if (this.depth > 0) {
+        LOGGER.warn("Unterminated block at end of CSS L:{}", this.line);
+        while (this.depth > 0) {
+          close();
         }
+      } else if (!isBlank(this._pending)) {
+        LOGGER.warn("Ignoring incomplete rule: {}", this._pending);
       }
-
-      // Updated
-      this._subrules = subrules;
-      this._properties = properties;
     }
 
     /**
-     * Prints out this selector and its contents nicely, with the contents sorted alphabetically.
+     * Starts a block using the pending text as the selector.
      *
-     * @return A string representing this selector, minified.
+     * @throws IOException If thrown while writing.
      */
-    @Override
-    public String toString() {
-      return append(new StringBuilder()).toString();
+    private void open() throws IOException {
+      String selector = selector(this._pending);
+      this._pending.setLength(0);
+      if (this.depth == 0) {
+        // Statements stay on the same line as the rule which follows them
+        if (!this.statement && (this.rules % 10 == 0 || (selector.length() > 0 && selector.charAt(0) == '@'))) {
+          this._min.write('\n');
+        }
+        this.statement = false;
+        this.rules++;
+      } else if (this.declared[this.depth]) {
+        this._min.write(';');
+      }
+      this.declared[this.depth] = false;
+      this._min.write(selector);
+      this._min.write('{');
+      this.depth++;
+      if (this.depth == this.declared.length) {
+        this.declared = Arrays.copyOf(this.declared, this.depth * 2);
+      }
+      this.declared[this.depth] = false;
     }
 
     /**
-     * Prints out this selector and its contents nicely, with the contents sorted alphabetically.
+     * Ends the current block after writing any pending declaration.
      *
-     * @param min The
-     * @return the string bufferer
+     * @throws IOException If thrown while writing.
      */
-    public StringBuilder append(StringBuilder min) {
-      min.append(this._selector).append('{');
-      for (Rule s : this._subrules) {
-        min.append(s.toString());
+    private void close() throws IOException {
+      if (this.depth == 0) {
+        LOGGER.warn("Ignoring unbalanced brace L:{}", this.line);
+        this._pending.setLength(0);
+        return;
       }
-      for (Property p : this._properties) {
-        p.append(min);
+      if (!isBlank(this._pending)) {
+        declare();
       }
-      if (min.charAt(min.length() - 1) == ';') {
-        min.deleteCharAt(min.length() - 1);
-      }
-      min.append('}');
-      return min;
+      this._pending.setLength(0);
+      this._min.write('}');
+      this.depth--;
+      this.declared[this.depth] = false;
     }
 
     /**
-     * Parses out the properties of a selector's body.
+     * Writes the pending text as a declaration or as a top-level statement such as
+     * <code>@import</code> or <code>@charset</code>.
      *
-     * @param contents The body; for example, "border: solid 1px red; color: blue;"
-     * @return An array of properties parsed from this selector.
+     * @throws IOException If thrown while writing.
      */
-    private Property[] parseProperties(String contents) {
-      List<String> parts = new ArrayList<>();
-      boolean inquotes = false;
-      boolean inbrackets = false;
-      int j = 0;
-      String substr;
-      for (int i = 0; i < contents.length(); i++) {
-        if (inquotes) { // If we're inside a string
-          inquotes = contents.charAt(i) != '"';
-        } else if (inbrackets) {
-          inbrackets = contents.charAt(i) != ')';
-        } else if (contents.charAt(i) == '"') {
-          inquotes = true;
-        } else if (contents.charAt(i) == '(') {
-          inbrackets = true;
-        } else if (contents.charAt(i) == ';') {
-          substr = contents.substring(j, i);
-          if (!("".equals(substr.trim()) || (substr == null))) {
-            parts.add(substr);
+    private void statement() throws IOException {
+      if (!isBlank(this._pending)) {
+        if (this.depth > 0) {
+          declare();
+        } else {
+          if (!this.statement && this.rules % 10 == 0) {
+            this._min.write('\n');
           }
-          j = i + 1;
+          this._min.write(selector(this._pending));
+          this._min.write(';');
+          this.statement = true;
         }
       }
-      substr = contents.substring(j, contents.length());
-      if (!("".equals(substr.trim()) || (substr == null))) {
-        parts.add(substr);
-      }
-      Property[] results = new Property[parts.size()];
-
-      for (int i = 0; i < parts.size(); i++) {
-        try {
-          results[i] = new Property(parts.get(i));
-        } catch (Exception e) {
-          System.out.println(e.getMessage());
-          results[i] = null;
-        }
-      }
-
-      return results;
+      this._pending.setLength(0);
     }
 
-  }
-
-  /**
-   * A CSS property.
-   *
-   * <p>For example:
-   * <ul>
-   *   <li><code>"border: solid 1px red;"</code></li>
-   *   <li><code>"-moz-box-shadow: 3px 3px 3px rgba(255, 255, 0, 0.5);"</code></li>
-   * </ul>
-   */
-  private static class Property implements Comparable<Property> {
-
     /**
-     * Name of the property
+     * Writes the pending text as a declaration.
+     *
+     * @throws IOException If thrown while writing.
      */
-    private final String _property;
+    private void declare() throws IOException {
+      String declaration = declaration(this._pending);
+      if (declaration == null) {
+        LOGGER.warn("Incomplete property: {} L:{}", this._pending, this.line);
+      } else {
+        if (this.declared[this.depth]) {
+          this._min.write(';');
+        }
+        this._min.write(declaration);
+        this.declared[this.depth] = true;
+      }
+    }
 
     /**
-     * The various parts of the property.
+     * Collapses whitespace into a single space.
      */
-    private final Part[] _parts;
+    private void space() {
+      int length = this._pending.length();
+      if (length > 0 && this._pending.charAt(length - 1) != ' ') {
+        this._pending.append(' ');
+      }
+    }
 
     /**
-     * Creates a new Property using the supplied strings.
+     * Reads a string including its quotes into the pending text.
      *
-     * Parses out the values of the property selector.
+     * @param quote The quote character which started the string.
      *
-     * @param property The property;
-     * @throws ParsingException If the property is incomplete and cannot be parsed.
+     * @throws IOException If thrown while reading.
      */
-    public Property(String property) throws ParsingException {
-      // Parse the property.
-      List<String> parts = new ArrayList<>();
-      boolean inquotes = false;   // If we're inside a string
-      boolean inbrackets = false; // If we're inside brackets
-      int j = 0;
-      String substr;
-      for (int i = 0; i < property.length(); i++) {
-        if (inquotes) {
-          inquotes = (property.charAt(i) != '"');
-        } else if (inbrackets) {
-          inbrackets = (property.charAt(i) != ')');
-        } else if (property.charAt(i) == '"') {
-          inquotes = true;
-        } else if (property.charAt(i) == '(') {
-          inbrackets = true;
-        } else if (property.charAt(i) == ':') {
-          substr = property.substring(j, i);
-          if (!("".equals(substr.trim()) || (substr == null))) {
-            parts.add(substr);
-          }
-          j = i + 1;
+    private void string(char quote) throws IOException {
+      this._pending.append(quote);
+      int c;
+      while ((c = read()) != -1) {
+        this._pending.append((char)c);
+        if (c == quote) return;
+        if (c == '\\') {
+          c = read();
+          if (c == -1) return;
+          this._pending.append((char)c);
         }
       }
-      substr = property.substring(j, property.length());
-      if (!("".equals(substr.trim()) || (substr == null))) {
-        parts.add(substr);
-      }
-      if (parts.size() < 2) throw new ParsingException("Warning: Incomplete property: "+property, -1, -1);
-      this._property = parts.get(0).trim().toLowerCase();
-      Part[] theparts;
-      try {
-        theparts = parseValues(simplifyColours(parts.get(1).trim().replaceAll(", ", ",")));
-      } catch (PatternSyntaxException ex) {
-        // TODO Invalid regular expression used
-        theparts = parseValues(parts.get(1).trim());
-      }
-      this._parts = theparts;
     }
 
     /**
-     * Prints out this property nicely.
+     * Reads a comment after its opening <code>/*</code>.
      *
-     * @return A string representing this property, minified.
-     */
-    @Override
-    public String toString() {
-      return append(new StringBuilder()).toString();
-    }
-
-    /**
-     * Prints out this property nicely.
-     * @param min the minified string to append to.
-     * @return A string representing this property, minified.
+     * <p>Special comments starting with <code>/**</code> are written if they are found between
+     * rules or declarations, a <code>/*!nomin*&#47;</code> comment starts a region which is
+     * copied as is; other comments are discarded.
+     *
+     * @throws IOException If thrown while reading or writing.
+     * @throws ParsingException If the comment is not terminated.
      */
-    public StringBuilder append(StringBuilder min) {
-      min.append(this._property).append(":");
-      for (Part p : this._parts) {
-        min.append(p.toString()).append(",");
+    private void comment() throws IOException, ParsingException {
+      int first = peek();
+      StringBuilder comment = first == '*' || first == '!' ? new StringBuilder() : null;
+      int previous = 0;
+      int c;
+      while ((c = read()) != -1) {
+        if (c == '/' && previous == '*') {
+          if (comment != null) {
+            comment.setLength(comment.length() - 1);
+            if (first == '*') {
+              special(comment);
+            } else if (NOMIN.contentEquals(comment)) {
+              verbatim();
+            }
+          }
+          return;
+        }
+        if (comment != null && c != '\r') {
+          comment.append((char)c);
+        }
+        previous = c;
       }
-      min.deleteCharAt(min.length() - 1); // Delete the trailing comma.
-      min.append(";");
-      return min;
+      throw new ParsingException("Unterminated comment. Aborting.", this.line, -1);
     }
 
     /**
-     * Compare this property with another.
+     * Writes a special comment removing unnecessary white space if nothing is pending.
      *
-     * <p>We can't just use <code>String.compareTo()</code>, because we need to sort properties that have hack
-     * prefixes last -- eg, *display should come after display.
+     * @param comment The text of the comment without the opening and closing sequences.
      *
-     * {@inheritDoc}
+     * @throws IOException If thrown while writing.
      */
-    @Override
-    public int compareTo(Property other) {
-      String thisProp = this._property;
-      String thatProp = other._property;
-
-      if (thisProp.charAt(0) == '-') {
-        thisProp = thisProp.substring(1);
-        thisProp = thisProp.substring(thisProp.indexOf('-') + 1);
-      } else if (thisProp.charAt(0) < 'a') {
-        thisProp = thisProp.substring(1);
+    private void special(StringBuilder comment) throws IOException {
+      if (!isBlank(this._pending)) return;
+      int n = 0;
+      while ((n = comment.indexOf("\n * ", n)) != -1) {
+        comment.delete(n, n+3);
       }
-
-      if (thatProp.charAt(0) == '-') {
-        thatProp = thatProp.substring(1);
-        thatProp = thatProp.substring(thatProp.indexOf('-') + 1);
-      } else if (thatProp.charAt(0) < 'a') {
-        thatProp = thatProp.substring(1);
+      n = 0;
+      while ((n = comment.indexOf("\n", n)) != -1) {
+        comment.deleteCharAt(n);
+      }
+      this._min.write("/*");
+      this._min.write(comment.toString());
+      this._min.write("*/");
+      if (this.depth == 0) {
+        this._min.write('\n');
+        this.statement = false;
       }
-
-      return thisProp.compareTo(thatProp);
     }
 
     /**
-     * Parse the values out of a property.
+     * Copies the input as is until the comment ending the region which must not be minimized.
      *
-     * @param contents The property to parse
-     * @return An array of Parts
+     * @throws IOException If thrown while reading or writing.
      */
-    private Part[] parseValues(String contents) {
-      // Make sure we do not split data URIs
-      String[] parts = contents.indexOf("data:") < 0? contents.split(",") : new String[]{contents};
-      Part[] results = new Part[parts.length];
-      for (int i = 0; i < parts.length; i++) {
-        try {
-          results[i] = Part.newPart(parts[i], this._property);
-        } catch (Exception ex) {
-          LOGGER.warn(ex.getMessage());
-          results[i] = null;
+    private void verbatim() throws IOException {
+      this.statement = false;
+      int matched = 0;
+      int c;
+      while ((c = read()) != -1) {
+        if (c == END_NOMIN[matched]) {
+          matched++;
+          if (matched == END_NOMIN.length) return;
+        } else {
+          if (matched > 0) {
+            this._min.write(END_NOMIN, 0, matched);
+            matched = c == END_NOMIN[0] ? 1 : 0;
+          }
+          if (matched == 0) {
+            this._min.write(c);
+          }
         }
       }
-      return results;
     }
 
     /**
-     * Convert rgb(51,102,153) to #336699 (this code largely based on YUI code).
+     * @return the next character or -1 at the end of the input.
      *
-     * @param contents The color to replace
-     * @return the simplified color.
+     * @throws IOException If thrown while reading.
      */
-    private static String simplifyColours(String contents) {
-      StringBuffer newContents = new StringBuffer();
-      StringBuffer hexColour;
-      String[] rgbColours;
-      int colourValue;
-
-      Pattern pattern = Pattern.compile("rgb\\s*\\(\\s*([0-9,\\s]+)\\s*\\)");
-      Matcher matcher = pattern.matcher(contents);
-
-      while (matcher.find()) {
-        hexColour = new StringBuffer("#");
-        rgbColours = matcher.group(1).split(",");
-        for (String rgbColour : rgbColours) {
-          colourValue = Integer.parseInt(rgbColour);
-          if (colourValue < 16) {
-            hexColour.append("0");
-          }
-          hexColour.append(Integer.toHexString(colourValue));
-        }
-        matcher.appendReplacement(newContents, hexColour.toString());
+    private int read() throws IOException {
+      if (this.position == this.limit && !fill()) return -1;
+      char c = this._buffer[this.position++];
+      if (c == '\n') {
+        this.line++;
       }
-      matcher.appendTail(newContents);
-
-      return newContents.toString();
+      return c;
     }
-  }
-
-  /**
-   * A property part.
-   */
-  private static class Part {
-
-    /**
-     * The property value.
-     */
-    private final String _value;
 
     /**
-     * Create a new property part by parsing the given string.
+     * @return the next character without consuming it or -1 at the end of the input.
      *
-     * @param value The value for this part.
+     * @throws IOException If thrown while reading.
      */
-    private Part(String value) {
-      this._value = value;
+    private int peek() throws IOException {
+      if (this.position == this.limit && !fill()) return -1;
+      return this._buffer[this.position];
     }
 
     /**
-     * Create a new property part by parsing the given string.
+     * Fills the read buffer.
+     *
+     * @return <code>true</code> if characters were read; <code>false</code> at the end of the input.
      *
-     * @param contents The string to parse.
-     * @param property The name of the property is part belongs to.
+     * @throws IOException If thrown while reading.
      */
-    public static Part newPart(String contents, String property) {
-      // Many of these regular expressions are adapted from those used in the YUI CSS Compressor.
-      // For simpler regexes.
-      return new Part(simplify(property,  " " + contents));
+    private boolean fill() throws IOException {
+      int read = this._input.read(this._buffer, 0, this._buffer.length);
+      this.position = 0;
+      this.limit = Math.max(read, 0);
+      return read > 0;
     }
+  }
 
-    /**
-     * Simplifies the part.
-     */
-    public static final String simplify(String property, String value) {
-      // !important doesn't need to be spaced
-      String result = value.replaceAll(" !important", "!important");
-
-      // Replace 0in, 0cm, etc. with just 0
-      result = result.replaceAll("(\\s)(0)(px|em|%|in|cm|mm|pc|pt|ex)", "$1$2");
-
-      // Now we can trim
-      result = result.trim();
-
-      // Simplify multiple zeroes
-      if (result.equals("0 0 0 0")) {
-        result = "0";
-      } else if (result.equals("0 0 0")) {
-        result = "0";
-      } else if (result.equals("0 0")) {
-        result = "0";
-      }
-
-      // Simplify multiple-parameter properties
-      result = simplifyParameters(result);
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
 
-      // Simplify font weights (only applies to `font-weight`)
-      if (property.equals("font-weight")) {
-        result = simplifyFontWeights(result);
+  /**
+   * Removes the space around combinators and operators in a selector.
+   *
+   * @param text The selector with whitespace already collapsed.
+   *
+   * @return the minimized selector.
+   */
+  private static String selector(CharSequence text) {
+    int length = text.length();
+    StringBuilder selector = new StringBuilder(length);
+    char quote = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == ' ') {
+        int last = selector.length() - 1;
+        if (last < 0 || i == length - 1 || isCombinator(selector.charAt(last)) || startsCombinator(text, i + 1)) {
+          continue;
+        }
       }
+      selector.append(c);
+    }
+    return selector.toString();
+  }
 
-      // Strip unnecessary quotes from url() and single-word parts, and make as much lowercase as possible.
-      result = simplifyQuotesAndCaps(result);
-
-      // Simplify colours
-      result = simplifyColourNames(result);
-      result = simplifyHexColours(result);
+  /**
+   * @param c The character
+   * @return <code>true</code> if the character is a combinator or ends an operator.
+   */
+  private static boolean isCombinator(char c) {
+    return c == '+' || c == '~' || c == ',' || c == '=' || c == '>';
+  }
 
-      // Done!
-      return result;
-    }
+  /**
+   * @param text The selector
+   * @param i    The index
+   * @return <code>true</code> if a combinator or attribute operator starts at the specified index.
+   */
+  private static boolean startsCombinator(CharSequence text, int i) {
+    char c = text.charAt(i);
+    if (isCombinator(c)) return true;
+    return (c == '^' || c == '$' || c == '*' || c == '|') && i + 1 < text.length() && text.charAt(i + 1) == '=';
+  }
 
-    /**
-     * Simplifies multiple-parameter properties.
-     */
-    protected static String simplifyParameters(String value) {
-      String[] params = value.split(" ");
-      if ("\"".equals(params[0]) || "'".equals(params[0])) return value;
-
-      if (params.length == 4) {
-        // We can drop off the fourth item if the second and fourth items match
-        // ie turn 3px 0 3px 0 into 3px 0 3px
-        if (params[1].equalsIgnoreCase(params[3])) {
-          params = Arrays.copyOf(params, 3);
+  /**
+   * Minimizes a declaration.
+   *
+   * <p>For example:
+   * <ul>
+   *   <li><code>"border: solid 1px red"</code></li>
+   *   <li><code>"-moz-box-shadow: 3px 3px 3px rgba(255, 255, 0, 0.5)"</code></li>
+   * </ul>
+   *
+   * @param text The declaration with whitespace already collapsed.
+   *
+   * @return the minimized declaration or <code>null</code> if it is incomplete.
+   */
+  private static String declaration(CharSequence text) {
+    int colon = -1;
+    char quote = 0;
+    int parentheses = 0;
+    for (int i = 0; i < text.length() && colon < 0; i++) {
+      char c = text.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
         }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '(') {
+        parentheses++;
+      } else if (c == ')') {
+        parentheses--;
+      } else if (c == ':' && parentheses <= 0) {
+        colon = i;
       }
-      if (params.length == 3) {
-        // We can drop off the third item if the first and third items match
-        // ie turn 3px 0 3px into 3px 0
-        if (params[0].equalsIgnoreCase(params[2])) {
-          params = Arrays.copyOf(params, 2);
-        }
+    }
+    if (colon < 0) return null;
+    String property = text.subSequence(0, colon).toString().trim().toLowerCase();
+    String value = text.subSequence(colon + 1, text.length()).toString().trim();
+    if (property.isEmpty() || value.isEmpty()) return null;
+    value = simplifyColours(removeSpaceAfterComma(value));
+
+    StringBuilder min = new StringBuilder(property.length() + value.length() + 1);
+    min.append(property).append(':');
+    // Make sure we do not split data URIs
+    if (value.indexOf("data:") >= 0) {
+      min.append(simplify(property, " " + value));
+    } else {
+      // Trailing empty parts are ignored
+      int end = value.length();
+      while (end > 0 && value.charAt(end - 1) == ',') {
+        end--;
       }
-      if (params.length == 2) {
-        // We can drop off the second item if the first and second items match
-        // ie turn 3px 3px into 3px
-        if (params[0].equalsIgnoreCase(params[1])) {
-          params = Arrays.copyOf(params, 1);
+      int from = 0;
+      while (from <= end) {
+        int to = value.indexOf(',', from);
+        if (to < 0 || to > end) {
+          to = end;
+        }
+        if (from > 0) {
+          min.append(',');
         }
+        min.append(simplify(property, " " + value.substring(from, to)));
+        from = to + 1;
       }
+    }
+    return min.toString();
+  }
 
-      StringBuilder min = new StringBuilder();
-      for (String p : params) {
-        if (min.length() > 0) {
-          min.append(' ');
+  /**
+   * Removes the space after each comma.
+   *
+   * @param value The value with whitespace already collapsed.
+   * @return the value without space after commas.
+   */
+  private static String removeSpaceAfterComma(String value) {
+    if (value.indexOf(", ") < 0) return value;
+    StringBuilder b = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      b.append(c);
+      if (c == ',' && i + 1 < value.length() && value.charAt(i + 1) == ' ') {
+        i++;
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * Convert rgb(51,102,153) to #336699 (this code largely based on YUI code).
+   *
+   * @param value The value which may contain RGB colors
+   * @return the value with simplified colors.
+   */
+  private static String simplifyColours(String value) {
+    int rgb = value.indexOf("rgb");
+    if (rgb < 0) return value;
+    StringBuilder result = null;
+    int from = 0;
+    while (rgb >= 0) {
+      int open = rgb + 3;
+      while (open < value.length() && Character.isWhitespace(value.charAt(open))) {
+        open++;
+      }
+      int close = open < value.length() && value.charAt(open) == '(' ? value.indexOf(')', open) : -1;
+      String hex = close > 0 ? toHexColour(value.substring(open + 1, close)) : null;
+      if (hex != null) {
+        if (result == null) {
+          result = new StringBuilder(value.length());
         }
-        min.append(p);
+        result.append(value, from, rgb).append(hex);
+        from = close + 1;
       }
+      rgb = value.indexOf("rgb", Math.max(rgb + 3, from));
+    }
+    if (result == null) return value;
+    return result.append(value, from, value.length()).toString();
+  }
 
-      return min.toString();
+  /**
+   * @param components The RGB components separated by commas, for example "51,102,153".
+   * @return the corresponding hex colour or <code>null</code> if not three values between 0 and 255.
+   */
+  private static String toHexColour(String components) {
+    String[] rgb = components.split(",");
+    if (rgb.length != 3) return null;
+    StringBuilder hex = new StringBuilder(7).append('#');
+    for (String component : rgb) {
+      String c = component.trim();
+      if (c.isEmpty() || c.length() > 3) return null;
+      int value = 0;
+      for (int i = 0; i < c.length(); i++) {
+        char digit = c.charAt(i);
+        if (digit < '0' || digit > '9') return null;
+        value = value * 10 + (digit - '0');
+      }
+      if (value > 255) return null;
+      if (value < 16) {
+        hex.append('0');
+      }
+      hex.append(Integer.toHexString(value));
     }
+    return hex.toString();
+  }
 
-    /**
-     * Simplifies font weights.
-     */
-    protected static String simplifyFontWeights(String value) {
-      String result = FONT_WEIGHTS.get(value.toLowerCase());
-      return result != null? result : value;
+  /**
+   * Simplifies a part of a property value.
+   *
+   * @param property The name of the property the part belongs to.
+   * @param value    The part of the value preceded by a space.
+   *
+   * @return the simplified part.
+   */
+  private static String simplify(String property, String value) {
+    String result = value;
+
+    // !important doesn't need to be spaced
+    int important = result.indexOf(" !important");
+    if (important >= 0) {
+      result = result.substring(0, important) + result.substring(important + 1);
     }
 
-    /**
-     * Simplifies quotes and caps.
-     */
-    protected static String simplifyQuotesAndCaps(String value) {
-      String result = value;
-      // Strip quotes from URLs
-      if ((result.length() > 4) && ("url(".equalsIgnoreCase(result.substring(0, 4)))) {
-        result = result.replaceAll("(?i)url\\(('|\")?(.*?)\\1\\)", "url($2)");
-      } else {
-        String[] words = result.split("\\s");
-        if (words.length == 1) {
-          result = result.toLowerCase().replaceAll("('|\")?(.*?)\1", "$2");
-        }
-      }
-      return result;
+    // Replace 0in, 0cm, etc. with just 0
+    result = removeZeroUnits(result);
+
+    // Now we can trim
+    result = result.trim();
+
+    // Simplify multiple zeroes
+    if (result.equals("0 0 0 0") || result.equals("0 0 0") || result.equals("0 0")) {
+      result = "0";
     }
 
-    /**
-     * Simplifies color names.
-     */
-    protected static String simplifyColourNames(String value) {
-      String lcContents = value.toLowerCase();
-      String result = value;
-
-      for (int i = 0; i < Constants.HTML_COLOR_NAMES.length; i++) {
-        if (lcContents.equals(Constants.HTML_COLOR_NAMES[i])) {
-          if (Constants.HTML_COLOR_VALUES[i].length() < Constants.HTML_COLOR_NAMES[i].length()) {
-            result = Constants.HTML_COLOR_VALUES[i];
-          }
-          break;
-        } else if (lcContents.equals(Constants.HTML_COLOR_VALUES[i])) {
-          if (Constants.HTML_COLOR_NAMES[i].length() < Constants.HTML_COLOR_VALUES[i].length()) {
-            result = Constants.HTML_COLOR_NAMES[i];
+    // Simplify multiple-parameter properties
+    result = simplifyParameters(result);
+
+    // Simplify font weights (only applies to `font-weight`)
+    if (property.equals("font-weight")) {
+      result = simplifyFontWeights(result);
+    }
+
+    // Strip unnecessary quotes from url() and make single-word parts lowercase.
+    result = simplifyQuotesAndCaps(result);
+
+    // Simplify colours
+    result = simplifyColourNames(result);
+    result = simplifyHexColours(result);
+
+    // Done!
+    return result;
+  }
+
+  /**
+   * Removes the unit after a 0 preceded by a space.
+   */
+  private static String removeZeroUnits(String value) {
+    StringBuilder result = null;
+    int from = 0;
+    for (int i = 1; i < value.length() - 1; i++) {
+      if (value.charAt(i) == '0' && value.charAt(i - 1) == ' ') {
+        int unit = unitLength(value, i + 1);
+        if (unit > 0) {
+          if (result == null) {
+            result = new StringBuilder(value.length());
           }
+          result.append(value, from, i + 1);
+          from = i + 1 + unit;
+          i = from - 1;
         }
       }
-      return result;
     }
+    if (result == null) return value;
+    return result.append(value, from, value.length()).toString();
+  }
 
-    /**
-     * Simplifies color names.
-     */
-    protected static String simplifyHexColours(String value) {
-      StringBuffer result = new StringBuffer();
+  /**
+   * @return the length of the unit which can be removed after 0 at the specified index or 0.
+   */
+  private static int unitLength(String value, int i) {
+    if (value.charAt(i) == '%') return 1;
+    for (String unit : ZERO_UNITS) {
+      if (value.startsWith(unit, i)) return 2;
+    }
+    return 0;
+  }
 
-      Pattern pattern = Pattern.compile("#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])");
-      Matcher matcher = pattern.matcher(value);
+  /**
+   * Simplifies multiple-parameter properties.
+   */
+  private static String simplifyParameters(String value) {
+    if (value.indexOf(' ') < 0) return value;
+    String[] params = value.split(" ");
+    if ("\"".equals(params[0]) || "'".equals(params[0])) return value;
+
+    if (params.length == 4) {
+      // We can drop off the fourth item if the second and fourth items match
+      // ie turn 3px 0 3px 0 into 3px 0 3px
+      if (params[1].equalsIgnoreCase(params[3])) {
+        params = Arrays.copyOf(params, 3);
+      }
+    }
+    if (params.length == 3) {
+      // We can drop off the third item if the first and third items match
+      // ie turn 3px 0 3px into 3px 0
+      if (params[0].equalsIgnoreCase(params[2])) {
+        params = Arrays.copyOf(params, 2);
+      }
+    }
+    if (params.length == 2) {
+      // We can drop off the second item if the first and second items match
+      // ie turn 3px 3px into 3px
+      if (params[0].equalsIgnoreCase(params[1])) {
+        params = Arrays.copyOf(params, 1);
+      }
+    }
 
-      while (matcher.find()) {
-        if (matcher.group(1).equalsIgnoreCase(matcher.group(2)) && matcher.group(3).equalsIgnoreCase(matcher.group(4)) && matcher.group(5).equalsIgnoreCase(matcher.group(6))) {
-          matcher.appendReplacement(result, "#" + matcher.group(1).toLowerCase() + matcher.group(3).toLowerCase() + matcher.group(5).toLowerCase());
-        } else {
-          matcher.appendReplacement(result, matcher.group().toLowerCase());
+    StringBuilder min = new StringBuilder(value.length());
+    for (String p : params) {
+      if (min.length() > 0) {
+        min.append(' ');
+      }
+      min.append(p);
+    }
+
+    return min.toString();
+  }
+
+  /**
+   * Simplifies font weights.
+   */
+  private static String simplifyFontWeights(String value) {
+    String result = FONT_WEIGHTS.get(value.toLowerCase());
+    return result != null? result : value;
+  }
+
+  /**
+   * Simplifies quotes and caps.
+   */
+  private static String simplifyQuotesAndCaps(String value) {
+    String result = value;
+    // Strip quotes from URLs
+    if (result.length() > 4 && result.regionMatches(true, 0, "url(", 0, 4)) {
+      if (result.indexOf('"') >= 0 || result.indexOf('\'') >= 0) {
+        result = QUOTED_URL.matcher(result).replaceAll("url($2)");
+      }
+    } else if (!hasWhitespace(result) && !(result.length() > 0 && (result.charAt(0) == '"' || result.charAt(0) == '\''))) {
+      result = result.toLowerCase();
+    }
+    return result;
+  }
+
+  /**
+   * Simplifies color names.
+   */
+  private static String simplifyColourNames(String value) {
+    String lcContents = value.toLowerCase();
+    String result = COLOR_NAMES.get(lcContents);
+    if (result == null) {
+      result = COLOR_VALUES.get(lcContents);
+    }
+    return result != null? result : value;
+  }
+
+  /**
+   * Simplifies six-digit hex colours.
+   */
+  private static String simplifyHexColours(String value) {
+    int hash = value.indexOf('#');
+    if (hash < 0) return value;
+    char[] chars = null;
+    while (hash >= 0) {
+      int end = hash + 7;
+      if (end <= value.length() && isHexColour(value, hash + 1, end)
+          && (end == value.length() || Character.digit(value.charAt(end), 16) < 0)) {
+        if (chars == null) {
+          chars = value.toCharArray();
+        }
+        for (int i = hash + 1; i < end; i++) {
+          chars[i] = Character.toLowerCase(chars[i]);
         }
+        if (chars[hash+1] == chars[hash+2] && chars[hash+3] == chars[hash+4] && chars[hash+5] == chars[hash+6]) {
+          chars[hash+2] = chars[hash+3];
+          chars[hash+3] = chars[hash+5];
+          // Mark the characters to remove
+          chars[hash+4] = 0;
+          chars[hash+5] = 0;
+          chars[hash+6] = 0;
+        }
+      }
+      hash = value.indexOf('#', hash + 1);
+    }
+    if (chars == null) return value;
+    StringBuilder result = new StringBuilder(chars.length);
+    for (char c : chars) {
+      if (c != 0) {
+        result.append(c);
       }
-      matcher.appendTail(result);
+    }
+    return result.toString();
+  }
 
-      return result.toString();
+  /**
+   * @return <code>true</code> if all the characters in the range are hex digits.
+   */
+  private static boolean isHexColour(String value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (Character.digit(value.charAt(i), 16) < 0) return false;
     }
+    return true;
+  }
 
-    /**
-     * Returns itself.
-     * @return this part's string representation.
-     */
-    @Override
-    public String toString() {
-      return this._value;
+  /**
+   * @return <code>true</code> if the value contains a whitespace character.
+   */
+  private static boolean hasWhitespace(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (Character.isWhitespace(value.charAt(i))) return true;
     }
+    return false;
+  }
 
+  /**
+   * @return <code>true</code> if the text contains only whitespace.
+   */
+  private static boolean isBlank(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) > ' ') return false;
+    }
+    return true;
   }
 
   /**
@@ -17,10 +17,10 @@ package org.pageseeder.berlioz.bundler;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.pageseeder.berlioz.BerliozException;
@@ -117,7 +117,7 @@ import org.pageseeder.xmlwriter.XMLWriter;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class GetWebBundles implements ContentGenerator, Cacheable {
@@ -125,12 +125,12 @@ public final class GetWebBundles implements ContentGenerator, Cacheable {
   /**
    * The CSS bundle configuration - static as it is common to all generators.
    */
-  private static final Map<String, BundleConfig> CSS_CONFIGS = new HashMap<>();
+  private static final ConcurrentMap<String, BundleConfig> CSS_CONFIGS = new ConcurrentHashMap<>();
 
   /**
    * The JS bundle configuration - static as it is common to all generators.
    */
-  private static final Map<String, BundleConfig> JS_CONFIGS = new HashMap<>();
+  private static final ConcurrentMap<String, BundleConfig> JS_CONFIGS = new ConcurrentHashMap<>();
 
   /**
    * Indicates whether the bundle can be written..
@@ -240,11 +240,14 @@ public final class GetWebBundles implements ContentGenerator, Cacheable {
    * @return the bundle config for the given type creating a new instance if necessary.
    */
   private BundleConfig getConfig(String name, BundleType type, File root) {
-    Map<String, BundleConfig> configs = type == BundleType.JS? JS_CONFIGS : CSS_CONFIGS;
+    ConcurrentMap<String, BundleConfig> configs = type == BundleType.JS? JS_CONFIGS : CSS_CONFIGS;
     BundleConfig config = configs.get(name);
     if (config == null) {
       config = BundleConfig.newInstance(name, type, root);
-      configs.put(name, config);
+      BundleConfig existing = configs.putIfAbsent(name, config);
+      if (existing != null) {
+        config = existing;
+      }
     }
     return config;
   }
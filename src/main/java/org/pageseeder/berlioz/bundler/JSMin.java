@@ -47,7 +47,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+
+import org.eclipse.jdt.annotation.Nullable;
 
 /**
  * A JavaScript minimiser.
@@ -55,9 +56,12 @@ import java.io.PushbackInputStream;
  * <p>This class is a slightly modified version of the work done by John Reilly who initially
  * adapted Douglas Crockford's C version of his JavaScript minimiser.
  *
+ * <p>The script is read and the minimised version written through byte arrays, the input
+ * stream and output stream are only accessed to fill or flush them.
+ *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class JSMin {
@@ -77,14 +81,38 @@ public final class JSMin {
   private static final int NEXT = 3;
 
   /**
-   * The script to read.
+   * The size of the buffers when reading from or writing to a stream.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The script to read or <code>null</code> if the entire script is in the input buffer.
    */
-  private final PushbackInputStream _in;
+  private final @Nullable InputStream _in;
+
+  /**
+   * The input buffer.
+   */
+  private final byte[] _input;
 
   /**
    * The minimised version.
    */
-  private OutputStream out;
+  private final OutputStream _out;
+
+  /**
+   * The output buffer.
+   */
+  private final byte[] _output = new byte[BUFFER_SIZE];
+
+  /** The position of the next byte to read in the input buffer. */
+  private int position;
+
+  /** The number of bytes in the input buffer. */
+  private int limit;
+
+  /** The number of bytes in the output buffer. */
+  private int written;
 
   /** What to do with byte A. */
   private int theA;
@@ -109,8 +137,26 @@ public final class JSMin {
    * @param out The minimised script.
    */
   public JSMin(InputStream in, OutputStream out) {
-    this._in = new PushbackInputStream(in);
-    this.out = out;
+    this._in = in;
+    this._input = new byte[BUFFER_SIZE];
+    this._out = out;
+    this.line = 0;
+    this.column = 0;
+  }
+
+  /**
+   * Creates a new JavaScript minimiser for the specified script.
+   *
+   * @param script The JavaScript to minimise.
+   * @param out    The minimised script.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public JSMin(byte[] script, OutputStream out) {
+    this._in = null;
+    this._input = script;
+    this.limit = script.length;
+    this._out = out;
     this.line = 0;
     this.column = 0;
   }
@@ -136,7 +182,8 @@ public final class JSMin {
    * @throws IOException should an error occur while reading the input
    */
   int get() throws IOException {
-    int c = this._in.read();
+    if (this.position == this.limit && !fill()) return EOF;
+    int c = this._input[this.position++] & 0xFF;
 
     if (c == '\n') {
       this.line++;
@@ -145,7 +192,7 @@ public final class JSMin {
       this.column++;
     }
 
-    if (c >= ' ' || c == '\n' || c == EOF) return c;
+    if (c >= ' ' || c == '\n') return c;
 
     if (c == '\r') {
       this.column = 0;
@@ -162,9 +209,8 @@ public final class JSMin {
    * @throws IOException should an error occur while reading the input
    */
   int peek() throws IOException {
-    int lookaheadChar = this._in.read();
-    this._in.unread(lookaheadChar);
-    return lookaheadChar;
+    if (this.position == this.limit && !fill()) return EOF;
+    return this._input[this.position] & 0xFF;
   }
 
   /**
@@ -234,21 +280,21 @@ public final class JSMin {
   private void process(int action) throws IOException, UnterminatedRegExpLiteralException, UnterminatedCommentException, UnterminatedStringLiteralException {
     switch (action) {
       case WRITE:
-        this.out.write(this.theA);
+        write(this.theA);
 
       // fall through
       case COPY:
         this.theA = this.theB;
         if (this.theA == '\'' || this.theA == '"') {
           for (;;) {
-            this.out.write(this.theA);
+            write(this.theA);
             this.theA = get();
             if (this.theA == this.theB) {
               break;
             }
             if (this.theA <= '\n') throw new UnterminatedStringLiteralException(this.line, this.column);
             if (this.theA == '\\') {
-              this.out.write(this.theA);
+              write(this.theA);
               this.theA = get();
             }
           }
@@ -261,17 +307,17 @@ public final class JSMin {
             && (this.theA == '(' || this.theA == ',' || this.theA == '=' || this.theA == ':' || this.theA == '[' || this.theA == '!' || this.theA == '&'
                 || this.theA == '|' || this.theA == '?' || this.theA == '{' || this.theA == '}' || this.theA == ';' || this.theA == '\n')) {
 
-          this.out.write(this.theA);
-          this.out.write(this.theB);
+          write(this.theA);
+          write(this.theB);
           for (;;) {
             this.theA = get();
             if (this.theA == '/') {
               break;
             } else if (this.theA == '\\') {
-              this.out.write(this.theA);
+              write(this.theA);
               this.theA = get();
             } else if (this.theA <= '\n') throw new UnterminatedRegExpLiteralException(this.line, this.column);
-            this.out.write(this.theA);
+            write(this.theA);
           }
           this.theB = next();
         }
@@ -361,7 +407,49 @@ public final class JSMin {
           }
       }
     }
-    this.out.flush();
+    flush();
+  }
+
+  /**
+   * Fills the input buffer from the input stream.
+   *
+   * @return <code>true</code> if bytes were read; <code>false</code> at the end of the script.
+   *
+   * @throws IOException should an error occur while reading the input
+   */
+  private boolean fill() throws IOException {
+    InputStream in = this._in;
+    if (in == null) return false;
+    int read = in.read(this._input, 0, this._input.length);
+    this.position = 0;
+    this.limit = Math.max(read, 0);
+    return read > 0;
+  }
+
+  /**
+   * Writes a byte to the output buffer.
+   *
+   * @param c The byte to write.
+   *
+   * @throws IOException should an error occur while writing the output
+   */
+  private void write(int c) throws IOException {
+    if (this.written == this._output.length) {
+      this._out.write(this._output, 0, this.written);
+      this.written = 0;
+    }
+    this._output[this.written++] = (byte)c;
+  }
+
+  /**
+   * Writes the output buffer to the output stream and flushes it.
+   *
+   * @throws IOException should an error occur while writing the output
+   */
+  private void flush() throws IOException {
+    this._out.write(this._output, 0, this.written);
+    this.written = 0;
+    this._out.flush();
   }
 
   // Predefined Exceptions
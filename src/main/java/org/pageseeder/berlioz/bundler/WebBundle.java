@@ -16,24 +16,59 @@
 package org.pageseeder.berlioz.bundler;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.util.FileChangeTracker;
 import org.pageseeder.berlioz.util.ISO8601;
 import org.pageseeder.berlioz.util.MD5;
 
 /**
  * A bundle of files to serve.
  *
+ * <p>By default, the name of a bundle is derived from the modification date, path and length of
+ * its files. When the {@value #CONTENT_HASH_PROPERTY} property is enabled, it is derived only
+ * from the content of the files, including imported CSS and images inlined as data URIs, and
+ * the version of the bundler, so that the same files produce the same bundle name on any server.
+ * The hash of each file is kept until the file is modified so that only the files which have
+ * changed are read again.
+ *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.9.32
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class WebBundle {
 
+  /**
+   * The name of the property to derive bundle names from the content of the files (disabled by default).
+   */
+  public static final String CONTENT_HASH_PROPERTY = "berlioz.bundler.content-hash";
+
+  /**
+   * The number of hex characters of the content hash used in bundle names.
+   */
+  private static final int CONTENT_HASH_LENGTH = 12;
+
+  /**
+   * The version of the bundle format included in content hashes.
+   *
+   * <p>Increment when the bundler or minimizers change the content produced from the same files.
+   */
+  private static final int CONTENT_HASH_FORMAT = 1;
+
+  /**
+   * The hash of the content of each file included in a bundle.
+   */
+  private static final ConcurrentMap<File, ContentHash> CONTENT_HASHES = new ConcurrentHashMap<>();
+
   /**
    * The name of the bundle.
    */
@@ -50,9 +85,12 @@ public final class WebBundle {
   private final List<File> _files;
 
   /**
-   * The name of the bundle.
+   * The files imported by the bundle and images inlined as data URIs.
+   *
+   * <p>This list is refilled while the bundle is built and read by other threads checking whether
+   * the bundle is fresh.
    */
-  private final List<File> _imported;
+  private final CopyOnWriteArrayList<File> _imported;
 
   /**
    * Whether the bundle is minimized.
@@ -64,6 +102,41 @@ public final class WebBundle {
    */
   private volatile @Nullable String _etag;
 
+  /**
+   * The filename computed from the current etag.
+   */
+  private volatile @Nullable String filename;
+
+  /**
+   * The tracker notifying changes to the files (<code>null</code> if changes are not tracked).
+   */
+  private @Nullable FileChangeTracker tracker;
+
+  /**
+   * Whether any of the files has changed since the etag was calculated.
+   */
+  private volatile boolean changed = false;
+
+  /**
+   * The last file built for this bundle (<code>null</code> until built).
+   */
+  private volatile @Nullable File built;
+
+  /**
+   * Ensures that the bundle is built by a single thread at a time.
+   */
+  private final ReentrantLock _lock = new ReentrantLock();
+
+  /**
+   * Notified when any of the files changes.
+   */
+  private final FileChangeTracker.Listener _listener = new FileChangeTracker.Listener() {
+    @Override
+    public void changed(File file) {
+      WebBundle.this.changed = true;
+    }
+  };
+
   /**
    * Creates a new bundles of files.
    *
@@ -75,7 +148,7 @@ public final class WebBundle {
     this._name = name;
     this._files = Collections.unmodifiableList(files);
     this._id = id(files);
-    this._imported = new ArrayList<>();
+    this._imported = new CopyOnWriteArrayList<>();
     this._minimized = minimized;
   }
 
@@ -107,7 +180,7 @@ public final class WebBundle {
   }
 
   /**
-   * Clears the list of imported files.
+   * Clears the list of imported files and inlined images.
    */
   public void clearImport() {
     this._imported.clear();
@@ -115,10 +188,36 @@ public final class WebBundle {
 
   /**
    * Adds a file to consider as an import.
+   *
+   * <p>Images inlined as data URIs are also considered as imports since the content of the bundle
+   * depends on them.
+   *
    * @param f the file to import.
    */
   public void addImport(File f) {
-    this._imported.add(f);
+    if (!this._imported.addIfAbsent(f)) return;
+    FileChangeTracker tracker = this.tracker;
+    if (tracker != null) {
+      tracker.watch(f, this._listener);
+    }
+  }
+
+  /**
+   * Tracks the changes made to the files of this bundle so that its freshness can be determined
+   * without checking the files.
+   *
+   * @param tracker The file change tracker.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public void track(FileChangeTracker tracker) {
+    this.tracker = tracker;
+    for (File f : this._files) {
+      tracker.watch(f, this._listener);
+    }
+    for (File f : this._imported) {
+      tracker.watch(f, this._listener);
+    }
   }
 
   /**
@@ -132,8 +231,10 @@ public final class WebBundle {
   public String getETag(boolean refresh) {
     String etag = this._etag;
     if (etag == null || refresh) {
+      this.changed = false;
       etag = calculateEtag(this._files, this._imported);
       this._etag = etag;
+      this.filename = null;
     }
     return etag;
   }
@@ -141,10 +242,13 @@ public final class WebBundle {
   /**
    * Calculates whether the bundles is still fresh by comparing the etag.
    *
+   * <p>If the changes to the files are tracked, the files are not checked.
+   *
    * @return <code>true</code> if still fresh;
    *         <code>false</code> otherwise.
    */
   public boolean isFresh() {
+    if (this.tracker != null) return !this.changed;
     String etag = calculateEtag(this._files, this._imported);
     return etag.equals(this._etag);
   }
@@ -159,15 +263,17 @@ public final class WebBundle {
   }
 
   /**
+   * Indicates whether the styles can be safely minimized.
+   *
+   * <p>Imported minimized style sheets do not prevent the bundle from being minimized as they
+   * are enclosed in a region which the minimizer copies as is.
+   *
    * @return <code>true</code> if it can be safely minimized; <code>false</code> otherwise.
    */
   public boolean isCSSMinimizable() {
     for (File f : this._files) {
       if (f.getName().endsWith(".min.css")) return false;
     }
-    for (File f : this._imported) {
-      if (f.getName().endsWith(".min.css")) return false;
-    }
     return true;
   }
 
@@ -176,15 +282,60 @@ public final class WebBundle {
    *
    * <p>The filename is: <code>[name]-[isodate]-[etag-suffix].[extension]</code>.
    * <p>Or <code>[name]-[isodate]-[etag-suffix].min.[extension]</code> if minimized.
+   * <p>When bundle names are derived from the content, the filename is
+   * <code>[name]-[content-hash].[extension]</code> or <code>[name]-[content-hash].min.[extension]</code>.
    *
    * @return the filename of this bundle.
    */
   public String getFileName() {
+    String name = this.filename;
+    if (name == null || this.changed) {
+      name = toFileName();
+      this.filename = name;
+    }
+    return name;
+  }
+
+  /**
+   * Returns the last file built for this bundle.
+   *
+   * <p>This file may be served while the bundle is being rebuilt.
+   *
+   * @return the last file built for this bundle or <code>null</code> if not built yet.
+   */
+  @Nullable File built() {
+    return this.built;
+  }
+
+  /**
+   * Sets the last file built for this bundle.
+   *
+   * @param file the file which was built.
+   */
+  void built(File file) {
+    this.built = file;
+  }
+
+  /**
+   * @return the lock to acquire to build this bundle.
+   */
+  ReentrantLock lock() {
+    return this._lock;
+  }
+
+  /**
+   * @return the filename of this bundle computed from the files.
+   */
+  private String toFileName() {
     StringBuilder filename = new StringBuilder(this._name);
-    filename.append('-');
-    filename.append(ISO8601.CALENDAR_DATE.format(getMostRecent(this._files)));
     String etag = getETag(false);
-    filename.append('-').append(etag.substring(etag.length()-4));
+    if (isContentHash()) {
+      filename.append('-').append(etag, 0, CONTENT_HASH_LENGTH);
+    } else {
+      filename.append('-');
+      filename.append(ISO8601.CALENDAR_DATE.format(getMostRecent(this._files)));
+      filename.append('-').append(etag.substring(etag.length()-4));
+    }
     String ext = getExtension(this._files.get(0));
     if (this._minimized) {
       filename.append(".min");
@@ -216,11 +367,12 @@ public final class WebBundle {
    * and last modified date.
    *
    * @param files    the list of files.
-   * @param imported the list of imported files (CSS only).
+   * @param imported the list of imported files and inlined images (CSS only).
    *
    * @return an MD5 value.
    */
   private static String calculateEtag(List<File> files, List<File> imported) {
+    if (isContentHash()) return calculateContentHash(files, imported);
     StringBuilder key = new StringBuilder();
     for (File f : files) {
       appendKey(f, key);
@@ -232,6 +384,60 @@ public final class WebBundle {
     return MD5.hash(key.toString());
   }
 
+  /**
+   * Calculate the hash of the content of the specified lists of files in order.
+   *
+   * <p>The hash of each file is reused while its length and last modified date are unchanged.
+   * The versions of Berlioz and of the bundle format are included so that bundles produced
+   * differently from the same files have a different name.
+   *
+   * @param files    the list of files.
+   * @param imported the list of imported files and inlined images (CSS only).
+   *
+   * @return an MD5 value.
+   */
+  private static String calculateContentHash(List<File> files, List<File> imported) {
+    StringBuilder key = new StringBuilder((files.size() + imported.size()) * 33 + 32);
+    key.append(GlobalSettings.getVersion()).append('/').append(CONTENT_HASH_FORMAT).append('|');
+    for (File f : files) {
+      key.append(getContentHash(f)).append('|');
+    }
+    for (File f : imported) {
+      key.append(getContentHash(f)).append('|');
+    }
+    return MD5.hash(key.toString());
+  }
+
+  /**
+   * Returns the hash of the content of the specified file.
+   *
+   * @param file The file.
+   *
+   * @return the MD5 of its content or an empty string if the file cannot be read.
+   */
+  private static String getContentHash(File file) {
+    long length = file.length();
+    long modified = file.lastModified();
+    ContentHash hash = CONTENT_HASHES.get(file);
+    if (hash == null || hash._length != length || hash._modified != modified) {
+      try {
+        hash = new ContentHash(length, modified, MD5.hash(file));
+        CONTENT_HASHES.put(file, hash);
+      } catch (IOException ex) {
+        CONTENT_HASHES.remove(file);
+        return "";
+      }
+    }
+    return hash._hash;
+  }
+
+  /**
+   * @return <code>true</code> if bundle names are derived from the content of the files.
+   */
+  private static boolean isContentHash() {
+    return GlobalSettings.get(CONTENT_HASH_PROPERTY, false);
+  }
+
   /**
    * Returns the extension of the specified file including the dot.
    *
@@ -269,4 +475,30 @@ public final class WebBundle {
     }
     return mostRecent;
   }
+
+  /**
+   * The hash of the content of a file when it had the specified length and modification date.
+   */
+  private static final class ContentHash {
+
+    /** The length of the file */
+    private final long _length;
+
+    /** When the file was last modified */
+    private final long _modified;
+
+    /** The MD5 of the content of the file */
+    private final String _hash;
+
+    /**
+     * @param length   The length of the file
+     * @param modified When the file was last modified
+     * @param hash     The MD5 of the content of the file
+     */
+    ContentHash(long length, long modified, String hash) {
+      this._length = length;
+      this._modified = modified;
+      this._hash = hash;
+    }
+  }
 }
@@ -17,37 +17,69 @@ package org.pageseeder.berlioz.bundler;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.GlobalSettings;
 import org.pageseeder.berlioz.util.Base64;
+import org.pageseeder.berlioz.util.FileChangeTracker;
+import org.pageseeder.berlioz.util.FlightEvents;
+import org.pageseeder.berlioz.util.LogHistogram;
+import org.pageseeder.berlioz.util.MD5;
+import org.pageseeder.berlioz.util.MetricsRegistry;
+import org.pageseeder.berlioz.util.MetricsRegistry.Family;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class is used to bundles resources together as one in order to minimise the number of resources to request.
  *
+ * <p>Each bundle is built by a single thread at a time: while a bundle is being rebuilt, other
+ * threads requiring it are given the previous version if there is one, or wait for the build
+ * to complete. Bundles are written to a temporary file which is then renamed so that a partially
+ * written bundle is never served.
+ *
+ * <p>Unless disabled, a gzip version of each bundle is written next to it with the same name
+ * followed by <code>.gz</code> so that it can be served without being compressed again.
+ *
+ * <p>The scripts of a bundle are minimized concurrently and the minimized version of each script
+ * is kept until its content changes so that only modified scripts are minimized again.
+ *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public final class WebBundleTool {
@@ -57,6 +89,12 @@ public final class WebBundleTool {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(WebBundleTool.class);
 
+  /**
+   * The time taken to build bundles by type.
+   */
+  private static final Family<LogHistogram> BUILDS = MetricsRegistry.getInstance()
+      .histogram("berlioz_bundle_build_duration_seconds", "Time taken to build bundles.", "type");
+
   /**
    * Matches URL references in CSS.
    */
@@ -65,13 +103,38 @@ public final class WebBundleTool {
   /**
    * Stores bundles instances to check for freshness.
    */
-  private static Map<String, WebBundle> instances = new Hashtable<>();
+  private static final ConcurrentMap<String, WebBundle> INSTANCES = new ConcurrentHashMap<>();
 
   /**
    * The maximum size for turning the content of an image into a data URI.
    */
   private static final long DATA_URI_MAX_SIZE = 4096L;
 
+  /**
+   * The name of the property to specify the maximum number of scripts minimized concurrently.
+   */
+  static final String THREADS_PROPERTY = "berlioz.bundler.threads";
+
+  /**
+   * The name of the property to enable or disable the gzip version of bundles (enabled by default).
+   */
+  public static final String GZIP_PROPERTY = "berlioz.bundler.gzip";
+
+  /**
+   * The extension of the gzip version of bundles.
+   */
+  public static final String GZIP_EXTENSION = ".gz";
+
+  /**
+   * The minimized scripts by file to minimize only the scripts which have changed.
+   */
+  private static final ConcurrentMap<File, MinimizedScript> MINIMIZED = new ConcurrentHashMap<>();
+
+  /**
+   * The executor minimizing scripts, created when first required.
+   */
+  private static volatile @Nullable ExecutorService executor;
+
   // class attributes
   // ----------------------------------------------------------------------------------------------
 
@@ -146,8 +209,11 @@ public final class WebBundleTool {
    */
   public @Nullable File getBundle(List<File> files, String prefix, boolean minimize) {
     if (files.isEmpty()) return null;
-    String filename = new WebBundle(prefix, files, minimize).getFileName();
-    return new File(this._bundles, filename);
+    WebBundle bundle = getWebBundle(prefix+(minimize? ".min:" : ":")+WebBundle.id(files), prefix, files, minimize);
+    if (!bundle.isFresh()) {
+      bundle.getETag(true);
+    }
+    return new File(this._bundles, bundle.getFileName());
   }
 
   /**
@@ -205,14 +271,53 @@ public final class WebBundleTool {
   public @Nullable File bundleScripts(List<File> files, String name, boolean minimize) throws IOException {
     if (files.isEmpty()) return null;
     // Generate the hash value based on the filename, length and last modified date
-    File bundle = getBundle(files, name, minimize);
-    // concatenate the content if the file does not already exist
-    if (bundle != null && !bundle.exists()) {
-      LOGGER.debug("Generating bundle:{} with {} files", bundle.getName(), files.size());
-      concatenate(files, bundle, minimize);
-      bundle.deleteOnExit();
+    WebBundle bundle = getWebBundle(name+(minimize? ".min:" : ":")+WebBundle.id(files), name, files, minimize);
+    if (!bundle.isFresh()) {
+      bundle.getETag(true);
     }
-    return bundle;
+    File file = new File(this._bundles, bundle.getFileName());
+    if (file.exists()) {
+      // The bundle may have been built before gzip versions were written or by another server
+      if (!isCompressed(file)) {
+        compress(file);
+      }
+      bundle.built(file);
+      return file;
+    }
+
+    // Only one thread builds the bundle
+    ReentrantLock lock = bundle.lock();
+    if (!lock.tryLock()) {
+      File previous = bundle.built();
+      if (previous != null && previous.exists()) return previous;
+      lock.lock();
+    }
+    try {
+      // concatenate the content if the file does not already exist
+      file = new File(this._bundles, bundle.getFileName());
+      if (!file.exists()) {
+        LOGGER.debug("Generating bundle:{} with {} files", file.getName(), files.size());
+        long start = System.nanoTime();
+        FlightEvents.Event event = FlightEvents.BUNDLE.begin();
+        File temp = newTempFile(file);
+        try {
+          concatenate(files, temp, minimize);
+          moveTo(temp, file);
+        } finally {
+          temp.delete();
+        }
+        file.deleteOnExit();
+        compress(file);
+        BUILDS.labels("js").record((System.nanoTime() - start) / 1000);
+        if (event != null) {
+          event.set(0, file.getName()).set(1, "js").set(2, files.size()).set(3, minimize).commit();
+        }
+      }
+      bundle.built(file);
+    } finally {
+      lock.unlock();
+    }
+    return file;
   }
 
   /**
@@ -229,42 +334,57 @@ public final class WebBundleTool {
    */
   public @Nullable File bundleStyles(List<File> files, String name, boolean minimize) throws IOException {
     if (files.isEmpty()) return null;
-    String key = WebBundle.id(files);
-    WebBundle bundle = instances.get(key);
-
-    boolean stale = false;
-    // Bundle has never been processed or it isn't fresh
-    if (bundle == null) {
-      bundle = new WebBundle(name, files, minimize);
-      stale = true;
-    // Create and process the new bundle
-    } else if (!bundle.isFresh()) {
-      stale = true;
+    WebBundle bundle = getWebBundle(WebBundle.id(files), name, files, minimize);
+    File file = bundle.built();
+    if (file != null && file.exists() && bundle.isFresh()) return file;
+
+    // Only one thread builds the bundle
+    ReentrantLock lock = bundle.lock();
+    if (!lock.tryLock()) {
+      if (file != null && file.exists()) return file;
+      lock.lock();
     }
-    String filename = bundle.getFileName();
-    File file = new File(this._bundles, filename);
-
-    // concatenate the content if the file does not already exist
-    if (stale || !file.exists()) {
-      LOGGER.debug("Generating bundle:{} with {} files", filename, files.size());
-
-      // Write to the file
+    try {
+      // Bundle has never been processed, it isn't fresh or was deleted
+      file = bundle.built();
+      if (file != null && file.exists() && bundle.isFresh()) return file;
+      LOGGER.debug("Generating bundle:{} with {} files", bundle.getFileName(), files.size());
+      long start = System.nanoTime();
+      FlightEvents.Event event = FlightEvents.BUNDLE.begin();
+
+      // Expand the imports
       bundle.clearImport();
       StringWriter writer = new StringWriter();
-      expandStyles(bundle, writer, new File(this.virtual, file.getName()), minimize, this._dataURIThreshold);
+      expandStyles(bundle, writer, new File(this.virtual, bundle.getFileName()), minimize, this._dataURIThreshold);
       bundle.getETag(true);
-      filename = bundle.getFileName();
-      instances.put(key, bundle);
+      String filename = bundle.getFileName();
 
       // Write to the file
-      StringReader reader = new StringReader(writer.toString());
+      String css = writer.toString();
       file = new File(this._bundles, filename);
-      if (minimize && bundle.isCSSMinimizable()) {
-        CSSMin.minimize(reader, new FileOutputStream(file));
-      } else {
-        copyTo(reader, new FileOutputStream(file));
+      File temp = newTempFile(file);
+      try {
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+          if (minimize && bundle.isCSSMinimizable()) {
+            minimizeTo(css, out, filename);
+          } else {
+            copyTo(new StringReader(css), out);
+          }
+        }
+        // Only replace the bundle once the file is complete
+        moveTo(temp, file);
+      } finally {
+        temp.delete();
       }
       file.deleteOnExit();
+      compress(file);
+      bundle.built(file);
+      BUILDS.labels("css").record((System.nanoTime() - start) / 1000);
+      if (event != null) {
+        event.set(0, filename).set(1, "css").set(2, files.size()).set(3, minimize).commit();
+      }
+    } finally {
+      lock.unlock();
     }
     return file;
   }
@@ -272,6 +392,99 @@ public final class WebBundleTool {
   // Private helpers
   // ----------------------------------------------------------------------------------------------
 
+  /**
+   * Returns the bundle instance for the specified key creating it if necessary.
+   *
+   * @param key      The key for the bundle instance.
+   * @param name     The name of the bundle.
+   * @param files    The list of files to bundle together.
+   * @param minimize Whether to minimise the files.
+   *
+   * @return the bundle instance shared by all threads.
+   */
+  private static WebBundle getWebBundle(String key, String name, List<File> files, boolean minimize) {
+    WebBundle bundle = INSTANCES.get(key);
+    if (bundle == null) {
+      WebBundle created = new WebBundle(name, files, minimize);
+      bundle = INSTANCES.putIfAbsent(key, created);
+      if (bundle == null) {
+        bundle = created;
+        FileChangeTracker tracker = FileChangeTracker.getInstance();
+        if (tracker != null) {
+          bundle.track(tracker);
+        }
+      }
+    }
+    return bundle;
+  }
+
+  /**
+   * Creates a temporary file in the same directory as the specified bundle file.
+   *
+   * @param file The bundle file.
+   *
+   * @return the temporary file to write the bundle to.
+   *
+   * @throws IOException If the file could not be created.
+   */
+  private static File newTempFile(File file) throws IOException {
+    return File.createTempFile(file.getName()+'.', ".tmp", file.getParentFile());
+  }
+
+  /**
+   * Moves the temporary file to the bundle file replacing it atomically when supported.
+   *
+   * @param temp The temporary file.
+   * @param file The bundle file.
+   *
+   * @throws IOException If the file could not be moved.
+   */
+  private static void moveTo(File temp, File file) throws IOException {
+    try {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Indicates whether the gzip version of the specified bundle is up to date.
+   *
+   * @param file The bundle.
+   *
+   * @return <code>true</code> if compression is disabled or the gzip version is not older than the bundle;
+   *         <code>false</code> otherwise.
+   */
+  private static boolean isCompressed(File file) {
+    if (!GlobalSettings.get(GZIP_PROPERTY, true)) return true;
+    File gzip = new File(file.getParentFile(), file.getName()+GZIP_EXTENSION);
+    return gzip.isFile() && gzip.lastModified() >= file.lastModified();
+  }
+
+  /**
+   * Writes the gzip version of the specified bundle unless disabled, any error is logged and ignored.
+   *
+   * @param file The bundle to compress.
+   */
+  private static void compress(File file) {
+    if (!GlobalSettings.get(GZIP_PROPERTY, true)) return;
+    File gzip = new File(file.getParentFile(), file.getName()+GZIP_EXTENSION);
+    try {
+      File temp = newTempFile(gzip);
+      try {
+        try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 8192)) {
+          Files.copy(file.toPath(), out);
+        }
+        moveTo(temp, gzip);
+      } finally {
+        temp.delete();
+      }
+      gzip.deleteOnExit();
+    } catch (IOException ex) {
+      LOGGER.warn("Unable to compress bundle {}: {}", file.getName(), ex.getMessage());
+    }
+  }
+
   /**
    * Concatenate the contents of each file in the bundle.
    *
@@ -283,18 +496,132 @@ public final class WebBundleTool {
    * @throws IOException if an input/output error occurs.
    */
   protected static void concatenate(List<File> files, File bundle, boolean minimize) throws IOException {
-    // Copy the input stream to the output stream
+    byte[][] scripts = minimize? minimizeAll(files) : new byte[files.size()][];
+    // Copy the input stream to the output stream in the declared order
     try (FileOutputStream out = new FileOutputStream(bundle)) {
-      for (File f : files) {
-        if (minimize && !f.getName().endsWith(".min.js")) {
-          minimizeAndCopyTo(f, out);
+      for (int i = 0; i < scripts.length; i++) {
+        byte[] script = scripts[i];
+        if (script != null) {
+          out.write(script);
         } else {
-          copyTo(f, out);
+          copyTo(files.get(i), out);
         }
       }
     }
   }
 
+  /**
+   * Minimizes the scripts which are not already minimized concurrently.
+   *
+   * @param files The list of files to minimize.
+   *
+   * @return the minimized scripts at the same index as their file or <code>null</code> for the
+   *         files which are already minimized.
+   *
+   * @throws IOException if an input/output error occurs.
+   */
+  private static byte[][] minimizeAll(List<File> files) throws IOException {
+    byte[][] scripts = new byte[files.size()][];
+    List<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      if (!files.get(i).getName().endsWith(".min.js")) {
+        indexes.add(Integer.valueOf(i));
+      }
+    }
+    if (indexes.size() == 1) {
+      int i = indexes.get(0).intValue();
+      scripts[i] = minimize(files.get(i));
+    } else if (indexes.size() > 1) {
+      ExecutorService executor = getExecutor();
+      List<Future<byte[]>> futures = new ArrayList<>(indexes.size());
+      try {
+        for (Integer i : indexes) {
+          final File file = files.get(i.intValue());
+          futures.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+              return minimize(file);
+            }
+          }));
+        }
+        for (int j = 0; j < futures.size(); j++) {
+          scripts[indexes.get(j).intValue()] = futures.get(j).get();
+        }
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) throw (IOException)cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        throw new IOException(cause);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while minimizing scripts");
+      } finally {
+        // Do not keep minimizing if one of the scripts failed
+        for (Future<byte[]> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * Returns the executor shared by all bundles to minimize scripts, creating it if necessary.
+   *
+   * <p>The number of threads is bounded by the {@value #THREADS_PROPERTY} property (the number
+   * of processors by default) and idle threads are stopped after a minute.
+   *
+   * @return the executor to minimize scripts.
+   */
+  private static ExecutorService getExecutor() {
+    ExecutorService executor = WebBundleTool.executor;
+    if (executor == null) {
+      synchronized (WebBundleTool.class) {
+        executor = WebBundleTool.executor;
+        if (executor == null) {
+          int threads = Math.max(GlobalSettings.get(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()), 1);
+          ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(), new BundlerThreadFactory());
+          pool.allowCoreThreadTimeOut(true);
+          WebBundleTool.executor = executor = pool;
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Returns the minimized version of the specified script followed by a new line.
+   *
+   * <p>The previous minimized version is returned if the content of the script has not changed;
+   * if the script cannot be minimized, its content is returned as is.
+   *
+   * @param file The script to minimize.
+   *
+   * @return the minimized script.
+   *
+   * @throws IOException if an input/output error occurs.
+   */
+  private static byte[] minimize(File file) throws IOException {
+    byte[] script = Files.readAllBytes(file.toPath());
+    String hash = MD5.hash(script);
+    MinimizedScript minimized = MINIMIZED.get(file);
+    if (minimized != null && minimized._hash.equals(hash)) return minimized._script;
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(script.length / 2 + 1);
+    try {
+      JSMin minimizer = new JSMin(script, buffer);
+      minimizer.jsmin();
+      buffer.write('\n');
+    } catch (ParsingException ex) {
+      LOGGER.warn("Unable to minimize {}: {}", file.getName(),  ex.getMessage());
+      buffer.reset();
+      copyTo(file, buffer);
+    }
+    minimized = new MinimizedScript(hash, buffer.toByteArray());
+    MINIMIZED.put(file, minimized);
+    return minimized._script;
+  }
+
   /**
    * Concatenate the contents of each file in the bundle.
    *
@@ -319,34 +646,6 @@ public final class WebBundleTool {
     if (exception != null) throw exception;
   }
 
-  /**
-   * Copy the contents of the specified input stream to the specified output stream, and ensure that both streams are
-   * closed before returning (even in the face of an exception).
-   *
-   * @param file The file to read.
-   * @param out  Where the output goes to.
-   *
-   * @throws IOException if an input/output error occurs
-   */
-  private static void minimizeAndCopyTo(File file, OutputStream out) throws IOException {
-    FileInputStream input = new FileInputStream(file);
-    try {
-      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-      JSMin minimizer = new JSMin(input, buffer);
-      minimizer.jsmin();
-      byte[] min = buffer.toByteArray();
-      out.write(min);
-      out.write('\n');
-      out.flush();
-    } catch (ParsingException ex) {
-      LOGGER.warn("Unable to minimize {}: {}", file.getName(),  ex.getMessage());
-      closeQuietly(input);
-      copyTo(file, out);
-    } finally {
-      closeQuietly(input);
-    }
-  }
-
   /**
    * Copy the contents of the specified file to the specified output stream, and ensure that both streams are
    * closed before returning (even in the face of an exception).
@@ -370,6 +669,26 @@ public final class WebBundleTool {
     }
   }
 
+  /**
+   * Minimizes the specified CSS to the output or copies it if it cannot be minimized.
+   *
+   * @param css      The CSS to minimize.
+   * @param out      The output of the bundle.
+   * @param filename The name of the bundle for reporting.
+   *
+   * @throws IOException If thrown while writing the output.
+   */
+  private static void minimizeTo(String css, OutputStream out, String filename) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(css.length());
+    try {
+      CSSMin.minimizeTo(new StringReader(css), buffer);
+      buffer.writeTo(out);
+    } catch (ParsingException ex) {
+      LOGGER.warn("Unable to minimize {}: {}", filename, ex.getMessage());
+      copyTo(new StringReader(css), out);
+    }
+  }
+
   /**
    * Copy the contents of the specified file to the specified output stream, and ensure that both streams are
    * closed before returning (even in the face of an exception).
@@ -469,7 +788,12 @@ public final class WebBundleTool {
                 query = url.substring(q);
                 url = url.substring(0, q);
               }
-              m.appendReplacement(sb, "url("+getLocation(file, virtual, url, threshold)+query+")");
+              String location = getLocation(file, virtual, url, threshold);
+              if (location.startsWith("data:") && isRelative(url)) {
+                // The bundle depends on the content of inlined images
+                bundle.addImport(new File(file.getParentFile(), url));
+              }
+              m.appendReplacement(sb, "url("+location+query+")");
             }
             m.appendTail(sb);
             out.write(sb.toString());
@@ -580,20 +904,6 @@ public final class WebBundleTool {
           || url.startsWith("<"));
   }
 
-  /**
-   * Call the <code>close()</code> method the specified argument if not <code>null</code> without
-   * attracting attention.
-   *
-   * @param closeable The object to close.
-   */
-  private static void closeQuietly(@Nullable Closeable closeable) {
-    if (closeable == null) return;
-    try {
-      closeable.close();
-    } catch (IOException ex) {
-    }
-  }
-
   /**
    * Returns a new buffered reader on a file using a UTF-8 decoder.
    *
@@ -606,4 +916,43 @@ public final class WebBundleTool {
   private static BufferedReader newBufferedReader(File f) throws FileNotFoundException {
     return new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
   }
+
+  /**
+   * The minimized version of a script and the hash of its content.
+   */
+  private static final class MinimizedScript {
+
+    /** The MD5 hash of the content of the script */
+    private final String _hash;
+
+    /** The minimized script */
+    private final byte[] _script;
+
+    /**
+     * @param hash   The MD5 hash of the content of the script
+     * @param script The minimized script
+     */
+    MinimizedScript(String hash, byte[] script) {
+      this._hash = hash;
+      this._script = script;
+    }
+  }
+
+  /**
+   * Names the threads minimizing scripts.
+   */
+  private static final class BundlerThreadFactory implements ThreadFactory {
+
+    /**
+     * To number the threads.
+     */
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "berlioz-bundler-"+this._count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
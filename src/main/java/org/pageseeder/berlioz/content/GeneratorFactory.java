@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.content;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and shares the content generator instances used by services.
+ *
+ * <p>Content generators are stateless: the parameters, name and target of a generator are
+ * defined by the service, so the same instance can be shared by all the services using the
+ * same class. A service which uses the same class more than once needs a distinct instance
+ * for each occurrence since it maps its configuration by instance, so instances are keyed by
+ * class name and occurrence within the service.
+ *
+ * <p>Instances are created the first time they are declared and kept when the services are
+ * reloaded. Generators implementing {@link Initializable} are initialised once when they are
+ * created and destroyed by {@link #destroy()}.
+ *
+ * <p>This class is thread-safe: an instance is created and initialised by a single thread while
+ * other threads requiring the same instance wait.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class GeneratorFactory {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(GeneratorFactory.class);
+
+  /**
+   * The generator instances by class name and occurrence.
+   */
+  private static final ConcurrentMap<String, Instance> INSTANCES = new ConcurrentHashMap<>();
+
+  /**
+   * Utility class.
+   */
+  private GeneratorFactory() {
+  }
+
+  /**
+   * Returns the shared instance of the specified generator class.
+   *
+   * @param className  The class name of the generator.
+   * @param occurrence The number of generators of the same class already used by the service.
+   *
+   * @return the generator instance.
+   *
+   * @throws ClassNotFoundException If the class could not be found.
+   * @throws InstantiationException If the class could not be instantiated.
+   * @throws IllegalAccessException If the class or its constructor is not accessible.
+   * @throws ClassCastException If the class is not a content generator.
+   */
+  static ContentGenerator get(String className, int occurrence)
+      throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+    String key = occurrence > 0? className+'#'+occurrence : className;
+    Instance instance = INSTANCES.get(key);
+    if (instance == null) {
+      Instance created = new Instance(className);
+      instance = INSTANCES.putIfAbsent(key, created);
+      if (instance == null) {
+        instance = created;
+      }
+    }
+    return instance.get();
+  }
+
+  /**
+   * @return the number of generator instances.
+   */
+  static int size() {
+    return INSTANCES.size();
+  }
+
+  /**
+   * Destroys all the generators which were initialised and removes all instances.
+   */
+  static void destroy() {
+    for (Instance instance : INSTANCES.values()) {
+      instance.destroy();
+    }
+    INSTANCES.clear();
+  }
+
+  /**
+   * Holds a generator instance created on demand.
+   */
+  private static final class Instance {
+
+    /**
+     * The class name of the generator.
+     */
+    private final String _className;
+
+    /**
+     * The generator once created.
+     */
+    private volatile @Nullable ContentGenerator generator;
+
+    /**
+     * @param className The class name of the generator.
+     */
+    Instance(String className) {
+      this._className = className;
+    }
+
+    /**
+     * Returns the generator creating and initialising it if required.
+     *
+     * @return the generator.
+     *
+     * @throws ClassNotFoundException If the class could not be found.
+     * @throws InstantiationException If the class could not be instantiated.
+     * @throws IllegalAccessException If the class or its constructor is not accessible.
+     */
+    ContentGenerator get() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+      ContentGenerator g = this.generator;
+      if (g == null) {
+        synchronized (this) {
+          g = this.generator;
+          if (g == null) {
+            g = (ContentGenerator)Class.forName(this._className).newInstance();
+            if (g instanceof Initializable) {
+              LOGGER.debug("Initialising generator {}", this._className);
+              ((Initializable)g).init();
+            }
+            this.generator = g;
+          }
+        }
+      }
+      return g;
+    }
+
+    /**
+     * Destroys the generator if it was created and is initializable.
+     */
+    synchronized void destroy() {
+      ContentGenerator g = this.generator;
+      if (g instanceof Initializable) {
+        try {
+          ((Initializable)g).destroy();
+        } catch (RuntimeException ex) {
+          LOGGER.warn("Unable to destroy generator {}", this._className, ex);
+        }
+      }
+      this.generator = null;
+    }
+  }
+
+}
@@ -26,7 +26,9 @@ import java.util.Objects;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozOption;
 import org.pageseeder.berlioz.Beta;
+import org.pageseeder.berlioz.GlobalSettings;
 import org.pageseeder.berlioz.content.ServiceStatusRule.SelectType;
 import org.pageseeder.berlioz.http.HttpMethod;
 import org.pageseeder.xmlwriter.XMLWriter;
@@ -39,7 +41,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.7
  */
 public final class Service {
@@ -69,6 +71,11 @@ public final class Service {
    */
   private final String _flags;
 
+  /**
+   * Whether the generators can be invoked in parallel (<code>null</code> to use the global option).
+   */
+  private final @Nullable Boolean _parallel;
+
   /**
    * How the status code this service is calculated.
    */
@@ -105,6 +112,7 @@ public final class Service {
     this._rule = Objects.requireNonNull(builder.rule, "There must be a rule for this service");
     this._cache = builder.cache;
     this._flags = builder.flags;
+    this._parallel = builder.parallel;
     this._generators = immutableList(builder._generators);
     this._parameters = immutableMap(builder._parameters);
     this._cacheable = isCacheable(this._generators);
@@ -148,6 +156,31 @@ public final class Service {
     return this._flags;
   }
 
+  /**
+   * Indicates whether the generators of this service can be invoked in parallel.
+   *
+   * <p>If the service does not specify it, this method returns the value of the global option
+   * {@link BerliozOption#GENERATOR_PARALLEL}.
+   *
+   * @return <code>true</code> if the generators can be invoked in parallel;
+   *         <code>false</code> otherwise.
+   */
+  @Beta
+  public boolean isParallel() {
+    Boolean parallel = this._parallel;
+    return parallel != null? parallel.booleanValue() : GlobalSettings.has(BerliozOption.GENERATOR_PARALLEL);
+  }
+
+  /**
+   * Returns whether the generators of this service can be invoked in parallel as specified by
+   * the service.
+   *
+   * @return whether the generators can be invoked in parallel or <code>null</code> to use the global option.
+   */
+  @Nullable Boolean parallel() {
+    return this._parallel;
+  }
+
   /**
    * Returns the status rule for this service.
    *
@@ -267,6 +300,9 @@ public final class Service {
     if (this._flags.length() > 0) {
       xml.attribute("flags", this._flags);
     }
+    if (this._parallel != null) {
+      xml.attribute("parallel", this._parallel.toString());
+    }
 
     // Caching information
     xml.attribute("cacheable", Boolean.toString(this._cacheable));
@@ -360,6 +396,11 @@ public final class Service {
      */
     private String flags = "";
 
+    /**
+     * Whether the generators can be invoked in parallel.
+     */
+    private @Nullable Boolean parallel;
+
     /**
      * Maps targets to a given generator instance.
      */
@@ -451,6 +492,17 @@ public final class Service {
       return this;
     }
 
+    /**
+     * Sets whether the generators of the service to build can be invoked in parallel.
+     *
+     * @param parallel "true" or "false" (<code>null</code> to use the global option).
+     * @return this builder for easy chaining.
+     */
+    public Builder parallel(@Nullable String parallel) {
+      this.parallel = parallel != null? Boolean.valueOf(parallel) : null;
+      return this;
+    }
+
     /**
      * Sets the status rule of the service to build.
      *
@@ -520,6 +572,22 @@ public final class Service {
       return this;
     }
 
+    /**
+     * Returns the number of content generators of the specified class added to this service.
+     *
+     * @param className the class name of the content generator.
+     * @return the number of content generators of that class.
+     */
+    public int count(String className) {
+      int count = 0;
+      for (ContentGenerator g : this._generators) {
+        if (g.getClass().getName().equals(className)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
     /**
      * Builds the service from the attributes in this builder.
      *
@@ -543,6 +611,7 @@ public final class Service {
       this.id = null;
       this.cache = "";
       this.flags = "";
+      this.parallel = null;
       this._generators.clear();
       this._parameters.clear();
       this._names.clear();
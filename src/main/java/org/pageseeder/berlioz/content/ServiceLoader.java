@@ -19,9 +19,20 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.parsers.SAXParser;
 
@@ -51,9 +62,24 @@ import org.xml.sax.helpers.DefaultHandler;
 /**
  * A utility class to provide access to the content of generators.
  *
+ * <p>The main services file and each module (<code>services!*.xml</code>) are parsed
+ * concurrently, then registered in a deterministic order. Modules are kept in memory so that
+ * only the files which have changed are parsed again when the services are reloaded.
+ *
+ * <p>The number of files parsed concurrently is bounded by the <code>berlioz.services.threads</code>
+ * property (by default the number of processors).
+ *
+ * <p>Content generators are shared by all the services using the same class and are kept when
+ * the services are reloaded (see {@link #destroy()}).
+ *
+ * <p>Once loaded, the services are saved in a binary snapshot in the application data folder.
+ * When the services are first loaded, they are read from the snapshot instead of being parsed
+ * if none of the services files have changed; set the <code>berlioz.services.snapshot</code>
+ * property to <code>false</code> to disable the snapshot.
+ *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.4
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.6
  */
 public final class ServiceLoader {
@@ -63,6 +89,21 @@ public final class ServiceLoader {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(ServiceLoader.class);
 
+  /**
+   * The name of the property to specify the maximum number of services files parsed concurrently.
+   */
+  static final String THREADS_PROPERTY = "berlioz.services.threads";
+
+  /**
+   * The name of the property to enable or disable the snapshot of the services (enabled by default).
+   */
+  static final String SNAPSHOT_PROPERTY = "berlioz.services.snapshot";
+
+  /**
+   * The name of the snapshot file in the application data folder.
+   */
+  static final String SNAPSHOT_FILE = "services.snapshot";
+
   /**
    * The singleton instance.
    */
@@ -70,8 +111,20 @@ public final class ServiceLoader {
 
   /**
    * Maps content generators URL patterns to their content generator instance.
+   *
+   * <p>This is a sealed snapshot replaced as a whole when the services are reloaded.
+   */
+  private volatile ServiceRegistry services = sealed(new ServiceRegistry());
+
+  /**
+   * Ensures that services are loaded by a single thread at a time.
+   */
+  private final ReentrantLock _lock = new ReentrantLock();
+
+  /**
+   * The services loaded from each file, only accessed while holding the lock.
    */
-  private final ServiceRegistry services = new ServiceRegistry();
+  private final Map<File, ServiceModule> _modules = new HashMap<>();
 
   /**
    * The file filter to
@@ -85,9 +138,19 @@ public final class ServiceLoader {
   };
 
   /**
-   * Indicates whether the boolean value was loaded.
+   * Incremented each time the services are cleared.
+   */
+  private final AtomicInteger _generation = new AtomicInteger();
+
+  /**
+   * The generation of the services which were loaded (-1 if not loaded).
+   */
+  private volatile int loaded = -1;
+
+  /**
+   * Indicates whether services were loaded successfully at least once.
    */
-  private volatile boolean loaded = false;
+  private volatile boolean available = false;
 
   /**
    * Singleton constructor.
@@ -105,6 +168,9 @@ public final class ServiceLoader {
   /**
    * Returns the default service registry (mapped to "services.xml").
    *
+   * <p>The registry returned is a snapshot of the services which is not modified when the
+   * services are reloaded.
+   *
    * @return the default service registry (mapped to "services.xml").
    */
   public ServiceRegistry getDefaultRegistry() {
@@ -112,28 +178,86 @@ public final class ServiceLoader {
   }
 
   /**
-   * Update the patterns based on the current generators.
+   * Loads the services if they have not been loaded or were cleared.
+   *
+   * <p>Once services are available, this method does not block: while a thread reloads the
+   * services, other threads keep using the current ones.
+   *
+   * <p>If the services cannot be reloaded, the current services remain in use and the exception
+   * is thrown to the caller which requested the reload only.
    *
    * @throws BerliozException Should something unexpected happen.
    *
    * @since Berlioz 0.8.2
    */
-  public synchronized void loadIfRequired() throws BerliozException {
-    if (!this.loaded) {
-      load();
-      this.loaded = true;
+  public void loadIfRequired() throws BerliozException {
+    if (this.loaded == this._generation.get()) return;
+    if (this.available) {
+      if (!this._lock.tryLock()) return;
+    } else {
+      this._lock.lock();
+    }
+    try {
+      // Only mark the generation read before loading, services cleared while loading are reloaded again
+      int generation = this._generation.get();
+      if (this.loaded != generation) {
+        try {
+          load();
+          this.loaded = generation;
+        } catch (BerliozException | RuntimeException ex) {
+          // Keep using the previous services if they could not be reloaded
+          if (this.available) {
+            this.loaded = generation;
+          }
+          throw ex;
+        }
+      }
+    } finally {
+      this._lock.unlock();
     }
   }
 
   /**
    * Loads the content access file from all services files.
    *
+   * <p>The services are loaded into a new registry which replaces the current registry only if
+   * all services files were loaded successfully.
+   *
+   * <p>Only the files which were modified since they were last loaded are parsed.
+   *
    * @throws BerliozException Should something unexpected happen.
    */
-  public synchronized void load() throws BerliozException {
-    List<File> files = listServiceFiles();
-    for (File f : files) {
-      load(f);
+  public void load() throws BerliozException {
+    this._lock.lock();
+    try {
+      long start = System.nanoTime();
+      List<File> files = listServiceFiles();
+      File snapshot = getSnapshotFile();
+      List<ServiceModule> modules = null;
+      if (snapshot != null && this._modules.isEmpty()) {
+        modules = ServiceSnapshot.read(snapshot, files);
+      }
+      if (modules != null) {
+        for (ServiceModule module : modules) {
+          this._modules.put(module.file(), module);
+        }
+        LOGGER.debug("Read {} services file(s) from snapshot", files.size());
+      } else {
+        List<ServiceModule> previous = new ArrayList<>(this._modules.values());
+        modules = loadModules(files);
+        if (snapshot != null && (previous.size() != modules.size() || !previous.containsAll(modules))) {
+          saveSnapshot(snapshot, modules);
+        }
+      }
+      ServiceRegistry registry = new ServiceRegistry();
+      for (ServiceModule module : modules) {
+        module.registerInto(registry);
+      }
+      registry.touch();
+      publish(registry);
+      LOGGER.info("Loaded services from {} file(s) in {} ms", files.size(), (System.nanoTime() - start) / 1000000);
+    } finally {
+      this._lock.unlock();
     }
   }
 
@@ -144,8 +268,8 @@ public final class ServiceLoader {
    * <p>This list includes the main file <code>services.xml</code> as well as
    * any file starting with <code>services!</code> and ending in <code>.xml</code>.
    *
-   * <p>If it exists, the main file is always returned first. There is no
-   * guaranteed ordering for the other services files.
+   * <p>If it exists, the main file is always returned first, followed by the other
+   * services files sorted by name.
    *
    * @return the list of services files.
    */
@@ -162,6 +286,7 @@ public final class ServiceLoader {
       if (xml.exists()) {
         files.add(xml);
       }
+      Arrays.sort(subs);
       for (File sub : subs) {
         files.add(sub);
       }
@@ -179,15 +304,184 @@ public final class ServiceLoader {
     return files;
   }
 
+  /**
+   * Indicates whether the specified file is a services file.
+   *
+   * <p>Services files are named <code>services.xml</code> or start with <code>services!</code>
+   * and end in <code>.xml</code>.
+   *
+   * @param file The file to check
+   *
+   * @return <code>true</code> if the file is a services file; <code>false</code> otherwise.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static boolean isServiceFile(File file) {
+    String name = file.getName();
+    return "services.xml".equals(name) || FILE_FILTER.accept(file.getParentFile(), name);
+  }
+
   /**
    * Loads the content access file.
    *
+   * <p>The services in the file are added to a copy of the current registry which then replaces
+   * the current registry.
+   *
    * @param xml    The XML file to load.
    *
    * @throws BerliozException Should something unexpected happen.
    */
-  public synchronized void load(File xml) throws BerliozException {
+  public void load(File xml) throws BerliozException {
     Objects.requireNonNull(xml, "The service configuration file is null! That's it I give up.");
+    this._lock.lock();
+    try {
+      ServiceRegistry registry = new ServiceRegistry(this.services);
+      parse(xml).registerInto(registry);
+      registry.touch();
+      publish(registry);
+    } finally {
+      this._lock.unlock();
+    }
+  }
+
+  /**
+   * Marks the services so that they are reloaded next time they are required.
+   *
+   * <p>The current services remain available until they are replaced.
+   */
+  public void clear() {
+    LOGGER.info("Clearing content manager");
+    this._generation.incrementAndGet();
+  }
+
+  /**
+   * Destroys the content generators used by the services.
+   *
+   * <p>Generators implementing {@link Initializable} are destroyed, so this method should only
+   * be invoked when the application stops.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public void destroy() {
+    LOGGER.info("Destroying {} content generator(s)", GeneratorFactory.size());
+    GeneratorFactory.destroy();
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Returns the modules for the specified files parsing only the files which have changed.
+   *
+   * <p>When several files must be parsed, they are parsed concurrently. If any file cannot be
+   * parsed, the error for the first file in the list is thrown once all files are parsed.
+   *
+   * @param files The services files in order.
+   *
+   * @return The modules in the same order as the files.
+   *
+   * @throws BerliozException If any of the files could not be parsed.
+   */
+  private List<ServiceModule> loadModules(List<File> files) throws BerliozException {
+    ServiceModule[] modules = new ServiceModule[files.size()];
+    List<Integer> changed = new ArrayList<>();
+    for (int i = 0; i < modules.length; i++) {
+      ServiceModule module = this._modules.get(files.get(i));
+      if (module != null && !module.isModified()) {
+        modules[i] = module;
+      } else {
+        changed.add(Integer.valueOf(i));
+      }
+    }
+    this._modules.keySet().retainAll(files);
+
+    // Parse the files which have changed
+    BerliozException error = null;
+    if (changed.size() == 1) {
+      int i = changed.get(0).intValue();
+      modules[i] = parse(files.get(i));
+    } else if (changed.size() > 1) {
+      int threads = Math.min(changed.size(), GlobalSettings.get(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1), new LoaderThreadFactory());
+      try {
+        List<Future<ServiceModule>> futures = new ArrayList<>(changed.size());
+        for (Integer i : changed) {
+          final File file = files.get(i.intValue());
+          futures.add(executor.submit(new Callable<ServiceModule>() {
+            @Override
+            public ServiceModule call() throws BerliozException {
+              return parse(file);
+            }
+          }));
+        }
+        for (int j = 0; j < futures.size(); j++) {
+          try {
+            modules[changed.get(j).intValue()] = futures.get(j).get();
+          } catch (ExecutionException ex) {
+            if (error == null) {
+              error = toBerliozException(ex.getCause());
+            }
+          }
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new BerliozException("Interrupted while loading services", ex);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    // Keep the modules which were parsed successfully
+    for (ServiceModule module : modules) {
+      if (module != null) {
+        this._modules.put(module.file(), module);
+      }
+    }
+    if (error != null) throw error;
+    LOGGER.debug("Parsed {} of {} services file(s)", changed.size(), files.size());
+    return Arrays.asList(modules);
+  }
+
+  /**
+   * Returns the file to use for the snapshot of the services.
+   *
+   * @return the snapshot file or <code>null</code> if the snapshot is disabled.
+   */
+  private static @Nullable File getSnapshotFile() {
+    if (!GlobalSettings.get(SNAPSHOT_PROPERTY, true)) return null;
+    File folder = GlobalSettings.getAppData();
+    if (folder == null) {
+      folder = GlobalSettings.getWebInf();
+    }
+    return folder != null? new File(folder, SNAPSHOT_FILE) : null;
+  }
+
+  /**
+   * Saves a snapshot of the specified modules, any error is logged and ignored.
+   *
+   * @param snapshot The snapshot file.
+   * @param modules  The modules loaded from the services files in order.
+   */
+  private static void saveSnapshot(File snapshot, List<ServiceModule> modules) {
+    try {
+      ServiceSnapshot.write(snapshot, modules);
+      LOGGER.debug("Saved services snapshot to {}", snapshot.getName());
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.warn("Unable to save services snapshot: {}", ex.getMessage());
+    }
+  }
+
+  /**
+   * Parses the specified services file.
+   *
+   * @param xml The XML file to load.
+   *
+   * @return The services defined in the file.
+   *
+   * @throws BerliozException Should something unexpected happen.
+   */
+  private static ServiceModule parse(File xml) throws BerliozException {
+    ServiceModule module = new ServiceModule(xml);
     // OK Let's start
     SAXParser parser = XMLUtils.getParser(true);
     SAXErrorCollector collector = new SAXErrorCollector(LOGGER);
@@ -198,7 +492,7 @@ public final class ServiceLoader {
     // Load the services
     try {
       XMLReader reader = parser.getXMLReader();
-      HandlingDispatcher dispatcher = new HandlingDispatcher(reader, this.services);
+      HandlingDispatcher dispatcher = new HandlingDispatcher(reader, module);
       reader.setContentHandler(dispatcher);
       reader.setEntityResolver(BerliozEntityResolver.getInstance());
       reader.setErrorHandler(collector);
@@ -219,16 +513,58 @@ public final class ServiceLoader {
       LOGGER.error("An I/O error occurred while reading XML service configuration: {}", ex.getMessage());
       throw new BerliozException("Unable to read services configuration file.", ex, BerliozErrorID.SERVICES_NOT_FOUND);
     }
-    this.services.touch();
+    return module;
   }
 
   /**
-   * Update the patterns based on the current generators.
+   * Returns the exception thrown while parsing a services file as a Berlioz exception.
+   *
+   * @param cause The exception thrown by the task.
+   *
+   * @return the corresponding Berlioz exception.
    */
-  public synchronized void clear() {
-    LOGGER.info("Clearing content manager");
-    this.services.clear();
-    this.loaded = false;
+  private static BerliozException toBerliozException(Throwable cause) {
+    if (cause instanceof BerliozException) return (BerliozException)cause;
+    if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+    if (cause instanceof Error) throw (Error)cause;
+    return new BerliozException("Unable to load services", (Exception)cause);
+  }
+
+  /**
+   * Seals the specified registry and makes it the current registry.
+   *
+   * @param registry The registry to publish.
+   */
+  private void publish(ServiceRegistry registry) {
+    this.services = sealed(registry);
+    this.available = true;
+  }
+
+  /**
+   * @param registry The registry to seal.
+   * @return the same registry once sealed.
+   */
+  private static ServiceRegistry sealed(ServiceRegistry registry) {
+    registry.seal();
+    return registry;
+  }
+
+  /**
+   * Creates named daemon threads to parse services files.
+   */
+  private static final class LoaderThreadFactory implements ThreadFactory {
+
+    /**
+     * To number the threads.
+     */
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "berlioz-services-"+this._count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 
   // Inner class to determine which handler to use --------------------------------------------------
@@ -240,9 +576,9 @@ public final class ServiceLoader {
   private static final class HandlingDispatcher extends DefaultHandler implements ContentHandler {
 
     /**
-     * Registry for the services to load.
+     * Module for the services to load.
      */
-    private final ServiceRegistry _registry;
+    private final ServiceModule _module;
 
     /**
      * The reader in use.
@@ -257,12 +593,12 @@ public final class ServiceLoader {
     /**
      * Create a new version sniffer for the specified XML reader.
      *
-     * @param reader   The XML Reader in use.
-     * @param registry The service registry.
+     * @param reader The XML Reader in use.
+     * @param module The service module.
      */
-    public HandlingDispatcher(XMLReader reader, ServiceRegistry registry) {
+    public HandlingDispatcher(XMLReader reader, ServiceModule module) {
       this._reader = reader;
-      this._registry = registry;
+      this._module = module;
     }
 
     @Override
@@ -310,18 +646,18 @@ public final class ServiceLoader {
         // Version 1.0
         if ("1.0".equals(version)) {
           LOGGER.info("Service configuration 1.0 detected");
-          return new ServicesHandler10(this._registry, collector);
+          return new ServicesHandler10(this._module, collector);
 
         // Unknown version (assume 1.0)
         } else {
           LOGGER.info("Service configuration version unavailable, assuming 1.0");
-          return new ServicesHandler10(this._registry, collector);
+          return new ServicesHandler10(this._module, collector);
         }
 
       } else if ("services".equals(name)) {
 
         LOGGER.info("Services group using 1.0");
-        return new ServicesHandler10(this._registry, collector);
+        return new ServicesHandler10(this._module, collector);
 
       // Definitely not supported
       } else {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.content;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pageseeder.berlioz.furi.URIPattern;
+import org.pageseeder.berlioz.http.HttpMethod;
+
+/**
+ * The services defined in a single services file.
+ *
+ * <p>Modules are parsed independently of each other so that they can be parsed concurrently
+ * and kept until their file is modified; they are then registered in order into a new
+ * registry.
+ *
+ * <p>This class is not thread-safe: a module is only modified by the thread parsing its file.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class ServiceModule {
+
+  /**
+   * The services file.
+   */
+  private final File _file;
+
+  /**
+   * When the file was last modified when it was parsed.
+   */
+  private final long _modified;
+
+  /**
+   * The length of the file when it was parsed.
+   */
+  private final long _length;
+
+  /**
+   * The services to register in document order.
+   */
+  private final List<Registration> _registrations = new ArrayList<>();
+
+  /**
+   * Whether this module replaces the services registered before it.
+   */
+  private boolean replaces = false;
+
+  /**
+   * Creates a new module for the specified file.
+   *
+   * @param file The services file.
+   */
+  ServiceModule(File file) {
+    this._file = file;
+    this._modified = file.lastModified();
+    this._length = file.length();
+  }
+
+  /**
+   * @return The services file.
+   */
+  File file() {
+    return this._file;
+  }
+
+  /**
+   * Indicates whether the file was modified since it was parsed.
+   *
+   * @return <code>true</code> if the file was modified or deleted;
+   *         <code>false</code> otherwise.
+   */
+  boolean isModified() {
+    return this._file.lastModified() != this._modified || this._file.length() != this._length;
+  }
+
+  /**
+   * Registers the service with the specified URI pattern and HTTP method.
+   *
+   * @param service The service to register.
+   * @param pattern The URI pattern.
+   * @param method  The HTTP method.
+   */
+  void register(Service service, URIPattern pattern, HttpMethod method) {
+    this._registrations.add(new Registration(service, pattern, method));
+  }
+
+  /**
+   * Removes the services of this module and any service registered before this module.
+   *
+   * <p>This corresponds to a complete service configuration rather than a module.
+   */
+  void clear() {
+    this._registrations.clear();
+    this.replaces = true;
+  }
+
+  /**
+   * @return <code>true</code> if this module replaces the services registered before it.
+   */
+  boolean replaces() {
+    return this.replaces;
+  }
+
+  /**
+   * @return the services registered with each pattern and method in document order.
+   */
+  List<Registration> registrations() {
+    return Collections.unmodifiableList(this._registrations);
+  }
+
+  /**
+   * @return the number of services registered with each pattern and method.
+   */
+  int size() {
+    return this._registrations.size();
+  }
+
+  /**
+   * Registers the services of this module into the specified registry.
+   *
+   * @param registry The registry which must not be sealed.
+   */
+  void registerInto(ServiceRegistry registry) {
+    if (this.replaces) {
+      registry.clear();
+    }
+    for (Registration r : this._registrations) {
+      registry.register(r._service, r._pattern, r._method);
+    }
+  }
+
+  /**
+   * A service registered with a URI pattern and method.
+   */
+  static final class Registration {
+
+    /** The service */
+    private final Service _service;
+
+    /** The URI pattern */
+    private final URIPattern _pattern;
+
+    /** The HTTP method */
+    private final HttpMethod _method;
+
+    /**
+     * @param service The service.
+     * @param pattern The URI pattern.
+     * @param method  The HTTP method.
+     */
+    Registration(Service service, URIPattern pattern, HttpMethod method) {
+      this._service = service;
+      this._pattern = pattern;
+      this._method = method;
+    }
+
+    /**
+     * @return The service.
+     */
+    Service service() {
+      return this._service;
+    }
+
+    /**
+     * @return The URI pattern.
+     */
+    URIPattern pattern() {
+      return this._pattern;
+    }
+
+    /**
+     * @return The HTTP method.
+     */
+    HttpMethod method() {
+      return this._method;
+    }
+  }
+
+}
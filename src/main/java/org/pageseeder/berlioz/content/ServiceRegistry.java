@@ -19,7 +19,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,8 +28,8 @@ import java.util.Set;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.pageseeder.berlioz.furi.URIPattern;
+import org.pageseeder.berlioz.furi.URIPatternIndex;
 import org.pageseeder.berlioz.furi.URIResolver;
-import org.pageseeder.berlioz.furi.URIResolver.MatchRule;
 import org.pageseeder.berlioz.http.HttpMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,11 +37,14 @@ import org.slf4j.LoggerFactory;
 /**
  * A registry for services.
  *
- * <p>Note: this class is not synchronized and must be synchronized externally.
+ * <p>A registry is built by registering services and then sealed before it is published, after
+ * which it cannot be modified and can safely be read concurrently without locking.
+ *
+ * <p>Note: this class is not synchronized and must not be modified while it is being read.
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.8
  */
 public final class ServiceRegistry {
@@ -56,6 +59,11 @@ public final class ServiceRegistry {
    */
   private long version;
 
+  /**
+   * Whether this registry can no longer be modified.
+   */
+  private volatile boolean sealed = false;
+
   /**
    * Creates a new registry.
    */
@@ -68,6 +76,25 @@ public final class ServiceRegistry {
     this.version = System.currentTimeMillis();
   }
 
+  /**
+   * Creates a new registry with the same services as the specified registry.
+   *
+   * @param registry The registry to copy.
+   *
+   * @since Berlioz 0.11.5
+   */
+  ServiceRegistry(ServiceRegistry registry) {
+    this();
+    for (Entry<HttpMethod, ServiceMap> e : registry.registry.entrySet()) {
+      ServiceMap from = e.getValue();
+      ServiceMap to = getMapping(e.getKey());
+      for (Entry<String, Service> m : from.mapping.entrySet()) {
+        URIPattern pattern = from.patterns.get(m.getKey());
+        to.put(pattern != null? pattern : new URIPattern(m.getKey()), m.getValue());
+      }
+    }
+  }
+
   /**
    * Register the content generator.
    *
@@ -76,9 +103,11 @@ public final class ServiceRegistry {
    * @param method  the method for this URL pattern.
    *
    * @throws NullPointerException If any argument is <code>null</code>
+   * @throws IllegalStateException If the registry is sealed
    */
   public void register(Service service, URIPattern pattern, HttpMethod method) {
     // preliminary checks
+    checkNotSealed();
     Objects.requireNonNull(service, "No service to register.");
     Objects.requireNonNull(pattern, "URL Pattern must be specified to register a service.");
     Objects.requireNonNull(method, "HTTP Method must be specified to register a service.");
@@ -239,8 +268,11 @@ public final class ServiceRegistry {
 
   /**
    * Clears the service registry.
+   *
+   * @throws IllegalStateException If the registry is sealed
    */
   public void clear() {
+    checkNotSealed();
     for (ServiceMap map : this.registry.values()) {
       map.clear();
     }
@@ -260,6 +292,34 @@ public final class ServiceRegistry {
     this.version = System.currentTimeMillis();
   }
 
+  /**
+   * Seals this registry so that it can no longer be modified.
+   *
+   * @since Berlioz 0.11.5
+   */
+  void seal() {
+    this.sealed = true;
+  }
+
+  /**
+   * Indicates whether this registry is sealed.
+   *
+   * @return <code>true</code> if services can no longer be registered;
+   *         <code>false</code> otherwise.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public boolean isSealed() {
+    return this.sealed;
+  }
+
+  /**
+   * @throws IllegalStateException If the registry is sealed
+   */
+  private void checkNotSealed() {
+    if (this.sealed) throw new IllegalStateException("The service registry is sealed and cannot be modified");
+  }
+
   /**
    * Returns the HTTP method for the specified value (case insensitive)
    *
@@ -296,12 +356,17 @@ public final class ServiceRegistry {
     /**
      * Maps services to the URI Pattern.
      */
-    private final Map<String, Service> mapping = new Hashtable<>();
+    private final Map<String, Service> mapping = new LinkedHashMap<>();
+
+    /**
+     * The first URI pattern registered for each pattern string.
+     */
+    private final Map<String, URIPattern> patterns = new LinkedHashMap<>();
 
     /**
-     * List of URI Patterns that match a service.
+     * Index of the URI Patterns that match a service.
      */
-    private final List<URIPattern> patterns = new ArrayList<>();
+    private final URIPatternIndex index = new URIPatternIndex();
 
     /**
      * Puts the given content generator in this map.
@@ -316,7 +381,10 @@ public final class ServiceRegistry {
       if (previous != null) {
         this.logger.warn("Service ID={} was already registered to {}", previous, pattern.toString());
       }
-      this.patterns.add(pattern);
+      if (!this.patterns.containsKey(pattern.toString())) {
+        this.patterns.put(pattern.toString(), pattern);
+      }
+      this.index.add(pattern);
       return true;
     }
 
@@ -331,15 +399,18 @@ public final class ServiceRegistry {
       MatchingService match = null;
       Service service = this.mapping.get(url);
       if (service != null) {
-        URIPattern p = new URIPattern(url);
+        URIPattern p = this.patterns.get(url);
+        if (p == null) {
+          p = new URIPattern(url);
+        }
         match = new MatchingService(service, p, new URIResolver(url).resolve(p));
 
       // Check if matching URI pattern
       } else {
         // Find the URI pattern matching the given path info
-        URIResolver resolver = new URIResolver(url);
-        URIPattern p = resolver.find(this.patterns, MatchRule.BEST_MATCH);
+        URIPattern p = this.index.find(url);
         if (p != null) {
+          URIResolver resolver = new URIResolver(url);
           service = this.mapping.get(p.toString());
           if (service != null) {
             match = new MatchingService(service, p, resolver.resolve(p));
@@ -381,6 +452,7 @@ public final class ServiceRegistry {
     public void clear() {
       this.mapping.clear();
       this.patterns.clear();
+      this.index.clear();
     }
   }
 
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.content;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.content.ServiceModule.Registration;
+import org.pageseeder.berlioz.furi.URIPattern;
+import org.pageseeder.berlioz.http.HttpMethod;
+import org.pageseeder.berlioz.util.MD5;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A binary snapshot of the services loaded from the services files.
+ *
+ * <p>The snapshot stores for each services file the MD5 hash of its content and the services
+ * it defines: generator classes, names, targets, parameters, status rules and URI patterns.
+ * It is only used when the hash of every services file still matches, so that the services can
+ * be loaded without parsing and validating the XML.
+ *
+ * <p>The snapshot starts with a magic number, the format version, the version of Berlioz which
+ * wrote it and a CRC32 checksum of its content; a snapshot with a different format or Berlioz
+ * version or which is corrupted is ignored, since a different version of Berlioz may compile
+ * the same services differently.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class ServiceSnapshot {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ServiceSnapshot.class);
+
+  /**
+   * Identifies Berlioz service snapshots ("BSVC").
+   */
+  private static final int MAGIC = 0x42535643;
+
+  /**
+   * The version of the snapshot format, must be incremented whenever the format changes.
+   */
+  private static final int VERSION = 2;
+
+  /**
+   * The minimum length of the header: magic number, version, Berlioz version, content length and checksum.
+   */
+  private static final int HEADER_LENGTH = 4 + 4 + 4 + 4 + 8;
+
+  /**
+   * Utility class.
+   */
+  private ServiceSnapshot() {
+  }
+
+  /**
+   * Writes a snapshot of the specified modules.
+   *
+   * <p>The snapshot is written to a temporary file which then replaces the snapshot so that
+   * a partially written snapshot is never read.
+   *
+   * @param snapshot The snapshot file to write.
+   * @param modules  The modules loaded from the services files in order.
+   *
+   * @throws IOException If the snapshot could not be written or a services file could not be read.
+   */
+  static void write(File snapshot, List<ServiceModule> modules) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(modules.size());
+    for (ServiceModule module : modules) {
+      writeModule(out, module);
+    }
+    out.flush();
+    byte[] content = bytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(content);
+
+    File temp = new File(snapshot.getParentFile(), snapshot.getName()+".tmp");
+    try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      file.writeInt(MAGIC);
+      file.writeInt(VERSION);
+      writeString(file, GlobalSettings.getVersion());
+      file.writeInt(content.length);
+      file.writeLong(crc.getValue());
+      file.write(content);
+    }
+    Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the snapshot for the specified services files.
+   *
+   * @param snapshot The snapshot file to read.
+   * @param files    The services files in order.
+   *
+   * @return the modules for each file in order or <code>null</code> if the snapshot does not
+   *         exist, is invalid or does not match the services files.
+   */
+  static @Nullable List<ServiceModule> read(File snapshot, List<File> files) {
+    if (!snapshot.isFile()) return null;
+    try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+        LOGGER.warn("Ignoring services snapshot {}: not a snapshot", snapshot.getName());
+        return null;
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        LOGGER.info("Ignoring services snapshot {}: version {} instead of {}", snapshot.getName(), version, VERSION);
+        return null;
+      }
+      String berlioz = readString(buffer);
+      if (!GlobalSettings.getVersion().equals(berlioz)) {
+        LOGGER.info("Ignoring services snapshot {}: written by Berlioz {}", snapshot.getName(), berlioz);
+        return null;
+      }
+      int length = buffer.getInt();
+      long checksum = buffer.getLong();
+      if (length != buffer.remaining() || checksum != checksum(buffer)) {
+        LOGGER.warn("Ignoring services snapshot {}: checksum does not match", snapshot.getName());
+        return null;
+      }
+      return readModules(buffer, files);
+    } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex) {
+      LOGGER.warn("Ignoring services snapshot {}: {}", snapshot.getName(), ex.getMessage());
+      return null;
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the specified module.
+   *
+   * @param out    The output.
+   * @param module The module to write.
+   *
+   * @throws IOException If the services file was modified or could not be read.
+   */
+  private static void writeModule(DataOutputStream out, ServiceModule module) throws IOException {
+    if (module.isModified()) throw new IOException(module.file().getName()+" was modified");
+    writeString(out, module.file().getName());
+    writeString(out, MD5.hash(module.file()));
+    out.writeBoolean(module.replaces());
+
+    // Services are shared by the registrations of each URI pattern
+    List<Registration> registrations = module.registrations();
+    Map<Service, Integer> services = new IdentityHashMap<>();
+    for (Registration r : registrations) {
+      if (!services.containsKey(r.service())) {
+        services.put(r.service(), Integer.valueOf(services.size()));
+      }
+    }
+    Service[] ordered = new Service[services.size()];
+    for (Map.Entry<Service, Integer> entry : services.entrySet()) {
+      ordered[entry.getValue().intValue()] = entry.getKey();
+    }
+    out.writeInt(ordered.length);
+    for (Service service : ordered) {
+      writeService(out, service);
+    }
+    out.writeInt(registrations.size());
+    for (Registration r : registrations) {
+      out.writeInt(services.get(r.service()).intValue());
+      writeString(out, r.pattern().toString());
+      writeString(out, r.method().name());
+    }
+  }
+
+  /**
+   * Writes the specified service.
+   *
+   * @param out     The output.
+   * @param service The service to write.
+   *
+   * @throws IOException If thrown by the output.
+   */
+  private static void writeService(DataOutputStream out, Service service) throws IOException {
+    writeString(out, service.id());
+    writeString(out, service.group());
+    writeString(out, service.cache());
+    writeString(out, service.flags());
+    Boolean parallel = service.parallel();
+    writeString(out, parallel != null? parallel.toString() : null);
+    ServiceStatusRule rule = service.rule();
+    writeString(out, rule.use().name());
+    writeString(out, rule.rule().name());
+    out.writeInt(rule.items().size());
+    for (String item : rule.items()) {
+      writeString(out, item);
+    }
+    out.writeInt(service.generators().size());
+    for (ContentGenerator generator : service.generators()) {
+      writeString(out, generator.getClass().getName());
+      writeString(out, service.name(generator));
+      writeString(out, service.target(generator));
+      List<Parameter> parameters = service.parameters(generator);
+      out.writeInt(parameters.size());
+      for (Parameter parameter : parameters) {
+        writeString(out, parameter.name());
+        writeString(out, parameter.value());
+      }
+    }
+  }
+
+  /**
+   * Reads the modules in the snapshot if they match the specified services files.
+   *
+   * @param buffer The content of the snapshot.
+   * @param files  The services files in order.
+   *
+   * @return the modules or <code>null</code> if they do not match the services files.
+   *
+   * @throws IOException If a services file could not be read.
+   */
+  private static @Nullable List<ServiceModule> readModules(ByteBuffer buffer, List<File> files) throws IOException {
+    int count = buffer.getInt();
+    if (count != files.size()) {
+      LOGGER.info("Ignoring services snapshot: services files have changed");
+      return null;
+    }
+    List<ServiceModule> modules = new ArrayList<>(count);
+    for (File file : files) {
+      ServiceModule module = new ServiceModule(file);
+      if (!file.getName().equals(readString(buffer)) || !MD5.hash(file).equals(readString(buffer))) {
+        LOGGER.info("Ignoring services snapshot: {} has changed", file.getName());
+        return null;
+      }
+      if (buffer.get() != 0) {
+        module.clear();
+      }
+      Service[] services = new Service[buffer.getInt()];
+      Service.Builder builder = new Service.Builder();
+      for (int i = 0; i < services.length; i++) {
+        Service service = readService(buffer, builder);
+        if (service == null) return null;
+        services[i] = service;
+      }
+      int registrations = buffer.getInt();
+      for (int i = 0; i < registrations; i++) {
+        Service service = services[buffer.getInt()];
+        URIPattern pattern = new URIPattern(readRequiredString(buffer));
+        HttpMethod method = HttpMethod.valueOf(readRequiredString(buffer));
+        module.register(service, pattern, method);
+      }
+      modules.add(module);
+    }
+    return modules;
+  }
+
+  /**
+   * Reads a service.
+   *
+   * @param buffer  The content of the snapshot.
+   * @param builder The builder to use.
+   *
+   * @return the service or <code>null</code> if a generator could not be created.
+   */
+  private static @Nullable Service readService(ByteBuffer buffer, Service.Builder builder) {
+    builder.reset();
+    builder.id(readRequiredString(buffer));
+    builder.group(readString(buffer));
+    builder.cache(readString(buffer));
+    builder.flags(readString(buffer));
+    builder.parallel(readString(buffer));
+    ServiceStatusRule.SelectType use = ServiceStatusRule.SelectType.valueOf(readRequiredString(buffer));
+    ServiceStatusRule.CodeRule code = ServiceStatusRule.CodeRule.valueOf(readRequiredString(buffer));
+    List<String> items = new ArrayList<>();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      items.add(readRequiredString(buffer));
+    }
+    builder.rule(new ServiceStatusRule(use, Collections.unmodifiableList(items), code));
+    for (int i = buffer.getInt(); i > 0; i--) {
+      String className = readRequiredString(buffer);
+      try {
+        builder.add(GeneratorFactory.get(className, builder.count(className)));
+      } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException | LinkageError ex) {
+        LOGGER.info("Ignoring services snapshot: unable to create generator {}", className);
+        return null;
+      }
+      builder.name(readString(buffer));
+      builder.target(readString(buffer));
+      for (int j = buffer.getInt(); j > 0; j--) {
+        builder.parameter(new Parameter(readRequiredString(buffer), readRequiredString(buffer)));
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Computes the CRC32 checksum of the remaining bytes without changing the buffer position.
+   *
+   * @param buffer The buffer.
+   *
+   * @return the checksum.
+   */
+  private static long checksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    ByteBuffer content = buffer.slice();
+    byte[] chunk = new byte[8192];
+    while (content.hasRemaining()) {
+      int length = Math.min(chunk.length, content.remaining());
+      content.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Writes a string which may be <code>null</code>.
+   *
+   * @param out The output.
+   * @param s   The string to write.
+   *
+   * @throws IOException If thrown by the output.
+   */
+  private static void writeString(DataOutputStream out, @Nullable String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Reads a string which may be <code>null</code>.
+   *
+   * @param buffer The content of the snapshot.
+   *
+   * @return the string.
+   */
+  private static @Nullable String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) return null;
+    if (length > buffer.remaining()) throw new BufferUnderflowException();
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a string which must not be <code>null</code>.
+   *
+   * @param buffer The content of the snapshot.
+   *
+   * @return the string.
+   *
+   * @throws IllegalArgumentException If the string is <code>null</code>.
+   */
+  private static String readRequiredString(ByteBuffer buffer) {
+    String s = readString(buffer);
+    if (s == null) throw new IllegalArgumentException("Unexpected null value");
+    return s;
+  }
+
+}
@@ -42,7 +42,7 @@ import org.xml.sax.helpers.DefaultHandler;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.7
  */
 final class ServicesHandler10 extends DefaultHandler {
@@ -55,7 +55,7 @@ final class ServicesHandler10 extends DefaultHandler {
   /**
    * Where all the information about services is collected and registered.
    */
-  private final ServiceRegistry _registry;
+  private final ServiceModule _module;
 
   /**
    * The error handler to use.
@@ -157,17 +157,17 @@ final class ServicesHandler10 extends DefaultHandler {
   private final Set<String> _groups = new HashSet<>();
 
   /**
-   * Creates a new handler that will update the specified registry and use the given error handler.
+   * Creates a new handler that will collect services into the specified module and use the given error handler.
    *
    * <p>Note: it is more efficient to pass the generators rather than access the outer class.
    *
-   * @param registry  The service registry to use.
+   * @param module    The service module to use.
    * @param collector The error handler to collect errors.
    *
    * @throws NullPointerException If any of the method arguments is <code>null</code>.
    */
-  public ServicesHandler10(ServiceRegistry registry, SAXErrorCollector collector) {
-    this._registry = Objects.requireNonNull(registry, "service registry is required");
+  public ServicesHandler10(ServiceModule module, SAXErrorCollector collector) {
+    this._module = Objects.requireNonNull(module, "service module is required");
     this._collector = Objects.requireNonNull(collector, "error collector is required");
   }
 
@@ -188,7 +188,7 @@ final class ServicesHandler10 extends DefaultHandler {
     }
     switch(element) {
       case SERVICE_CONFIG:
-        this._registry.clear();
+        this._module.clear();
         break;
 
       case SERVICES:
@@ -212,6 +212,7 @@ final class ServicesHandler10 extends DefaultHandler {
         this._builder.id(id != null? id : "");
         this._builder.cache(atts.getValue("cache-control"));
         this._builder.flags(atts.getValue("flags"));
+        this._builder.parallel(atts.getValue("parallel"));
         handleMethod(atts.getValue("method"));
         break;
 
@@ -254,7 +255,7 @@ final class ServicesHandler10 extends DefaultHandler {
             warning("No URI pattern match service "+service.id()+" - service will be ignored");
           } else {
             for (URIPattern pattern : this._patterns) {
-              this._registry.register(service, pattern, method);
+              this._module.register(service, pattern, method);
               LOGGER.debug("Assigning "+pattern+" ["+method+"] to "+service);
             }
           }
@@ -412,11 +413,9 @@ final class ServicesHandler10 extends DefaultHandler {
     ContentGenerator generator;
     try {
       // Allow unspecified class (defaults to no content)
-      if (className == null || className.length() ==0) {
-        generator = new NoContent();
-      } else {
-        generator = (ContentGenerator)Class.forName(className).newInstance();
-      }
+      String name = className == null || className.length() == 0? NoContent.class.getName() : className;
+      // Generators are shared by all services
+      generator = GeneratorFactory.get(name, this._builder.count(name));
       this._builder.add(generator);
       this._builder.target(atts.getValue("target"));
       this._builder.name(atts.getValue("name"));
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.furi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * An index of URI patterns to find the pattern that best matches a URI without evaluating
+ * every pattern.
+ *
+ * <p>Patterns are stored in a radix tree keyed on their literal prefix, that is the expression of
+ * the literal tokens before the first variable. Only the patterns whose prefix is a prefix of the
+ * URI are considered, starting with the highest score so that the regular expression of most
+ * patterns is never evaluated.
+ *
+ * <p>This index returns the same pattern as {@link URIResolver#find(List, URIResolver.MatchRule)}
+ * with the {@link URIResolver.MatchRule#BEST_MATCH} rule applied to the patterns in the order they
+ * were added: the matching pattern with the highest score and, for equal scores, the first one.
+ *
+ * <p>Note: this class is not synchronized and must not be modified while it is being read.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class URIPatternIndex {
+
+  /**
+   * The root of the radix tree (the empty prefix).
+   */
+  private final Node _root = new Node("");
+
+  /**
+   * The URI patterns already in the index.
+   */
+  private final Set<String> _patterns = new HashSet<>();
+
+  /**
+   * The number of patterns added to this index.
+   */
+  private int size = 0;
+
+  /**
+   * Creates a new empty index.
+   */
+  public URIPatternIndex() {
+  }
+
+  /**
+   * Adds the specified pattern to this index.
+   *
+   * @param pattern The URI pattern to add.
+   */
+  public void add(URIPattern pattern) {
+    // A pattern that was already added would always take precedence
+    if (!this._patterns.add(pattern.toString())) {
+      this.size++;
+      return;
+    }
+    List<Token> tokens = pattern.tokens();
+    // Literal tokens at the start of the pattern
+    StringBuilder prefix = new StringBuilder();
+    int first = 0;
+    while (first < tokens.size() && tokens.get(first) instanceof TokenLiteral) {
+      prefix.append(tokens.get(first++).expression());
+    }
+    // Literal tokens at the end of the pattern (after any variable)
+    StringBuilder suffix = new StringBuilder();
+    for (int i = tokens.size() - 1; i > first && tokens.get(i) instanceof TokenLiteral; i--) {
+      suffix.insert(0, tokens.get(i).expression());
+    }
+    Entry entry = new Entry(pattern, suffix.toString(), this.size++);
+    this._root.insert(prefix.toString(), 0, entry);
+  }
+
+  /**
+   * Returns the URI pattern that best matches the specified URI.
+   *
+   * @param uri The URI to match.
+   *
+   * @return The best matching pattern or <code>null</code> if none match.
+   */
+  public @Nullable URIPattern find(String uri) {
+    // Collect the nodes along the URI
+    List<Node> path = new ArrayList<>();
+    Node node = this._root;
+    int offset = 0;
+    while (node != null) {
+      if (node.entries.size() > 0) {
+        path.add(node);
+      }
+      node = node.next(uri, offset);
+      if (node != null) {
+        offset += node.edge.length();
+      }
+    }
+
+    // Longest prefixes first as they usually have the highest scores
+    Entry best = null;
+    for (int i = path.size() - 1; i >= 0; i--) {
+      for (Entry e : path.get(i).entries) {
+        if (best != null && !e.isBefore(best)) break;
+        if (e.score <= uri.length() && uri.endsWith(e.suffix) && e.pattern.match(uri)) {
+          best = e;
+          break;
+        }
+      }
+    }
+    return best != null? best.pattern : null;
+  }
+
+  /**
+   * @return the number of patterns in this index.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Removes all the patterns from this index.
+   */
+  public void clear() {
+    this._root.children.clear();
+    this._root.entries.clear();
+    this._patterns.clear();
+    this.size = 0;
+  }
+
+  /**
+   * A node in the radix tree.
+   */
+  private static final class Node {
+
+    /**
+     * The label of the edge leading to this node.
+     */
+    private String edge;
+
+    /**
+     * The child nodes by first character of their edge.
+     */
+    private final Map<Character, Node> children = new HashMap<>(4);
+
+    /**
+     * The patterns which literal prefix ends at this node, sorted by priority.
+     */
+    private final List<Entry> entries = new ArrayList<>(1);
+
+    /**
+     * @param edge The label of the edge leading to this node.
+     */
+    Node(String edge) {
+      this.edge = edge;
+    }
+
+    /**
+     * Returns the child node which edge matches the URI at the specified offset.
+     *
+     * @param uri    The URI
+     * @param offset The offset in the URI.
+     *
+     * @return the child node or <code>null</code>.
+     */
+    @Nullable Node next(String uri, int offset) {
+      if (offset >= uri.length()) return null;
+      Node child = this.children.get(Character.valueOf(uri.charAt(offset)));
+      if (child != null && uri.startsWith(child.edge, offset)) return child;
+      return null;
+    }
+
+    /**
+     * Inserts the specified entry for the prefix starting at the specified offset.
+     *
+     * @param prefix The literal prefix of the pattern.
+     * @param offset Where the remaining part of prefix starts.
+     * @param entry  The entry to insert.
+     */
+    void insert(String prefix, int offset, Entry entry) {
+      if (offset == prefix.length()) {
+        add(entry);
+        return;
+      }
+      Character c = Character.valueOf(prefix.charAt(offset));
+      Node child = this.children.get(c);
+      if (child == null) {
+        child = new Node(prefix.substring(offset));
+        this.children.put(c, child);
+        child.add(entry);
+        return;
+      }
+      // Find how much of the edge is shared
+      String edge = child.edge;
+      int common = 0;
+      while (common < edge.length() && offset + common < prefix.length()
+          && edge.charAt(common) == prefix.charAt(offset + common)) {
+        common++;
+      }
+      if (common < edge.length()) {
+        // Split the edge
+        Node split = new Node(edge.substring(0, common));
+        child.edge = edge.substring(common);
+        split.children.put(Character.valueOf(child.edge.charAt(0)), child);
+        this.children.put(c, split);
+        child = split;
+      }
+      child.insert(prefix, offset + common, entry);
+    }
+
+    /**
+     * Adds the specified entry to this node maintaining the priority order.
+     *
+     * @param entry the entry to add
+     */
+    private void add(Entry entry) {
+      int i = this.entries.size();
+      while (i > 0 && entry.isBefore(this.entries.get(i - 1))) {
+        i--;
+      }
+      this.entries.add(i, entry);
+    }
+  }
+
+  /**
+   * A pattern in the index.
+   */
+  private static final class Entry {
+
+    /**
+     * The URI pattern.
+     */
+    private final URIPattern pattern;
+
+    /**
+     * The literal suffix of the pattern.
+     */
+    private final String suffix;
+
+    /**
+     * The score of the pattern.
+     */
+    private final int score;
+
+    /**
+     * The order in which the pattern was added.
+     */
+    private final int order;
+
+    /**
+     * @param pattern The URI pattern.
+     * @param suffix  The literal suffix of the pattern.
+     * @param order   The order in which the pattern was added.
+     */
+    Entry(URIPattern pattern, String suffix, int order) {
+      this.pattern = pattern;
+      this.suffix = suffix;
+      this.score = pattern.score();
+      this.order = order;
+    }
+
+    /**
+     * Indicates whether this entry takes precedence over the specified entry.
+     *
+     * @param e the entry to compare with.
+     * @return <code>true</code> if this entry has a higher score or the same score but was added first.
+     */
+    boolean isBefore(Entry e) {
+      return this.score > e.score || (this.score == e.score && this.order < e.order);
+    }
+  }
+}
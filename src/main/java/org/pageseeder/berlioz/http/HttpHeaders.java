@@ -20,7 +20,7 @@ package org.pageseeder.berlioz.http;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.8.2 - 27 June 2011
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.6
  */
 public final class HttpHeaders { // NO_UCD
@@ -693,6 +693,25 @@ public final class HttpHeaders { // NO_UCD
    */
   public static final String SERVER = "Server";
 
+  /**
+   * 'Server-Timing' response header.
+   *
+   * <p>Augmented BNF:</p>
+   * <pre>
+   *   Server-Timing             = #server-timing-metric
+   *   server-timing-metric      = metric-name *( OWS ";" OWS server-timing-param )
+   * </pre>
+   * <p>Example:</p>
+   * <pre>
+   *   Server-Timing: db;dur=53, app;dur=47.2;desc="Application"
+   * </pre>
+   *
+   * @see <a href="https://www.w3.org/TR/server-timing/">Server Timing</a>
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static final String SERVER_TIMING = "Server-Timing";
+
   /**
    * 'TE' request header.
    *
@@ -31,14 +31,17 @@ import org.pageseeder.berlioz.BerliozOption;
 import org.pageseeder.berlioz.GlobalSettings;
 import org.pageseeder.berlioz.LifecycleListener;
 import org.pageseeder.berlioz.InitEnvironment;
+import org.pageseeder.berlioz.content.ServiceLoader;
 import org.pageseeder.berlioz.servlet.Overlays.Overlay;
+import org.pageseeder.berlioz.util.FileChangeTracker;
+import org.pageseeder.berlioz.util.ResourceCompressor;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class initializes a Berlioz application.
  *
- * @version Berlioz 0.11.4
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.11.0
  */
 public abstract class AppInitializer {
@@ -156,6 +159,15 @@ public abstract class AppInitializer {
       console(Phase.STOP, "Lifecycle: OK (No listener)");
     }
 
+    // Stop tracking file changes
+    FileChangeTracker.shutdown();
+
+    // Destroy the content generators
+    ServiceLoader.getInstance().destroy();
+
+    // Release the compressors
+    ResourceCompressor.shutdown();
+
     console(Phase.STOP, "Bye now!");
     console(Phase.STOP, "===============================================================");
   }
@@ -24,6 +24,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,6 +40,7 @@ import org.pageseeder.berlioz.GlobalSettings;
 import org.pageseeder.berlioz.content.Environment;
 import org.pageseeder.berlioz.content.GeneratorListener;
 import org.pageseeder.berlioz.content.Service;
+import org.pageseeder.berlioz.util.MD5;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,7 +49,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.8.1
  */
 public final class BerliozConfig {
@@ -136,11 +138,26 @@ public final class BerliozConfig {
    */
   private final Map<String, XSLTransformer> _transformers;
 
+  /**
+   * The name of the private file storing the ETag seed of this server.
+   */
+  private static final String ETAG_SEED_FILE = "berlioz.etag";
+
+  /**
+   * The name of the private file storing the generation of the shared ETag seed.
+   */
+  private static final String ETAG_GENERATION_FILE = "berlioz.etag-generation";
+
   /**
    * A seed to use for the calculation of etags (allows them to be reset)
    */
   private volatile long etagSeed = 0L;
 
+  /**
+   * The generation of the shared ETag seed, changed each time the shared ETags are reset.
+   */
+  private String etagGeneration = "0";
+
   /**
    * Create a new Berlioz configuration.
    * @param servletConfig The servlet configuration.
@@ -167,7 +184,14 @@ public final class BerliozConfig {
     this._controlKey = this.getInitParameter("berlioz-control", GlobalSettings.get(BerliozOption.XML_CONTROL_KEY));
     this._compression = this.getInitParameter("http-compression", GlobalSettings.has(BerliozOption.HTTP_COMPRESSION));
     this._env = new HttpEnvironment(contextPath, webinfPath, this._cacheControl);
-    this.etagSeed = getEtagSeed();
+    if (hasSharedETagSeed()) {
+      String generation = readPrivateFile(ETAG_GENERATION_FILE);
+      this.etagGeneration = generation != null? generation : "0";
+      this.etagSeed = getSharedEtagSeed(this.etagGeneration);
+    } else {
+      this.etagSeed = getEtagSeed();
+    }
+    XSLTransformer.clearHashes();
   }
 
   /**
@@ -188,6 +212,10 @@ public final class BerliozConfig {
 
   /**
    * Return the ETag Seed.
+   *
+   * <p>If the {@link BerliozOption#HTTP_ETAG_SEED} option is specified, the seed is the same
+   * on all servers deploying the same application.
+   *
    * @return the ETag Seed.
    */
   public long getETagSeed() {
@@ -196,9 +224,53 @@ public final class BerliozConfig {
 
   /**
    * Resets the ETag Seed.
+   *
+   * <p>If the seed is shared, the generation of the shared seed is incremented.
+   *
+   * @see #resetETagSeed(String)
    */
   public void resetETagSeed() {
-    this.etagSeed = newEtagSeed();
+    resetETagSeed(null);
+  }
+
+  /**
+   * Resets the ETag Seed.
+   *
+   * <p>If the seed is not shared, a new random seed is generated for this server.
+   *
+   * <p>If the seed is shared, the seed is derived again with a new generation which is saved
+   * so that it is kept after a restart. The generation is set to the specified token, so that
+   * the servers which receive the same token compute the same ETags, or incremented if no token
+   * is specified.
+   *
+   * <p>The hashes of the stylesheets are recomputed since they depend on whether the seed is shared.
+   *
+   * @param token The new generation of the shared seed (may be <code>null</code>)
+   *
+   * @since Berlioz 0.11.5
+   */
+  public synchronized void resetETagSeed(@Nullable String token) {
+    if (hasSharedETagSeed()) {
+      this.etagGeneration = nextGeneration(this.etagGeneration, token);
+      savePrivateFile(ETAG_GENERATION_FILE, this.etagGeneration);
+      LOGGER.info("Resetting shared ETags to generation {}", this.etagGeneration);
+      this.etagSeed = getSharedEtagSeed(this.etagGeneration);
+    } else {
+      this.etagSeed = newEtagSeed();
+    }
+    XSLTransformer.clearHashes();
+  }
+
+  /**
+   * Indicates whether the ETag seed is shared by all the servers.
+   *
+   * @return <code>true</code> if the {@link BerliozOption#HTTP_ETAG_SEED} option is specified;
+   *         <code>false</code> otherwise.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public boolean hasSharedETagSeed() {
+    return !GlobalSettings.get(BerliozOption.HTTP_ETAG_SEED).isEmpty();
   }
 
   /**
@@ -379,15 +451,11 @@ public final class BerliozConfig {
    */
   private long getEtagSeed() {
     long seed = 0L;
-    File f = this._env.getPrivateFile("berlioz.etag");
-    if (f.exists() && f.length() < 100) {
-      try (Scanner scanner = new Scanner(f)) {
-        String etag = scanner.useDelimiter("\\Z").next();
-        etag = etag.replaceAll("[^a-zA-Z0-9-]", "");
+    String etag = readPrivateFile(ETAG_SEED_FILE);
+    if (etag != null) {
+      try {
         seed = Long.parseLong(etag, 36);
         LOGGER.info("Loading the etag seed {}", etag);
-      } catch (IOException ex) {
-        LOGGER.warn("Unable to load the etag seed", ex);
       } catch (NumberFormatException ex) {
         LOGGER.warn("Unable to load the etag seed", ex);
       }
@@ -395,6 +463,75 @@ public final class BerliozConfig {
     return seed;
   }
 
+  /**
+   * Returns the generation of the shared seed after a reset.
+   *
+   * @param current The current generation.
+   * @param token   The token specified to reset the ETags (may be <code>null</code>)
+   *
+   * @return the token if it is a valid generation; otherwise the current generation incremented.
+   */
+  static String nextGeneration(String current, @Nullable String token) {
+    String generation = token != null? toGeneration(token) : "";
+    if (!generation.isEmpty() && !"true".equals(generation)) return generation;
+    try {
+      return Long.toString(Long.parseLong(current) + 1);
+    } catch (NumberFormatException ex) {
+      return "1";
+    }
+  }
+
+  /**
+   * Keeps only the characters allowed in a generation.
+   *
+   * @param value The value to clean
+   *
+   * @return the generation (may be empty)
+   */
+  private static String toGeneration(String value) {
+    String generation = value.replaceAll("[^a-zA-Z0-9-]", "");
+    return generation.length() > 64? generation.substring(0, 64) : generation;
+  }
+
+  /**
+   * Returns the ETag seed derived from the shared seed option, the version of Berlioz, the
+   * generation of the seed and the content of the configuration files.
+   *
+   * <p>Stylesheets are not included since the ETag of the templates is based on their content
+   * when the seed is shared.
+   *
+   * @param generation The generation of the shared seed.
+   *
+   * @return the ETag seed shared by all servers.
+   */
+  private static long getSharedEtagSeed(String generation) {
+    StringBuilder key = new StringBuilder();
+    key.append(GlobalSettings.get(BerliozOption.HTTP_ETAG_SEED));
+    key.append('~').append(GlobalSettings.getVersion());
+    key.append('~').append(generation);
+    appendHash(key, GlobalSettings.getDefaultConfigFile());
+    appendHash(key, GlobalSettings.getModeConfigFile());
+    long seed = Long.parseUnsignedLong(MD5.hash(key.toString()).substring(0, 16), 16);
+    LOGGER.info("Using shared ETag Seed: {}", Long.toString(seed, 36));
+    return seed;
+  }
+
+  /**
+   * Appends the hash of the content of the specified configuration file to the key.
+   *
+   * @param key    The key to append to.
+   * @param config The configuration file (may be <code>null</code>)
+   */
+  private static void appendHash(StringBuilder key, @Nullable File config) {
+    if (config != null && config.isFile()) {
+      try {
+        key.append('~').append(MD5.hash(config));
+      } catch (IOException ex) {
+        LOGGER.warn("Unable to include {} in the etag seed", config.getName(), ex);
+      }
+    }
+  }
+
   /**
    * Expiry date is a year from now.
    * @return One year into the future.
@@ -402,19 +539,49 @@ public final class BerliozConfig {
   private long newEtagSeed() {
     Long seed = RANDOM.nextLong();
     LOGGER.info("Generating new ETag Seed: {}", Long.toString(seed.longValue(), 36));
-    File f = this._env.getPrivateFile("berlioz.etag");
+    savePrivateFile(ETAG_SEED_FILE, Long.toString(seed.longValue(), 36));
+    return seed;
+  }
+
+  /**
+   * Reads the value stored in the specified private file.
+   *
+   * @param name The name of the private file.
+   *
+   * @return the value containing only letters, digits and '-' or <code>null</code> if not available.
+   */
+  private @Nullable String readPrivateFile(String name) {
+    File f = this._env.getPrivateFile(name);
+    if (f.exists() && f.length() < 100) {
+      try (Scanner scanner = new Scanner(f)) {
+        String value = scanner.useDelimiter("\\Z").next();
+        return value.replaceAll("[^a-zA-Z0-9-]", "");
+      } catch (IOException | NoSuchElementException ex) {
+        LOGGER.warn("Unable to load {}", name, ex);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Saves the specified value in a private file.
+   *
+   * @param name  The name of the private file.
+   * @param value The value to save (ASCII).
+   */
+  private void savePrivateFile(String name, String value) {
+    File f = this._env.getPrivateFile(name);
     File p = f.getParentFile();
     if (f.exists() && f.canWrite() || p != null && p.canWrite()) {
       // NB. We don't care about encoding
       try (FileOutputStream os = new FileOutputStream(f)) {
-        for (char c : Long.toString(seed.longValue(), 36).toCharArray()) {
+        for (char c : value.toCharArray()) {
           os.write(c);
         }
       } catch (IOException ex) {
-        LOGGER.warn("Unable to save the etag seed", ex);
+        LOGGER.warn("Unable to save {}", name, ex);
       }
     }
-    return seed;
   }
 
   /**
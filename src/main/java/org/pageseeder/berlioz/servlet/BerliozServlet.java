@@ -15,6 +15,7 @@
  */
 package org.pageseeder.berlioz.servlet;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
@@ -35,16 +36,26 @@ import org.pageseeder.berlioz.BerliozException;
 import org.pageseeder.berlioz.BerliozOption;
 import org.pageseeder.berlioz.GlobalSettings;
 import org.pageseeder.berlioz.content.ContentStatus;
+import org.pageseeder.berlioz.content.GeneratorListener;
 import org.pageseeder.berlioz.content.MatchingService;
+import org.pageseeder.berlioz.content.Service;
 import org.pageseeder.berlioz.content.ServiceLoader;
 import org.pageseeder.berlioz.content.ServiceRegistry;
 import org.pageseeder.berlioz.http.HttpHeaderUtils;
 import org.pageseeder.berlioz.http.HttpHeaders;
 import org.pageseeder.berlioz.http.HttpMethod;
+import org.pageseeder.berlioz.servlet.RequestProfile.Phase;
+import org.pageseeder.berlioz.servlet.ResponseCache.CachedResponse;
 import org.pageseeder.berlioz.servlet.XSLTransformResult.Status;
 import org.pageseeder.berlioz.util.CharsetUtils;
 import org.pageseeder.berlioz.util.EntityInfo;
+import org.pageseeder.berlioz.util.FileChangeTracker;
+import org.pageseeder.berlioz.util.FlightEvents;
+import org.pageseeder.berlioz.util.LogHistogram;
 import org.pageseeder.berlioz.util.MD5;
+import org.pageseeder.berlioz.util.MetricsRegistry;
+import org.pageseeder.berlioz.util.MetricsRegistry.Counter;
+import org.pageseeder.berlioz.util.MetricsRegistry.Family;
 import org.pageseeder.berlioz.util.ProfileFormat;
 import org.pageseeder.berlioz.util.ResourceCompressor;
 import org.slf4j.Logger;
@@ -94,7 +105,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.7
  */
 public final class BerliozServlet extends HttpServlet {
@@ -109,6 +120,46 @@ public final class BerliozServlet extends HttpServlet {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(BerliozServlet.class);
 
+  /**
+   * The name of the property to specify the maximum size of content (in characters) which is
+   * compressed in memory so that the <code>Content-Length</code> can be sent.
+   *
+   * <p>Larger content is compressed directly to the response using chunked transfer encoding.
+   */
+  static final String COMPRESSION_BUFFER_LIMIT = "berlioz.http.compression.buffer-limit";
+
+  /**
+   * The default maximum size of content compressed in memory (64K characters).
+   */
+  private static final int DEFAULT_COMPRESSION_BUFFER_LIMIT = 65536;
+
+  /**
+   * The number of requests by service and status.
+   */
+  private static final Family<Counter> REQUESTS = MetricsRegistry.getInstance()
+      .counter("berlioz_requests_total", "Requests handled by Berlioz.", "service", "status");
+
+  /**
+   * The time taken to handle requests by service.
+   */
+  private static final Family<LogHistogram> REQUEST_DURATION = MetricsRegistry.getInstance()
+      .histogram("berlioz_request_duration_seconds", "Time taken to handle requests.", "service");
+
+  /**
+   * Reloads the services when a services file changes.
+   */
+  private static final FileChangeTracker.Listener SERVICES_LISTENER = new FileChangeTracker.Listener() {
+    @Override
+    public void changed(File file) {
+      if (file.isDirectory() || ServiceLoader.isServiceFile(file)) {
+        LOGGER.info("Services file '{}' changed, services will be reloaded", file.getName());
+        ServiceLoader.getInstance().clear();
+        ResponseCache.clearAll();
+        FragmentCache.clearAll();
+      }
+    }
+  };
+
   // Class attributes
   // ----------------------------------------------------------------------------------------------
 
@@ -118,9 +169,9 @@ public final class BerliozServlet extends HttpServlet {
   private transient @Nullable BerliozConfig berliozConfig;
 
   /**
-   * The services managed by this servlet.
+   * Loads the services managed by this servlet.
    */
-  private transient @Nullable ServiceRegistry serviceRegistry;
+  private transient @Nullable ServiceLoader serviceLoader;
 
   /**
    * The request dispatcher to forward to the error handler.
@@ -149,12 +200,27 @@ public final class BerliozServlet extends HttpServlet {
   public void init(ServletConfig servletConfig) throws ServletException {
     super.init(servletConfig);
     this.berliozConfig = BerliozConfig.newConfig(servletConfig);
-    this.serviceRegistry = ServiceLoader.getInstance().getDefaultRegistry();
+    this.serviceLoader = ServiceLoader.getInstance();
     this.errorHandler = servletConfig.getServletContext().getNamedDispatcher("ErrorHandlerServlet");
     if (this.errorHandler == null) {
       LOGGER.info("No ErrorHandlerServlet is defined in the Web descriptor");
       LOGGER.info("Berlioz will use the fail safe error handler instead");
     }
+    // Reload the services when they change
+    FileChangeTracker tracker = FileChangeTracker.getInstance();
+    File config = GlobalSettings.getConfig();
+    if (tracker != null && config != null) {
+      tracker.watch(config, SERVICES_LISTENER);
+    }
+    // Compile the XSLT templates before handling requests
+    if (GlobalSettings.has(BerliozOption.XSLT_PRECOMPILE) && GlobalSettings.has(BerliozOption.XSLT_CACHE)) {
+      try {
+        ServiceLoader.getInstance().loadIfRequired();
+        XSLTPrecompiler.precompile(getBerliozConfig(), getServiceRegistry());
+      } catch (BerliozException ex) {
+        LOGGER.warn("Unable to load services to precompile XSLT stylesheets", ex);
+      }
+    }
   }
 
   @Override
@@ -163,7 +229,7 @@ public final class BerliozServlet extends HttpServlet {
     LOGGER.info("Destroying Berlioz Servlet");
     BerliozConfig.unregister(getBerliozConfig());
     this.berliozConfig = null;
-    this.serviceRegistry = null;
+    this.serviceLoader = null;
     this.errorHandler = null;
   }
 
@@ -240,10 +306,44 @@ public final class BerliozServlet extends HttpServlet {
    */
   private void process(HttpServletRequest req, HttpServletResponse res, HttpMethod method, boolean includeContent)
       throws ServletException, IOException {
+    long start = System.nanoTime();
+    FlightEvents.Event event = FlightEvents.REQUEST.begin();
+    RequestProfile timing = new RequestProfile();
+    try {
+      handle(req, res, method, includeContent, timing);
+    } finally {
+      Service service = timing.service();
+      String id = service != null? service.id() : "";
+      int status = res.getStatus();
+      long time = System.nanoTime() - start;
+      REQUESTS.labels(id, Integer.toString(status)).increment();
+      REQUEST_DURATION.labels(id).record(time / 1000);
+      GeneratorListener listener = XMLResponse.getListener();
+      if (service != null && listener != null) {
+        listener.service(service, ContentStatus.forCode(status), Math.max(timing.time(Phase.ETAG), 0), time);
+      }
+      if (event != null) {
+        event.set(0, id).set(1, service != null? service.group() : null).set(2, method.name()).set(3, status).commit();
+      }
+    }
+  }
+
+  /**
+   * Handles requests.
+   *
+   * @param req            The HTTP servlet request.
+   * @param res            The HTTP servlet response.
+   * @param includeContent Whether to include the content in the response.
+   * @param timing         The times spent in each phase of the request.
+   *
+   * @throws ServletException To wrap any non IO exception.
+   * @throws IOException For any IO exception.
+   */
+  private void handle(HttpServletRequest req, HttpServletResponse res, HttpMethod method, boolean includeContent,
+      RequestProfile timing) throws ServletException, IOException {
 
     // Use Berlioz config locally
     BerliozConfig config = getBerliozConfig();
-    ServiceRegistry services = getServiceRegistry();
 
     // Setup and ensure that we use UTF-8 to read data
     req.setCharacterEncoding("utf-8");
@@ -268,21 +368,31 @@ public final class BerliozServlet extends HttpServlet {
       boolean clearCache = reload || isTrue(req.getParameter("clear-xsl-cache"));
       if (clearCache) { XSLTransformer.clearAllCache(); }
 
-      // Allow ETags to be reset
-      boolean resetEtags = reload || isTrue(req.getParameter("reset-etags"));
-      if (resetEtags) { config.resetETagSeed(); }
-
       // Reload the global configuration
       if (reload) { GlobalSettings.load(); }
 
+      // Allow ETags to be reset
+      // NB. When the ETag seed is shared, the value can be a token to send to every server
+      String resetToken = req.getParameter("reset-etags");
+      boolean resetEtags = reload || isReset(resetToken);
+      if (resetEtags) { config.resetETagSeed(isTrue(resetToken)? null : resetToken); }
+
       // Clear the service configuration
       boolean clearServices = reload || isTrue(req.getParameter("reload-services"));
       if (clearServices) { loader.clear(); }
 
+      // Clear the rendered responses and generator fragments
+      if (clearCache || resetEtags || clearServices) { ResponseCache.clearAll(); }
+      if (resetEtags || clearServices) { FragmentCache.clearAll(); }
+
       // If profile specified on URL
       profile = profile || isTrue(req.getParameter("berlioz-profile"));
     }
 
+    // Measure each phase of the request, Server-Timing header if profiling or sampled
+    boolean serverTiming = profile || RequestProfile.isSampled();
+    long start = System.nanoTime();
+
     // Load the services if required
     try {
       loader.loadIfRequired();
@@ -291,8 +401,11 @@ public final class BerliozServlet extends HttpServlet {
       return;
     }
 
+    // Use the current snapshot of the services for the entire request
+    ServiceRegistry services = getServiceRegistry();
+    start = timing.record(Phase.LOAD, start);
+
     // Start handling XML content
-    long start = System.nanoTime();
     String path = HttpRequestWrapper.getBerliozPath(req);
     MatchingService match = services.get(path, method);
 
@@ -300,6 +413,7 @@ public final class BerliozServlet extends HttpServlet {
     if (match == null && method == HttpMethod.POST && GlobalSettings.has(BerliozOption.HTTP_GET_VIA_POST)) {
       match = services.get(path, HttpMethod.GET);
     }
+    start = timing.record(Phase.MATCH, start);
 
     // Still no matching service
     if (match == null) {
@@ -319,7 +433,8 @@ public final class BerliozServlet extends HttpServlet {
     }
 
     // Prepare the XML Response
-    XMLResponse xml = new XMLResponse(req, res, config, match, profile);
+    timing.service(match.service());
+    XMLResponse xml = new XMLResponse(req, res, config, match, profile, timing);
 
     // Include the service as a header for information
     res.setHeader("X-Berlioz-Service", match.service().id());
@@ -338,6 +453,8 @@ public final class BerliozServlet extends HttpServlet {
 
     // Compute the ETag for the request if cacheable and method GET or HEAD
     String etag = null;
+    String cacheKey = null;
+    ResponseCache responses = null;
     boolean cacheable = code == null && match.isCacheable();
     if (cacheable && (method == HttpMethod.GET || method == HttpMethod.HEAD)) {
       String etagXML = xml.getEtag();
@@ -353,13 +470,31 @@ public final class BerliozServlet extends HttpServlet {
         }
         res.setHeader(HttpHeaders.CACHE_CONTROL, cc);
         res.setHeader(HttpHeaders.ETAG, etag);
+        start = timing.record(Phase.ETAG, start);
+        if (serverTiming) {
+          res.setHeader(HttpHeaders.SERVER_TIMING, timing.toServerTiming());
+        }
 
         // Check if the conditions specified in the optional If headers are satisfied.
         ServiceInfo info = new ServiceInfo(etag);
         if (!HttpHeaderUtils.checkIfHeaders(req, res, info)) return;
 
+        // Send the rendered response if it was cached
+        // NB. Profiled responses include the timing of the request so they are not cached
+        responses = profile? null : ResponseCache.getInstance();
+        if (responses != null) {
+          boolean gzip = config.enableCompression() && HttpHeaderUtils.acceptsGZipCompression(req);
+          cacheKey = ResponseCache.toKey(match.service().id(), req.getRequestURI(), req.getQueryString(), etag, config.getContentType(), gzip);
+          CachedResponse cached = responses.get(cacheKey);
+          if (cached != null) {
+            cached.send(res, includeContent);
+            return;
+          }
+        }
+
       } else {
         cacheable = false;
+        start = timing.record(Phase.ETAG, start);
       }
     }
 
@@ -369,11 +504,17 @@ public final class BerliozServlet extends HttpServlet {
       res.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
     }
 
-    // Generate the XML content
-    String content = xml.generate();
-    long end = System.nanoTime();
+    // Generate the XML content (only invoke the generators when using a pipeline)
+    boolean pipeline = transformer != null && GlobalSettings.has(BerliozOption.XSLT_PIPELINE);
+    String content = null;
+    if (pipeline) {
+      xml.invoke();
+    } else {
+      content = xml.generate();
+    }
+    start = timing.record(Phase.GENERATE, start);
     if (profile) {
-      LOGGER.info("Content generated in {} ms", ProfileFormat.format(end - start));
+      LOGGER.info("Content generated in {} ms", ProfileFormat.format(timing.time(Phase.GENERATE)));
     }
 
     // Examine the status
@@ -403,17 +544,21 @@ public final class BerliozServlet extends HttpServlet {
     // Produce the output
     BerliozOutput result = null;
     if (transformer != null) {
-      XSLTransformResult xslresult = transformer.transform(content, req, xml.getService());
+      XSLTransformResult xslresult = content != null? transformer.transform(content, req, xml.getService())
+          : transformer.transform(xml, req);
+      start = timing.record(Phase.XSLT, start);
       if (profile) {
-        LOGGER.info("XSLT Transformation {} ms", ProfileFormat.format(xslresult.time()));
+        LOGGER.info("XSLT Transformation {} ms", ProfileFormat.format(timing.time(Phase.XSLT)));
       }
       result = xslresult;
       if (xslresult.status() == Status.ERROR) {
         res.reset();
         res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        cacheKey = null;
       }
     } else {
-      result = new XMLContent(content);
+      result = new XMLContent(content != null? content : xml.generate());
+      start = timing.record(Phase.GENERATE, start);
     }
 
     // Update content type from XSLT transform result (MUST be specified before the output is requested)
@@ -425,13 +570,46 @@ public final class BerliozServlet extends HttpServlet {
       config.setContentType(ctype);
     }
 
+    // Only successful responses without other headers (e.g. cookies) are cached
+    if (status != ContentStatus.OK || (cacheKey != null && ResponseCache.hasOtherHeaders(res.getHeaderNames()))) {
+      cacheKey = null;
+    }
+
+    // Last chance to report the timing as a header (the output is not measured)
+    if (serverTiming) {
+      res.setHeader(HttpHeaders.SERVER_TIMING, timing.toServerTiming());
+    }
+
     // Apply Compression if necessary
     boolean isCompressed = config.enableCompression() && HttpHeaderUtils.isCompressible(result.getMediaType());
     if (isCompressed) {
 
-      if (HttpHeaderUtils.acceptsGZipCompression(req)) {
-        byte[] compressed = ResourceCompressor.compress(result.content(), Charset.forName(result.getEncoding()));
-        if (compressed.length > 0) {
+      Charset charset = Charset.forName(result.getEncoding());
+      boolean buffered = (responses != null && cacheKey != null)
+          || result.content().length() <= GlobalSettings.get(COMPRESSION_BUFFER_LIMIT, DEFAULT_COMPRESSION_BUFFER_LIMIT);
+      if (HttpHeaderUtils.acceptsGZipCompression(req) && !buffered) {
+        // Large content is streamed without Content-Length
+        res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        if (etag != null) {
+          res.setHeader(HttpHeaders.ETAG, HttpHeaderUtils.getETagForGZip(etag));
+        }
+        if (includeContent) {
+          ServletOutputStream out = res.getOutputStream();
+          ResourceCompressor.compress(result.content(), charset, out);
+          out.flush();
+        }
+      } else if (HttpHeaderUtils.acceptsGZipCompression(req)) {
+        byte[] compressed = ResourceCompressor.compress(result.content(), charset);
+        start = timing.record(Phase.COMPRESS, start);
+        if (serverTiming) {
+          res.setHeader(HttpHeaders.SERVER_TIMING, timing.toServerTiming());
+        }
+        if (compressed.length > 0 && responses != null && cacheKey != null && etag != null) {
+          String gzipETag = HttpHeaderUtils.getETagForGZip(etag);
+          CachedResponse cached = new CachedResponse(cacheKey, status.code(), ctype, result.getEncoding(), "gzip", gzipETag, compressed);
+          responses.put(cached);
+          cached.send(res, includeContent);
+        } else if (compressed.length > 0) {
           res.setIntHeader(HttpHeaders.CONTENT_LENGTH, compressed.length);
           res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
           if (etag != null) {
@@ -452,7 +630,12 @@ public final class BerliozServlet extends HttpServlet {
 
     // Copy the uncompressed version if needed
     if (!isCompressed) {
-      if (includeContent) {
+      if (responses != null && cacheKey != null && etag != null) {
+        byte[] bytes = result.content().toString().getBytes(Charset.forName(result.getEncoding()));
+        CachedResponse cached = new CachedResponse(cacheKey, status.code(), ctype, result.getEncoding(), null, etag, bytes);
+        responses.put(cached);
+        cached.send(res, includeContent);
+      } else if (includeContent) {
         PrintWriter out = res.getWriter();
         out.print(result.content());
         out.flush();
@@ -461,6 +644,10 @@ public final class BerliozServlet extends HttpServlet {
         res.setIntHeader(HttpHeaders.CONTENT_LENGTH, CharsetUtils.length(result.content(), Charset.forName(result.getEncoding())));
       }
     }
+    timing.record(Phase.WRITE, start);
+    if (profile) {
+      LOGGER.info("Request profile {}", timing);
+    }
 
   }
 
@@ -534,12 +721,23 @@ public final class BerliozServlet extends HttpServlet {
     return "true".equals(parameter);
   }
 
+  /**
+   * Indicates whether the value of the 'reset-etags' parameter requests the ETags to be reset.
+   *
+   * @param parameter "true" or a token to reset the ETags
+   *
+   * @return <code>true</code> unless the parameter is <code>null</code>, empty or "false".
+   */
+  private boolean isReset(@Nullable String parameter) {
+    return parameter != null && !parameter.isEmpty() && !"false".equals(parameter);
+  }
+
   private BerliozConfig getBerliozConfig() {
     return Objects.requireNonNull(this.berliozConfig, "Berlioz is not configured!");
   }
 
   private ServiceRegistry getServiceRegistry() {
-    return Objects.requireNonNull(this.serviceRegistry, "Berlioz services are not configured!");
+    return Objects.requireNonNull(this.serviceLoader, "Berlioz services are not configured!").getDefaultRegistry();
   }
 
   // Private internal class
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.bundler.WebBundleTool;
+import org.pageseeder.berlioz.http.HttpHeaderUtils;
+import org.pageseeder.berlioz.http.HttpHeaders;
+import org.pageseeder.berlioz.util.EntityInfo;
+import org.pageseeder.berlioz.util.GenericEntityInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the bundles generated by the bundler.
+ *
+ * <p>Since the name of a bundle changes with its content, bundles are served with a long-lived
+ * immutable <code>Cache-Control</code>. The gzip version of the bundle written by the bundler
+ * is served to clients accepting gzip so that bundles are never compressed on the fly.
+ *
+ * <p>Since bundle names are derived from their content and never reused for different content,
+ * the ETag of a bundle is derived from its name so that all servers use the same ETag for the
+ * same bundle. Conditional and range requests are answered using only the name and
+ * modification date of the file, and the content is transferred directly from the file channel.
+ *
+ * <p>This servlet should be mapped to the locations of the bundles:
+ *
+ * <pre>
+ * &lt;servlet&gt;
+ *   &lt;servlet-name&gt;BundleServlet&lt;/servlet-name&gt;
+ *   &lt;servlet-class&gt;org.pageseeder.berlioz.servlet.BundleServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *   &lt;servlet-name&gt;BundleServlet&lt;/servlet-name&gt;
+ *   &lt;url-pattern&gt;/script/_/*&lt;/url-pattern&gt;
+ *   &lt;url-pattern&gt;/style/_/*&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class BundleServlet extends HttpServlet {
+
+  /**
+   * As per requirement for the Serializable interface.
+   */
+  private static final long serialVersionUID = 4612890453785129315L;
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(BundleServlet.class);
+
+  /**
+   * The default maximum age of bundles in seconds (one year).
+   */
+  private static final long DEFAULT_MAX_AGE = 31536000L;
+
+  /**
+   * Returned when the requested range cannot be satisfied.
+   */
+  static final long[] UNSATISFIABLE = new long[0];
+
+  /**
+   * The root of the web application.
+   */
+  private transient @Nullable File root;
+
+  /**
+   * The value of the cache control header.
+   */
+  private String cacheControl = "public, max-age="+DEFAULT_MAX_AGE+", immutable";
+
+  /**
+   * Initialises the bundle servlet.
+   *
+   * <p>This servlet accepts the following init parameters:
+   * <ul>
+   *   <li><code>max-age</code> the maximum age of bundles in seconds (one year by default)</li>
+   * </ul>
+   *
+   * @param config The servlet configuration.
+   *
+   * @throws ServletException Should an exception occur.
+   */
+  @Override
+  public void init(ServletConfig config) throws ServletException {
+    super.init(config);
+    String root = config.getServletContext().getRealPath("/");
+    if (root == null)
+      throw new ServletException("Unable to serve bundles: the web application must be deployed as a directory");
+    this.root = new File(root);
+    String maxAge = config.getInitParameter("max-age");
+    if (maxAge != null) {
+      try {
+        this.cacheControl = "public, max-age="+Long.parseLong(maxAge.trim())+", immutable";
+      } catch (NumberFormatException ex) {
+        LOGGER.warn("Ignoring invalid 'max-age' init-parameter: {}", maxAge);
+      }
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    serve(req, res, true);
+  }
+
+  @Override
+  protected void doHead(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    serve(req, res, false);
+  }
+
+  /**
+   * Serves the requested bundle.
+   *
+   * @param req     The HTTP request.
+   * @param res     The HTTP response.
+   * @param content <code>true</code> to include the content; <code>false</code> for headers only.
+   *
+   * @throws IOException If thrown while writing the response.
+   */
+  private void serve(HttpServletRequest req, HttpServletResponse res, boolean content) throws IOException {
+    File file = toFile(this.root, req.getServletPath(), req.getPathInfo());
+    if (file == null || !file.isFile()) {
+      res.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String mediaType = getMediaType(file);
+    EntityInfo info = new GenericEntityInfo(file.lastModified(), mediaType, toETag(file.getName()));
+
+    // Use the gzip version only if it was written after the bundle
+    File gzip = new File(file.getParentFile(), file.getName()+WebBundleTool.GZIP_EXTENSION);
+    boolean hasGZip = gzip.isFile() && gzip.lastModified() >= info.getLastModified();
+    boolean compressed = hasGZip && HttpHeaderUtils.acceptsGZipCompression(req);
+    String etag = compressed? HttpHeaderUtils.getETagForGZip(info.getETag()) : info.getETag();
+
+    res.setHeader(HttpHeaders.CACHE_CONTROL, this.cacheControl);
+    res.setDateHeader(HttpHeaders.LAST_MODIFIED, info.getLastModified());
+    res.setHeader(HttpHeaders.ETAG, etag);
+    res.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    if (hasGZip) {
+      res.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    if (!HttpHeaderUtils.checkIfHeaders(req, res, info)) {
+      if (res.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+        res.setHeader(HttpHeaders.ETAG, etag);
+      }
+      return;
+    }
+
+    File body = compressed? gzip : file;
+    try (FileChannel channel = FileChannel.open(body.toPath(), StandardOpenOption.READ)) {
+      long length = channel.size();
+      long[] range = getRange(req, etag, info.getLastModified(), length);
+      if (range == UNSATISFIABLE) {
+        res.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */"+length);
+        res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      long start = range != null? range[0] : 0;
+      long count = range != null? range[1] - range[0] + 1 : length;
+      if (range != null) {
+        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        res.setHeader(HttpHeaders.CONTENT_RANGE, "bytes "+range[0]+"-"+range[1]+"/"+length);
+      }
+      res.setContentType(mediaType);
+      if (compressed) {
+        res.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      HttpHeaderUtils.setContentLength(res, count);
+      if (content && count > 0) {
+        transfer(channel, start, count, Channels.newChannel(res.getOutputStream()));
+      }
+    } catch (NoSuchFileException ex) {
+      // The bundle was deleted after it was checked
+      if (!res.isCommitted()) {
+        res.reset();
+        res.sendError(HttpServletResponse.SC_NOT_FOUND);
+      }
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Returns the bundle file corresponding to the request.
+   *
+   * <p>Only files directly in the folder of the servlet path are returned; hidden and temporary
+   * files are rejected.
+   *
+   * @param root        The root of the web application.
+   * @param servletPath The servlet path of the request.
+   * @param name        The path info of the request.
+   *
+   * @return the file or <code>null</code> if the path does not point to a bundle.
+   */
+  static @Nullable File toFile(@Nullable File root, String servletPath, @Nullable String name) {
+    if (root == null || name == null || name.lastIndexOf('/') != 0 || name.length() < 2) return null;
+    if (name.charAt(1) == '.' || name.indexOf('\\') >= 0 || name.endsWith(".tmp")) return null;
+    return new File(new File(root, servletPath), name.substring(1));
+  }
+
+  /**
+   * Returns the ETag of the bundle with the specified name.
+   *
+   * <p>Bundle names are immutable, so the ETag does not depend on the modification date of the
+   * file which differs on each server.
+   *
+   * @param name The name of the bundle file.
+   *
+   * @return the corresponding ETag
+   */
+  static String toETag(String name) {
+    return '"'+name.replace('"', '_')+'"';
+  }
+
+  /**
+   * Returns the media type of the specified bundle.
+   *
+   * @param file The bundle.
+   *
+   * @return the media type including the charset for text
+   */
+  private String getMediaType(File file) {
+    String mediaType = getServletContext().getMimeType(file.getName());
+    if (mediaType == null) {
+      String name = file.getName();
+      mediaType = name.endsWith(".css")? "text/css" : name.endsWith(".js")? "application/javascript" : "application/octet-stream";
+    }
+    return HttpHeaderUtils.isCompressible(mediaType)? mediaType+";charset=utf-8" : mediaType;
+  }
+
+  /**
+   * Returns the first and last positions of the byte range requested.
+   *
+   * <p>Only single byte ranges are supported, the entire content is returned for multiple ranges,
+   * invalid ranges or if the <code>If-Range</code> condition is not met.
+   *
+   * @param req      The HTTP request.
+   * @param etag     The entity tag of the representation.
+   * @param modified When the bundle was last modified.
+   * @param length   The length of the representation.
+   *
+   * @return the range, <code>null</code> for the entire content or {@link #UNSATISFIABLE}
+   */
+  private static long @Nullable [] getRange(HttpServletRequest req, @Nullable String etag, long modified, long length) {
+    String range = req.getHeader(HttpHeaders.RANGE);
+    if (range == null) return null;
+    String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange != null) {
+      if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+        if (!ifRange.equals(etag)) return null;
+      } else {
+        try {
+          if (req.getDateHeader(HttpHeaders.IF_RANGE) / 1000 != modified / 1000) return null;
+        } catch (IllegalArgumentException ex) {
+          return null;
+        }
+      }
+    }
+    return parseRange(range, length);
+  }
+
+  /**
+   * Parses the byte range requested using the <code>Range</code> header.
+   *
+   * @param range  The value of the <code>Range</code> header.
+   * @param length The length of the representation.
+   *
+   * @return the first and last positions, <code>null</code> for the entire content or {@link #UNSATISFIABLE}
+   */
+  static long @Nullable [] parseRange(String range, long length) {
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) return null;
+    String spec = range.substring(6).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) return null;
+    try {
+      long first;
+      long last;
+      if (dash == 0) {
+        long suffix = Long.parseLong(spec.substring(1));
+        if (suffix <= 0 || length == 0) return UNSATISFIABLE;
+        first = Math.max(0, length - suffix);
+        last = length - 1;
+      } else {
+        first = Long.parseLong(spec.substring(0, dash));
+        last = dash == spec.length() - 1? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+        if (first >= length) return UNSATISFIABLE;
+        if (last < first) return null;
+      }
+      return new long[]{first, last};
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Transfers the specified part of the file to the output.
+   *
+   * @param channel The file channel.
+   * @param start   The position of the first byte to transfer.
+   * @param count   The number of bytes to transfer.
+   * @param out     Where to transfer the bytes to.
+   *
+   * @throws IOException If thrown while reading the file or writing the output.
+   */
+  private static void transfer(FileChannel channel, long start, long count, WritableByteChannel out) throws IOException {
+    long position = start;
+    long remaining = count;
+    while (remaining > 0) {
+      long sent = channel.transferTo(position, remaining, out);
+      if (sent <= 0) break;
+      position += sent;
+      remaining -= sent;
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozOption;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.util.LRUCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache for the XML produced by cacheable content generators.
+ *
+ * <p>Fragments are keyed by the class of the generator, its parameters and its ETag so that a
+ * generator used by several services is only invoked once for the same parameters and ETag.
+ *
+ * <p>The cache is bounded by the approximate memory used by the fragments which can be
+ * specified in bytes with the <code>berlioz.generator.fragment-cache.max-bytes</code> property.
+ *
+ * @see BerliozOption#GENERATOR_FRAGMENT_CACHE
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class FragmentCache extends LRUCache<String, String> {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(FragmentCache.class);
+
+  /**
+   * The name of the property to specify the maximum number of bytes in the cache.
+   */
+  public static final String MAX_BYTES_PROPERTY = "berlioz.generator.fragment-cache.max-bytes";
+
+  /**
+   * The default maximum number of bytes in the cache (16MB).
+   */
+  private static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * Separates the components of the key, not expected in parameter names or values.
+   */
+  private static final char SEPARATOR = '\u0000';
+
+  /**
+   * The single instance, created lazily.
+   */
+  private static volatile @Nullable FragmentCache singleton;
+
+  /**
+   * @param capacity The maximum number of bytes in the cache.
+   */
+  private FragmentCache(long capacity) {
+    super(capacity);
+  }
+
+  @Override
+  protected long sizeOf(String fragment) {
+    // Java strings use two bytes per character
+    return fragment.length() * 2L;
+  }
+
+  /**
+   * Returns the key for the fragment produced by the generator of the specified request.
+   *
+   * @param request The content request
+   * @param etag    The ETag of the generator for that request
+   *
+   * @return The corresponding key
+   */
+  static String toKey(HttpContentRequest request, String etag) {
+    StringBuilder key = new StringBuilder();
+    key.append(request.generator().getClass().getName());
+    List<String> names = Collections.list(request.getParameterNames());
+    if (names.size() > 1) {
+      names = new ArrayList<>(names);
+      Collections.sort(names);
+    }
+    for (String name : names) {
+      key.append(SEPARATOR).append(name).append('=');
+      String value = request.getParameter(name);
+      if (value != null) {
+        key.append(value);
+      }
+    }
+    key.append(SEPARATOR).append(etag);
+    return key.toString();
+  }
+
+  /**
+   * Returns the fragment cache if it is enabled.
+   *
+   * @return the fragment cache or <code>null</code> if the fragment cache is disabled.
+   */
+  public static @Nullable FragmentCache getInstance() {
+    if (!GlobalSettings.has(BerliozOption.GENERATOR_FRAGMENT_CACHE)) return null;
+    FragmentCache cache = singleton;
+    if (cache == null) {
+      synchronized (FragmentCache.class) {
+        cache = singleton;
+        if (cache == null) {
+          int capacity = GlobalSettings.get(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+          LOGGER.info("Caching the XML of cacheable generators (max {} bytes)", capacity);
+          singleton = cache = new FragmentCache(Math.max(capacity, 0));
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Clears the fragment cache if it was created.
+   */
+  public static void clearAll() {
+    FragmentCache cache = singleton;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+}
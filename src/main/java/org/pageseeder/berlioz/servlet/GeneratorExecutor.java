@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The executor used to invoke content generators in parallel.
+ *
+ * <p>When the JVM supports virtual threads, each generator runs in its own virtual thread;
+ * otherwise a fork-join pool is used. In both cases, the number of generators running at the
+ * same time is bounded by the <code>berlioz.generator.threads</code> property.
+ *
+ * <p>All threads are daemon threads so that this executor does not need to be shut down.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class GeneratorExecutor {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(GeneratorExecutor.class);
+
+  /**
+   * The name of the property to specify the maximum number of generators running concurrently.
+   */
+  static final String THREADS_PROPERTY = "berlioz.generator.threads";
+
+  /**
+   * The single instance, created lazily.
+   */
+  private static volatile @Nullable GeneratorExecutor singleton;
+
+  /**
+   * The underlying executor.
+   */
+  private final ExecutorService _executor;
+
+  /**
+   * Limits the number of tasks running concurrently (only with virtual threads).
+   */
+  private final @Nullable Semaphore _permits;
+
+  /**
+   * Creates a new executor.
+   *
+   * @param executor The underlying executor
+   * @param permits  The semaphore bounding concurrency if the executor is unbounded.
+   */
+  private GeneratorExecutor(ExecutorService executor, @Nullable Semaphore permits) {
+    this._executor = executor;
+    this._permits = permits;
+  }
+
+  /**
+   * Submits the specified task.
+   *
+   * @param task The task to submit.
+   * @param <T>  The type of result
+   *
+   * @return The future result of the task.
+   *
+   * @throws java.util.concurrent.RejectedExecutionException If the task could not be scheduled.
+   */
+  <T> Future<T> submit(final Callable<T> task) {
+    final Semaphore permits = this._permits;
+    if (permits == null) return this._executor.submit(task);
+    return this._executor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        permits.acquire();
+        try {
+          return task.call();
+        } finally {
+          permits.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the executor to use for the generators.
+   *
+   * @return the executor to use for the generators.
+   */
+  static GeneratorExecutor getInstance() {
+    GeneratorExecutor executor = singleton;
+    if (executor == null) {
+      synchronized (GeneratorExecutor.class) {
+        executor = singleton;
+        if (executor == null) {
+          singleton = executor = newInstance();
+        }
+      }
+    }
+    return executor;
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * @return a new executor using virtual threads if available or a fork-join pool.
+   */
+  private static GeneratorExecutor newInstance() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    int threads = GlobalSettings.get(THREADS_PROPERTY, processors * 4);
+    if (threads < 1) {
+      threads = 1;
+    }
+    ExecutorService virtual = newVirtualThreadExecutor();
+    if (virtual != null) {
+      LOGGER.info("Generators invoked in parallel using virtual threads (max {})", threads);
+      return new GeneratorExecutor(virtual, new Semaphore(threads));
+    }
+    LOGGER.info("Generators invoked in parallel using a fork-join pool ({} threads)", threads);
+    return new GeneratorExecutor(new ForkJoinPool(threads), null);
+  }
+
+  /**
+   * Virtual threads are only available from Java 21, so we look them up by reflection.
+   *
+   * @return an executor starting a virtual thread per task or <code>null</code>.
+   */
+  private static @Nullable ExecutorService newVirtualThreadExecutor() {
+    try {
+      Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      return (ExecutorService)executor;
+    } catch (ReflectiveOperationException | ClassCastException ex) {
+      LOGGER.debug("Virtual threads are not available", ex);
+      return null;
+    }
+  }
+
+}
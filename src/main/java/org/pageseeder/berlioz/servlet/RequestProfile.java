@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozOption;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.content.Service;
+
+/**
+ * The time spent in each phase of a request handled by a Berlioz servlet.
+ *
+ * <p>Phases are measured with <code>System.nanoTime()</code> on every request, the profile can
+ * then be reported as a <code>Server-Timing</code> header, in the XML response or in the logs.
+ *
+ * <p>This class is not thread-safe and should only be updated by the thread handling the request.
+ *
+ * @see BerliozOption#HTTP_SERVER_TIMING
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class RequestProfile {
+
+  /**
+   * The name of the property to specify the percentage of requests which include the
+   * <code>Server-Timing</code> header.
+   */
+  public static final String SAMPLE_RATE_PROPERTY = "berlioz.http.server-timing.sample-rate";
+
+  /**
+   * The phases of a request.
+   */
+  public enum Phase {
+
+    /** Checking whether the services must be loaded. */
+    LOAD("load", "Services loading"),
+
+    /** Finding the service matching the URL. */
+    MATCH("match", "Service matching"),
+
+    /** Computing the ETag of the response. */
+    ETAG("etag", "ETag computation"),
+
+    /** Invoking the generators (and serialising the XML unless the pipeline is used). */
+    GENERATE("generate", "Content generation"),
+
+    /** Transforming the XML with XSLT. */
+    XSLT("xslt", "XSLT transformation"),
+
+    /** Compressing the output. */
+    COMPRESS("compress", "Compression"),
+
+    /** Writing the output to the response. */
+    WRITE("write", "Output");
+
+    /**
+     * The metric name in the Server-Timing header.
+     */
+    private final String _metric;
+
+    /**
+     * The description of the phase.
+     */
+    private final String _description;
+
+    /**
+     * @param metric      The metric name in the Server-Timing header.
+     * @param description The description of the phase.
+     */
+    Phase(String metric, String description) {
+      this._metric = metric;
+      this._description = description;
+    }
+
+    /**
+     * @return The metric name in the Server-Timing header.
+     */
+    public String metric() {
+      return this._metric;
+    }
+
+    /**
+     * @return The description of the phase.
+     */
+    public String description() {
+      return this._description;
+    }
+  }
+
+  /**
+   * The time spent in each phase in nanoseconds (-1 if not measured).
+   */
+  private final long[] _times = new long[Phase.values().length];
+
+  /**
+   * The names of the generators invoked.
+   */
+  private final List<String> _generators = new ArrayList<>();
+
+  /**
+   * The time spent in each generator in nanoseconds.
+   */
+  private final List<Long> _generatorTimes = new ArrayList<>();
+
+  /**
+   * The service matching the request.
+   */
+  private @Nullable Service service;
+
+  /**
+   * Creates a new empty profile.
+   */
+  public RequestProfile() {
+    for (int i = 0; i < this._times.length; i++) {
+      this._times[i] = -1;
+    }
+  }
+
+  /**
+   * Records the time spent in the specified phase from the specified start time until now.
+   *
+   * <p>If the phase was already measured, the time is added.
+   *
+   * @param phase The phase to record.
+   * @param start The time the phase started as returned by <code>System.nanoTime()</code>
+   *
+   * @return the current time as returned by <code>System.nanoTime()</code>
+   */
+  public long record(Phase phase, long start) {
+    long now = System.nanoTime();
+    add(phase, now - start);
+    return now;
+  }
+
+  /**
+   * Adds the specified time to the specified phase.
+   *
+   * @param phase The phase to record.
+   * @param time  The time spent in nanoseconds.
+   */
+  public void add(Phase phase, long time) {
+    int i = phase.ordinal();
+    this._times[i] = Math.max(this._times[i], 0) + time;
+  }
+
+  /**
+   * Records the time spent by a generator.
+   *
+   * @param name    The name of the generator in the service.
+   * @param etag    The time spent computing the ETag in nanoseconds.
+   * @param process The time spent processing the request in nanoseconds.
+   */
+  public void generator(String name, long etag, long process) {
+    this._generators.add(name);
+    this._generatorTimes.add(etag + process);
+  }
+
+  /**
+   * @param service The service matching the request.
+   */
+  public void service(Service service) {
+    this.service = service;
+  }
+
+  /**
+   * @return The service matching the request or <code>null</code> if not matched yet.
+   */
+  public @Nullable Service service() {
+    return this.service;
+  }
+
+  /**
+   * Returns the time spent in the specified phase.
+   *
+   * @param phase The phase
+   *
+   * @return the time spent in nanoseconds or -1 if the phase was not measured.
+   */
+  public long time(Phase phase) {
+    return this._times[phase.ordinal()];
+  }
+
+  /**
+   * Returns the value of the <code>Server-Timing</code> header for the phases measured so far.
+   *
+   * <p>Generators are reported as <code>gen1</code>, <code>gen2</code>, etc. with their name
+   * as description.
+   *
+   * @return the value of the Server-Timing header.
+   */
+  public String toServerTiming() {
+    StringBuilder timing = new StringBuilder();
+    for (Phase phase : Phase.values()) {
+      long time = this._times[phase.ordinal()];
+      if (time >= 0) {
+        metric(timing, phase.metric(), time, phase.description());
+      }
+    }
+    for (int i = 0; i < this._generators.size(); i++) {
+      metric(timing, "gen"+(i+1), this._generatorTimes.get(i).longValue(), this._generators.get(i));
+    }
+    return timing.toString();
+  }
+
+  @Override
+  public String toString() {
+    return toServerTiming();
+  }
+
+  /**
+   * Indicates whether the <code>Server-Timing</code> header should be included in the response
+   * based on the sample rate.
+   *
+   * @return <code>true</code> if the Server-Timing option is enabled and the request is sampled.
+   */
+  static boolean isSampled() {
+    if (!GlobalSettings.has(BerliozOption.HTTP_SERVER_TIMING)) return false;
+    int rate = GlobalSettings.get(SAMPLE_RATE_PROPERTY, 100);
+    return rate >= 100 || (rate > 0 && ThreadLocalRandom.current().nextInt(100) < rate);
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Appends a metric to the Server-Timing header.
+   *
+   * @param timing      The header value.
+   * @param name        The name of the metric (must be a token).
+   * @param nanos       The duration in nanoseconds.
+   * @param description The description of the metric.
+   */
+  private static void metric(StringBuilder timing, String name, long nanos, String description) {
+    if (timing.length() > 0) {
+      timing.append(", ");
+    }
+    timing.append(name).append(";dur=");
+    // Duration in milliseconds with 3 decimals
+    long micros = nanos / 1000;
+    timing.append(micros / 1000).append('.');
+    long fraction = micros % 1000;
+    if (fraction < 100) timing.append('0');
+    if (fraction < 10) timing.append('0');
+    timing.append(fraction);
+    timing.append(";desc=\"");
+    for (int i = 0; i < description.length(); i++) {
+      char c = description.charAt(i);
+      if (c == '"' || c == '\\') {
+        timing.append('\\');
+      }
+      timing.append(c >= ' ' && c < 0x7f? c : '?');
+    }
+    timing.append('"');
+  }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozOption;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.http.HttpHeaders;
+import org.pageseeder.berlioz.util.LRUCache;
+import org.pageseeder.berlioz.util.MetricsRegistry;
+import org.pageseeder.berlioz.util.MetricsRegistry.Collector;
+import org.pageseeder.berlioz.util.MetricsWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache for the responses rendered by Berlioz servlets.
+ *
+ * <p>Responses are keyed by the service, the request URI and query string, their ETag, the media
+ * type of the servlet and whether the response was compressed, so that a cached response can be
+ * sent without invoking the generators, transforming or compressing the content.
+ *
+ * <p>Only the status, content type, encoding and ETag are sent with a cached response, so responses
+ * including other headers than the ones set by Berlioz, such as cookies, are not cached.
+ *
+ * <p>The cache is bounded by the total number of bytes in the cached responses which can be
+ * specified with the <code>berlioz.http.response-cache.max-bytes</code> property.
+ *
+ * @see BerliozOption#HTTP_RESPONSE_CACHE
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class ResponseCache extends LRUCache<String, ResponseCache.CachedResponse> {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+
+  /**
+   * The name of the property to specify the maximum number of bytes in the cache.
+   */
+  public static final String MAX_BYTES_PROPERTY = "berlioz.http.response-cache.max-bytes";
+
+  /**
+   * The default maximum number of bytes in the cache (32MB).
+   */
+  private static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  /**
+   * The approximate memory used by a cached response in addition to its content.
+   */
+  private static final int ENTRY_OVERHEAD = 256;
+
+  /**
+   * Separates the components of the key, not expected in URIs or ETags.
+   */
+  private static final char SEPARATOR = '\u0000';
+
+  /**
+   * The headers set by Berlioz on the responses which can be cached (case insensitive).
+   */
+  private static final Set<String> BERLIOZ_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+  static {
+    BERLIOZ_HEADERS.addAll(Arrays.asList(HttpHeaders.ACCEPT_RANGES, HttpHeaders.CACHE_CONTROL,
+        HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG,
+        HttpHeaders.EXPIRES, HttpHeaders.SERVER_TIMING, HttpHeaders.VARY, "X-Berlioz-Service"));
+  }
+
+  /**
+   * The single instance, created lazily.
+   */
+  private static volatile @Nullable ResponseCache singleton;
+
+  static {
+    MetricsRegistry.getInstance().register(new Collector() {
+      @Override
+      public void collect(MetricsWriter out) throws IOException {
+        ResponseCache cache = singleton;
+        if (cache == null) return;
+        out.family("berlioz_response_cache_hits_total", "Responses sent from the response cache.", "counter");
+        out.sample("berlioz_response_cache_hits_total", cache.hits());
+        out.family("berlioz_response_cache_misses_total", "Responses not found in the response cache.", "counter");
+        out.sample("berlioz_response_cache_misses_total", cache.misses());
+        out.family("berlioz_response_cache_evictions_total", "Responses evicted from the response cache.", "counter");
+        out.sample("berlioz_response_cache_evictions_total", cache.evictions());
+        out.family("berlioz_response_cache_bytes", "Approximate bytes used by the cached responses.", "gauge");
+        out.sample("berlioz_response_cache_bytes", cache.size());
+      }
+    });
+  }
+
+  /**
+   * @param capacity The maximum number of bytes in the cache.
+   */
+  private ResponseCache(long capacity) {
+    super(capacity);
+  }
+
+  @Override
+  protected long sizeOf(CachedResponse response) {
+    return response._content.length + response._key.length() * 2 + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Adds the specified response to the cache.
+   *
+   * @param response The response to cache.
+   */
+  void put(CachedResponse response) {
+    if (!put(response._key, response)) {
+      LOGGER.debug("Response {} too large to be cached", response._key);
+    }
+  }
+
+  /**
+   * Returns the key for a response.
+   *
+   * <p>The ETag of a response does not depend on the URL, so the key must include the service
+   * and the full request URI including the query string.
+   *
+   * @param service   The ID of the service
+   * @param uri       The request URI
+   * @param query     The query string (may be <code>null</code>)
+   * @param etag      The ETag computed for the response
+   * @param mediaType The media type of the servlet
+   * @param gzip      Whether the response is compressed
+   *
+   * @return The corresponding key
+   */
+  static String toKey(String service, String uri, @Nullable String query, String etag, String mediaType, boolean gzip) {
+    StringBuilder key = new StringBuilder();
+    key.append(service).append(SEPARATOR).append(uri);
+    if (query != null) {
+      key.append('?').append(query);
+    }
+    key.append(SEPARATOR).append(etag);
+    key.append(SEPARATOR).append(mediaType);
+    key.append(SEPARATOR).append(gzip? "gzip" : "identity");
+    return key.toString();
+  }
+
+  /**
+   * Indicates whether a response includes headers which would not be sent with the cached response.
+   *
+   * @param names The names of the headers of the response
+   *
+   * @return <code>true</code> if any header was not set by Berlioz;
+   *         <code>false</code> if the response can be cached.
+   */
+  static boolean hasOtherHeaders(Collection<String> names) {
+    for (String name : names) {
+      if (!BERLIOZ_HEADERS.contains(name)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the response cache if it is enabled.
+   *
+   * @return the response cache or <code>null</code> if the response cache is disabled.
+   */
+  public static @Nullable ResponseCache getInstance() {
+    if (!GlobalSettings.has(BerliozOption.HTTP_RESPONSE_CACHE)) return null;
+    ResponseCache cache = singleton;
+    if (cache == null) {
+      synchronized (ResponseCache.class) {
+        cache = singleton;
+        if (cache == null) {
+          int capacity = GlobalSettings.get(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+          LOGGER.info("Caching rendered responses (max {} bytes)", capacity);
+          singleton = cache = new ResponseCache(Math.max(capacity, 0));
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Clears the response cache if it was created.
+   */
+  public static void clearAll() {
+    ResponseCache cache = singleton;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * A rendered response.
+   */
+  static final class CachedResponse {
+
+    /**
+     * The key for this response.
+     */
+    private final String _key;
+
+    /**
+     * The HTTP status code.
+     */
+    private final int _status;
+
+    /**
+     * The content type including the charset.
+     */
+    private final String _contentType;
+
+    /**
+     * The charset.
+     */
+    private final String _encoding;
+
+    /**
+     * The content encoding (<code>null</code> if not compressed).
+     */
+    private final @Nullable String _contentEncoding;
+
+    /**
+     * The value of the ETag header.
+     */
+    private final String _etag;
+
+    /**
+     * The bytes to send.
+     */
+    private final byte[] _content;
+
+    /**
+     * @param key             The key for this response.
+     * @param status          The HTTP status code.
+     * @param contentType     The content type including the charset.
+     * @param encoding        The charset.
+     * @param contentEncoding The content encoding (<code>null</code> if not compressed)
+     * @param etag            The value of the ETag header.
+     * @param content         The bytes to send.
+     */
+    CachedResponse(String key, int status, String contentType, String encoding,
+        @Nullable String contentEncoding, String etag, byte[] content) {
+      this._key = key;
+      this._status = status;
+      this._contentType = contentType;
+      this._encoding = encoding;
+      this._contentEncoding = contentEncoding;
+      this._etag = etag;
+      this._content = content;
+    }
+
+    /**
+     * Sends this response.
+     *
+     * <p>Other headers, such as the caching headers, must have already been set.
+     *
+     * @param res            The HTTP servlet response.
+     * @param includeContent Whether to include the content in the response.
+     *
+     * @throws IOException If thrown while writing the content.
+     */
+    void send(HttpServletResponse res, boolean includeContent) throws IOException {
+      res.setStatus(this._status);
+      res.setContentType(this._contentType);
+      res.setCharacterEncoding(this._encoding);
+      if (this._contentEncoding != null) {
+        res.setHeader(HttpHeaders.CONTENT_ENCODING, this._contentEncoding);
+      }
+      res.setHeader(HttpHeaders.ETAG, this._etag);
+      res.setIntHeader(HttpHeaders.CONTENT_LENGTH, this._content.length);
+      if (includeContent) {
+        ServletOutputStream out = res.getOutputStream();
+        out.write(this._content);
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozException;
+import org.pageseeder.berlioz.xml.XMLUtils;
+import org.pageseeder.xmlwriter.XMLWriter;
+import org.pageseeder.xmlwriter.sax.XMLWriterSAX;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * An XML writer reporting everything written to it as SAX events to a content handler.
+ *
+ * <p>Unlike the {@link XMLWriterSAX} it delegates to, this writer supports the
+ * <code>writeXML</code> methods: the XML fragment is parsed and the resulting events are
+ * forwarded to the handler in place.
+ *
+ * <p>If a {@link LexicalHandler} is specified, or if the handler is also a lexical handler,
+ * comments in XML fragments are forwarded.
+ *
+ * <p>This class does not report the start and end of the document, the caller is responsible
+ * for reporting them.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class SAXPipelineWriter implements XMLWriter {
+
+  /**
+   * The name of the element used to wrap XML fragments so that they can be parsed.
+   */
+  private static final String FRAGMENT = "berlioz-fragment";
+
+  /**
+   * The LexicalHandler property.
+   */
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * The XML writer for everything except XML fragments.
+   */
+  private final XMLWriterSAX _writer;
+
+  /**
+   * Forwards the events from parsed fragments to the handler.
+   */
+  private final FragmentHandler _fragment;
+
+  /**
+   * The XML reader used to parse fragments (created when first needed).
+   */
+  private @Nullable XMLReader reader;
+
+  /**
+   * Creates a new writer for the specified handler.
+   *
+   * @param handler The content handler receiving the events.
+   */
+  SAXPipelineWriter(ContentHandler handler) {
+    this(handler, handler instanceof LexicalHandler? (LexicalHandler)handler : null);
+  }
+
+  /**
+   * Creates a new writer for the specified handlers.
+   *
+   * @param handler The content handler receiving the events.
+   * @param lexical The lexical handler receiving comments from XML fragments (optional)
+   */
+  SAXPipelineWriter(ContentHandler handler, @Nullable LexicalHandler lexical) {
+    this._writer = new XMLWriterSAX(handler);
+    this._fragment = new FragmentHandler(handler, lexical);
+  }
+
+  @Override
+  public void writeXML(String xml) throws IOException {
+    if (xml == null || xml.isEmpty()) return;
+    // Ensure that any pending start element is reported before the fragment
+    this._writer.writeText("");
+    StringBuilder wrapped = new StringBuilder(xml.length() + FRAGMENT.length() * 2 + 5);
+    wrapped.append('<').append(FRAGMENT).append('>');
+    wrapped.append(xml);
+    wrapped.append("</").append(FRAGMENT).append('>');
+    try {
+      getReader().parse(new InputSource(new StringReader(wrapped.toString())));
+    } catch (SAXException ex) {
+      throw new IOException("Unable to parse XML fragment: "+ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public void writeXML(char[] text, int off, int len) throws IOException {
+    writeXML(new String(text, off, len));
+  }
+
+  @Override
+  public void xmlDecl() throws IOException {
+    this._writer.xmlDecl();
+  }
+
+  @Override
+  public void setIndentChars(String spaces) {
+    this._writer.setIndentChars(spaces);
+  }
+
+  @Override
+  public void writeText(char c) throws IOException {
+    this._writer.writeText(c);
+  }
+
+  @Override
+  public void writeText(String text) throws IOException {
+    this._writer.writeText(text);
+  }
+
+  @Override
+  public void writeText(char[] text, int off, int len) throws IOException {
+    this._writer.writeText(text, off, len);
+  }
+
+  @Override
+  public void writeCDATA(String data) throws IOException {
+    this._writer.writeCDATA(data);
+  }
+
+  @Override
+  public void writeComment(String comment) throws IOException {
+    this._writer.writeComment(comment);
+  }
+
+  @Override
+  public void writePI(String target, String data) throws IOException {
+    this._writer.writePI(target, data);
+  }
+
+  @Override
+  public void openElement(String name) throws IOException {
+    this._writer.openElement(name);
+  }
+
+  @Override
+  public void openElement(String name, boolean hasChildren) throws IOException {
+    this._writer.openElement(name, hasChildren);
+  }
+
+  @Override
+  public void openElement(String uri, String name, boolean hasChildren) throws IOException {
+    this._writer.openElement(uri, name, hasChildren);
+  }
+
+  @Override
+  public void closeElement() throws IOException {
+    this._writer.closeElement();
+  }
+
+  @Override
+  public void element(String name, String text) throws IOException {
+    this._writer.element(name, text);
+  }
+
+  @Override
+  public void emptyElement(String element) throws IOException {
+    this._writer.emptyElement(element);
+  }
+
+  @Override
+  public void emptyElement(String uri, String element) throws IOException {
+    this._writer.emptyElement(uri, element);
+  }
+
+  @Override
+  public void attribute(String name, String value) throws IOException {
+    this._writer.attribute(name, value);
+  }
+
+  @Override
+  public void attribute(String name, int value) throws IOException {
+    this._writer.attribute(name, value);
+  }
+
+  @Override
+  public void attribute(String uri, String name, String value) throws IOException {
+    this._writer.attribute(uri, name, value);
+  }
+
+  @Override
+  public void attribute(String uri, String name, int value) throws IOException {
+    this._writer.attribute(uri, name, value);
+  }
+
+  @Override
+  public void setPrefixMapping(String uri, String prefix) {
+    this._writer.setPrefixMapping(uri, prefix);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this._writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this._writer.close();
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * @return the XML reader to parse fragments.
+   *
+   * @throws IOException If the reader could not be created.
+   */
+  private XMLReader getReader() throws IOException {
+    XMLReader reader = this.reader;
+    if (reader == null) {
+      try {
+        reader = XMLUtils.getParser(false).getXMLReader();
+        reader.setContentHandler(this._fragment);
+        if (this._fragment.lexical != null) {
+          try {
+            reader.setProperty(LEXICAL_HANDLER_PROPERTY, this._fragment);
+          } catch (SAXException ex) {
+            // Comments will not be reported
+          }
+        }
+      } catch (BerliozException | SAXException ex) {
+        throw new IOException("Unable to create XML reader for fragments", ex);
+      }
+      this.reader = reader;
+    }
+    return reader;
+  }
+
+  /**
+   * Forwards the SAX events of a fragment to the handler, except those of the wrapping element
+   * and the document.
+   */
+  private static final class FragmentHandler implements ContentHandler, LexicalHandler {
+
+    /**
+     * The content handler receiving the events.
+     */
+    private final ContentHandler handler;
+
+    /**
+     * The lexical handler receiving comments.
+     */
+    private final @Nullable LexicalHandler lexical;
+
+    /**
+     * The element depth within the fragment.
+     */
+    private int depth = 0;
+
+    /**
+     * @param handler The content handler receiving the events.
+     * @param lexical The lexical handler receiving comments (optional)
+     */
+    FragmentHandler(ContentHandler handler, @Nullable LexicalHandler lexical) {
+      this.handler = handler;
+      this.lexical = lexical;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+    }
+
+    @Override
+    public void startDocument() {
+      this.depth = 0;
+    }
+
+    @Override
+    public void endDocument() {
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+      this.handler.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+      this.handler.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      if (this.depth++ > 0) {
+        this.handler.startElement(uri, localName, qName, atts);
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      if (--this.depth > 0) {
+        this.handler.endElement(uri, localName, qName);
+      }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+      this.handler.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+      this.handler.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+      this.handler.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+      this.handler.skippedEntity(name);
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+      LexicalHandler lexical = this.lexical;
+      if (lexical != null) {
+        lexical.comment(ch, start, length);
+      }
+    }
+
+    @Override
+    public void startCDATA() {
+    }
+
+    @Override
+    public void endCDATA() {
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+    }
+
+    @Override
+    public void endDTD() {
+    }
+
+    @Override
+    public void startEntity(String name) {
+    }
+
+    @Override
+    public void endEntity(String name) {
+    }
+  }
+}
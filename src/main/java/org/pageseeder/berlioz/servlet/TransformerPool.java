@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of transformers for the same XSLT templates.
+ *
+ * <p>Transformers are reset before they are returned to the pool so that they can be reused
+ * for another transformation.
+ *
+ * <p>The capacity bounds the number of idle transformers kept for reuse, not the number of
+ * transformers in use. When all the transformers are in use, a new transformer is created
+ * immediately so that requests are never delayed or rejected; it is discarded when it is
+ * released if the pool is full.
+ *
+ * <p>A maximum time to wait for a transformer to be returned can be specified, but since a
+ * transformer is created anyway after that time, waiting only delays the requests beyond the
+ * capacity of the pool. It does not bound the memory used by the transformers.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class TransformerPool {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransformerPool.class);
+
+  /**
+   * The name of the property to specify the maximum number of transformers per templates.
+   */
+  public static final String SIZE_PROPERTY = "berlioz.xslt.pool-size";
+
+  /**
+   * The name of the property to specify the maximum time to wait for a transformer (in ms).
+   */
+  public static final String WAIT_PROPERTY = "berlioz.xslt.pool-wait";
+
+  /**
+   * The default time to wait for a transformer (in ms): do not wait.
+   */
+  static final int DEFAULT_WAIT = 0;
+
+  /**
+   * The name of the stylesheet (for reporting only).
+   */
+  private final String _name;
+
+  /**
+   * The templates to create the transformers.
+   */
+  private final Templates _templates;
+
+  /**
+   * The transformers available for reuse.
+   */
+  private final BlockingQueue<Transformer> _idle;
+
+  /**
+   * The maximum number of transformers in the pool.
+   */
+  private final int _capacity;
+
+  /**
+   * The maximum time to wait for a transformer in ms.
+   */
+  private final long _wait;
+
+  /**
+   * The number of transformers currently created, idle or in use.
+   */
+  private final AtomicInteger _created = new AtomicInteger();
+
+  /**
+   * The number of times an idle transformer was reused.
+   */
+  private final LongAdder _hits = new LongAdder();
+
+  /**
+   * The number of times a transformer had to be created.
+   */
+  private final LongAdder _misses = new LongAdder();
+
+  /**
+   * The number of times the pool had to wait for a transformer.
+   */
+  private final LongAdder _waits = new LongAdder();
+
+  /**
+   * The total time spent waiting for a transformer in nanoseconds.
+   */
+  private final LongAdder _waitTime = new LongAdder();
+
+  /**
+   * Creates a new pool.
+   *
+   * @param name      The name of the stylesheet for reporting.
+   * @param templates The templates to create the transformers.
+   * @param capacity  The maximum number of transformers in the pool.
+   * @param wait      The maximum time to wait for a transformer in ms.
+   */
+  TransformerPool(String name, Templates templates, int capacity, long wait) {
+    this._name = name;
+    this._templates = templates;
+    this._capacity = Math.max(capacity, 1);
+    this._idle = new ArrayBlockingQueue<>(this._capacity);
+    this._wait = wait;
+  }
+
+  /**
+   * Returns a transformer from this pool.
+   *
+   * <p>The transformer must be returned using {@link #release(Transformer)} or
+   * {@link #discard(Transformer)}.
+   *
+   * @return A transformer for the templates of this pool.
+   *
+   * @throws TransformerConfigurationException If a new transformer could not be created.
+   */
+  Transformer borrow() throws TransformerConfigurationException {
+    Transformer transformer = this._idle.poll();
+    if (transformer != null) {
+      this._hits.increment();
+      return transformer;
+    }
+
+    // Create a new transformer if the pool is not full
+    int created = this._created.get();
+    while (created < this._capacity) {
+      if (this._created.compareAndSet(created, created + 1)) return newTransformer();
+      created = this._created.get();
+    }
+
+    // All transformers are in use, wait for one to be returned if allowed
+    if (this._wait > 0) {
+      transformer = waitForTransformer();
+      if (transformer != null) return transformer;
+      LOGGER.debug("No transformer available for {} after {}ms", this._name, this._wait);
+    }
+    this._created.incrementAndGet();
+    return newTransformer();
+  }
+
+  /**
+   * Resets the specified transformer and returns it to this pool.
+   *
+   * @param transformer A transformer borrowed from this pool.
+   */
+  void release(Transformer transformer) {
+    try {
+      transformer.reset();
+      transformer.clearParameters();
+    } catch (UnsupportedOperationException ex) {
+      LOGGER.debug("Transformer for {} cannot be reset", this._name);
+      discard(transformer);
+      return;
+    }
+    if (!this._idle.offer(transformer)) {
+      this._created.decrementAndGet();
+    }
+  }
+
+  /**
+   * Discards the specified transformer instead of returning it to the pool.
+   *
+   * @param transformer A transformer borrowed from this pool.
+   */
+  void discard(Transformer transformer) {
+    this._created.decrementAndGet();
+  }
+
+  /**
+   * @return the templates used by this pool.
+   */
+  Templates templates() {
+    return this._templates;
+  }
+
+  /**
+   * @return the name of the stylesheet.
+   */
+  public String name() {
+    return this._name;
+  }
+
+  /**
+   * @return the maximum number of transformers in the pool.
+   */
+  public int capacity() {
+    return this._capacity;
+  }
+
+  /**
+   * @return the number of idle transformers.
+   */
+  public int idle() {
+    return this._idle.size();
+  }
+
+  /**
+   * @return the number of times an idle transformer was reused.
+   */
+  public long hits() {
+    return this._hits.sum();
+  }
+
+  /**
+   * @return the number of times a transformer had to be created.
+   */
+  public long misses() {
+    return this._misses.sum();
+  }
+
+  /**
+   * @return the number of times the pool had to wait for a transformer.
+   */
+  public long waits() {
+    return this._waits.sum();
+  }
+
+  /**
+   * @return the total time spent waiting for a transformer in nanoseconds.
+   */
+  public long waitTime() {
+    return this._waitTime.sum();
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Waits for a transformer to be returned to the pool.
+   *
+   * @return the transformer or <code>null</code> if none was returned in time.
+   */
+  private @Nullable Transformer waitForTransformer() {
+    Transformer transformer = null;
+    long start = System.nanoTime();
+    try {
+      transformer = this._idle.poll(this._wait, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    this._waits.increment();
+    this._waitTime.add(System.nanoTime() - start);
+    if (transformer != null) {
+      this._hits.increment();
+    }
+    return transformer;
+  }
+
+  /**
+   * @return a new transformer from the templates.
+   *
+   * @throws TransformerConfigurationException If thrown by the templates.
+   */
+  private Transformer newTransformer() throws TransformerConfigurationException {
+    this._misses.increment();
+    try {
+      return this._templates.newTransformer();
+    } catch (TransformerConfigurationException | RuntimeException ex) {
+      this._created.decrementAndGet();
+      throw ex;
+    }
+  }
+
+}
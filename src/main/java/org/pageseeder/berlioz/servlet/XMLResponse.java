@@ -21,6 +21,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -38,9 +42,11 @@ import org.pageseeder.berlioz.content.Parameter;
 import org.pageseeder.berlioz.content.Service;
 import org.pageseeder.berlioz.content.ServiceStatusRule;
 import org.pageseeder.berlioz.content.ServiceStatusRule.CodeRule;
+import org.pageseeder.berlioz.servlet.RequestProfile.Phase;
 import org.pageseeder.berlioz.util.CollectedError.Level;
 import org.pageseeder.berlioz.util.CompoundBerliozException;
 import org.pageseeder.berlioz.util.ErrorCollector;
+import org.pageseeder.berlioz.util.FlightEvents;
 import org.pageseeder.berlioz.util.Errors;
 import org.pageseeder.berlioz.util.ProfileFormat;
 import org.pageseeder.xmlwriter.XMLWriter;
@@ -51,11 +57,14 @@ import org.slf4j.LoggerFactory;
 /**
  * An XML response produced from content generators.
  *
+ * <p>The generators are invoked first and their results are written in the order they
+ * were declared; when the service allows it, the generators are invoked in parallel.
+ *
  * <p>This class is not thread-safe.
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.7
  */
 public final class XMLResponse {
@@ -95,6 +104,11 @@ public final class XMLResponse {
    */
   private final boolean _profile;
 
+  /**
+   * The times spent in each phase of the request.
+   */
+  private final RequestProfile _timing;
+
   /**
    * The request to send to the generators.
    */
@@ -110,6 +124,11 @@ public final class XMLResponse {
    */
   private @Nullable BerliozException exception = null;
 
+  /**
+   * The results of the generators once invoked.
+   */
+  private @Nullable List<ContentResult> results = null;
+
   /**
    * Creates a new XML response for the specified arguments.
    *
@@ -121,10 +140,28 @@ public final class XMLResponse {
    */
   public XMLResponse(HttpServletRequest req, HttpServletResponse res, BerliozConfig config, MatchingService match,
       boolean profile) {
+    this(req, res, config, match, profile, new RequestProfile());
+  }
+
+  /**
+   * Creates a new XML response for the specified arguments.
+   *
+   * @param req     The HTTP servlet request.
+   * @param res     The HTTP servlet response.
+   * @param config  The Berlioz configuration environment.
+   * @param match   The matching service
+   * @param profile Whether to enable profiling.
+   * @param timing  The times spent in each phase of the request (updated with the generators)
+   *
+   * @since Berlioz 0.11.5
+   */
+  public XMLResponse(HttpServletRequest req, HttpServletResponse res, BerliozConfig config, MatchingService match,
+      boolean profile, RequestProfile timing) {
     this._core = new CoreHttpRequest(req, res, config.getEnvironment());
     this._match = match;
     this._requests = configure(this._core, match);
     this._profile = profile;
+    this._timing = timing;
   }
 
   /**
@@ -210,6 +247,42 @@ public final class XMLResponse {
     StringWriter writer = new StringWriter();
     XMLWriter xml = new XMLWriterImpl(writer);
     xml.xmlDecl();
+    toXML(xml);
+    xml.flush();
+    return writer.toString();
+  }
+
+  /**
+   * Invokes the content generators unless they have already been invoked.
+   *
+   * <p>Use this method to find out about the status, error or redirect URL of this response
+   * before writing it.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public void invoke() {
+    if (this.results == null) {
+      Service service = this._match.service();
+      if (service.isParallel() && this._requests.size() > 1) {
+        this.results = invokeParallel(service);
+      } else {
+        this.results = invokeSequential(service);
+      }
+    }
+  }
+
+  /**
+   * Writes the XML response to the specified XML writer, the XML declaration is not included.
+   *
+   * <p>The content generators are invoked first if they have not been invoked already.
+   *
+   * @param xml The XML writer to use.
+   *
+   * @throws IOException Should an I/O error occur.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public void toXML(XMLWriter xml) throws IOException {
     xml.openElement("root", true);
 
     // Get service
@@ -220,18 +293,32 @@ public final class XMLResponse {
       xml.attribute("flags", service.flags());
     }
 
+    // Include the time spent in the phases preceding the generation
+    if (this._profile) {
+      for (Phase phase : Phase.values()) {
+        long time = this._timing.time(phase);
+        if (time >= 0) {
+          xml.attribute("profile-"+phase.metric(), ProfileFormat.format(time));
+        }
+      }
+    }
+
     XMLResponseHeader header = new XMLResponseHeader(this._core, service, this._match.result());
     header.toXML(xml);
 
-    // Call each generator in turn
-    for (HttpContentRequest request : this._requests) {
-      toXML(request, service, xml);
+    // Invoke the generators
+    invoke();
+
+    // Write the results in order
+    List<ContentResult> results = this.results;
+    if (results != null) {
+      for (ContentResult result : results) {
+        toXML(result, service, xml);
+      }
     }
 
-    // Close 'root' and finalise
+    // Close 'root'
     xml.closeElement();
-    xml.flush();
-    return writer.toString();
   }
 
   // Static configuration
@@ -249,23 +336,219 @@ public final class XMLResponse {
    * @return the listener currently in use.
    */
   @Beta
-  static synchronized @Nullable GeneratorListener getListener() {
+  static @Nullable GeneratorListener getListener() {
     return listener;
   }
 
   // Private helpers
   // ----------------------------------------------------------------------------------------------
 
+  /**
+   * Invokes each generator in turn.
+   *
+   * @param service The service the generators are part of.
+   *
+   * @return the results in the same order as the requests.
+   */
+  private List<ContentResult> invokeSequential(Service service) {
+    List<ContentResult> results = new ArrayList<>(this._requests.size());
+    for (HttpContentRequest request : this._requests) {
+      String etag = request.generator() instanceof Cacheable? getETag(request) : null;
+      ContentResult result = process(request, etag);
+      complete(result, service);
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Invokes the generators concurrently.
+   *
+   * <p>The etags are computed on the calling thread beforehand and the results are completed
+   * in the order the generators were declared, so that the status, errors and listener are
+   * handled in the same way as when generators are invoked sequentially.
+   *
+   * <p>The first generator is invoked on the calling thread.
+   *
+   * @param service The service the generators are part of.
+   *
+   * @return the results in the same order as the requests.
+   */
+  private List<ContentResult> invokeParallel(Service service) {
+    int count = this._requests.size();
+    String[] etags = new String[count];
+    for (int i = 0; i < count; i++) {
+      HttpContentRequest request = this._requests.get(i);
+      if (request.generator() instanceof Cacheable) {
+        etags[i] = getETag(request);
+      }
+    }
+
+    // Submit all generators but the first one
+    GeneratorExecutor executor = GeneratorExecutor.getInstance();
+    List<Future<ContentResult>> futures = new ArrayList<>(count - 1);
+    for (int i = 1; i < count; i++) {
+      final HttpContentRequest request = this._requests.get(i);
+      final String etag = etags[i];
+      Callable<ContentResult> task = new Callable<ContentResult>() {
+        @Override
+        public ContentResult call() {
+          return process(request, etag);
+        }
+      };
+      try {
+        futures.add(executor.submit(task));
+      } catch (RejectedExecutionException ex) {
+        LOGGER.warn("Unable to invoke {} in parallel", request.generator().getClass().getName());
+        futures.add(null);
+      }
+    }
+
+    // Invoke the first generator and collect the others
+    List<ContentResult> results = new ArrayList<>(count);
+    results.add(process(this._requests.get(0), etags[0]));
+    for (int i = 1; i < count; i++) {
+      HttpContentRequest request = this._requests.get(i);
+      Future<ContentResult> future = futures.get(i - 1);
+      results.add(future != null? await(future, request) : process(request, etags[i]));
+    }
+
+    // Complete in order
+    for (ContentResult result : results) {
+      complete(result, service);
+    }
+    return results;
+  }
+
+  /**
+   * Waits for the result of a generator invoked concurrently.
+   *
+   * @param future  The future result.
+   * @param request The corresponding request.
+   *
+   * @return The result of the generator
+   */
+  private static ContentResult await(Future<ContentResult> future, HttpContentRequest request) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return new ContentResult(request, ex, 0);
+    } catch (ExecutionException ex) {
+      // Errors are not caught when invoked sequentially either
+      Throwable cause = ex.getCause();
+      if (cause instanceof Error) throw (Error)cause;
+      return new ContentResult(request, cause instanceof Exception? (Exception)cause : ex, 0);
+    }
+  }
+
+  /**
+   * Invokes the generator for the specified request.
+   *
+   * <p>If the fragment cache is enabled and the generator is cacheable, the generator is only
+   * invoked if its content is not already in the cache.
+   *
+   * <p>This method does not modify the state of this response and can be called from any thread.
+   * If enabled, a Flight Recorder event is emitted for the generator on that thread.
+   *
+   * @param request The generator request to process.
+   * @param etag    The etag of the generator if it is cacheable.
+   *
+   * @return the result of the generator.
+   */
+  private static ContentResult process(HttpContentRequest request, @Nullable String etag) {
+    FlightEvents.Event event = FlightEvents.GENERATOR.begin();
+    ContentResult result = processGenerator(request, etag);
+    if (event != null) {
+      ContentGenerator generator = request.generator();
+      event.set(0, generator.getClass().getName()).set(1, request.getService().name(generator))
+          .set(2, request.getStatus().code()).set(3, request.getProfileEtag()).set(4, result.time()).commit();
+    }
+    return result;
+  }
+
+  /**
+   * Invokes the generator for the specified request.
+   *
+   * @param request The generator request to process.
+   * @param etag    The etag of the generator if it is cacheable.
+   *
+   * @return the result of the generator.
+   */
+  private static ContentResult processGenerator(HttpContentRequest request, @Nullable String etag) {
+    ContentGenerator generator = request.generator();
+    long start = System.nanoTime();
+
+    // Reuse the content of the generator if it was cached
+    FragmentCache fragments = etag != null && !etag.isEmpty()? FragmentCache.getInstance() : null;
+    String key = null;
+    if (fragments != null && etag != null) {
+      key = FragmentCache.toKey(request, etag);
+      String fragment = fragments.get(key);
+      if (fragment != null) return new ContentResult(request, fragment, System.nanoTime() - start);
+    }
+
+    try {
+      // Normal response
+      StringWriter writer = new StringWriter();
+      XMLWriter ok = new XMLWriterImpl(writer);
+      generator.process(request, ok);
+      String content = writer.toString();
+      // Only cache generators that did not affect the status of the response
+      if (fragments != null && key != null && request.getStatus() == ContentStatus.OK && request.getRedirectURL() == null) {
+        fragments.put(key, content);
+      }
+      return new ContentResult(request, content, System.nanoTime() - start);
+    } catch (Exception ex) {
+      return new ContentResult(request, ex, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Updates the state of this response with the result of a generator and report it.
+   *
+   * <p>This method must be called in the order the generators were declared.
+   *
+   * @param result  The result of the generator.
+   * @param service The service it is part of.
+   */
+  private void complete(ContentResult result, Service service) {
+    HttpContentRequest request = result.request();
+    ContentGenerator generator = request.generator();
+    ContentStatus status = request.getStatus();
+    Exception failure = result.failure();
+    if (failure != null) {
+      result.error = handleError(failure, generator);
+      status = ContentStatus.INTERNAL_SERVER_ERROR;
+    }
+    result.status = status;
+
+    // Update Status
+    boolean wasSet = handleStatus(status, generator, service);
+    if (wasSet && ContentStatus.isRedirect(status)) {
+      this.redirect = request.getRedirectURL();
+    }
+
+    // Report if requested
+    this._timing.generator(service.name(generator), request.getProfileEtag(), result.time());
+    GeneratorListener l = listener;
+    if (l != null) {
+      l.generate(service, generator, status, request.getProfileEtag(), result.time());
+    }
+  }
+
   /**
    * Generates the XML content for one generator.
    *
-   * @param request   The generator request to process.
+   * @param result    The result of the generator.
    * @param service   The service it is part of.
    * @param xml       The XML Writer to use.
    *
    * @throws IOException Should an I/O error occur while writing XML.
    */
-  private void toXML(HttpContentRequest request, Service service, XMLWriter xml) throws IOException {
+  private void toXML(ContentResult result, Service service, XMLWriter xml) throws IOException {
+    HttpContentRequest request = result.request();
     ContentGenerator generator = request.generator();
     // Generate the main element
     xml.openElement("content", true);
@@ -290,53 +573,21 @@ public final class XMLResponse {
       xml.attribute("deprecated", "true");
     }
 
-    // Let's invoke the generator
-    String result = null;
-    BerliozException error = null;
-    ContentStatus status = ContentStatus.OK;
-    long start = System.nanoTime();
-    try {
-      // Normal response
-      StringWriter writer = new StringWriter();
-      XMLWriter ok = new XMLWriterImpl(writer);
-      generator.process(request, ok);
-      result = writer.toString();
-      status = request.getStatus();
-    } catch (BerliozException ex) {
-      error = handleError(ex, generator);
-      status = ContentStatus.INTERNAL_SERVER_ERROR;
-    } catch (Exception ex) {
-      // We wrapping any exception in a Berlioz Exception
-      error = handleError(ex, generator);
-      status = ContentStatus.INTERNAL_SERVER_ERROR;
-    }
-    long end = System.nanoTime();
-
-    // Update Status
-    boolean wasSet = handleStatus(status, generator, service);
-    if (wasSet && ContentStatus.isRedirect(status)) {
-      this.redirect = request.getRedirectURL();
-    }
-    xml.attribute("status", status.toString());
+    xml.attribute("status", result.status.toString());
     if (this._profile) {
       xml.attribute("profile-etag", ProfileFormat.format(request.getProfileEtag()));
-      xml.attribute("profile-process", ProfileFormat.format(end - start));
-      xml.attribute("profile", ProfileFormat.format(request.getProfileEtag() + end - start));
-    }
-
-    // Report if requested
-    GeneratorListener l = listener;
-    if (l != null) {
-      l.generate(service, generator, status, request.getProfileEtag(), end - start);
+      xml.attribute("profile-process", ProfileFormat.format(result.time()));
+      xml.attribute("profile", ProfileFormat.format(request.getProfileEtag() + result.time()));
     }
 
     // Write the XML
+    BerliozException error = result.error;
     if (error != null) {
       xml.openElement("berlioz-exception");
       Errors.toXML(error, xml, false);
       xml.closeElement();
     } else {
-      xml.writeXML(result);
+      xml.writeXML(result.content());
     }
 
     xml.closeElement();
@@ -476,4 +727,93 @@ public final class XMLResponse {
     }
     return etag != null? etag : "";
   }
+
+  /**
+   * The result of a content generator.
+   */
+  private static final class ContentResult {
+
+    /**
+     * The generator request.
+     */
+    private final HttpContentRequest _request;
+
+    /**
+     * The XML content produced by the generator.
+     */
+    private final @Nullable String _content;
+
+    /**
+     * Any exception thrown by the generator.
+     */
+    private final @Nullable Exception _failure;
+
+    /**
+     * The time taken by the generator to process the request in nano seconds.
+     */
+    private final long _time;
+
+    /**
+     * The status of the generator once completed.
+     */
+    private ContentStatus status = ContentStatus.OK;
+
+    /**
+     * The error to report once completed.
+     */
+    private @Nullable BerliozException error;
+
+    /**
+     * @param request The generator request
+     * @param content The XML content produced by the generator.
+     * @param time    The processing time.
+     */
+    ContentResult(HttpContentRequest request, String content, long time) {
+      this._request = request;
+      this._content = content;
+      this._failure = null;
+      this._time = time;
+    }
+
+    /**
+     * @param request The generator request
+     * @param failure The exception thrown by the generator.
+     * @param time    The processing time.
+     */
+    ContentResult(HttpContentRequest request, Exception failure, long time) {
+      this._request = request;
+      this._content = null;
+      this._failure = failure;
+      this._time = time;
+    }
+
+    /**
+     * @return The generator request
+     */
+    HttpContentRequest request() {
+      return this._request;
+    }
+
+    /**
+     * @return The XML content produced by the generator.
+     */
+    @Nullable String content() {
+      return this._content;
+    }
+
+    /**
+     * @return The exception thrown by the generator.
+     */
+    @Nullable Exception failure() {
+      return this._failure;
+    }
+
+    /**
+     * @return The processing time.
+     */
+    long time() {
+      return this._time;
+    }
+  }
+
 }
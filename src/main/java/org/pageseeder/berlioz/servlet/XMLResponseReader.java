@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.IOException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * An XML reader reporting an XML response as SAX events instead of parsing a document.
+ *
+ * <p>This allows an XML response to be used as a <code>SAXSource</code> so that it can be
+ * transformed by any transformer without being serialised and parsed.
+ *
+ * <p>The input source is ignored when parsing.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class XMLResponseReader implements XMLReader {
+
+  /**
+   * The namespaces feature.
+   */
+  private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+
+  /**
+   * The namespace prefixes feature.
+   */
+  private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+
+  /**
+   * The LexicalHandler property.
+   */
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * The XML response to report.
+   */
+  private final XMLResponse _response;
+
+  /**
+   * Identifies the XML response.
+   */
+  private final LocatorImpl _locator;
+
+  /**
+   * The content handler.
+   */
+  private @Nullable ContentHandler contentHandler;
+
+  /**
+   * The lexical handler.
+   */
+  private @Nullable LexicalHandler lexicalHandler;
+
+  /**
+   * The DTD handler (never used).
+   */
+  private @Nullable DTDHandler dtdHandler;
+
+  /**
+   * The entity resolver (never used).
+   */
+  private @Nullable EntityResolver entityResolver;
+
+  /**
+   * The error handler (never used).
+   */
+  private @Nullable ErrorHandler errorHandler;
+
+  /**
+   * @param response The XML response to report.
+   * @param locator  Identifies the XML response.
+   */
+  XMLResponseReader(XMLResponse response, LocatorImpl locator) {
+    this._response = response;
+    this._locator = locator;
+  }
+
+  @Override
+  public void parse(@Nullable InputSource input) throws IOException, SAXException {
+    ContentHandler handler = this.contentHandler;
+    if (handler == null) throw new SAXException("No content handler to report the XML response");
+    handler.setDocumentLocator(this._locator);
+    handler.startDocument();
+    try {
+      this._response.toXML(new SAXPipelineWriter(handler, this.lexicalHandler));
+    } catch (IOException ex) {
+      // Report the SAX exception thrown by the handler directly
+      Throwable cause = ex.getCause();
+      if (cause instanceof SAXException) throw (SAXException)cause;
+      throw ex;
+    }
+    handler.endDocument();
+  }
+
+  @Override
+  public void parse(@Nullable String systemId) throws IOException, SAXException {
+    parse((InputSource)null);
+  }
+
+  @Override
+  public boolean getFeature(String name) throws SAXNotRecognizedException {
+    if (NAMESPACES_FEATURE.equals(name)) return true;
+    if (NAMESPACE_PREFIXES_FEATURE.equals(name)) return false;
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (getFeature(name) != value) throw new SAXNotSupportedException(name);
+  }
+
+  @Override
+  public @Nullable Object getProperty(String name) throws SAXNotRecognizedException {
+    if (LEXICAL_HANDLER_PROPERTY.equals(name)) return this.lexicalHandler;
+    throw new SAXNotRecognizedException(name);
+  }
+
+  @Override
+  public void setProperty(String name, @Nullable Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (!LEXICAL_HANDLER_PROPERTY.equals(name)) throw new SAXNotRecognizedException(name);
+    if (value != null && !(value instanceof LexicalHandler)) throw new SAXNotSupportedException(name);
+    this.lexicalHandler = (LexicalHandler)value;
+  }
+
+  @Override
+  public void setContentHandler(@Nullable ContentHandler handler) {
+    this.contentHandler = handler;
+  }
+
+  @Override
+  public @Nullable ContentHandler getContentHandler() {
+    return this.contentHandler;
+  }
+
+  @Override
+  public void setDTDHandler(@Nullable DTDHandler handler) {
+    this.dtdHandler = handler;
+  }
+
+  @Override
+  public @Nullable DTDHandler getDTDHandler() {
+    return this.dtdHandler;
+  }
+
+  @Override
+  public void setEntityResolver(@Nullable EntityResolver resolver) {
+    this.entityResolver = resolver;
+  }
+
+  @Override
+  public @Nullable EntityResolver getEntityResolver() {
+    return this.entityResolver;
+  }
+
+  @Override
+  public void setErrorHandler(@Nullable ErrorHandler handler) {
+    this.errorHandler = handler;
+  }
+
+  @Override
+  public @Nullable ErrorHandler getErrorHandler() {
+    return this.errorHandler;
+  }
+
+}
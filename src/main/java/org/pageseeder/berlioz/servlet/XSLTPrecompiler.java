@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.TransformerException;
+
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.content.Service;
+import org.pageseeder.berlioz.content.ServiceRegistry;
+import org.pageseeder.berlioz.util.ProfileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the XSLT templates used by a Berlioz servlet in parallel before it handles requests.
+ *
+ * <p>The number of templates compiled concurrently is bounded by the
+ * <code>berlioz.xslt.precompile.threads</code> property (by default the number of processors).
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+final class XSLTPrecompiler {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(XSLTPrecompiler.class);
+
+  /**
+   * The name of the property to specify the maximum number of templates compiled concurrently.
+   */
+  static final String THREADS_PROPERTY = "berlioz.xslt.precompile.threads";
+
+  /** Utility class */
+  private XSLTPrecompiler() {
+  }
+
+  /**
+   * Compiles the templates of every transformer the specified configuration uses for the
+   * services in the registry.
+   *
+   * <p>This method blocks until all the templates have been compiled.
+   *
+   * @param config   The Berlioz configuration of the servlet.
+   * @param registry The services
+   *
+   * @return the number of templates which were compiled successfully.
+   */
+  static int precompile(BerliozConfig config, ServiceRegistry registry) {
+    // Collect the transformers (several services usually share the same templates)
+    Map<File, XSLTransformer> transformers = new LinkedHashMap<>();
+    for (Service service : registry.getServices()) {
+      XSLTransformer transformer = config.getTransformer(service);
+      if (transformer != null && !transformers.containsKey(transformer.templates())) {
+        transformers.put(transformer.templates(), transformer);
+      }
+    }
+    if (transformers.isEmpty()) return 0;
+
+    // Compile them in parallel
+    long start = System.nanoTime();
+    int threads = Math.min(transformers.size(), GlobalSettings.get(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1), new PrecompilerThreadFactory());
+    List<Future<Long>> futures = new ArrayList<>(transformers.size());
+    for (final XSLTransformer transformer : transformers.values()) {
+      futures.add(executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws TransformerException {
+          return Long.valueOf(transformer.precompile());
+        }
+      }));
+    }
+
+    // Wait and report
+    int compiled = 0;
+    int i = 0;
+    try {
+      for (XSLTransformer transformer : transformers.values()) {
+        String name = transformer.templates().getPath();
+        try {
+          long time = futures.get(i++).get().longValue();
+          LOGGER.info("Precompiled XSLT stylesheet '{}' in {} ms", name, ProfileFormat.format(time));
+          compiled++;
+        } catch (ExecutionException ex) {
+          LOGGER.warn("Unable to precompile XSLT stylesheet '{}'", name, ex.getCause());
+        }
+      }
+    } catch (InterruptedException ex) {
+      LOGGER.warn("Precompilation of XSLT stylesheets interrupted");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+    LOGGER.info("Precompiled {} of {} XSLT stylesheets in {} ms", compiled, transformers.size(),
+        ProfileFormat.format(System.nanoTime() - start));
+    return compiled;
+  }
+
+  /**
+   * Creates named daemon threads.
+   */
+  private static final class PrecompilerThreadFactory implements ThreadFactory {
+
+    /**
+     * To number the threads.
+     */
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "berlioz-xslt-precompile-"+this._count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -24,8 +24,10 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +35,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
@@ -44,6 +47,7 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -56,14 +60,22 @@ import org.pageseeder.berlioz.aeson.JSONResult;
 import org.pageseeder.berlioz.content.Service;
 import org.pageseeder.berlioz.util.CollectedError;
 import org.pageseeder.berlioz.util.Errors;
+import org.pageseeder.berlioz.util.FileChangeTracker;
+import org.pageseeder.berlioz.util.FlightEvents;
 import org.pageseeder.berlioz.util.ISO8601;
+import org.pageseeder.berlioz.util.LogHistogram;
 import org.pageseeder.berlioz.util.MD5;
+import org.pageseeder.berlioz.util.MetricsRegistry;
+import org.pageseeder.berlioz.util.MetricsRegistry.Counter;
+import org.pageseeder.berlioz.util.MetricsRegistry.Gauge;
 import org.pageseeder.berlioz.xslt.XSLTErrorCollector;
 import org.pageseeder.xmlwriter.XMLWriter;
 import org.pageseeder.xmlwriter.XMLWriterImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.LocatorImpl;
 
 /**
  * Performs the XSLT transformation from the generated XML content.
@@ -73,7 +85,7 @@ import org.xml.sax.SAXParseException;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.7
  */
 public final class XSLTransformer {
@@ -88,6 +100,50 @@ public final class XSLTransformer {
    */
   private static final Map<File, Templates> CACHE = new ConcurrentHashMap<>();
 
+  /**
+   * Maps the pools of transformers to the XSLT templates they were created for.
+   */
+  private static final Map<File, TransformerPool> POOLS = new ConcurrentHashMap<>();
+
+  /**
+   * The hash of each stylesheet file when changes are tracked.
+   */
+  private static final Map<File, String> HASHES = new ConcurrentHashMap<>();
+
+  /**
+   * The stylesheet directories tracked and the tracker notifying their changes.
+   *
+   * <p>A single listener is registered for each directory so that transformers are not retained
+   * by the file change tracker.
+   */
+  private static final Map<File, FileChangeTracker> TRACKED = new ConcurrentHashMap<>();
+
+  /**
+   * The number of changes made to the tracked stylesheets.
+   */
+  private static final AtomicInteger CHANGES = new AtomicInteger();
+
+  /**
+   * The number of times XSLT templates were compiled.
+   */
+  private static final Counter COMPILATIONS = MetricsRegistry.getInstance()
+      .counter("berlioz_xslt_compilations_total", "XSLT stylesheets compiled into templates.").get();
+
+  /**
+   * The time taken to compile XSLT templates.
+   */
+  private static final LogHistogram COMPILE_DURATION = MetricsRegistry.getInstance()
+      .histogram("berlioz_xslt_compile_duration_seconds", "Time taken to compile XSLT templates.").get();
+
+  static {
+    MetricsRegistry.getInstance().gauge("berlioz_xslt_cache_templates", "XSLT templates currently cached.", new Gauge() {
+      @Override
+      public double value() {
+        return CACHE.size();
+      }
+    });
+  }
+
   /**
    * Identity templates for worse case scenario!
    */
@@ -114,10 +170,21 @@ public final class XSLTransformer {
    */
   private final @Nullable URL _fallback;
 
+  /**
+   * Whether changes to the stylesheets are tracked.
+   */
+  private final boolean _tracked;
+
   /**
    * An etag for these templates.
    */
-  private @Nullable String etag = null;
+  private volatile @Nullable String etag = null;
+
+  /**
+   * The number of changes to the stylesheets when the etag was computed, the etag must be
+   * recomputed when a stylesheet has changed since.
+   */
+  private volatile int changes = CHANGES.get();
 
   /**
    * Creates a new XSLT Transformer with no fallback templates.
@@ -137,7 +204,8 @@ public final class XSLTransformer {
   public XSLTransformer(File templates, @Nullable URL fallback) {
     this._templates = Objects.requireNonNull(templates, "The template file is required");
     this._fallback = fallback;
-    this.etag = computeEtag(templates, fallback);
+    this._tracked = track(templates);
+    this.etag = computeEtag(templates, fallback, this._tracked);
   }
 
   /**
@@ -158,6 +226,7 @@ public final class XSLTransformer {
     try {
       // Creates a transformer from the templates
       templates = getTemplates(this._templates);
+      TransformerPool pool = getPool(this._templates, templates);
 
       // Setup the source
       StreamSource source = new StreamSource(new StringReader(content));
@@ -173,11 +242,79 @@ public final class XSLTransformer {
       StreamResult result = new StreamResult(buffer);
 
       // Transform!
-      time = transform(source, result, templates, parameters);
+      FlightEvents.Event event = FlightEvents.XSLT_TRANSFORM.begin();
+      time = transform(source, result, templates, pool, parameters);
+      if (event != null) {
+        event.set(0, toWebPath(this._templates.getAbsolutePath())).set(1, service.id()).commit();
+      }
 
     // very likely to be an error in the XML or a dynamic error
     } catch (TransformerException ex) {
-      String error = toXML(ex, content, parameters);
+      String error = toXML(ex, parameters);
+      ClassLoader loader = XSLTransformer.class.getClassLoader();
+      URL url = loader.getResource("org/pageseeder/berlioz/xslt/failsafe-error-html.xsl");
+      Templates failsafe = toTemplates(url);
+      // Try to use the fail-safe template to present the error
+      error = transformFailSafe(error, failsafe);
+      return new XSLTransformResult(error, ex, failsafe);
+    }
+
+    // All good!
+    return new XSLTransformResult(buffer.toString(), time, templates);
+  }
+
+  /**
+   * Transforms the specified XML response using XSLT.
+   *
+   * <p>The XML response is written directly to the XSLT processor as SAX events, so it is never
+   * serialised or parsed as a whole.
+   *
+   * @param response The XML response to transform.
+   * @param req      The HTTP Servlet request.
+   *
+   * @return the results of the transformation.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public XSLTransformResult transform(XMLResponse response, HttpServletRequest req) {
+    StringWriter buffer = new StringWriter();
+    long time = 0;
+    Templates templates = null;
+    Map<String, String> parameters = toParameters(req);
+    Service service = response.getService();
+
+    try {
+      // Creates a transformer from the templates
+      templates = getTemplates(this._templates);
+      TransformerPool pool = getPool(this._templates, templates);
+
+      // Identify the source
+      LocatorImpl locator = new LocatorImpl();
+      locator.setPublicId("-//Berlioz//Service/XML/"+service.group()+"/"+service.id());
+      String uri = req.getRequestURI();
+      int dot = uri.lastIndexOf('.');
+      if (dot >= 0) {
+        locator.setSystemId(req.getRequestURI().replaceAll(uri.substring(dot), ".src"));
+      }
+
+      // Report the response as SAX events
+      InputSource input = new InputSource();
+      input.setSystemId(locator.getSystemId());
+      SAXSource source = new SAXSource(new XMLResponseReader(response, locator), input);
+
+      // Setup the result
+      StreamResult result = new StreamResult(buffer);
+
+      // Transform!
+      FlightEvents.Event event = FlightEvents.XSLT_TRANSFORM.begin();
+      time = transform(source, result, templates, pool, parameters);
+      if (event != null) {
+        event.set(0, toWebPath(this._templates.getAbsolutePath())).set(1, service.id()).commit();
+      }
+
+    // very likely to be a dynamic error
+    } catch (TransformerException ex) {
+      String error = toXML(ex, parameters);
       ClassLoader loader = XSLTransformer.class.getClassLoader();
       URL url = loader.getResource("org/pageseeder/berlioz/xslt/failsafe-error-html.xsl");
       Templates failsafe = toTemplates(url);
@@ -218,15 +355,40 @@ public final class XSLTransformer {
    * @return an ETag corresponding to the templates.
    */
   public @Nullable String getEtag() {
+    int changes = CHANGES.get();
+    if (this.changes != changes) {
+      this.changes = changes;
+      this.etag = computeEtag(this._templates, this._fallback, this._tracked);
+    }
     return this.etag;
   }
 
+  /**
+   * Compiles and caches the templates so that they are ready for the first transformation.
+   *
+   * <p>This method has no effect if the templates were already cached.
+   *
+   * @return the time it took to compile the templates in nano seconds or 0 if they were cached.
+   *
+   * @throws TransformerException If the templates could not parsed.
+   *
+   * @since Berlioz 0.11.5
+   */
+  long precompile() throws TransformerException {
+    if (CACHE.containsKey(this._templates)) return 0;
+    long start = System.nanoTime();
+    Templates templates = getTemplates(this._templates);
+    getPool(this._templates, templates);
+    return System.nanoTime() - start;
+  }
+
   /**
    * Clears the internal XSLT cache.
    */
   public synchronized void clearCache() {
     LOGGER.debug("Clearing XSLT cache.");
     CACHE.remove(this._templates);
+    POOLS.remove(this._templates);
   }
 
   /**
@@ -235,16 +397,101 @@ public final class XSLTransformer {
   public static synchronized void clearAllCache() {
     LOGGER.debug("Clearing XSLT cache.");
     CACHE.clear();
+    POOLS.clear();
+    HASHES.clear();
+  }
+
+  /**
+   * Clears the hashes of the stylesheets so that the etags of all transformers are recomputed.
+   *
+   * <p>The hashes depend on whether the ETag seed is shared, this method must be invoked when
+   * the seed is derived again.
+   */
+  static void clearHashes() {
+    HASHES.clear();
+    CHANGES.incrementAndGet();
+  }
+
+  /**
+   * Returns the pools of transformers currently in use.
+   *
+   * @return the pools of transformers for the cached templates.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static Collection<TransformerPool> getTransformerPools() {
+    return Collections.unmodifiableCollection(POOLS.values());
   }
 
 // private helpers --------------------------------------------------------------------------------
 
+  /**
+   * Tracks the changes made to the stylesheets if hot reloading is enabled.
+   *
+   * <p>When a file in the directory of the templates (or its descendants) changes, the templates
+   * in that directory are removed from the cache and the etags of all transformers are
+   * recomputed on next access.
+   *
+   * <p>The directory is only registered once with the tracker, the listener does not refer to
+   * the transformer.
+   *
+   * @param templates The main file for the templates.
+   *
+   * @return <code>true</code> if the changes are tracked; <code>false</code> otherwise.
+   */
+  private static boolean track(File templates) {
+    FileChangeTracker tracker = FileChangeTracker.getInstance();
+    final File parent = templates.getAbsoluteFile().getParentFile();
+    if (tracker == null || parent == null) return false;
+    if (TRACKED.put(parent, tracker) != tracker) {
+      tracker.watch(parent, new FileChangeTracker.Listener() {
+        @Override
+        public void changed(File file) {
+          invalidate(parent, file);
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Invalidates the templates and etags after a stylesheet has changed.
+   *
+   * @param dir  The directory of the templates.
+   * @param file The file or directory which has changed.
+   */
+  private static void invalidate(File dir, File file) {
+    for (Iterator<File> i = HASHES.keySet().iterator(); i.hasNext();) {
+      if (i.next().toPath().startsWith(file.toPath())) {
+        i.remove();
+      }
+    }
+    for (Iterator<File> i = CACHE.keySet().iterator(); i.hasNext();) {
+      File templates = i.next();
+      if (dir.equals(templates.getAbsoluteFile().getParentFile())) {
+        i.remove();
+        POOLS.remove(templates);
+        LOGGER.info("Stylesheet '{}' changed, templates will be reloaded", toWebPath(file.getAbsolutePath()));
+      }
+    }
+    CHANGES.incrementAndGet();
+  }
+
   /**
    * Computes the etag for the templates.
+   *
+   * <p>When changes are tracked, only the files which have changed since the last time are hashed.
+   *
+   * <p>When the ETag seed is shared by the servers, the hashes are based on the content of the
+   * files rather than their path and modification date so that they are the same on all servers.
+   *
    * @param templates The main file for the templates.
+   * @param fallback  The URL to the fallback templates (optional)
+   * @param tracked   Whether the hashes of the files can be reused.
+   *
    * @return The corresponding etag.
    */
-  private static @Nullable String computeEtag(File templates, @Nullable URL fallback) {
+  private static @Nullable String computeEtag(File templates, @Nullable URL fallback, boolean tracked) {
     if (!templates.exists()) {
       if (fallback != null) return MD5.hash(fallback.toString());
       else {
@@ -259,9 +506,10 @@ public final class XSLTransformer {
     if (parent != null) {
       listTemplateFiles(parent, files);
     }
+    boolean strong = !GlobalSettings.get(BerliozOption.HTTP_ETAG_SEED).isEmpty();
     StringBuilder b = new StringBuilder();
     try {
-      for (File f : files) { b.append(MD5.hash(f, false)); }
+      for (File f : files) { b.append(tracked? hash(f, strong) : MD5.hash(f, strong)); }
     } catch (IOException ex) {
       LOGGER.warn("Error thrown while trying to calculate template etag", ex);
       return null;
@@ -269,6 +517,26 @@ public final class XSLTransformer {
     return MD5.hash(b.toString());
   }
 
+  /**
+   * Returns the hash of the specified file, reusing the hash computed previously if any.
+   *
+   * @param f      The file to hash.
+   * @param strong Whether the hash is based on the content of the file.
+   *
+   * @return The MD5 hash of the file.
+   *
+   * @throws IOException If the file could not be read.
+   */
+  private static String hash(File f, boolean strong) throws IOException {
+    File key = f.toPath().toAbsolutePath().normalize().toFile();
+    String hash = HASHES.get(key);
+    if (hash == null) {
+      hash = MD5.hash(f, strong);
+      HASHES.put(key, hash);
+    }
+    return hash;
+  }
+
   /**
    * Lists all the files in the specified directory and its descendants.
    *
@@ -302,38 +570,53 @@ public final class XSLTransformer {
    * @param source     The Source XML data.
    * @param result     The Result XHTML data.
    * @param templates  The XSLT templates to use.
+   * @param pool       The pool of transformers for these templates (optional)
    * @param parameters Parameters to transmit to the transformer for use by the stylesheet (optional)
    *
    * @return The nano time it took to process the stylesheet.
    *
    * @throws TransformerException For XSLT Transformation errors or XSLT config errors
    */
-  private static long transform(StreamSource source, StreamResult result, Templates templates, Map<String, String> parameters)
-    throws TransformerException {
+  private static long transform(Source source, StreamResult result, Templates templates, @Nullable TransformerPool pool,
+      Map<String, String> parameters) throws TransformerException {
 
-    // Create a transformer from the templates
-    Transformer transformer = templates.newTransformer();
+    // Get a transformer for the templates
+    Transformer transformer = pool != null? pool.borrow() : templates.newTransformer();
+    boolean reusable = false;
+    try {
 
-    // Transmit the properties to the transformer
-    if (parameters != null) {
-      for (Entry<String, String> e : parameters.entrySet()) {
-        transformer.setParameter(e.getKey(), e.getValue());
+      // Transmit the properties to the transformer
+      if (parameters != null) {
+        for (Entry<String, String> e : parameters.entrySet()) {
+          transformer.setParameter(e.getKey(), e.getValue());
+        }
       }
-    }
 
-    // Check for JSON
-    Result r = JSONResult.newInstanceIfSupported(transformer, result);
+      // Check for JSON
+      Result r = JSONResult.newInstanceIfSupported(transformer, result);
 
-    // Process, write directly to the result
-    long before = System.nanoTime();
-    XSLTErrorCollector listener = new XSLTErrorCollector(LOGGER);
-    transformer.setErrorListener(listener);
-    try {
-      transformer.transform(source, r);
-    } catch (TransformerException ex) {
-      throw new TransformerExceptionWrapper(ex, listener);
+      // Process, write directly to the result
+      long before = System.nanoTime();
+      XSLTErrorCollector listener = new XSLTErrorCollector(LOGGER);
+      transformer.setErrorListener(listener);
+      try {
+        transformer.transform(source, r);
+      } catch (TransformerException ex) {
+        throw new TransformerExceptionWrapper(ex, listener);
+      }
+      reusable = true;
+      return System.nanoTime() - before;
+
+    } finally {
+      // Transformers which failed are not reused in case they were left in an inconsistent state
+      if (pool != null) {
+        if (reusable) {
+          pool.release(transformer);
+        } else {
+          pool.discard(transformer);
+        }
+      }
     }
-    return System.nanoTime() - before;
   }
 
   // private helpers
@@ -355,15 +638,24 @@ public final class XSLTransformer {
     String stylesheet = toWebPath(f.getAbsolutePath());
     Templates templates = store? CACHE.get(f) : null;
     if (templates == null) {
+      int changes = CHANGES.get();
       LOGGER.info("Loading XSLT stylesheet '{}' [caching {}]", stylesheet, store? "enabled" : "disabled");
       // Generate the templates if necessary
       long t0 = System.currentTimeMillis();
+      FlightEvents.Event event = FlightEvents.XSLT_COMPILE.begin();
       templates = toTemplates(f, this._fallback);
+      if (event != null) {
+        event.set(0, stylesheet).commit();
+      }
       long t1 = System.currentTimeMillis();
       LOGGER.debug("Templates loaded in {}ms", (t1 - t0));
+      COMPILATIONS.increment();
+      COMPILE_DURATION.record((t1 - t0) * 1000);
       // Recalculate the Etag
-      this.etag = computeEtag(f, this._fallback);
-      if (store) {
+      this.changes = changes;
+      this.etag = computeEtag(f, this._fallback, this._tracked);
+      // Do not cache templates if a stylesheet changed while they were compiled
+      if (store && CHANGES.get() == changes) {
         CACHE.put(f, templates);
         LOGGER.info("Caching XSLT stylesheet '{}'", stylesheet);
       }
@@ -371,6 +663,29 @@ public final class XSLTransformer {
     return templates;
   }
 
+  /**
+   * Returns the pool of transformers for the specified templates.
+   *
+   * <p>Transformers are only pooled when the templates are cached.
+   *
+   * @param f         The path to the XSLT style sheet.
+   * @param templates The templates currently in use for that file.
+   *
+   * @return The corresponding pool or <code>null</code> if transformers should not be pooled.
+   */
+  private static @Nullable TransformerPool getPool(File f, Templates templates) {
+    if (!GlobalSettings.has(BerliozOption.XSLT_CACHE)) return null;
+    TransformerPool pool = POOLS.get(f);
+    if (pool == null || pool.templates() != templates) {
+      int size = GlobalSettings.get(TransformerPool.SIZE_PROPERTY, Runtime.getRuntime().availableProcessors() * 2);
+      if (size <= 0) return null;
+      int wait = GlobalSettings.get(TransformerPool.WAIT_PROPERTY, TransformerPool.DEFAULT_WAIT);
+      pool = new TransformerPool(toWebPath(f.getAbsolutePath()), templates, size, wait);
+      POOLS.put(f, pool);
+    }
+    return pool;
+  }
+
   /**
    * Return the XSLT templates from the given style.
    *
@@ -444,11 +759,10 @@ public final class XSLTransformer {
    * Handles transformation errors - to be used in catch blocks.
    *
    * @param ex         An error occurring during an XSLT transformation.
-   * @param source     The XML source being transformed
    * @param parameters The XSLT parameters passed to the transformer
    * @return the error details as XML
    */
-  private static String toXML(TransformerException ex, String source, Map<String, String> parameters) {
+  private static String toXML(TransformerException ex, Map<String, String> parameters) {
     // Remove all double dash so that it may be inserted in the XML comment
     StringWriter out = new StringWriter();
     try {
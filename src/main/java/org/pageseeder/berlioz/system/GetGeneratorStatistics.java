@@ -27,9 +27,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Returns the statistics collected for each generator and each service.
+ *
+ * <p>In addition to the minimum, maximum and average times, the p50, p90, p99 and p999
+ * percentiles of the ETag and process times are reported since statistics were collected and
+ * over the last minute. All times are in microseconds.
+ *
+ * <p>Generators are measured for each invocation. Services are measured once per request: the
+ * process time of a service is the total time taken to handle the request.
+ *
+ * <p>Use the <code>reset=true</code> parameter to clear the statistics.
+ *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.9.32
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
 public class GetGeneratorStatistics implements ContentGenerator {
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.system;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.pageseeder.berlioz.content.GeneratorListener;
+import org.pageseeder.berlioz.http.HttpHeaders;
+import org.pageseeder.berlioz.servlet.BerliozConfig;
+import org.pageseeder.berlioz.util.MetricsRegistry;
+import org.pageseeder.berlioz.util.MetricsWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the metrics collected by Berlioz using the Prometheus text exposition format.
+ *
+ * <p>The metrics include the requests by service and status, the time taken by each generator,
+ * XSLT compilations, bundle builds and compression.
+ *
+ * <p>This servlet should be mapped separately from the Berlioz servlet and access to it
+ * restricted, for example:
+ *
+ * <pre>
+ * {@code <servlet>
+ *   <servlet-name>Metrics</servlet-name>
+ *   <servlet-class>org.pageseeder.berlioz.system.MetricsServlet</servlet-class>
+ * </servlet>
+ * <servlet-mapping>
+ *   <servlet-name>Metrics</servlet-name>
+ *   <url-pattern>/metrics</url-pattern>
+ * </servlet-mapping> }
+ * </pre>
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class MetricsServlet extends HttpServlet {
+
+  /**
+   * As per requirement for the Serializable interface.
+   */
+  private static final long serialVersionUID = 20261018L;
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServlet.class);
+
+  /**
+   * Binds the statistics collector to Berlioz so that generators are included.
+   */
+  @Override
+  public void init() throws ServletException {
+    GeneratorListener listener = BerliozConfig.getListener();
+    StatisticsCollector collector = StatisticsCollector.getInstance();
+    if (listener == null) {
+      BerliozConfig.setListener(collector);
+    } else if (collector != listener) {
+      LOGGER.warn("Unable to initialise the Berlioz statistics for generators");
+    }
+    MetricsRegistry.getInstance().register(collector);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+    res.setContentType(MetricsWriter.CONTENT_TYPE);
+    res.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+    MetricsWriter out = new MetricsWriter(res.getWriter());
+    MetricsRegistry.getInstance().write(out);
+    out.flush();
+  }
+
+  @Override
+  public void destroy() {
+    MetricsRegistry.getInstance().unregister(StatisticsCollector.getInstance());
+    super.destroy();
+  }
+
+}
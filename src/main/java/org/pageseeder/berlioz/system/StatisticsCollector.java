@@ -16,32 +16,45 @@
 package org.pageseeder.berlioz.system;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.eclipse.jdt.annotation.Nullable;
 import org.pageseeder.berlioz.content.ContentGenerator;
 import org.pageseeder.berlioz.content.ContentStatus;
 import org.pageseeder.berlioz.content.GeneratorListener;
 import org.pageseeder.berlioz.content.Service;
 import org.pageseeder.berlioz.util.ISO8601;
+import org.pageseeder.berlioz.util.LogHistogram;
+import org.pageseeder.berlioz.util.MetricsRegistry.Collector;
+import org.pageseeder.berlioz.util.MetricsWriter;
 import org.pageseeder.xmlwriter.XMLWritable;
 import org.pageseeder.xmlwriter.XMLWriter;
 
 /**
- * Collects basic statistics about generators.
+ * Collects basic statistics about generators and services.
+ *
+ * <p>Statistics are collected for each generator and for each service, both since they started
+ * being collected and over a rolling window covering the last minute. Values are recorded
+ * without locking so that generators invoked concurrently do not contend.
+ *
+ * <p>Generator statistics are recorded for each invocation of the generator, the
+ * <code>process</code> time is the time taken by the generator. Service statistics are recorded
+ * once per request, the <code>etag</code> time is the time taken to compute the ETag of the
+ * response and the <code>process</code> time is the total time taken to handle the request.
+ *
+ * <p>All times are reported in microseconds.
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.11.2
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.9.32
  */
-final class StatisticsCollector implements GeneratorListener, XMLWritable {
+final class StatisticsCollector implements GeneratorListener, XMLWritable, Collector {
 
   /**
    * Singleton instance.
@@ -49,14 +62,52 @@ final class StatisticsCollector implements GeneratorListener, XMLWritable {
   private static final StatisticsCollector SINGLETON = new StatisticsCollector();
 
   /**
-   * All the statistics.
+   * The number of slots in the rolling window.
+   *
+   * <p>Each slot uses a histogram, so the window covers between 40 and 60 seconds to limit the
+   * memory used by each generator and service.
+   */
+  private static final int WINDOW_SLOTS = 3;
+
+  /**
+   * The duration of each slot in the rolling window in milliseconds.
+   */
+  private static final long SLOT_DURATION = 20000;
+
+  /**
+   * The percentiles to report.
    */
-  private final ConcurrentHashMap<Class<?>, BasicStats> _stats = new ConcurrentHashMap<>();
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+  /**
+   * The names of the attributes for each percentile.
+   */
+  private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+  /**
+   * The label names for the generator metrics.
+   */
+  private static final String[] GENERATOR_LABEL = { "generator" };
+
+  /**
+   * The label names for the generator metrics by status.
+   */
+  private static final String[] GENERATOR_STATUS_LABELS = { "generator", "status" };
+
+  /**
+   * Statistics for each generator class.
+   */
+  private final ConcurrentHashMap<Class<?>, BasicStats> _generators = new ConcurrentHashMap<>();
+
+  /**
+   * Statistics for each service by ID.
+   */
+  private final ConcurrentHashMap<String, BasicStats> _services = new ConcurrentHashMap<>();
 
   /**
    * When did we start collecting statistics
    */
-  private long since = System.currentTimeMillis();
+  private volatile long since = System.currentTimeMillis();
 
   /**
    * Use <code>getInstance</code> instead.
@@ -66,26 +117,38 @@ final class StatisticsCollector implements GeneratorListener, XMLWritable {
 
   @Override
   public void generate(Service service, ContentGenerator generator, ContentStatus status, long etag, long process) {
-    BasicStats basic = this._stats.get(generator.getClass());
-
-    // Create entry if it does not exist
-    if (basic == null) {
-      basic = new BasicStats(generator.getClass().getName(), status, etag, process);
-      this._stats.put(generator.getClass(), basic);
-    } else {
-      // update
-      basic.update(status, etag, process);
+    Class<?> type = generator.getClass();
+    BasicStats g = this._generators.get(type);
+    if (g == null) {
+      g = new BasicStats("generator", type.getName());
+      BasicStats existing = this._generators.putIfAbsent(type, g);
+      if (existing != null) {
+        g = existing;
+      }
     }
+    g.update(status, etag, process);
+  }
+
+  @Override
+  public void service(Service service, @Nullable ContentStatus status, long etag, long process) {
+    BasicStats s = this._services.get(service.id());
+    if (s == null) {
+      s = new BasicStats("service", service.id());
+      BasicStats existing = this._services.putIfAbsent(service.id(), s);
+      if (existing != null) {
+        s = existing;
+      }
+    }
+    s.update(status, etag, process);
   }
 
   /**
    * Clears all the statistics.
    */
   public void clear() {
-    this._stats.clear();
-    synchronized (this) {
-      this.since = System.currentTimeMillis();
-    }
+    this._generators.clear();
+    this._services.clear();
+    this.since = System.currentTimeMillis();
   }
 
   /**
@@ -95,188 +158,339 @@ final class StatisticsCollector implements GeneratorListener, XMLWritable {
     return SINGLETON;
   }
 
+  /**
+   * Returns the statistics for the specified generator.
+   *
+   * @param generator The class of the generator.
+   *
+   * @return the statistics for that generator or <code>null</code> if it has not been invoked.
+   */
+  public @Nullable BasicStats getGeneratorStats(Class<?> generator) {
+    return this._generators.get(generator);
+  }
+
+  /**
+   * Returns the statistics for the specified service.
+   *
+   * @param service The ID of the service.
+   *
+   * @return the statistics for that service or <code>null</code> if it has not been invoked.
+   */
+  public @Nullable BasicStats getServiceStats(String service) {
+    return this._services.get(service);
+  }
+
+  @Override
+  public void collect(MetricsWriter out) throws IOException {
+    if (this._generators.isEmpty()) return;
+    out.family("berlioz_generator_invocations_total", "Generators invoked by status.", "counter");
+    for (BasicStats s : this._generators.values()) {
+      for (ContentStatus status : ContentStatus.values()) {
+        long n = s._status.get(status).sum();
+        if (n > 0) {
+          out.sample("berlioz_generator_invocations_total", GENERATOR_STATUS_LABELS, s.labels(status), n);
+        }
+      }
+    }
+    out.family("berlioz_generator_etag_seconds", "Time taken by generators to compute the ETag.", "histogram");
+    for (BasicStats s : this._generators.values()) {
+      out.histogram("berlioz_generator_etag_seconds", GENERATOR_LABEL, s._labels, s._etag);
+    }
+    out.family("berlioz_generator_process_seconds", "Time taken by generators to process requests.", "histogram");
+    for (BasicStats s : this._generators.values()) {
+      out.histogram("berlioz_generator_process_seconds", GENERATOR_LABEL, s._labels, s._process);
+    }
+  }
+
   @Override
   public void toXML(XMLWriter xml) throws IOException {
     xml.openElement("statistics");
     xml.attribute("since", ISO8601.format(this.since, ISO8601.DATETIME));
-    for (BasicStats s : this._stats.values()) {
+    for (BasicStats s : this._generators.values()) {
+      s.toXML(xml);
+    }
+    for (BasicStats s : this._services.values()) {
       s.toXML(xml);
     }
     xml.closeElement();
   }
 
   /**
-   * Holds basic statistics about a generator.
+   * Holds basic statistics about a generator or service.
    */
   public static final class BasicStats implements XMLWritable {
 
     /**
-     * The class name of the generator.
+     * The type of component: "generator" or "service".
      */
-    private final String _generator;
+    private final String _type;
 
     /**
-     * The number of times the method was invoked.
+     * The class name of the generator or the ID of the service.
      */
-    private final Map<ContentStatus, AtomicLong> _status;
+    private final String _name;
 
     /**
-     * The number of times the method was invoked.
+     * The number of times the generators returned each status.
      */
-    private final AtomicLong _count;
+    private final Map<ContentStatus, LongAdder> _status;
 
     /**
-     * Total amount of time taken by the getEtag() method in microseconds.
+     * The label values for metrics.
      */
-    private final AtomicLong _totalEtagTime;
+    private final String[] _labels;
 
     /**
-     * Total amount of time taken by the process() method in microseconds.
+     * The label values for metrics by status.
      */
-    private final AtomicLong _totalProcessTime;
+    private final String[][] _statusLabels;
 
     /**
-     * Minimum time taken by the getEtag() method in microseconds.
+     * Time taken by the getEtag() method in microseconds.
      */
-    private final AtomicLong _minEtagTime;
+    private final LogHistogram _etag = new LogHistogram();
 
     /**
-     * Minimum time taken by the process() method in microseconds.
+     * Time taken by the process() method in microseconds.
      */
-    private final AtomicLong _minProcessTime;
+    private final LogHistogram _process = new LogHistogram();
 
     /**
-     * Maximum time taken by the getEtag() method in microseconds.
+     * Time taken by the getEtag() method in microseconds over the rolling window.
      */
-    private final AtomicLong _maxEtagTime;
+    private final Window _etagWindow = new Window();
 
     /**
-     * Maximum time taken by the process() method in microseconds.
+     * Time taken by the process() method in microseconds over the rolling window.
      */
-    private final AtomicLong _maxProcessTime;
+    private final Window _processWindow = new Window();
 
     /**
-     * Maximum time taken by the process() method in microseconds.
-     */
-    private final LinkedBlockingDeque<Long> _lastEtag = new LinkedBlockingDeque<>(10);
-
-    /**
-     * Maximum time taken by the process() method in microseconds.
-     */
-    private final LinkedBlockingDeque<Long> _lastProcess = new LinkedBlockingDeque<>(10);
-
-    /**
-     * Creates a instance with the specified initial status and time values.
+     * Creates a new instance.
      *
-     * @param name    The name of the generator
-     * @param status  The first content status
-     * @param etag    The etag time in nano seconds
-     * @param process The process time in nano seconds
+     * @param type The type of component
+     * @param name The name of the generator or service
      */
-    private BasicStats(String name, ContentStatus status, long etag, long process) {
-      this._generator = name;
-      this._status = Collections.synchronizedMap(new EnumMap<ContentStatus, AtomicLong>(ContentStatus.class));
-      this._status.put(status, new AtomicLong(1));
-      this._count = new AtomicLong(1);
-      long e = etag / 1000;
-      this._minEtagTime = new AtomicLong(e);
-      this._maxEtagTime = new AtomicLong(e);
-      this._totalEtagTime = new AtomicLong(e);
-      long p = process / 1000;
-      this._minProcessTime = new AtomicLong(p);
-      this._maxProcessTime = new AtomicLong(p);
-      this._totalProcessTime = new AtomicLong(p);
+    private BasicStats(String type, String name) {
+      this._type = type;
+      this._name = name;
+      // All statuses are known in advance, so the map is never modified
+      Map<ContentStatus, LongAdder> status = new EnumMap<>(ContentStatus.class);
+      for (ContentStatus s : ContentStatus.values()) {
+        status.put(s, new LongAdder());
+      }
+      this._status = status;
+      this._labels = new String[] { name };
+      ContentStatus[] statuses = ContentStatus.values();
+      this._statusLabels = new String[statuses.length][];
+      for (ContentStatus s : statuses) {
+        this._statusLabels[s.ordinal()] = new String[] { name, Integer.toString(s.code()) };
+      }
     }
 
     /**
      * Update the statistics.
      *
-     * @param status  The content status
+     * @param status  The content status (<code>null</code> if not a content status)
      * @param etag    The getEtag() function time in nano seconds
      * @param process The process() function time in nano seconds
      */
-    public synchronized void update(ContentStatus status, long etag, long process) {
-      // Status
-      AtomicLong i = this._status.get(status);
-      if (i == null) {
-        this._status.put(status, new AtomicLong(1));
-      } else {
-        i.incrementAndGet();
+    public void update(@Nullable ContentStatus status, long etag, long process) {
+      LongAdder counter = status != null? this._status.get(status) : null;
+      if (counter != null) {
+        counter.increment();
       }
-
-      this._count.incrementAndGet();
       // times in microseconds
       long e = etag / 1000;
       long p = process / 1000;
-      // min and max
-      if (e > this._maxEtagTime.get()) {
-        this._maxEtagTime.set(e);
-      }
-      if (e < this._minEtagTime.get()) {
-        this._minEtagTime.set(e);
-      }
-      if (p > this._maxProcessTime.get()) {
-        this._maxProcessTime.set(p);
-      }
-      if (p < this._minProcessTime.get()) {
-        this._minProcessTime.set(p);
-      }
-      // Total
-      this._totalEtagTime.addAndGet(e);
-      this._totalProcessTime.addAndGet(p);
-      if (this._lastEtag.remainingCapacity() == 0) {
-        this._lastEtag.pollFirst();
-      }
-      this._lastEtag.offerLast(e);
-      if (this._lastProcess.remainingCapacity() == 0) {
-        this._lastProcess.pollFirst();
-      }
-      this._lastProcess.offerLast(p);
+      long now = System.currentTimeMillis();
+      this._etag.record(e);
+      this._process.record(p);
+      this._etagWindow.record(e, now);
+      this._processWindow.record(p, now);
+    }
+
+    /**
+     * @param status The content status
+     *
+     * @return the label values for the metrics of the specified status.
+     */
+    private String[] labels(ContentStatus status) {
+      return this._statusLabels[status.ordinal()];
+    }
+
+    /**
+     * @return the number of generator invocations or service requests.
+     */
+    public long count() {
+      return this._process.count();
+    }
+
+    /**
+     * @return Time taken by the getEtag() method in microseconds since statistics were collected.
+     */
+    public LogHistogram etag() {
+      return this._etag;
+    }
+
+    /**
+     * @return Time taken by the process() method in microseconds since statistics were collected.
+     */
+    public LogHistogram process() {
+      return this._process;
+    }
+
+    /**
+     * @return Time taken by the getEtag() method in microseconds over the last minute.
+     */
+    public LogHistogram recentEtag() {
+      return this._etagWindow.snapshot(System.currentTimeMillis());
+    }
+
+    /**
+     * @return Time taken by the process() method in microseconds over the last minute.
+     */
+    public LogHistogram recentProcess() {
+      return this._processWindow.snapshot(System.currentTimeMillis());
     }
 
     @Override
-    public synchronized void toXML(XMLWriter xml) throws IOException {
+    public void toXML(XMLWriter xml) throws IOException {
+      long count = count();
       xml.openElement("statistic");
-      xml.attribute("generator", this._generator);
-      xml.attribute("count", this._count.toString());
+      xml.attribute(this._type, this._name);
+      xml.attribute("count", Long.toString(count));
       // times
-      xml.attribute("min-etag",      this._minEtagTime.toString());
-      xml.attribute("min-process",   this._minProcessTime.toString());
-      xml.attribute("max-etag",      this._maxEtagTime.toString());
-      xml.attribute("max-process",   this._maxProcessTime.toString());
-      xml.attribute("total-etag",    this._totalEtagTime.toString());
-      xml.attribute("total-process", this._totalProcessTime.toString());
-      // compute the average
-      long avgEtag = this._totalEtagTime.longValue() / this._count.longValue();
-      long avgProcess = this._totalProcessTime.longValue() / this._count.longValue();
-      xml.attribute("avg-etag",    Long.toString(avgEtag));
-      xml.attribute("avg-process", Long.toString(avgProcess));
-
-      long avgLastEtag = average(this._lastEtag);
-      long avgLastProcess = average(this._lastProcess);
-      xml.attribute("avg-last-etag",    Long.toString(avgLastEtag));
-      xml.attribute("avg-last-process", Long.toString(avgLastProcess));
+      xml.attribute("min-etag",      Long.toString(this._etag.min()));
+      xml.attribute("min-process",   Long.toString(this._process.min()));
+      xml.attribute("max-etag",      Long.toString(this._etag.max()));
+      xml.attribute("max-process",   Long.toString(this._process.max()));
+      xml.attribute("total-etag",    Long.toString(this._etag.sum()));
+      xml.attribute("total-process", Long.toString(this._process.sum()));
+      xml.attribute("avg-etag",      Long.toString(this._etag.mean()));
+      xml.attribute("avg-process",   Long.toString(this._process.mean()));
 
       // status
       xml.openElement("status");
-      for (Entry<ContentStatus, AtomicLong> status : this._status.entrySet()) {
-        xml.attribute(status.getKey().name().toLowerCase(), Long.toString(status.getValue().get()));
+      for (Entry<ContentStatus, LongAdder> status : this._status.entrySet()) {
+        long n = status.getValue().sum();
+        if (n > 0) {
+          xml.attribute(status.getKey().name().toLowerCase(), Long.toString(n));
+        }
       }
       xml.closeElement();
+
+      // percentiles since start and over the rolling window
+      long now = System.currentTimeMillis();
+      toXML(xml, "total", this._etag, this._process);
+      toXML(xml, "window", this._etagWindow.snapshot(now), this._processWindow.snapshot(now));
+
       xml.closeElement();
     }
 
     /**
-     * @param times Times to average
-     * @return The average time value
+     * Writes the percentiles for the specified histograms.
+     *
+     * @param xml     The XML writer
+     * @param scope   The scope of the histograms: "total" or "window"
+     * @param etag    Time taken by the getEtag() method
+     * @param process Time taken by the process() method
+     *
+     * @throws IOException If thrown by the XML writer
+     */
+    private static void toXML(XMLWriter xml, String scope, LogHistogram etag, LogHistogram process) throws IOException {
+      xml.openElement("percentiles");
+      xml.attribute("scope", scope);
+      if ("window".equals(scope)) {
+        xml.attribute("seconds", Long.toString(WINDOW_SLOTS * SLOT_DURATION / 1000));
+      }
+      xml.attribute("count", Long.toString(process.count()));
+      toXML(xml, "etag", etag);
+      toXML(xml, "process", process);
+      xml.closeElement();
+    }
+
+    /**
+     * Writes the percentiles of a histogram as attributes of an element.
+     *
+     * @param xml       The XML writer
+     * @param element   The name of the element
+     * @param histogram The histogram
+     *
+     * @throws IOException If thrown by the XML writer
+     */
+    private static void toXML(XMLWriter xml, String element, LogHistogram histogram) throws IOException {
+      xml.openElement(element);
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        xml.attribute(PERCENTILE_NAMES[i], Long.toString(histogram.percentile(PERCENTILES[i])));
+      }
+      xml.attribute("max", Long.toString(histogram.max()));
+      xml.closeElement();
+    }
+  }
+
+  /**
+   * A rolling window of histograms.
+   *
+   * <p>The window is divided into slots which are reused as time passes, so that values
+   * older than the window are discarded without locking.
+   */
+  private static final class Window {
+
+    /**
+     * The histogram for each slot.
+     */
+    private final LogHistogram[] _slots = new LogHistogram[WINDOW_SLOTS];
+
+    /**
+     * The period currently recorded by each slot.
+     */
+    private final AtomicLong[] _periods = new AtomicLong[WINDOW_SLOTS];
+
+    /**
+     * Creates a new empty window.
+     */
+    Window() {
+      for (int i = 0; i < WINDOW_SLOTS; i++) {
+        this._slots[i] = new LogHistogram();
+        this._periods[i] = new AtomicLong(-1);
+      }
+    }
+
+    /**
+     * Records a value in the slot for the current time.
+     *
+     * @param value The value to record
+     * @param now   The current time in milliseconds
+     */
+    void record(long value, long now) {
+      long period = now / SLOT_DURATION;
+      int i = (int)(period % WINDOW_SLOTS);
+      AtomicLong current = this._periods[i];
+      long previous = current.get();
+      // The first thread to reach a new period recycles the slot
+      if (previous != period && current.compareAndSet(previous, period)) {
+        this._slots[i].reset();
+      }
+      this._slots[i].record(value);
+    }
+
+    /**
+     * Returns the values recorded over the window.
+     *
+     * @param now The current time in milliseconds
+     *
+     * @return A new histogram with the values of all the slots in the window.
      */
-    private static long average(Collection<Long> times) {
-      if (times.isEmpty()) return 0;
-      long avgLastEtag = 0;
-      for (Long t : times) {
-        avgLastEtag += t.longValue();
+    LogHistogram snapshot(long now) {
+      long period = now / SLOT_DURATION;
+      LogHistogram histogram = new LogHistogram();
+      for (int i = 0; i < WINDOW_SLOTS; i++) {
+        if (period - this._periods[i].get() < WINDOW_SLOTS) {
+          histogram.add(this._slots[i]);
+        }
       }
-      return avgLastEtag / times.size();
+      return histogram;
     }
   }
 }
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.BerliozOption;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks changes made to files and directories so that what depends on them can be invalidated
+ * without checking the file system on every request.
+ *
+ * <p>Changes are detected using a <code>WatchService</code> on a single daemon thread. Directories
+ * which cannot be watched, and all directories when the <code>berlioz.hot-reload.mode</code>
+ * property is set to <code>poll</code>, are scanned at regular intervals instead. The interval
+ * can be specified in milliseconds with the <code>berlioz.hot-reload.poll-interval</code> property.
+ *
+ * <p>Listeners are notified on the tracker thread and should only invalidate state.
+ *
+ * @see BerliozOption#HOT_RELOAD
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class FileChangeTracker {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileChangeTracker.class);
+
+  /**
+   * The name of the property to specify how changes are detected: "watch" or "poll".
+   */
+  public static final String MODE_PROPERTY = "berlioz.hot-reload.mode";
+
+  /**
+   * The name of the property to specify the polling interval (in ms).
+   */
+  public static final String INTERVAL_PROPERTY = "berlioz.hot-reload.poll-interval";
+
+  /**
+   * The default polling interval (in ms).
+   */
+  private static final int DEFAULT_INTERVAL = 2000;
+
+  /**
+   * The single instance, created lazily.
+   */
+  private static volatile @Nullable FileChangeTracker singleton;
+
+  /**
+   * Notified when a tracked file changes.
+   */
+  public interface Listener {
+
+    /**
+     * Invoked when a tracked file or directory was created, modified or deleted.
+     *
+     * <p>If changes were lost, this method is invoked with the directory containing the files.
+     *
+     * @param file The file or directory that changed.
+     */
+    void changed(File file);
+
+  }
+
+  /**
+   * The files and directories tracked by listeners.
+   */
+  private final List<Registration> _registrations = new CopyOnWriteArrayList<>();
+
+  /**
+   * The watch service (<code>null</code> if all directories are polled).
+   */
+  private final @Nullable WatchService _watcher;
+
+  /**
+   * The directories registered with the watch service by key.
+   */
+  private final Map<WatchKey, Path> _keys = new ConcurrentHashMap<>();
+
+  /**
+   * The directories registered with the watch service.
+   */
+  private final Set<Path> _watched = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The last known state of the entries of each polled directory.
+   */
+  private final Map<Path, Map<Path, Long>> _polled = new ConcurrentHashMap<>();
+
+  /**
+   * The polling interval in ms.
+   */
+  private final long _interval;
+
+  /**
+   * The thread detecting the changes.
+   */
+  private final Thread _thread;
+
+  /**
+   * The number of changes reported to listeners.
+   */
+  private final LongAdder _changes = new LongAdder();
+
+  /**
+   * Whether the tracker is running.
+   */
+  private volatile boolean running = true;
+
+  /**
+   * @param poll     Whether to poll all directories instead of using a watch service.
+   * @param interval The polling interval in ms.
+   */
+  private FileChangeTracker(boolean poll, long interval) {
+    WatchService watcher = null;
+    if (!poll) {
+      try {
+        watcher = FileSystems.getDefault().newWatchService();
+      } catch (IOException | UnsupportedOperationException ex) {
+        LOGGER.warn("Unable to create watch service, polling for changes instead", ex);
+      }
+    }
+    this._watcher = watcher;
+    this._interval = Math.max(interval, 100);
+    this._thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        track();
+      }
+    }, "berlioz-file-tracker");
+    this._thread.setDaemon(true);
+  }
+
+  /**
+   * Tracks the changes made to the specified file or directory.
+   *
+   * <p>Directories are tracked recursively. Registering the same listener for the same file
+   * more than once has no effect.
+   *
+   * @param file     The file or directory to track.
+   * @param listener The listener to notify when it changes.
+   */
+  public void watch(File file, Listener listener) {
+    Path path = file.toPath().toAbsolutePath().normalize();
+    boolean directory = Files.isDirectory(path);
+    Path dir = directory? path : path.getParent();
+    if (dir == null || !Files.isDirectory(dir)) {
+      LOGGER.debug("Unable to track changes to {}", file);
+      return;
+    }
+    Registration registration = new Registration(path, directory, listener);
+    if (this._registrations.contains(registration)) return;
+    this._registrations.add(registration);
+    if (directory) {
+      registerAll(dir);
+    } else {
+      register(dir);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if changes are detected with a watch service;
+   *         <code>false</code> if directories are polled.
+   */
+  public boolean isWatching() {
+    return this._watcher != null;
+  }
+
+  /**
+   * @return the number of directories being tracked.
+   */
+  public int directories() {
+    return this._watched.size() + this._polled.size();
+  }
+
+  /**
+   * @return the number of changes reported to listeners.
+   */
+  public long changes() {
+    return this._changes.sum();
+  }
+
+  /**
+   * Returns the file change tracker if hot reloading is enabled.
+   *
+   * @return the file change tracker or <code>null</code> if hot reloading is disabled.
+   */
+  public static @Nullable FileChangeTracker getInstance() {
+    if (!GlobalSettings.has(BerliozOption.HOT_RELOAD)) return null;
+    FileChangeTracker tracker = singleton;
+    if (tracker == null) {
+      synchronized (FileChangeTracker.class) {
+        tracker = singleton;
+        if (tracker == null) {
+          boolean poll = "poll".equals(GlobalSettings.get(MODE_PROPERTY, "watch"));
+          int interval = GlobalSettings.get(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+          tracker = new FileChangeTracker(poll, interval);
+          LOGGER.info("Tracking file changes using {}", tracker.isWatching()? "watch service" : "polling every "+tracker._interval+"ms");
+          tracker._thread.start();
+          singleton = tracker;
+        }
+      }
+    }
+    return tracker;
+  }
+
+  /**
+   * Stops tracking changes if the tracker was started.
+   */
+  public static synchronized void shutdown() {
+    FileChangeTracker tracker = singleton;
+    if (tracker != null) {
+      singleton = null;
+      tracker.stop();
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Detects the changes until the tracker is stopped.
+   */
+  private void track() {
+    WatchService watcher = this._watcher;
+    long next = System.currentTimeMillis() + this._interval;
+    try {
+      while (this.running) {
+        long wait = Math.max(next - System.currentTimeMillis(), 1);
+        if (watcher != null) {
+          WatchKey key = watcher.poll(wait, TimeUnit.MILLISECONDS);
+          if (key != null) {
+            process(key);
+          }
+        } else {
+          Thread.sleep(wait);
+        }
+        if (System.currentTimeMillis() >= next) {
+          scan();
+          next = System.currentTimeMillis() + this._interval;
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException ex) {
+      LOGGER.debug("Watch service closed");
+    }
+    LOGGER.debug("Stopped tracking file changes");
+  }
+
+  /**
+   * Stops the tracker thread and closes the watch service.
+   */
+  private void stop() {
+    this.running = false;
+    this._thread.interrupt();
+    WatchService watcher = this._watcher;
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException ex) {
+        LOGGER.debug("Unable to close watch service", ex);
+      }
+    }
+  }
+
+  /**
+   * Processes the events reported by the watch service for a directory.
+   *
+   * @param key The key signalled by the watch service.
+   */
+  private void process(WatchKey key) {
+    Path dir = this._keys.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (dir == null) {
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        notify(dir);
+      } else {
+        Path child = dir.resolve((Path)event.context());
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child) && isRecursive(child)) {
+          registerAll(child);
+        }
+        notify(child);
+      }
+    }
+    if (!key.reset() && dir != null) {
+      this._keys.remove(key);
+      this._watched.remove(dir);
+    }
+  }
+
+  /**
+   * Scans the polled directories and reports the entries which have changed.
+   */
+  private void scan() {
+    for (Map.Entry<Path, Map<Path, Long>> entry : this._polled.entrySet()) {
+      Path dir = entry.getKey();
+      Map<Path, Long> previous = entry.getValue();
+      if (!Files.isDirectory(dir)) {
+        this._polled.remove(dir);
+        notify(dir);
+        continue;
+      }
+      Map<Path, Long> current = list(dir);
+      for (Map.Entry<Path, Long> e : current.entrySet()) {
+        Path child = e.getKey();
+        Long stamp = previous.get(child);
+        if (stamp == null || !stamp.equals(e.getValue())) {
+          if (stamp == null && e.getValue().longValue() == -1L && isRecursive(child)) {
+            registerAll(child);
+          }
+          notify(child);
+        }
+      }
+      for (Path child : previous.keySet()) {
+        if (!current.containsKey(child)) {
+          notify(child);
+        }
+      }
+      entry.setValue(current);
+    }
+  }
+
+  /**
+   * Notifies all the listeners tracking the specified path.
+   *
+   * @param path The file or directory which has changed.
+   */
+  private void notify(Path path) {
+    LOGGER.debug("Detected change to {}", path);
+    for (Registration registration : this._registrations) {
+      if (registration.matches(path)) {
+        this._changes.increment();
+        try {
+          registration._listener.changed(path.toFile());
+        } catch (RuntimeException ex) {
+          LOGGER.warn("Listener failed to handle change to {}", path, ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param dir A directory.
+   * @return <code>true</code> if the directory is tracked as part of a directory tree.
+   */
+  private boolean isRecursive(Path dir) {
+    for (Registration registration : this._registrations) {
+      if (registration._recursive && dir.startsWith(registration._path)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Registers the specified directory and all its descendants.
+   *
+   * @param dir The root directory.
+   */
+  private void registerAll(Path dir) {
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+          register(d);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException ex) {
+      LOGGER.warn("Unable to track changes to {}", dir, ex);
+    }
+  }
+
+  /**
+   * Registers the specified directory with the watch service or for polling.
+   *
+   * @param dir The directory to track.
+   */
+  private void register(Path dir) {
+    WatchService watcher = this._watcher;
+    if (watcher != null && !this._polled.containsKey(dir)) {
+      if (!this._watched.add(dir)) return;
+      try {
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this._keys.put(key, dir);
+        return;
+      } catch (IOException | UnsupportedOperationException ex) {
+        this._watched.remove(dir);
+        LOGGER.warn("Unable to watch {}, polling for changes instead", dir);
+      }
+    }
+    if (!this._polled.containsKey(dir)) {
+      this._polled.put(dir, list(dir));
+    }
+  }
+
+  /**
+   * Lists the entries of a directory with a stamp to detect changes.
+   *
+   * <p>Directories have a stamp of -1, files are stamped using their length and last modified date.
+   *
+   * @param dir The directory to list.
+   *
+   * @return The stamp of each entry in the directory.
+   */
+  private static Map<Path, Long> list(Path dir) {
+    Map<Path, Long> stamps = new HashMap<>();
+    File[] files = dir.toFile().listFiles();
+    if (files != null) {
+      for (File f : files) {
+        long stamp = f.isDirectory()? -1L : f.lastModified() * 31 + f.length();
+        stamps.put(dir.resolve(f.getName()), Long.valueOf(stamp));
+      }
+    }
+    return stamps;
+  }
+
+  /**
+   * A file or directory tracked by a listener.
+   */
+  private static final class Registration {
+
+    /**
+     * The tracked file or directory.
+     */
+    private final Path _path;
+
+    /**
+     * Whether a directory is tracked.
+     */
+    private final boolean _recursive;
+
+    /**
+     * The listener to notify.
+     */
+    private final Listener _listener;
+
+    /**
+     * @param path      The tracked file or directory.
+     * @param recursive Whether a directory is tracked.
+     * @param listener  The listener to notify.
+     */
+    Registration(Path path, boolean recursive, Listener listener) {
+      this._path = path;
+      this._recursive = recursive;
+      this._listener = listener;
+    }
+
+    /**
+     * Indicates whether a change to the specified path concerns this registration.
+     *
+     * <p>A file is also concerned by changes reported for its directory.
+     *
+     * @param path The path which has changed.
+     *
+     * @return <code>true</code> if the listener should be notified.
+     */
+    boolean matches(Path path) {
+      if (this._recursive) return path.startsWith(this._path);
+      return path.equals(this._path) || path.equals(this._path.getParent());
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Registration)) return false;
+      Registration r = (Registration)o;
+      return this._path.equals(r._path) && this._listener == r._listener;
+    }
+
+    @Override
+    public int hashCode() {
+      return this._path.hashCode() * 31 + System.identityHashCode(this._listener);
+    }
+  }
+
+}
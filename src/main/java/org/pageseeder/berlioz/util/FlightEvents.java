@@ -0,0 +1,419 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Events emitted to the JDK Flight Recorder (JFR) so that recordings show which Berlioz
+ * service, generator, stylesheet or bundle the application was working on.
+ *
+ * <p>Since Berlioz targets Java 8, the event types are defined at runtime using the
+ * <code>jdk.jfr.EventFactory</code> API which is loaded reflectively. On JVMs without the
+ * Flight Recorder, {@link Type#begin()} always returns <code>null</code>; when no recording
+ * includes an event type, it only checks whether the type is enabled.
+ *
+ * <p>Typical usage:
+ * <pre>
+ *   FlightEvents.Event event = FlightEvents.GZIP.begin();
+ *   // do some work...
+ *   if (event != null) {
+ *     event.set(0, input).set(1, output).commit();
+ *   }
+ * </pre>
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class FlightEvents {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(FlightEvents.class);
+
+  /**
+   * The category of all Berlioz events.
+   */
+  private static final String[] CATEGORY = { "Berlioz" };
+
+  /**
+   * <code>EventFactory.newEvent()</code> or <code>null</code> if not available.
+   */
+  private static final @Nullable MethodHandle NEW_EVENT;
+
+  /**
+   * <code>EventType.isEnabled()</code> or <code>null</code> if not available.
+   */
+  private static final @Nullable MethodHandle IS_ENABLED;
+
+  /**
+   * <code>Event.begin()</code> or <code>null</code> if not available.
+   */
+  private static final @Nullable MethodHandle BEGIN;
+
+  /**
+   * <code>Event.set(int, Object)</code> or <code>null</code> if not available.
+   */
+  private static final @Nullable MethodHandle SET;
+
+  /**
+   * <code>Event.commit()</code> or <code>null</code> if not available.
+   */
+  private static final @Nullable MethodHandle COMMIT;
+
+  static {
+    MethodHandle newEvent = null;
+    MethodHandle isEnabled = null;
+    MethodHandle begin = null;
+    MethodHandle set = null;
+    MethodHandle commit = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+      Class<?> event = Class.forName("jdk.jfr.Event");
+      Class<?> type = Class.forName("jdk.jfr.EventType");
+      newEvent = lookup.findVirtual(factory, "newEvent", MethodType.methodType(event))
+          .asType(MethodType.methodType(Object.class, Object.class));
+      isEnabled = lookup.findVirtual(type, "isEnabled", MethodType.methodType(boolean.class))
+          .asType(MethodType.methodType(boolean.class, Object.class));
+      begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class))
+          .asType(MethodType.methodType(void.class, Object.class));
+      set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class))
+          .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+      commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class))
+          .asType(MethodType.methodType(void.class, Object.class));
+    } catch (ClassNotFoundException ex) {
+      LOGGER.debug("Flight Recorder is not available");
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      LOGGER.warn("Unable to initialise Flight Recorder events", ex);
+      newEvent = null;
+    }
+    NEW_EVENT = newEvent;
+    IS_ENABLED = isEnabled;
+    BEGIN = begin;
+    SET = set;
+    COMMIT = commit;
+  }
+
+  /**
+   * A request handled by the Berlioz servlet.
+   *
+   * <p>Fields: 0=service, 1=group, 2=method, 3=status
+   */
+  public static final Type REQUEST = new Type("org.pageseeder.berlioz.Request", "Request",
+      "An HTTP request handled by Berlioz",
+      Field.text("service", "Service"), Field.text("group", "Group"),
+      Field.text("method", "Method"), Field.integer("status", "Status"));
+
+  /**
+   * A content generator invoked.
+   *
+   * <p>Fields: 0=generatorClass, 1=name, 2=status, 3=etagTime, 4=processTime
+   */
+  public static final Type GENERATOR = new Type("org.pageseeder.berlioz.Generator", "Generator",
+      "A content generator invoked for a service",
+      Field.text("generatorClass", "Generator Class"), Field.text("name", "Name"),
+      Field.integer("status", "Status"), Field.nanos("etagTime", "ETag Time"),
+      Field.nanos("processTime", "Process Time"));
+
+  /**
+   * An XSLT stylesheet compiled.
+   *
+   * <p>Fields: 0=stylesheet
+   */
+  public static final Type XSLT_COMPILE = new Type("org.pageseeder.berlioz.XSLTCompile", "XSLT Compile",
+      "An XSLT stylesheet compiled into templates",
+      Field.text("stylesheet", "Stylesheet"));
+
+  /**
+   * An XSLT transformation.
+   *
+   * <p>Fields: 0=stylesheet, 1=service
+   */
+  public static final Type XSLT_TRANSFORM = new Type("org.pageseeder.berlioz.XSLTTransform", "XSLT Transform",
+      "The XML content of a service transformed with XSLT",
+      Field.text("stylesheet", "Stylesheet"), Field.text("service", "Service"));
+
+  /**
+   * A bundle built.
+   *
+   * <p>Fields: 0=bundle, 1=type, 2=files, 3=minimized
+   */
+  public static final Type BUNDLE = new Type("org.pageseeder.berlioz.Bundle", "Bundle Build",
+      "Scripts or styles bundled together",
+      Field.text("bundle", "Bundle"), Field.text("type", "Type"),
+      Field.integer("files", "Files"), Field.flag("minimized", "Minimized"));
+
+  /**
+   * Content compressed using GZIP.
+   *
+   * <p>Fields: 0=inputSize, 1=outputSize
+   */
+  public static final Type GZIP = new Type("org.pageseeder.berlioz.GZip", "GZip",
+      "Content compressed using GZIP",
+      Field.bytes("inputSize", "Input Size"), Field.bytes("outputSize", "Output Size"));
+
+  /**
+   * Utility class.
+   */
+  private FlightEvents() {
+  }
+
+  /**
+   * @return <code>true</code> if the Flight Recorder events are available on this JVM.
+   */
+  public static boolean isAvailable() {
+    return NEW_EVENT != null;
+  }
+
+  /**
+   * A type of event defined at runtime.
+   */
+  public static final class Type {
+
+    /**
+     * The <code>jdk.jfr.EventFactory</code> (<code>null</code> if not available)
+     */
+    private final @Nullable Object _factory;
+
+    /**
+     * The <code>jdk.jfr.EventType</code> (<code>null</code> if not available)
+     */
+    private final @Nullable Object _type;
+
+    /**
+     * Defines a new event type.
+     *
+     * @param name        The unique name of the event.
+     * @param label       The label of the event.
+     * @param description The description of the event.
+     * @param fields      The fields of the event.
+     */
+    private Type(String name, String label, String description, Field... fields) {
+      Object factory = null;
+      Object type = null;
+      if (NEW_EVENT != null) {
+        try {
+          List<Object> annotations = new ArrayList<>();
+          annotations.add(annotation("jdk.jfr.Name", name));
+          annotations.add(annotation("jdk.jfr.Label", label));
+          annotations.add(annotation("jdk.jfr.Description", description));
+          annotations.add(annotation("jdk.jfr.Category", CATEGORY));
+          List<Object> values = new ArrayList<>();
+          Constructor<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+          for (Field field : fields) {
+            List<Object> a = new ArrayList<>();
+            a.add(annotation("jdk.jfr.Label", field._label));
+            if (field._unit != null) {
+              a.add(annotation(field._unit, field._unitValue));
+            }
+            values.add(descriptor.newInstance(field._type, field._name, a));
+          }
+          Class<?> c = Class.forName("jdk.jfr.EventFactory");
+          factory = c.getMethod("create", List.class, List.class).invoke(null, annotations, values);
+          type = c.getMethod("getEventType").invoke(factory);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+          LOGGER.warn("Unable to define Flight Recorder event {}", name, ex);
+          factory = null;
+        }
+      }
+      this._factory = factory;
+      this._type = type;
+    }
+
+    /**
+     * Begins a new event of this type if it is enabled in a recording.
+     *
+     * @return the event or <code>null</code> if JFR is not available or the event is disabled.
+     */
+    public @Nullable Event begin() {
+      Object factory = this._factory;
+      if (factory == null) return null;
+      try {
+        if (!(boolean)IS_ENABLED.invokeExact(this._type)) return null;
+        Object event = NEW_EVENT.invokeExact(factory);
+        BEGIN.invokeExact(event);
+        return new Event(event);
+      } catch (Throwable ex) {
+        LOGGER.debug("Unable to begin Flight Recorder event", ex);
+        return null;
+      }
+    }
+
+    /**
+     * Returns the annotation element for the specified annotation class name and value.
+     *
+     * @param annotation The class name of the annotation.
+     * @param value      The value of the annotation
+     *
+     * @return the <code>jdk.jfr.AnnotationElement</code>
+     *
+     * @throws ReflectiveOperationException If the annotation element could not be created.
+     */
+    private static Object annotation(String annotation, Object value) throws ReflectiveOperationException {
+      Class<?> type = Class.forName(annotation);
+      return Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class).newInstance(type, value);
+    }
+  }
+
+  /**
+   * An event in progress.
+   */
+  public static final class Event {
+
+    /**
+     * The <code>jdk.jfr.Event</code> instance.
+     */
+    private final Object _event;
+
+    /**
+     * @param event The <code>jdk.jfr.Event</code> instance.
+     */
+    private Event(Object event) {
+      this._event = event;
+    }
+
+    /**
+     * Sets the value of a field.
+     *
+     * @param index The index of the field as documented by the event type.
+     * @param value The value of the field.
+     *
+     * @return this event.
+     */
+    public Event set(int index, @Nullable Object value) {
+      try {
+        SET.invokeExact(this._event, index, value);
+      } catch (Throwable ex) {
+        LOGGER.debug("Unable to set Flight Recorder event field {}", index, ex);
+      }
+      return this;
+    }
+
+    /**
+     * Ends and writes this event.
+     */
+    public void commit() {
+      try {
+        COMMIT.invokeExact(this._event);
+      } catch (Throwable ex) {
+        LOGGER.debug("Unable to commit Flight Recorder event", ex);
+      }
+    }
+  }
+
+  /**
+   * The definition of a field in an event.
+   */
+  private static final class Field {
+
+    /**
+     * The name of the field.
+     */
+    private final String _name;
+
+    /**
+     * The label of the field.
+     */
+    private final String _label;
+
+    /**
+     * The type of the field.
+     */
+    private final Class<?> _type;
+
+    /**
+     * The class name of the annotation specifying the unit of the field.
+     */
+    private final @Nullable String _unit;
+
+    /**
+     * The value of the unit annotation.
+     */
+    private final @Nullable String _unitValue;
+
+    /**
+     * @param name      The name of the field.
+     * @param label     The label of the field.
+     * @param type      The type of the field.
+     * @param unit      The class name of the annotation specifying the unit of the field.
+     * @param unitValue The value of the unit annotation.
+     */
+    private Field(String name, String label, Class<?> type, @Nullable String unit, @Nullable String unitValue) {
+      this._name = name;
+      this._label = label;
+      this._type = type;
+      this._unit = unit;
+      this._unitValue = unitValue;
+    }
+
+    /**
+     * @param name  The name of the field.
+     * @param label The label of the field.
+     * @return a text field
+     */
+    static Field text(String name, String label) {
+      return new Field(name, label, String.class, null, null);
+    }
+
+    /**
+     * @param name  The name of the field.
+     * @param label The label of the field.
+     * @return an integer field
+     */
+    static Field integer(String name, String label) {
+      return new Field(name, label, int.class, null, null);
+    }
+
+    /**
+     * @param name  The name of the field.
+     * @param label The label of the field.
+     * @return a boolean field
+     */
+    static Field flag(String name, String label) {
+      return new Field(name, label, boolean.class, null, null);
+    }
+
+    /**
+     * @param name  The name of the field.
+     * @param label The label of the field.
+     * @return a duration field in nanoseconds
+     */
+    static Field nanos(String name, String label) {
+      return new Field(name, label, long.class, "jdk.jfr.Timespan", "NANOSECONDS");
+    }
+
+    /**
+     * @param name  The name of the field.
+     * @param label The label of the field.
+     * @return a data amount field in bytes
+     */
+    static Field bytes(String name, String label) {
+      return new Field(name, label, long.class, "jdk.jfr.DataAmount", "BYTES");
+    }
+  }
+
+}
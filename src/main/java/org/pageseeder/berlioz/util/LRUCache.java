@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A least-recently-used cache bounded by the total size of its values rather than the number
+ * of entries.
+ *
+ * <p>Implementations define how the size of each value is measured, usually in bytes. When
+ * adding a value would exceed the capacity, the least recently used entries are evicted.
+ * Values larger than the capacity are never cached.
+ *
+ * <p>This class also keeps track of the number of hits, misses and evictions.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public abstract class LRUCache<K, V> {
+
+  /**
+   * The entries in access order.
+   */
+  private final LinkedHashMap<K, V> _entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  /**
+   * The maximum total size of the values in this cache.
+   */
+  private final long _capacity;
+
+  /**
+   * The current total size of the values in this cache.
+   */
+  private long size = 0;
+
+  /**
+   * The number of times a value was found.
+   */
+  private long hits = 0;
+
+  /**
+   * The number of times a value was not found.
+   */
+  private long misses = 0;
+
+  /**
+   * The number of values which were added.
+   */
+  private long puts = 0;
+
+  /**
+   * The number of values which were evicted to make space.
+   */
+  private long evictions = 0;
+
+  /**
+   * Creates a new cache.
+   *
+   * @param capacity The maximum total size of the values in the cache.
+   *
+   * @throws IllegalArgumentException If the capacity is negative.
+   */
+  public LRUCache(long capacity) {
+    if (capacity < 0) throw new IllegalArgumentException("Cache capacity must be positive");
+    this._capacity = capacity;
+  }
+
+  /**
+   * Returns the size of the specified value.
+   *
+   * @param value The value to measure
+   *
+   * @return the size of the value.
+   */
+  protected abstract long sizeOf(V value);
+
+  /**
+   * Returns the value for the specified key.
+   *
+   * @param key The key
+   *
+   * @return the value or <code>null</code> if the cache does not contain it.
+   */
+  public synchronized @Nullable V get(K key) {
+    V value = this._entries.get(key);
+    if (value != null) {
+      this.hits++;
+    } else {
+      this.misses++;
+    }
+    return value;
+  }
+
+  /**
+   * Adds the specified value to this cache evicting the least recently used values if necessary.
+   *
+   * @param key   The key
+   * @param value The value to cache
+   *
+   * @return <code>true</code> if the value was cached; <code>false</code> if it was too large.
+   */
+  public synchronized boolean put(K key, V value) {
+    Objects.requireNonNull(value, "Cannot cache null values");
+    long length = sizeOf(value);
+    if (length > this._capacity) return false;
+    V previous = this._entries.put(key, value);
+    if (previous != null) {
+      this.size -= sizeOf(previous);
+    }
+    this.size += length;
+    this.puts++;
+    // Evict the least recently used entries
+    Iterator<Map.Entry<K, V>> i = this._entries.entrySet().iterator();
+    while (this.size > this._capacity && i.hasNext()) {
+      Map.Entry<K, V> eldest = i.next();
+      if (eldest.getValue() != value) {
+        this.size -= sizeOf(eldest.getValue());
+        this.evictions++;
+        i.remove();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes all the entries from this cache.
+   *
+   * <p>Cleared entries are not counted as evictions.
+   */
+  public synchronized void clear() {
+    this._entries.clear();
+    this.size = 0;
+  }
+
+  /**
+   * @return the maximum total size of the values in this cache.
+   */
+  public final long capacity() {
+    return this._capacity;
+  }
+
+  /**
+   * @return the current total size of the values in this cache.
+   */
+  public synchronized long size() {
+    return this.size;
+  }
+
+  /**
+   * @return the number of entries in this cache.
+   */
+  public synchronized int count() {
+    return this._entries.size();
+  }
+
+  /**
+   * @return the number of times a value was found.
+   */
+  public synchronized long hits() {
+    return this.hits;
+  }
+
+  /**
+   * @return the number of times a value was not found.
+   */
+  public synchronized long misses() {
+    return this.misses;
+  }
+
+  /**
+   * @return the number of values which were added.
+   */
+  public synchronized long puts() {
+    return this.puts;
+  }
+
+  /**
+   * @return the number of values which were evicted to make space for new values.
+   */
+  public synchronized long evictions() {
+    return this.evictions;
+  }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of positive values using buckets of logarithmic size.
+ *
+ * <p>Each power of two is divided into 8 buckets so that percentiles are reported with a
+ * relative error of at most 12.5%, using a fixed amount of memory regardless of the number
+ * of values recorded. Values are typically durations in microseconds and are capped at
+ * 2<sup>36</sup> (about 19 hours in microseconds).
+ *
+ * <p>Values are recorded without locking so that this class can be updated concurrently by
+ * many threads. Reading the histogram while values are being recorded may return slightly
+ * inconsistent results.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class LogHistogram {
+
+  /**
+   * The number of bits used to divide each power of two into buckets.
+   */
+  private static final int SUB_BITS = 3;
+
+  /**
+   * The number of buckets for each power of two.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /**
+   * The largest value which can be recorded accurately.
+   */
+  public static final long MAX_VALUE = (1L << 36) - 1;
+
+  /**
+   * The total number of buckets.
+   */
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  /**
+   * Keeps the smallest value.
+   */
+  private static final LongBinaryOperator MIN = new LongBinaryOperator() {
+    @Override
+    public long applyAsLong(long left, long right) {
+      return Math.min(left, right);
+    }
+  };
+
+  /**
+   * Keeps the largest value.
+   */
+  private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+    @Override
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  };
+
+  /**
+   * The number of values in each bucket.
+   */
+  private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+  /**
+   * The number of values recorded.
+   */
+  private final LongAdder _count = new LongAdder();
+
+  /**
+   * The sum of the values recorded.
+   */
+  private final LongAdder _sum = new LongAdder();
+
+  /**
+   * The smallest value recorded.
+   */
+  private final LongAccumulator _min = new LongAccumulator(MIN, Long.MAX_VALUE);
+
+  /**
+   * The largest value recorded.
+   */
+  private final LongAccumulator _max = new LongAccumulator(MAX, 0);
+
+  /**
+   * Records the specified value.
+   *
+   * <p>Negative values are recorded as 0, and values larger than {@link #MAX_VALUE} are
+   * recorded as {@link #MAX_VALUE}.
+   *
+   * @param value The value to record.
+   */
+  public void record(long value) {
+    long v = value < 0? 0 : Math.min(value, MAX_VALUE);
+    this._buckets.incrementAndGet(index(v));
+    this._count.increment();
+    this._sum.add(v);
+    this._min.accumulate(v);
+    this._max.accumulate(v);
+  }
+
+  /**
+   * Adds all the values recorded by the specified histogram to this histogram.
+   *
+   * @param histogram The histogram to add.
+   */
+  public void add(LogHistogram histogram) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long n = histogram._buckets.get(i);
+      if (n > 0) {
+        this._buckets.addAndGet(i, n);
+      }
+    }
+    long count = histogram._count.sum();
+    if (count > 0) {
+      this._count.add(count);
+      this._sum.add(histogram._sum.sum());
+      this._min.accumulate(histogram._min.get());
+      this._max.accumulate(histogram._max.get());
+    }
+  }
+
+  /**
+   * Clears all the values recorded so far.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this._buckets.set(i, 0);
+    }
+    this._count.reset();
+    this._sum.reset();
+    this._min.reset();
+    this._max.reset();
+  }
+
+  /**
+   * @return the number of values recorded.
+   */
+  public long count() {
+    return this._count.sum();
+  }
+
+  /**
+   * @return the sum of the values recorded.
+   */
+  public long sum() {
+    return this._sum.sum();
+  }
+
+  /**
+   * @return the smallest value recorded or 0 if no value was recorded.
+   */
+  public long min() {
+    return count() > 0? this._min.get() : 0;
+  }
+
+  /**
+   * @return the largest value recorded or 0 if no value was recorded.
+   */
+  public long max() {
+    return this._max.get();
+  }
+
+  /**
+   * @return the average of the values recorded or 0 if no value was recorded.
+   */
+  public long mean() {
+    long count = count();
+    return count > 0? sum() / count : 0;
+  }
+
+  /**
+   * Returns the number of values recorded in buckets whose highest value does not exceed the
+   * specified value.
+   *
+   * <p>The count is exact when the value is one less than a power of two since buckets are
+   * aligned on powers of two.
+   *
+   * @param value The upper bound (inclusive)
+   *
+   * @return the number of values less than or equal to that value.
+   */
+  public long countAtMost(long value) {
+    long count = 0;
+    for (int i = 0; i < BUCKETS && highest(i) <= value; i++) {
+      count += this._buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the value below which the specified percentage of values fall.
+   *
+   * <p>The value returned is the highest value of the bucket containing the percentile, but
+   * never more than the largest value recorded.
+   *
+   * @param percentile The percentile between 0 and 100 (for example 99.9)
+   *
+   * @return the corresponding value or 0 if no value was recorded.
+   */
+  public long percentile(double percentile) {
+    long total = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = this._buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) return 0;
+    double p = Math.max(0, Math.min(percentile, 100));
+    long rank = Math.max(1, (long)Math.ceil(total * p / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) return Math.min(highest(i), max());
+    }
+    return max();
+  }
+
+  /**
+   * Returns the index of the bucket for the specified value.
+   *
+   * @param value A value between 0 and {@link #MAX_VALUE}
+   *
+   * @return the index of the corresponding bucket.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKETS) return (int)value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BITS;
+    int mantissa = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + mantissa;
+  }
+
+  /**
+   * Returns the highest value in the specified bucket.
+   *
+   * @param index The index of the bucket.
+   *
+   * @return the highest value which would be recorded in that bucket.
+   */
+  static long highest(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+}
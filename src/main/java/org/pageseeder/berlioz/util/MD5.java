@@ -18,8 +18,6 @@ package org.pageseeder.berlioz.util;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -33,7 +31,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Christophe Lauret
  *
- * @version Berlioz 0.10.7
+ * @version Berlioz 0.11.5
  * @since Berlioz 0.6
  */
 public final class MD5 {
@@ -75,10 +73,28 @@ public final class MD5 {
     return toHex(bytes);
   }
 
+  /**
+   * Returns a hash value for the specified data.
+   *
+   * @param data The data to hash.
+   *
+   * @return The MD5 checksum value as a string.
+   *
+   * @throws UnsupportedOperationException If the MD5 algorithm is not available for that platform.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static String hash(byte[] data) throws UnsupportedOperationException {
+    MessageDigest md = getAlgorithm();
+    md.update(data);
+    return toHex(md.digest());
+  }
+
   /**
    * Returns a hash value for the specified file content.
    *
-   * <p>Implementation note: this method loads the entire file using NIO.
+   * <p>Implementation note: the file is read using a buffer rather than mapped in memory so
+   * that it is not locked after the hash is computed.
    *
    * @param file The file to read
    * @return The MD5 checksum value as a string.
@@ -88,16 +104,15 @@ public final class MD5 {
    */
   public static String hash(File file) throws IOException, UnsupportedOperationException {
     MessageDigest md = getAlgorithm();
-    FileInputStream fis = new FileInputStream(file);
-    FileChannel in = fis.getChannel();
-    try {
-      MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
-      md.update(buffer);
-      byte[] bytes = md.digest();
-      return toHex(bytes);
-    } finally {
-      fis.close();
+    try (FileInputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[8192];
+      int length = in.read(buffer);
+      while (length >= 0) {
+        md.update(buffer, 0, length);
+        length = in.read(buffer);
+      }
     }
+    return toHex(md.digest());
   }
 
   /**
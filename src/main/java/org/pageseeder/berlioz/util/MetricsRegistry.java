@@ -0,0 +1,410 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A registry of metrics collected by Berlioz.
+ *
+ * <p>Components obtain their metrics once, typically as constants, and update them without
+ * locking. Metrics are grouped in families which may define labels, for example the requests
+ * are counted by service and status.
+ *
+ * <p>Components which already collect their own statistics can contribute them when the
+ * metrics are written by registering a {@link Collector}.
+ *
+ * <p>All durations are recorded in microseconds and exposed in seconds.
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class MetricsRegistry {
+
+  /**
+   * Singleton instance.
+   */
+  private static final MetricsRegistry SINGLETON = new MetricsRegistry();
+
+  /**
+   * The metric families sorted by name.
+   */
+  private final ConcurrentMap<String, Family<?>> _families = new ConcurrentSkipListMap<>();
+
+  /**
+   * Additional collectors.
+   */
+  private final CopyOnWriteArrayList<Collector> _collectors = new CopyOnWriteArrayList<>();
+
+  /**
+   * Use <code>getInstance</code> instead.
+   */
+  private MetricsRegistry() {
+  }
+
+  /**
+   * @return The singleton instance.
+   */
+  public static MetricsRegistry getInstance() {
+    return SINGLETON;
+  }
+
+  /**
+   * Returns the family of counters with the specified name, creating it if necessary.
+   *
+   * @param name   The name of the metric (should end with <code>_total</code>)
+   * @param help   The description of the metric.
+   * @param labels The names of the labels.
+   *
+   * @return the corresponding family.
+   */
+  @SuppressWarnings("unchecked")
+  public Family<Counter> counter(String name, String help, String... labels) {
+    Family<?> family = this._families.get(name);
+    if (family == null) {
+      family = register(new Family<Counter>(name, help, "counter", labels) {
+        @Override
+        Counter create() {
+          return new Counter();
+        }
+      });
+    }
+    return (Family<Counter>)family;
+  }
+
+  /**
+   * Returns the family of histograms with the specified name, creating it if necessary.
+   *
+   * @param name   The name of the metric (should end with <code>_seconds</code>)
+   * @param help   The description of the metric.
+   * @param labels The names of the labels.
+   *
+   * @return the corresponding family.
+   */
+  @SuppressWarnings("unchecked")
+  public Family<LogHistogram> histogram(String name, String help, String... labels) {
+    Family<?> family = this._families.get(name);
+    if (family == null) {
+      family = register(new Family<LogHistogram>(name, help, "histogram", labels) {
+        @Override
+        LogHistogram create() {
+          return new LogHistogram();
+        }
+      });
+    }
+    return (Family<LogHistogram>)family;
+  }
+
+  /**
+   * Registers a gauge under the specified name replacing any gauge with the same name.
+   *
+   * @param name  The name of the metric.
+   * @param help  The description of the metric.
+   * @param gauge The gauge
+   */
+  public void gauge(String name, String help, final Gauge gauge) {
+    Family<Gauge> family = new Family<Gauge>(name, help, "gauge") {
+      @Override
+      Gauge create() {
+        return gauge;
+      }
+    };
+    family.get();
+    this._families.put(name, family);
+  }
+
+  /**
+   * Registers a collector if it was not already registered.
+   *
+   * @param collector The collector to add.
+   */
+  public void register(Collector collector) {
+    this._collectors.addIfAbsent(collector);
+  }
+
+  /**
+   * Unregisters a collector.
+   *
+   * @param collector The collector to remove.
+   */
+  public void unregister(Collector collector) {
+    this._collectors.remove(collector);
+  }
+
+  /**
+   * Writes all the metrics.
+   *
+   * @param out The metrics writer.
+   *
+   * @throws IOException If thrown by the writer.
+   */
+  public void write(MetricsWriter out) throws IOException {
+    for (Family<?> family : this._families.values()) {
+      family.write(out);
+    }
+    for (Collector collector : this._collectors) {
+      collector.collect(out);
+    }
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Registers the family unless another family has already been registered with the same name.
+   *
+   * @param family The family to register.
+   *
+   * @return the family registered under that name.
+   */
+  private Family<?> register(Family<?> family) {
+    Family<?> existing = this._families.putIfAbsent(family.name(), family);
+    return existing != null? existing : family;
+  }
+
+  /**
+   * A group of metrics sharing the same name and label names.
+   *
+   * @param <T> The type of metric
+   */
+  public abstract static class Family<T> {
+
+    /**
+     * The name of the metric.
+     */
+    private final String _name;
+
+    /**
+     * The description of the metric.
+     */
+    private final String _help;
+
+    /**
+     * The Prometheus type of the metric.
+     */
+    private final String _type;
+
+    /**
+     * The names of the labels.
+     */
+    private final String[] _labels;
+
+    /**
+     * The metrics for each combination of label values.
+     */
+    private final ConcurrentHashMap<String, Child<T>> _children = new ConcurrentHashMap<>();
+
+    /**
+     * The metric when there are no labels.
+     */
+    private volatile @Nullable T unlabelled;
+
+    /**
+     * @param name   The name of the metric.
+     * @param help   The description of the metric.
+     * @param type   The Prometheus type of the metric.
+     * @param labels The names of the labels.
+     */
+    Family(String name, String help, String type, String... labels) {
+      this._name = name;
+      this._help = help;
+      this._type = type;
+      this._labels = labels.clone();
+    }
+
+    /**
+     * @return a new metric for this family.
+     */
+    abstract T create();
+
+    /**
+     * @return The name of the metric.
+     */
+    public final String name() {
+      return this._name;
+    }
+
+    /**
+     * Returns the metric for this family when it has no labels.
+     *
+     * @return the metric.
+     */
+    public final T get() {
+      T metric = this.unlabelled;
+      if (metric == null) {
+        metric = labels();
+        this.unlabelled = metric;
+      }
+      return metric;
+    }
+
+    /**
+     * Returns the metric for the specified label values, creating it if necessary.
+     *
+     * @param values The values for each label in the same order as the label names.
+     *
+     * @return the corresponding metric.
+     *
+     * @throws IllegalArgumentException If the number of values does not match the labels.
+     */
+    public final T labels(String... values) {
+      if (values.length != this._labels.length)
+        throw new IllegalArgumentException("Expected "+this._labels.length+" label values for "+this._name);
+      String key = values.length == 1? values[0] : join(values);
+      Child<T> child = this._children.get(key);
+      if (child == null) {
+        child = new Child<>(values.clone(), create());
+        Child<T> existing = this._children.putIfAbsent(key, child);
+        if (existing != null) {
+          child = existing;
+        }
+      }
+      return child._metric;
+    }
+
+    /**
+     * Writes the metrics of this family.
+     *
+     * @param out The metrics writer.
+     *
+     * @throws IOException If thrown by the writer.
+     */
+    final void write(MetricsWriter out) throws IOException {
+      if (this._children.isEmpty()) return;
+      out.family(this._name, this._help, this._type);
+      for (Child<T> child : this._children.values()) {
+        T metric = child._metric;
+        if (metric instanceof Counter) {
+          out.sample(this._name, this._labels, child._values, ((Counter)metric).get());
+        } else if (metric instanceof LogHistogram) {
+          out.histogram(this._name, this._labels, child._values, (LogHistogram)metric);
+        } else if (metric instanceof Gauge) {
+          out.sample(this._name, this._labels, child._values, ((Gauge)metric).value());
+        }
+      }
+    }
+
+    /**
+     * Joins the label values into a single key.
+     *
+     * @param values The label values.
+     *
+     * @return the key.
+     */
+    private static String join(String[] values) {
+      StringBuilder key = new StringBuilder();
+      for (String value : values) {
+        key.append(value).append('\u0000');
+      }
+      return key.toString();
+    }
+  }
+
+  /**
+   * A metric and its label values.
+   *
+   * @param <T> The type of metric
+   */
+  private static final class Child<T> {
+
+    /**
+     * The values of the labels.
+     */
+    private final String[] _values;
+
+    /**
+     * The metric.
+     */
+    private final T _metric;
+
+    /**
+     * @param values The values of the labels.
+     * @param metric The metric.
+     */
+    Child(String[] values, T metric) {
+      this._values = values;
+      this._metric = metric;
+    }
+  }
+
+  /**
+   * A monotonically increasing count.
+   */
+  public static final class Counter {
+
+    /**
+     * The count.
+     */
+    private final LongAdder _count = new LongAdder();
+
+    /**
+     * Increments the counter by one.
+     */
+    public void increment() {
+      this._count.increment();
+    }
+
+    /**
+     * Increments the counter by the specified amount.
+     *
+     * @param n The amount to add (must not be negative)
+     */
+    public void add(long n) {
+      this._count.add(n);
+    }
+
+    /**
+     * @return the current count.
+     */
+    public long get() {
+      return this._count.sum();
+    }
+  }
+
+  /**
+   * A value computed when the metrics are written.
+   */
+  public interface Gauge {
+
+    /**
+     * @return the current value.
+     */
+    double value();
+  }
+
+  /**
+   * Contributes metrics when they are written.
+   */
+  public interface Collector {
+
+    /**
+     * Writes the metrics of this collector.
+     *
+     * @param out The metrics writer.
+     *
+     * @throws IOException If thrown by the writer.
+     */
+    void collect(MetricsWriter out) throws IOException;
+  }
+
+}
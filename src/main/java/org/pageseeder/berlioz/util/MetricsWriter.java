@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics using the Prometheus text exposition format (version 0.0.4).
+ *
+ * <p>Numbers are written directly to the underlying writer using a small reusable buffer so
+ * that writing metrics does not create garbage for each sample.
+ *
+ * <p>Histograms are {@link LogHistogram} instances recording microseconds, they are written
+ * in seconds using buckets on powers of four from 256&micro;s to about 67s.
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition formats</a>
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.11.5
+ */
+public final class MetricsWriter {
+
+  /**
+   * The content type of the exposition format.
+   */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * The upper bounds of the histogram buckets in microseconds.
+   */
+  private static final long[] BOUNDS = {
+    1L << 8, 1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20, 1L << 22, 1L << 24, 1L << 26
+  };
+
+  /**
+   * No labels.
+   */
+  private static final String[] NO_LABELS = new String[0];
+
+  /**
+   * The writer receiving the metrics.
+   */
+  private final Writer _out;
+
+  /**
+   * Buffer used to write numbers.
+   */
+  private final char[] _digits = new char[20];
+
+  /**
+   * Creates a new writer.
+   *
+   * @param out The writer receiving the metrics.
+   */
+  public MetricsWriter(Writer out) {
+    this._out = out;
+  }
+
+  /**
+   * Writes the help and type of a metric family.
+   *
+   * @param name The name of the metric family.
+   * @param help The description of the metric family.
+   * @param type The type: "counter", "gauge" or "histogram"
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void family(String name, String help, String type) throws IOException {
+    this._out.write("# HELP ");
+    this._out.write(name);
+    this._out.write(' ');
+    this._out.write(help);
+    this._out.write("\n# TYPE ");
+    this._out.write(name);
+    this._out.write(' ');
+    this._out.write(type);
+    this._out.write('\n');
+  }
+
+  /**
+   * Writes a sample with an integer value.
+   *
+   * @param name        The name of the metric.
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   * @param value       The value of the sample.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void sample(String name, String[] labelNames, String[] labelValues, long value) throws IOException {
+    sampleName(name, labelNames, labelValues);
+    writeLong(value);
+    this._out.write('\n');
+  }
+
+  /**
+   * Writes a sample with a decimal value (6 decimals).
+   *
+   * @param name        The name of the metric.
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   * @param value       The value of the sample.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void sample(String name, String[] labelNames, String[] labelValues, double value) throws IOException {
+    sampleName(name, labelNames, labelValues);
+    writeDecimal(value);
+    this._out.write('\n');
+  }
+
+  /**
+   * Writes a sample without labels.
+   *
+   * @param name  The name of the metric.
+   * @param value The value of the sample.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void sample(String name, long value) throws IOException {
+    sample(name, NO_LABELS, NO_LABELS, value);
+  }
+
+  /**
+   * Writes the buckets, sum and count of a histogram recording microseconds.
+   *
+   * @param name        The name of the metric family.
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   * @param histogram   The histogram in microseconds.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void histogram(String name, String[] labelNames, String[] labelValues, LogHistogram histogram)
+      throws IOException {
+    for (long bound : BOUNDS) {
+      histogramName(name, "_bucket", labelNames, labelValues, bound);
+      writeLong(histogram.countAtMost(bound - 1));
+      this._out.write('\n');
+    }
+    long count = histogram.countAtMost(LogHistogram.MAX_VALUE);
+    histogramName(name, "_bucket", labelNames, labelValues, -1);
+    writeLong(count);
+    this._out.write('\n');
+    histogramName(name, "_sum", labelNames, labelValues, 0);
+    writeMicros(histogram.sum());
+    this._out.write('\n');
+    histogramName(name, "_count", labelNames, labelValues, 0);
+    writeLong(count);
+    this._out.write('\n');
+  }
+
+  /**
+   * Flushes the underlying writer.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  public void flush() throws IOException {
+    this._out.flush();
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the name of a histogram sample including the labels.
+   *
+   * @param name        The name of the metric family.
+   * @param suffix      The suffix of the sample.
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   * @param bound       The bucket upper bound in microseconds (-1 for infinity, 0 for none)
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void histogramName(String name, String suffix, String[] labelNames, String[] labelValues, long bound)
+      throws IOException {
+    this._out.write(name);
+    this._out.write(suffix);
+    boolean le = bound != 0;
+    if (labelNames.length > 0 || le) {
+      this._out.write('{');
+      labels(labelNames, labelValues);
+      if (le) {
+        if (labelNames.length > 0) {
+          this._out.write(',');
+        }
+        this._out.write("le=\"");
+        if (bound < 0) {
+          this._out.write("+Inf");
+        } else {
+          writeMicros(bound);
+        }
+        this._out.write('"');
+      }
+      this._out.write('}');
+    }
+    this._out.write(' ');
+  }
+
+  /**
+   * Writes the name of a sample including the labels.
+   *
+   * @param name        The name of the metric.
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void sampleName(String name, String[] labelNames, String[] labelValues) throws IOException {
+    this._out.write(name);
+    if (labelNames.length > 0) {
+      this._out.write('{');
+      labels(labelNames, labelValues);
+      this._out.write('}');
+    }
+    this._out.write(' ');
+  }
+
+  /**
+   * Writes the labels as comma separated list of name-value pairs.
+   *
+   * @param labelNames  The names of the labels.
+   * @param labelValues The values of the labels.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void labels(String[] labelNames, String[] labelValues) throws IOException {
+    for (int i = 0; i < labelNames.length; i++) {
+      if (i > 0) {
+        this._out.write(',');
+      }
+      this._out.write(labelNames[i]);
+      this._out.write("=\"");
+      String value = labelValues[i];
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          this._out.write('\\');
+          this._out.write(c);
+        } else if (c == '\n') {
+          this._out.write("\\n");
+        } else {
+          this._out.write(c);
+        }
+      }
+      this._out.write('"');
+    }
+  }
+
+  /**
+   * Writes a long value.
+   *
+   * @param value The value to write.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void writeLong(long value) throws IOException {
+    if (value < 0) {
+      this._out.write('-');
+      if (value == Long.MIN_VALUE) {
+        this._out.write("9223372036854775808");
+        return;
+      }
+      value = -value;
+    }
+    int i = this._digits.length;
+    do {
+      this._digits[--i] = (char)('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+    this._out.write(this._digits, i, this._digits.length - i);
+  }
+
+  /**
+   * Writes a number of microseconds as seconds.
+   *
+   * @param micros The value to write.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void writeMicros(long micros) throws IOException {
+    writeLong(micros / 1000000);
+    this._out.write('.');
+    long fraction = micros % 1000000;
+    for (long d = 100000; d > fraction && d > 1; d /= 10) {
+      this._out.write('0');
+    }
+    writeLong(fraction);
+  }
+
+  /**
+   * Writes a decimal value with up to 6 decimals.
+   *
+   * @param value The value to write.
+   *
+   * @throws IOException If thrown by the underlying writer.
+   */
+  private void writeDecimal(double value) throws IOException {
+    if (Double.isNaN(value)) {
+      this._out.write("NaN");
+    } else if (Double.isInfinite(value)) {
+      this._out.write(value > 0? "+Inf" : "-Inf");
+    } else {
+      if (value < 0) {
+        this._out.write('-');
+      }
+      writeMicros(Math.round(Math.abs(value) * 1000000));
+    }
+  }
+
+}
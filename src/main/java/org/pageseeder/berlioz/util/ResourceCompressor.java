@@ -1,86 +1,352 @@
-/*
- * Copyright 2015 Allette Systems (Australia)
- * http://www.allette.com.au
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.pageseeder.berlioz.util;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.Charset;
-import java.util.zip.GZIPOutputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-/**
- * A utility class to compress the contents of a resource.
- *
- * @author Christophe Lauret
- *
- * @version Berlioz 0.9.8 - 8 October 2012
- * @since Berlioz 0.8.2
- */
-public final class ResourceCompressor {
-
-  /**
-   * Displays debug information.
-   */
-  private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCompressor.class);
-
-  /**
-   * Utility class.
-   */
-  private ResourceCompressor() {
-  }
-
-  /**
-   * Compresses the specified content.
-   *
-   * @param content The content to compress.
-   * @param charset The Character set to use to encode the char sequence.
-   *
-   * @return The compressed content or an empty array if an error occurred.
-   */
-  public static byte[] compress(CharSequence content, Charset charset) {
-    ByteArrayOutputStream os = new ByteArrayOutputStream(content.length());
-    byte[] compressed = null;
-    GZIPOutputStream compressor = null;
-    try {
-      compressor = new GZIPOutputStream(os);
-      Writer w = new OutputStreamWriter(compressor, charset);
-      w.write(content.toString());
-      w.close();
-      compressor.finish();
-      compressed = os.toByteArray();
-    } catch (IOException ex) {
-      // If an error occurs, we return a empty array
-      compressed = new byte[]{};
-    } finally {
-      // clean up and make sure the resources are released as soon as possible
-      try {
-        if (compressor != null) {
-          compressor.close();
-        }
-      } catch (IOException ex) {
-        LOGGER.error("Unable to close GZIPOutputStream stream", ex);
-      }
-      os = null;
-      compressor = null;
-    }
-    return compressed;
-  }
-
-}
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.pageseeder.berlioz.util.MetricsRegistry.Counter;
+import org.pageseeder.berlioz.util.MetricsRegistry.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A utility class to compress the contents of a resource.
+ *
+ * <p>The content is encoded and compressed using GZIP in small chunks so that no full copy of
+ * the content is needed. The deflater, checksum and buffers are kept in a small pool shared by
+ * all threads; they are not kept by thread so that container threads do not retain them after
+ * the application is stopped, and {@link #shutdown()} releases the native memory they use.
+ *
+ * @author Christophe Lauret
+ *
+ * @version Berlioz 0.11.5
+ * @since Berlioz 0.8.2
+ */
+public final class ResourceCompressor {
+
+  /**
+   * Displays debug information.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCompressor.class);
+
+  /**
+   * The size of the buffers used to encode and compress the content.
+   */
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The GZIP header (no modification time, no extra fields and unknown OS as per GZIPOutputStream).
+   */
+  private static final byte[] GZIP_HEADER = new byte[]{ 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  /**
+   * The maximum number of compressors kept for reuse.
+   */
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+  /**
+   * The compressors available for reuse.
+   */
+  private static final BlockingQueue<GZipCompressor> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  /**
+   * The number of bytes compressed.
+   */
+  private static final Counter INPUT_BYTES = MetricsRegistry.getInstance()
+      .counter("berlioz_compression_input_bytes_total", "Bytes compressed with GZIP.").get();
+
+  /**
+   * The number of bytes produced by compression.
+   */
+  private static final Counter OUTPUT_BYTES = MetricsRegistry.getInstance()
+      .counter("berlioz_compression_output_bytes_total", "Bytes produced by GZIP compression.").get();
+
+  static {
+    MetricsRegistry registry = MetricsRegistry.getInstance();
+    registry.gauge("berlioz_compression_saved_bytes", "Bytes saved by GZIP compression.", new Gauge() {
+      @Override
+      public double value() {
+        return INPUT_BYTES.get() - OUTPUT_BYTES.get();
+      }
+    });
+    registry.gauge("berlioz_compression_ratio", "Ratio of compressed to uncompressed bytes.", new Gauge() {
+      @Override
+      public double value() {
+        long input = INPUT_BYTES.get();
+        return input > 0? (double)OUTPUT_BYTES.get() / input : 0;
+      }
+    });
+  }
+
+  /**
+   * Utility class.
+   */
+  private ResourceCompressor() {
+  }
+
+  /**
+   * Compresses the specified content.
+   *
+   * @param content The content to compress.
+   * @param charset The Character set to use to encode the char sequence.
+   *
+   * @return The compressed content or an empty array if an error occurred.
+   */
+  public static byte[] compress(CharSequence content, Charset charset) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(content.length() / 4 + GZIP_HEADER.length + 8);
+    try {
+      compress(content, charset, os);
+      return os.toByteArray();
+    } catch (IOException ex) {
+      // If an error occurs, we return a empty array
+      LOGGER.error("Unable to compress content", ex);
+      return new byte[]{};
+    }
+  }
+
+  /**
+   * Compresses the specified content using GZIP directly to the specified output stream.
+   *
+   * <p>The output stream is neither flushed nor closed by this method.
+   *
+   * @param content The content to compress.
+   * @param charset The Character set to use to encode the char sequence.
+   * @param out     The output stream receiving the compressed content.
+   *
+   * @return The number of compressed bytes written to the output stream.
+   *
+   * @throws IOException If thrown by the output stream.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static long compress(CharSequence content, Charset charset, OutputStream out) throws IOException {
+    FlightEvents.Event event = FlightEvents.GZIP.begin();
+    GZipCompressor compressor = POOL.poll();
+    if (compressor == null) {
+      compressor = new GZipCompressor();
+    }
+    try {
+      long written = compressor.compress(content, charset, out);
+      if (event != null) {
+        event.set(0, compressor.length).set(1, written).commit();
+      }
+      return written;
+    } finally {
+      // Release the native memory of the compressors which cannot be reused
+      if (!POOL.offer(compressor)) {
+        compressor.end();
+      }
+    }
+  }
+
+  /**
+   * Releases the native memory used by the compressors available for reuse.
+   *
+   * <p>This method should be invoked when the application stops; compressors in use are
+   * returned to the pool and can still be reused.
+   *
+   * @since Berlioz 0.11.5
+   */
+  public static void shutdown() {
+    GZipCompressor compressor = POOL.poll();
+    while (compressor != null) {
+      compressor.end();
+      compressor = POOL.poll();
+    }
+  }
+
+  /**
+   * Encodes and compresses content using a reusable deflater and buffers.
+   */
+  private static final class GZipCompressor {
+
+    /**
+     * Deflater without the ZLIB header and checksum since we use the GZIP format.
+     */
+    private final Deflater _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    /**
+     * The checksum of the uncompressed bytes.
+     */
+    private final CRC32 _crc = new CRC32();
+
+    /**
+     * Receives the encoded bytes.
+     */
+    private final ByteBuffer _input = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Receives the compressed bytes.
+     */
+    private final byte[] _output = new byte[BUFFER_SIZE];
+
+    /**
+     * The encoder for the last charset used.
+     */
+    private @Nullable CharsetEncoder encoder;
+
+    /**
+     * The number of uncompressed bytes.
+     */
+    private long length;
+
+    /**
+     * The number of compressed bytes written.
+     */
+    private long written;
+
+    /**
+     * Compresses the specified content.
+     *
+     * @param content The content to compress.
+     * @param charset The Character set to use to encode the char sequence.
+     * @param out     The output stream receiving the compressed content.
+     *
+     * @return The number of compressed bytes written to the output stream.
+     *
+     * @throws IOException If thrown by the output stream.
+     */
+    long compress(CharSequence content, Charset charset, OutputStream out) throws IOException {
+      CharsetEncoder encoder = getEncoder(charset);
+      this._deflater.reset();
+      this._crc.reset();
+      this.length = 0;
+      out.write(GZIP_HEADER);
+      this.written = GZIP_HEADER.length;
+
+      // Encode and deflate each chunk
+      CharBuffer chars = CharBuffer.wrap(content);
+      CoderResult result;
+      do {
+        this._input.clear();
+        result = encoder.encode(chars, this._input, true);
+        deflate(out);
+      } while (result.isOverflow());
+      do {
+        this._input.clear();
+        result = encoder.flush(this._input);
+        deflate(out);
+      } while (result.isOverflow());
+
+      // Finish the compressed data
+      this._deflater.finish();
+      while (!this._deflater.finished()) {
+        write(out, this._deflater.deflate(this._output));
+      }
+
+      // Write the trailer
+      writeInt(out, (int)this._crc.getValue());
+      writeInt(out, (int)this.length);
+      this.written += 8;
+      INPUT_BYTES.add(this.length);
+      OUTPUT_BYTES.add(this.written);
+      return this.written;
+    }
+
+    /**
+     * Releases the native memory used by the deflater, this compressor cannot be used afterwards.
+     */
+    void end() {
+      this._deflater.end();
+    }
+
+    /**
+     * Updates the checksum and deflates the bytes currently in the input buffer.
+     *
+     * @param out The output stream receiving the compressed content.
+     *
+     * @throws IOException If thrown by the output stream.
+     */
+    private void deflate(OutputStream out) throws IOException {
+      this._input.flip();
+      int count = this._input.remaining();
+      if (count == 0) return;
+      byte[] bytes = this._input.array();
+      this._crc.update(bytes, 0, count);
+      this.length += count;
+      this._deflater.setInput(bytes, 0, count);
+      while (!this._deflater.needsInput()) {
+        write(out, this._deflater.deflate(this._output));
+      }
+    }
+
+    /**
+     * Writes the specified number of compressed bytes from the output buffer.
+     *
+     * @param out   The output stream receiving the compressed content.
+     * @param count The number of bytes to write.
+     *
+     * @throws IOException If thrown by the output stream.
+     */
+    private void write(OutputStream out, int count) throws IOException {
+      if (count > 0) {
+        out.write(this._output, 0, count);
+        this.written += count;
+      }
+    }
+
+    /**
+     * Returns an encoder for the specified charset reusing the previous one if possible.
+     *
+     * <p>Like the <code>OutputStreamWriter</code>, malformed or unmappable characters are replaced.
+     *
+     * @param charset The charset.
+     *
+     * @return a reset encoder for that charset.
+     */
+    private CharsetEncoder getEncoder(Charset charset) {
+      CharsetEncoder encoder = this.encoder;
+      if (encoder == null || !encoder.charset().equals(charset)) {
+        encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = encoder;
+      } else {
+        encoder.reset();
+      }
+      return encoder;
+    }
+
+    /**
+     * Writes an integer in little-endian order as required by GZIP.
+     *
+     * @param out   The output stream
+     * @param value The value to write.
+     *
+     * @throws IOException If thrown by the output stream.
+     */
+    private static void writeInt(OutputStream out, int value) throws IOException {
+      out.write(value & 0xff);
+      out.write((value >> 8) & 0xff);
+      out.write((value >> 16) & 0xff);
+      out.write((value >> 24) & 0xff);
+    }
+  }
+
+}
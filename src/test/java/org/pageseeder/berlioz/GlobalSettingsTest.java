@@ -37,6 +37,7 @@ public final class GlobalSettingsTest {
     System.out.println(webinf.getAbsolutePath());
     InitEnvironment env = InitEnvironment.create(webinf).mode("default");
     GlobalSettings.setup(env);
+    GlobalSettings.load();
   }
 
   /**
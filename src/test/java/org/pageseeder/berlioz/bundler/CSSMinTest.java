@@ -1,8 +1,11 @@
 package org.pageseeder.berlioz.bundler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -58,6 +61,53 @@ public class CSSMinTest {
     Assert.assertEquals(x, min(x));
   }
 
+  @Test public void testFontWeight() {
+    Assert.assertEquals("a{font-weight:700}", min("a { font-weight: bold }"));
+  }
+
+  @Test public void testRGBColor() {
+    Assert.assertEquals("a{color:#f00}", min("a { color: rgb(255, 0, 0) }"));
+  }
+
+  @Test public void testSelectorWhitespace() {
+    Assert.assertEquals("a>b,c~d{color:#000}", min("a  >  b,\n  c ~ d { color: #000 }"));
+  }
+
+  @Test public void testNestedRules() {
+    Assert.assertEquals("@media screen{a{height:0}b{color:#000}}", min("@media screen { a { height: 0em } b { color: black } }"));
+  }
+
+  @Test public void testComments() {
+    Assert.assertEquals("a{color:#000}", min("/* comment */ a { /* color */ color: #000 }"));
+    Assert.assertEquals("/** keep */\n\na{color:#000}", min("/** keep */ a { color: #000 }"));
+  }
+
+  @Test public void testNoMinRegion() {
+    Assert.assertEquals("a{color:#000}\n.x { color : white }\nb{color:#000}",
+        min("a { color: #000 }\n/*!nomin*/\n.x { color : white }\n/*!min*/\nb { color: #000 }"));
+  }
+
+  @Test public void testStatements() {
+    Assert.assertEquals("@import url('x.css');a{b:c}", min("@import url('x.css');a{b:c}"));
+    Assert.assertEquals("@charset \"UTF-8\";a{b:c}", min("@charset \"UTF-8\";\na { b: c }"));
+    Assert.assertEquals("@import url('x.css');@import url('y.css');a{b:c}", min("@import url('x.css');\n@import url('y.css');\na{b:c}"));
+  }
+
+  @Test public void testSemicolonInString() {
+    Assert.assertEquals("i::before{content:\";\"}", min("i::before { content: \";\" }"));
+  }
+
+  @Test public void testMinimizeTo() throws IOException, ParsingException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CSSMin.minimizeTo(new StringReader("a { color: black }"), out);
+    Assert.assertEquals("a{color:#000}", new String(out.toByteArray(), StandardCharsets.UTF_8).trim());
+  }
+
+  @Test(expected = ParsingException.class)
+  public void testMinimizeToUnterminatedComment() throws IOException, ParsingException {
+    CSSMin.minimizeTo(new StringReader("a { color: black } /* comment"), new ByteArrayOutputStream());
+  }
+
   private final static String min(String css) {
     StringReader r = new StringReader(css);
     StringWriter w = new StringWriter();
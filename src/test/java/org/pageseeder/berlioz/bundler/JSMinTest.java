@@ -0,0 +1,121 @@
+package org.pageseeder.berlioz.bundler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSMinTest {
+
+  private static final String[] CORPUS = {
+    "var a = 1;\nvar b = 2;\n",
+    "// comment\nfunction add(a, b) {\n  return a + b; /* sum */\n}\n",
+    "var s = \"a  b\" + 'c // d';\n",
+    "var r = /ab+c/gi.test(x);\nvar q = a / b / c;\n",
+    "var o = {\n  k: [1, 2, 3],\n  f: function () { return this.k; }\n};\n",
+    "/*! keep */\nvar a=1;\n",
+    "var a = 1\nvar b = 2\n(function(){})()\n",
+    "var t = 'caf\u00e9 \u2603';\n"
+  };
+
+  @Test public void testStatements() throws Exception {
+    Assert.assertEquals("var a=1;var b=2;", min(CORPUS[0]));
+  }
+
+  @Test public void testComments() throws Exception {
+    Assert.assertEquals("function add(a,b){return a+b;}", min(CORPUS[1]));
+    Assert.assertEquals("var a=1;", min(CORPUS[5]));
+  }
+
+  @Test public void testStrings() throws Exception {
+    Assert.assertEquals("var s=\"a  b\"+'c // d';", min(CORPUS[2]));
+  }
+
+  @Test public void testRegExp() throws Exception {
+    Assert.assertEquals("var r=/ab+c/gi.test(x);var q=a/b/c;", min(CORPUS[3]));
+  }
+
+  @Test public void testObjectLiteral() throws Exception {
+    Assert.assertEquals("var o={k:[1,2,3],f:function(){return this.k;}};", min(CORPUS[4]));
+  }
+
+  @Test public void testNewLines() throws Exception {
+    Assert.assertEquals("var a=1\nvar b=2\n(function(){})()", min(CORPUS[6]));
+  }
+
+  @Test public void testUnicode() throws Exception {
+    Assert.assertEquals("var t='caf\u00e9 \u2603';", min(CORPUS[7]));
+  }
+
+  @Test(expected = JSMin.UnterminatedCommentException.class)
+  public void testUnterminatedComment() throws Exception {
+    min("var a = 1; /* comment");
+  }
+
+  @Test(expected = JSMin.UnterminatedStringLiteralException.class)
+  public void testUnterminatedString() throws Exception {
+    min("var a = 'abc;\n");
+  }
+
+  /**
+   * The buffered minimizer must produce the same output as reading the script one byte at a time
+   * including when tokens span the boundaries of the buffers.
+   */
+  @Test public void testBufferBoundaries() throws Exception {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; script.length() < 50000; i++) {
+      script.append(CORPUS[i % CORPUS.length]);
+      script.append("var long").append(i).append(" = \"").append(i).append("\"; // ").append(i).append('\n');
+    }
+    byte[] bytes = script.toString().getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+    new JSMin(bytes, buffered).jsmin();
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    new JSMin(new OneByteInputStream(bytes), streamed).jsmin();
+    Assert.assertArrayEquals(streamed.toByteArray(), buffered.toByteArray());
+  }
+
+  private static String min(String script) throws IOException, ParsingException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new JSMin(script.getBytes(StandardCharsets.UTF_8), out).jsmin();
+    String minimized = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    // Same output when read from a stream
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    new JSMin(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)), streamed).jsmin();
+    Assert.assertEquals(minimized, new String(streamed.toByteArray(), StandardCharsets.UTF_8));
+    return minimized.trim();
+  }
+
+  /**
+   * Returns a single byte for each read.
+   */
+  private static final class OneByteInputStream extends InputStream {
+
+    private final byte[] bytes;
+
+    private int position = 0;
+
+    OneByteInputStream(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() {
+      return this.position < this.bytes.length? this.bytes[this.position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      int c = read();
+      if (c < 0) return -1;
+      b[off] = (byte)c;
+      return 1;
+    }
+  }
+
+}
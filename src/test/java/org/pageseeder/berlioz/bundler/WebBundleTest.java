@@ -0,0 +1,138 @@
+package org.pageseeder.berlioz.bundler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.InitEnvironment;
+
+public final class WebBundleTest {
+
+  /**
+   * A 1x1 transparent GIF.
+   */
+  private static final byte[] PIXEL = {
+    'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte)0x80, 0, 0, 0, 0, 0, (byte)0xff, (byte)0xff, (byte)0xff,
+    '!', (byte)0xf9, 4, 1, 0, 0, 0, 0, ',', 0, 0, 0, 0, 1, 0, 1, 0, 0, 2, 2, 'D', 1, 0, ';'
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File config;
+
+  @Before
+  public void setup() throws IOException {
+    File webinf = this.folder.newFolder("WEB-INF");
+    this.config = new File(webinf, "config");
+    this.config.mkdir();
+    write(new File(this.config, "config.properties"), WebBundle.CONTENT_HASH_PROPERTY+"=true\n");
+    GlobalSettings.setup(InitEnvironment.create(webinf));
+    GlobalSettings.load();
+  }
+
+  @After
+  public void clear() {
+    // Do not leave the properties of this test behind
+    new File(this.config, "config.properties").delete();
+    GlobalSettings.load();
+  }
+
+  @Test
+  public void testFileName_SameContent() throws IOException {
+    File a = write(new File(this.folder.newFolder("a"), "style.css"), "a { color: red; }\n");
+    File b = write(new File(this.folder.newFolder("b"), "style.css"), "a { color: red; }\n");
+    b.setLastModified(a.lastModified() - 3600000);
+    WebBundle bundleA = new WebBundle("style", Collections.singletonList(a), false);
+    WebBundle bundleB = new WebBundle("style", Collections.singletonList(b), true);
+    Assert.assertTrue(bundleA.getFileName().matches("style-[0-9a-f]{12}\\.css"));
+    Assert.assertEquals(bundleA.getFileName().replace(".css", ".min.css"), bundleB.getFileName());
+    // Only the content matters
+    Assert.assertEquals(bundleA.getETag(false), bundleB.getETag(false));
+  }
+
+  @Test
+  public void testFileName_ChangedContent() throws IOException {
+    File a = write(this.folder.newFile("style.css"), "a { color: red; }\n");
+    WebBundle bundle = new WebBundle("style", Collections.singletonList(a), false);
+    String before = bundle.getFileName();
+    long modified = a.lastModified();
+    write(a, "a { color: blue; }\n");
+    a.setLastModified(modified);
+    Assert.assertFalse(bundle.isFresh());
+    Assert.assertNotEquals(before, toFileName(bundle));
+  }
+
+  @Test
+  public void testFileName_Import() throws IOException {
+    File imported = write(this.folder.newFile("part.css"), "b { color: red; }\n");
+    File a = write(this.folder.newFile("style.css"), "a { color: red; }\n");
+    WebBundle bundle = new WebBundle("style", Collections.singletonList(a), false);
+    String before = bundle.getFileName();
+    bundle.addImport(imported);
+    String after = toFileName(bundle);
+    Assert.assertNotEquals(before, after);
+    write(imported, "b { color: blue; }\n");
+    Assert.assertFalse(bundle.isFresh());
+    Assert.assertNotEquals(after, toFileName(bundle));
+  }
+
+  @Test
+  public void testBundleStyles_Import() throws IOException {
+    File imported = write(this.folder.newFile("part.css"), "b { color: red; }\n");
+    File style = write(this.folder.newFile("style.css"), "@import url('part.css');\na { color: red; }\n");
+    WebBundleTool tool = new WebBundleTool(this.folder.newFolder("bundles"));
+    File before = tool.bundleStyles(Collections.singletonList(style), "import", false);
+    Assert.assertNotNull(before);
+    Assert.assertEquals(before, tool.bundleStyles(Collections.singletonList(style), "import", false));
+    write(imported, "b { color: blue; }\n");
+    File after = tool.bundleStyles(Collections.singletonList(style), "import", false);
+    Assert.assertNotNull(after);
+    Assert.assertNotEquals(before.getName(), after.getName());
+  }
+
+  @Test
+  public void testBundleStyles_InlinedImage() throws IOException {
+    File image = this.folder.newFile("pixel.gif");
+    Files.write(image.toPath(), PIXEL);
+    File style = write(this.folder.newFile("style.css"), "a { background: url(pixel.gif); }\n");
+    WebBundleTool tool = new WebBundleTool(this.folder.newFolder("bundles"));
+    tool.setDataURIThreshold(1024);
+    File before = tool.bundleStyles(Collections.singletonList(style), "image", false);
+    Assert.assertNotNull(before);
+    Assert.assertTrue(read(before).contains("data:image/gif;base64,"));
+    byte[] changed = new byte[PIXEL.length+1];
+    System.arraycopy(PIXEL, 0, changed, 0, PIXEL.length);
+    Files.write(image.toPath(), changed);
+    File after = tool.bundleStyles(Collections.singletonList(style), "image", false);
+    Assert.assertNotNull(after);
+    Assert.assertNotEquals(before.getName(), after.getName());
+  }
+
+  /**
+   * @return the file name of the bundle once its etag is recalculated.
+   */
+  private static String toFileName(WebBundle bundle) {
+    bundle.getETag(true);
+    return bundle.getFileName();
+  }
+
+  private static File write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+
+}
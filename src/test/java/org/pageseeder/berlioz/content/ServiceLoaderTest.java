@@ -0,0 +1,185 @@
+package org.pageseeder.berlioz.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pageseeder.berlioz.BerliozException;
+import org.pageseeder.berlioz.GlobalSettings;
+import org.pageseeder.berlioz.InitEnvironment;
+import org.pageseeder.berlioz.http.HttpMethod;
+
+public final class ServiceLoaderTest {
+
+  /**
+   * The number of modules overriding the same URL.
+   */
+  private static final int MODULES = 8;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File config;
+
+  @Before
+  public void setup() throws IOException {
+    File webinf = this.folder.newFolder("WEB-INF");
+    this.config = new File(webinf, "config");
+    this.config.mkdir();
+    GlobalSettings.setup(InitEnvironment.create(webinf));
+    setThreads(MODULES);
+  }
+
+  @After
+  public void clear() {
+    // Do not leave the properties of this test behind
+    new File(this.config, "config.properties").delete();
+    GlobalSettings.load();
+  }
+
+  @Test
+  public void testLoad_MergeOrder() throws IOException, BerliozException {
+    writeModules();
+    ServiceLoader loader = ServiceLoader.getInstance();
+    loader.load();
+    Map<String, String> parallel = resolve(loader.getDefaultRegistry());
+    // The last module in the order of the files wins
+    Assert.assertEquals("m"+(MODULES-1)+"-shared", parallel.get("/shared"));
+    Assert.assertEquals("m5-pair", parallel.get("/pair"));
+    Assert.assertEquals("main", parallel.get("/main"));
+    for (int i = 0; i < MODULES; i++) {
+      Assert.assertEquals("m"+i, parallel.get("/only-"+i));
+    }
+
+    // Same services when the files are parsed one after the other
+    setThreads(1);
+    touchAll();
+    loader.load();
+    Assert.assertEquals(parallel, resolve(loader.getDefaultRegistry()));
+  }
+
+  @Test
+  public void testLoad_OnlyModified() throws IOException, BerliozException {
+    writeModules();
+    ServiceLoader loader = ServiceLoader.getInstance();
+    loader.load();
+    ServiceRegistry before = loader.getDefaultRegistry();
+
+    // Change the length of a single module
+    write("services!m2.xml", module("m2", "/only-2", "/changed"));
+    loader.load();
+    ServiceRegistry after = loader.getDefaultRegistry();
+    Assert.assertNotSame(before, after);
+    Assert.assertNotNull(after.get("/changed", HttpMethod.GET));
+    Assert.assertNotSame(service(before, "/only-2"), service(after, "/only-2"));
+    // Services from unchanged files are reused as is
+    Assert.assertSame(service(before, "/main"), service(after, "/main"));
+    for (int i = 0; i < MODULES; i++) {
+      if (i != 2) {
+        Assert.assertSame(service(before, "/only-"+i), service(after, "/only-"+i));
+      }
+    }
+  }
+
+  @Test
+  public void testLoad_ParseError() throws IOException, BerliozException {
+    writeModules();
+    ServiceLoader loader = ServiceLoader.getInstance();
+    loader.load();
+    ServiceRegistry before = loader.getDefaultRegistry();
+    write("services!m3.xml", "<services group=\"m3\"><service id=\"m3\">");
+    write("services!z.xml", "Not XML at all");
+    try {
+      loader.load();
+      Assert.fail("Expected a BerliozException for the malformed services files");
+    } catch (BerliozException ex) {
+      // expected
+    }
+    // The previous services remain in use
+    Assert.assertSame(before, loader.getDefaultRegistry());
+    Assert.assertEquals("m3", service(before, "/only-3").id());
+  }
+
+  private void writeModules() throws IOException {
+    write("services.xml", "<!DOCTYPE service-config PUBLIC \"-//Berlioz//DTD::Services 1.0//EN\" \"services-1.0.dtd\">"
+        + "<service-config version=\"1.0\">"
+        + "<services group=\"main\">"
+        + service("main", "/main")
+        + service("main-shared", "/shared")
+        + "</services></service-config>");
+    for (int i = 0; i < MODULES; i++) {
+      String id = "m"+i;
+      if (i == 3 || i == 5) {
+        write("services!"+id+".xml", module(id, "/only-"+i, "/shared", "/pair"));
+      } else {
+        write("services!"+id+".xml", module(id, "/only-"+i, "/shared"));
+      }
+    }
+  }
+
+  private void write(String name, String xml) throws IOException {
+    Files.write(new File(this.config, name).toPath(), xml.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void setThreads(int threads) throws IOException {
+    write("config.properties", ServiceLoader.SNAPSHOT_PROPERTY+"=false\n"
+        + ServiceLoader.THREADS_PROPERTY+"="+threads+"\n");
+    GlobalSettings.load();
+  }
+
+  /**
+   * Changes the modified date of all the services files so that they are parsed again.
+   */
+  private void touchAll() {
+    for (File file : ServiceLoader.getInstance().listServiceFiles()) {
+      file.setLastModified(file.lastModified() - 10000);
+    }
+  }
+
+  private static String module(String id, String... patterns) {
+    StringBuilder xml = new StringBuilder();
+    xml.append("<!DOCTYPE services PUBLIC \"-//Berlioz//DTD::Services 1.0//EN\" \"services-1.0.dtd\">");
+    xml.append("<services group=\"").append(id).append("\">");
+    xml.append(service(id, patterns[0]));
+    for (int i = 1; i < patterns.length; i++) {
+      xml.append(service(id+patterns[i].replace('/', '-'), patterns[i]));
+    }
+    xml.append("</services>");
+    return xml.toString();
+  }
+
+  private static String service(String id, String pattern) {
+    return "<service id=\""+id+"\" method=\"get\">"
+        + "<url pattern=\""+pattern+"\"/>"
+        + "<generator class=\"org.pageseeder.berlioz.generator.NoContent\" name=\"nothing\" target=\"main\"/>"
+        + "</service>";
+  }
+
+  private static Service service(ServiceRegistry registry, String url) {
+    MatchingService match = registry.get(url, HttpMethod.GET);
+    Assert.assertNotNull("No service for "+url, match);
+    return match.service();
+  }
+
+  private static Map<String, String> resolve(ServiceRegistry registry) {
+    Map<String, String> ids = new LinkedHashMap<>();
+    for (String url : new String[]{"/main", "/shared", "/pair", "/changed"}) {
+      MatchingService match = registry.get(url, HttpMethod.GET);
+      ids.put(url, match != null? match.service().id() : null);
+    }
+    for (int i = 0; i < MODULES; i++) {
+      ids.put("/only-"+i, service(registry, "/only-"+i).id());
+    }
+    return ids;
+  }
+
+}
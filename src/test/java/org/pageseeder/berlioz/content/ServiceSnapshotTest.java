@@ -0,0 +1,141 @@
+package org.pageseeder.berlioz.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pageseeder.berlioz.content.ServiceModule.Registration;
+import org.pageseeder.berlioz.furi.URIPattern;
+import org.pageseeder.berlioz.generator.NoContent;
+import org.pageseeder.berlioz.http.HttpMethod;
+
+public final class ServiceSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    List<ServiceModule> modules = ServiceSnapshot.read(snapshot, Collections.singletonList(services));
+    Assert.assertNotNull(modules);
+    Assert.assertEquals(1, modules.size());
+    ServiceModule module = modules.get(0);
+    Assert.assertEquals(services, module.file());
+    Assert.assertFalse(module.replaces());
+    Assert.assertEquals(1, module.size());
+    Registration r = module.registrations().get(0);
+    Assert.assertEquals("/test/{id}", r.pattern().toString());
+    Assert.assertEquals(HttpMethod.GET, r.method());
+    Service service = r.service();
+    Assert.assertEquals("test", service.id());
+    Assert.assertEquals("group", service.group());
+    Assert.assertEquals("max-age=60", service.cache());
+    Assert.assertEquals(1, service.generators().size());
+    ContentGenerator generator = service.generators().get(0);
+    Assert.assertEquals(NoContent.class, generator.getClass());
+    Assert.assertEquals("nothing", service.name(generator));
+    Assert.assertEquals("main", service.target(generator));
+    List<Parameter> parameters = service.parameters(generator);
+    Assert.assertEquals(1, parameters.size());
+    Assert.assertEquals("x", parameters.get(0).name());
+    Assert.assertEquals("{id}", parameters.get(0).value());
+  }
+
+  @Test
+  public void testMissingSnapshot() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    Assert.assertNull(ServiceSnapshot.read(new File(this.folder.getRoot(), "missing.bin"), Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testCorruptedSnapshot() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+      file.seek(file.length() - 1);
+      int last = file.read();
+      file.seek(file.length() - 1);
+      file.write(last ^ 0xFF);
+    }
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testOtherBerliozVersion() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    // Change the first character of the Berlioz version after the magic number, format and length
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+      file.seek(12);
+      int c = file.read();
+      file.seek(12);
+      file.write(c == '0'? '9' : '0');
+    }
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testTruncatedSnapshot() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+      file.setLength(file.length() / 2);
+    }
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testNotASnapshot() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = this.folder.newFile("services.bin");
+    Files.write(snapshot.toPath(), "Not a snapshot at all".getBytes(StandardCharsets.UTF_8));
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testModifiedServicesFile() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    Files.write(services.toPath(), "<services version=\"1.0\"><!-- modified --></services>".getBytes(StandardCharsets.UTF_8));
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(services)));
+  }
+
+  @Test
+  public void testDifferentServicesFiles() throws IOException {
+    File services = newServicesFile("services!a.xml");
+    File snapshot = writeSnapshot(services);
+    File other = newServicesFile("services!b.xml");
+    Assert.assertNull(ServiceSnapshot.read(snapshot, Collections.singletonList(other)));
+  }
+
+  private File newServicesFile(String name) throws IOException {
+    File services = this.folder.newFile(name);
+    Files.write(services.toPath(), "<services version=\"1.0\"/>".getBytes(StandardCharsets.UTF_8));
+    return services;
+  }
+
+  private File writeSnapshot(File services) throws IOException {
+    Service.Builder builder = new Service.Builder();
+    builder.id("test").group("group").cache("max-age=60").rule(ServiceStatusRule.DEFAULT_RULE);
+    builder.add(new NoContent());
+    builder.name("nothing");
+    builder.target("main");
+    builder.parameter(new Parameter("x", "{id}"));
+    ServiceModule module = new ServiceModule(services);
+    module.register(builder.build(), new URIPattern("/test/{id}"), HttpMethod.GET);
+    File snapshot = new File(this.folder.getRoot(), "services.bin");
+    ServiceSnapshot.write(snapshot, Collections.singletonList(module));
+    return snapshot;
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.content;
+
+/**
+ * Creates services for the tests of other packages.
+ */
+public final class Services {
+
+  private Services() {
+  }
+
+  /**
+   * Returns a new service with a single generator.
+   *
+   * @param id        The ID of the service
+   * @param generator The generator
+   *
+   * @return the service
+   */
+  public static Service newService(String id, ContentGenerator generator) {
+    Service.Builder builder = new Service.Builder();
+    builder.id(id).group("default").rule(ServiceStatusRule.DEFAULT_RULE);
+    builder.add(generator);
+    return builder.build();
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.furi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pageseeder.berlioz.furi.URIResolver.MatchRule;
+
+/**
+ * A test class for the <code>URIPatternIndex</code>.
+ *
+ * <p>The index must always return the same pattern as the best match rule of the resolver.
+ */
+public class URIPatternIndexTest {
+
+  @Test
+  public void testFind_Best() {
+    URIPatternIndex index = new URIPatternIndex();
+    index.add(new URIPattern("/document/{+document}"));
+    index.add(new URIPattern("/document/history/{+document}"));
+    index.add(new URIPattern("/{+document}"));
+    Assert.assertEquals(new URIPattern("/document/history/{+document}"), index.find("/document/history/dir/doc.xml"));
+    Assert.assertEquals(new URIPattern("/document/{+document}"), index.find("/document/dir/doc.xml"));
+    Assert.assertEquals(new URIPattern("/{+document}"), index.find("/dir/doc.xml"));
+  }
+
+  @Test
+  public void testFind_SameScore() {
+    URIPatternIndex index = new URIPatternIndex();
+    URIPattern first = new URIPattern("/{group}/home");
+    URIPattern second = new URIPattern("/{group}/{page}");
+    URIPattern third = new URIPattern("/ab/{page}");
+    index.add(first);
+    index.add(second);
+    index.add(third);
+    Assert.assertSame(first, index.find("/ab/home"));
+    Assert.assertSame(second, index.find("/xy/test"));
+    Assert.assertSame(third, index.find("/ab/test"));
+  }
+
+  @Test
+  public void testFind_Literal() {
+    URIPatternIndex index = new URIPatternIndex();
+    index.add(new URIPattern("/home.html"));
+    index.add(new URIPattern("/home"));
+    index.add(new URIPattern("/{page}.html"));
+    Assert.assertEquals(new URIPattern("/home.html"), index.find("/home.html"));
+    Assert.assertEquals(new URIPattern("/home"), index.find("/home"));
+    Assert.assertEquals(new URIPattern("/{page}.html"), index.find("/about.html"));
+    Assert.assertNull(index.find("/about"));
+    Assert.assertNull(index.find(""));
+  }
+
+  @Test
+  public void testFind_Empty() {
+    URIPatternIndex index = new URIPatternIndex();
+    Assert.assertNull(index.find("/home"));
+    index.add(new URIPattern("/home"));
+    Assert.assertEquals(1, index.size());
+    index.clear();
+    Assert.assertEquals(0, index.size());
+    Assert.assertNull(index.find("/home"));
+  }
+
+  @Test
+  public void testEquivalence_100() {
+    assertSameAsBestMatch(100);
+  }
+
+  @Test
+  public void testEquivalence_1000() {
+    assertSameAsBestMatch(1000);
+  }
+
+  @Test
+  public void testEquivalence_10000() {
+    assertSameAsBestMatch(10000);
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  private static void assertSameAsBestMatch(int count) {
+    Random random = new Random(count);
+    List<URIPattern> patterns = new ArrayList<>();
+    URIPatternIndex index = new URIPatternIndex();
+    for (int i = 0; i < count; i++) {
+      URIPattern pattern = new URIPattern(randomPattern(random, count));
+      patterns.add(pattern);
+      index.add(pattern);
+    }
+    for (int i = 0; i < 500; i++) {
+      String url = randomURL(random, count);
+      URIPattern expected = new URIResolver(url).find(patterns, MatchRule.BEST_MATCH);
+      Assert.assertSame("Matching "+url, expected, index.find(url));
+    }
+  }
+
+  private static String randomPattern(Random random, int count) {
+    int group = random.nextInt(count / 10 + 1);
+    switch (random.nextInt(8)) {
+      case 0: return "/{group}/home.html";
+      case 1: return "/g"+group+"/{id}/view.html";
+      case 2: return "/g"+group+"/doc/{+path}";
+      case 3: return "/g"+group+"/p"+random.nextInt(20)+".html";
+      case 4: return "/api/g"+group+"/{id}.json";
+      case 5: return "/{group}/{page}";
+      case 6: return "/g"+group+"/{id}/edit";
+      default: return "/g"+group+"/{+path}.xml";
+    }
+  }
+
+  private static String randomURL(Random random, int count) {
+    int group = random.nextInt(count / 10 + 2);
+    switch (random.nextInt(8)) {
+      case 0: return "/g"+group+"/home.html";
+      case 1: return "/g"+group+"/"+random.nextInt(100)+"/view.html";
+      case 2: return "/g"+group+"/doc/a/b/c.xml";
+      case 3: return "/g"+group+"/p"+random.nextInt(25)+".html";
+      case 4: return "/api/g"+group+"/"+random.nextInt(100)+".json";
+      case 5: return "/g"+group+"/"+random.nextInt(100)+"/edit";
+      case 6: return "/g"+group;
+      default: return "/unknown/"+random.nextInt(100)+"/path";
+    }
+  }
+
+}
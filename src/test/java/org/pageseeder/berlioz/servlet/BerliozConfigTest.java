@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>BerliozConfig</code>.
+ */
+public final class BerliozConfigTest {
+
+  @Test
+  public void testNextGeneration_Increment() {
+    Assert.assertEquals("1", BerliozConfig.nextGeneration("0", null));
+    Assert.assertEquals("42", BerliozConfig.nextGeneration("41", "true"));
+    Assert.assertEquals("1", BerliozConfig.nextGeneration("release-7", null));
+  }
+
+  @Test
+  public void testNextGeneration_Token() {
+    Assert.assertEquals("release-8", BerliozConfig.nextGeneration("0", "release-8"));
+    Assert.assertEquals("release-8", BerliozConfig.nextGeneration("release-8", "release-8"));
+    Assert.assertEquals("release8", BerliozConfig.nextGeneration("0", "release/8"));
+  }
+
+  @Test
+  public void testNextGeneration_InvalidToken() {
+    Assert.assertEquals("6", BerliozConfig.nextGeneration("5", ""));
+    Assert.assertEquals("6", BerliozConfig.nextGeneration("5", "%%"));
+  }
+
+}
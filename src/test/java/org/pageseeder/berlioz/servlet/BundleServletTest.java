@@ -0,0 +1,89 @@
+package org.pageseeder.berlioz.servlet;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pageseeder.berlioz.http.HttpHeaderUtils;
+
+/**
+ * A test class for the <code>BundleServlet</code>.
+ */
+public final class BundleServletTest {
+
+  private static final File ROOT = new File("webapp");
+
+  @Test
+  public void testParseRange_FirstLast() {
+    Assert.assertArrayEquals(new long[]{0, 99}, BundleServlet.parseRange("bytes=0-99", 1000));
+    Assert.assertArrayEquals(new long[]{100, 199}, BundleServlet.parseRange("bytes=100-199", 1000));
+    Assert.assertArrayEquals(new long[]{999, 999}, BundleServlet.parseRange("bytes=999-999", 1000));
+  }
+
+  @Test
+  public void testParseRange_OpenEnded() {
+    Assert.assertArrayEquals(new long[]{500, 999}, BundleServlet.parseRange("bytes=500-", 1000));
+  }
+
+  @Test
+  public void testParseRange_LastBeyondLength() {
+    Assert.assertArrayEquals(new long[]{900, 999}, BundleServlet.parseRange("bytes=900-5000", 1000));
+  }
+
+  @Test
+  public void testParseRange_Suffix() {
+    Assert.assertArrayEquals(new long[]{900, 999}, BundleServlet.parseRange("bytes=-100", 1000));
+    Assert.assertArrayEquals(new long[]{0, 999}, BundleServlet.parseRange("bytes=-5000", 1000));
+  }
+
+  @Test
+  public void testParseRange_Unsatisfiable() {
+    Assert.assertSame(BundleServlet.UNSATISFIABLE, BundleServlet.parseRange("bytes=1000-", 1000));
+    Assert.assertSame(BundleServlet.UNSATISFIABLE, BundleServlet.parseRange("bytes=2000-3000", 1000));
+    Assert.assertSame(BundleServlet.UNSATISFIABLE, BundleServlet.parseRange("bytes=-0", 1000));
+    Assert.assertSame(BundleServlet.UNSATISFIABLE, BundleServlet.parseRange("bytes=-10", 0));
+  }
+
+  @Test
+  public void testParseRange_Ignored() {
+    Assert.assertNull(BundleServlet.parseRange("items=0-99", 1000));
+    Assert.assertNull(BundleServlet.parseRange("bytes=0-9,20-29", 1000));
+    Assert.assertNull(BundleServlet.parseRange("bytes=99-0", 1000));
+    Assert.assertNull(BundleServlet.parseRange("bytes=abc", 1000));
+    Assert.assertNull(BundleServlet.parseRange("bytes=a-b", 1000));
+    Assert.assertNull(BundleServlet.parseRange("bytes=", 1000));
+  }
+
+  @Test
+  public void testToETag() {
+    Assert.assertEquals("\"global-0123456789ab.min.css\"", BundleServlet.toETag("global-0123456789ab.min.css"));
+    Assert.assertEquals("\"global-0123456789ab.min.css-gzip\"",
+        HttpHeaderUtils.getETagForGZip(BundleServlet.toETag("global-0123456789ab.min.css")));
+    Assert.assertEquals("\"a_b.js\"", BundleServlet.toETag("a\"b.js"));
+  }
+
+  @Test
+  public void testToFile() {
+    File file = BundleServlet.toFile(ROOT, "/script/_", "/global-2026-10-18-ab12.min.js");
+    Assert.assertEquals(new File(new File(ROOT, "/script/_"), "global-2026-10-18-ab12.min.js"), file);
+  }
+
+  @Test
+  public void testToFile_Rejected() {
+    Assert.assertNull(BundleServlet.toFile(null, "/script/_", "/global.js"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", null));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "global.js"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/global.js.tmp"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/.hidden"));
+  }
+
+  @Test
+  public void testToFile_Traversal() {
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/../../WEB-INF/web.xml"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/sub/global.js"));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/.."));
+    Assert.assertNull(BundleServlet.toFile(ROOT, "/script/_", "/..\\..\\WEB-INF\\web.xml"));
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>ResponseCache</code>.
+ */
+public final class ResponseCacheTest {
+
+  private static final String ETAG = "\"0123456789abcdef\"";
+
+  private static final String HTML = "text/html;charset=utf-8";
+
+  @Test
+  public void testToKey_SameRequest() {
+    Assert.assertEquals(ResponseCache.toKey("home", "/home.html", "a=1", ETAG, HTML, true),
+        ResponseCache.toKey("home", "/home.html", "a=1", ETAG, HTML, true));
+  }
+
+  @Test
+  public void testToKey_DifferentURI() {
+    Assert.assertNotEquals(ResponseCache.toKey("page", "/a.html", null, ETAG, HTML, false),
+        ResponseCache.toKey("page", "/b.html", null, ETAG, HTML, false));
+  }
+
+  @Test
+  public void testToKey_DifferentQuery() {
+    String key = ResponseCache.toKey("page", "/a.html", null, ETAG, HTML, false);
+    Assert.assertNotEquals(key, ResponseCache.toKey("page", "/a.html", "x=1", ETAG, HTML, false));
+    Assert.assertNotEquals(key, ResponseCache.toKey("page", "/a.html", "", ETAG, HTML, false));
+    Assert.assertNotEquals(ResponseCache.toKey("page", "/a.html", "x=1", ETAG, HTML, false),
+        ResponseCache.toKey("page", "/a.html", "x=2", ETAG, HTML, false));
+  }
+
+  @Test
+  public void testToKey_DifferentService() {
+    Assert.assertNotEquals(ResponseCache.toKey("a", "/a.html", null, ETAG, HTML, false),
+        ResponseCache.toKey("b", "/a.html", null, ETAG, HTML, false));
+  }
+
+  @Test
+  public void testToKey_DifferentRepresentation() {
+    String key = ResponseCache.toKey("page", "/a.html", null, ETAG, HTML, false);
+    Assert.assertNotEquals(key, ResponseCache.toKey("page", "/a.html", null, "\"fedcba9876543210\"", HTML, false));
+    Assert.assertNotEquals(key, ResponseCache.toKey("page", "/a.html", null, ETAG, "application/xml;charset=utf-8", false));
+    Assert.assertNotEquals(key, ResponseCache.toKey("page", "/a.html", null, ETAG, HTML, true));
+  }
+
+  @Test
+  public void testHasOtherHeaders_Berlioz() {
+    Assert.assertFalse(ResponseCache.hasOtherHeaders(Collections.<String>emptyList()));
+    Assert.assertFalse(ResponseCache.hasOtherHeaders(Arrays.asList("Content-Type", "Vary", "X-Berlioz-Service",
+        "Expires", "Cache-Control", "ETag", "Server-Timing")));
+    Assert.assertFalse(ResponseCache.hasOtherHeaders(Arrays.asList("content-type", "etag", "x-berlioz-service")));
+  }
+
+  @Test
+  public void testHasOtherHeaders_Other() {
+    Assert.assertTrue(ResponseCache.hasOtherHeaders(Arrays.asList("Content-Type", "Set-Cookie")));
+    Assert.assertTrue(ResponseCache.hasOtherHeaders(Arrays.asList("ETag", "X-Custom")));
+    Assert.assertTrue(ResponseCache.hasOtherHeaders(Collections.singletonList("Location")));
+  }
+
+}
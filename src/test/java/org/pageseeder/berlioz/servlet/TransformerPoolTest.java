@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.servlet;
+
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>TransformerPool</code>.
+ */
+public final class TransformerPoolTest {
+
+  private static final String IDENTITY = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+      + "<xsl:template match=\"@*|node()\"><xsl:copy><xsl:apply-templates select=\"@*|node()\"/></xsl:copy></xsl:template>"
+      + "</xsl:stylesheet>";
+
+  @Test
+  public void testBorrowRelease() throws Exception {
+    TransformerPool pool = new TransformerPool("identity.xsl", newTemplates(), 2, TransformerPool.DEFAULT_WAIT);
+    Transformer transformer = pool.borrow();
+    pool.release(transformer);
+    Assert.assertEquals(1, pool.idle());
+    Assert.assertSame(transformer, pool.borrow());
+    Assert.assertEquals(1, pool.hits());
+    Assert.assertEquals(1, pool.misses());
+  }
+
+  @Test
+  public void testBorrowBeyondCapacity_NoWait() throws Exception {
+    TransformerPool pool = new TransformerPool("identity.xsl", newTemplates(), 1, TransformerPool.DEFAULT_WAIT);
+    Transformer first = pool.borrow();
+    Transformer second = pool.borrow();
+    Assert.assertNotSame(first, second);
+    Assert.assertEquals(0, pool.waits());
+    // Only one transformer is kept for reuse
+    pool.release(first);
+    pool.release(second);
+    Assert.assertEquals(1, pool.idle());
+  }
+
+  @Test
+  public void testBorrowBeyondCapacity_Wait() throws Exception {
+    TransformerPool pool = new TransformerPool("identity.xsl", newTemplates(), 1, 10);
+    Transformer first = pool.borrow();
+    Transformer second = pool.borrow();
+    Assert.assertNotSame(first, second);
+    Assert.assertEquals(1, pool.waits());
+    Assert.assertTrue(pool.waitTime() > 0);
+  }
+
+  private static Templates newTemplates() throws Exception {
+    return TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(IDENTITY)));
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.system;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pageseeder.berlioz.content.ContentStatus;
+import org.pageseeder.berlioz.content.Service;
+import org.pageseeder.berlioz.content.Services;
+import org.pageseeder.berlioz.generator.NoContent;
+import org.pageseeder.berlioz.system.StatisticsCollector.BasicStats;
+
+/**
+ * A test class for the <code>StatisticsCollector</code>.
+ */
+public final class StatisticsCollectorTest {
+
+  private final StatisticsCollector collector = StatisticsCollector.getInstance();
+
+  @Before
+  public void clear() {
+    this.collector.clear();
+  }
+
+  @Test
+  public void testGenerators_NotServiceRequests() {
+    Service service = newService("home");
+    this.collector.generate(service, new NoContent(), ContentStatus.OK, 1000, 2000000);
+    this.collector.generate(service, new GetSystemProperties(), ContentStatus.OK, 1000, 3000000);
+    BasicStats stats = this.collector.getGeneratorStats(NoContent.class);
+    Assert.assertNotNull(stats);
+    Assert.assertEquals(1, stats.count());
+    Assert.assertEquals(2000, stats.process().max());
+    Assert.assertNull(this.collector.getServiceStats("home"));
+  }
+
+  @Test
+  public void testServices_OncePerRequest() {
+    Service service = newService("home");
+    this.collector.generate(service, new NoContent(), ContentStatus.OK, 1000, 2000000);
+    this.collector.generate(service, new GetSystemProperties(), ContentStatus.OK, 1000, 3000000);
+    this.collector.service(service, ContentStatus.OK, 4000, 6000000);
+    BasicStats stats = this.collector.getServiceStats("home");
+    Assert.assertNotNull(stats);
+    Assert.assertEquals(1, stats.count());
+    Assert.assertEquals(6000, stats.process().max());
+    Assert.assertEquals(4, stats.etag().max());
+  }
+
+  @Test
+  public void testServices_OtherStatus() {
+    Service service = newService("home");
+    this.collector.service(service, null, 0, 1000000);
+    BasicStats stats = this.collector.getServiceStats("home");
+    Assert.assertNotNull(stats);
+    Assert.assertEquals(1, stats.count());
+  }
+
+  private static Service newService(String id) {
+    return Services.newService(id, new NoContent());
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>LRUCache</code>.
+ */
+public class LRUCacheTest {
+
+  @Test
+  public void testGetPut() {
+    LRUCache<String, String> cache = newCache(100);
+    Assert.assertNull(cache.get("a"));
+    Assert.assertTrue(cache.put("a", "alpha"));
+    Assert.assertEquals("alpha", cache.get("a"));
+    Assert.assertEquals(5, cache.size());
+    Assert.assertEquals(1, cache.count());
+    Assert.assertEquals(1, cache.hits());
+    Assert.assertEquals(1, cache.misses());
+    Assert.assertEquals(1, cache.puts());
+  }
+
+  @Test
+  public void testReplace() {
+    LRUCache<String, String> cache = newCache(100);
+    cache.put("a", "alpha");
+    cache.put("a", "ab");
+    Assert.assertEquals("ab", cache.get("a"));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, cache.count());
+  }
+
+  @Test
+  public void testEviction() {
+    LRUCache<String, String> cache = newCache(10);
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+    // Access 'a' so that 'b' is the least recently used
+    cache.get("a");
+    cache.put("c", "cccc");
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals("aaaa", cache.get("a"));
+    Assert.assertEquals("cccc", cache.get("c"));
+    Assert.assertEquals(8, cache.size());
+    Assert.assertEquals(1, cache.evictions());
+  }
+
+  @Test
+  public void testTooLarge() {
+    LRUCache<String, String> cache = newCache(4);
+    cache.put("a", "aaaa");
+    Assert.assertFalse(cache.put("b", "bbbbb"));
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals("aaaa", cache.get("a"));
+    Assert.assertEquals(0, cache.evictions());
+  }
+
+  @Test
+  public void testClear() {
+    LRUCache<String, String> cache = newCache(10);
+    cache.put("a", "aaaa");
+    cache.clear();
+    Assert.assertNull(cache.get("a"));
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.count());
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  private static LRUCache<String, String> newCache(long capacity) {
+    return new LRUCache<String, String>(capacity) {
+      @Override
+      protected long sizeOf(String value) {
+        return value.length();
+      }
+    };
+  }
+
+}
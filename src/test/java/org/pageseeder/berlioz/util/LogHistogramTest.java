@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>LogHistogram</code>.
+ */
+public class LogHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LogHistogram histogram = new LogHistogram();
+    Assert.assertEquals(0, histogram.count());
+    Assert.assertEquals(0, histogram.min());
+    Assert.assertEquals(0, histogram.max());
+    Assert.assertEquals(0, histogram.mean());
+    Assert.assertEquals(0, histogram.percentile(50));
+  }
+
+  @Test
+  public void testBuckets() {
+    for (long v = 0; v < 100000; v++) {
+      int index = LogHistogram.index(v);
+      long highest = LogHistogram.highest(index);
+      Assert.assertTrue(v <= highest);
+      // Relative error is at most 12.5%
+      Assert.assertTrue(highest - v <= v / 8);
+      if (index > 0) {
+        Assert.assertTrue(v > LogHistogram.highest(index - 1));
+      }
+    }
+    LogHistogram.index(LogHistogram.MAX_VALUE);
+  }
+
+  @Test
+  public void testSmallValues() {
+    LogHistogram histogram = new LogHistogram();
+    for (int i = 1; i <= 5; i++) {
+      histogram.record(i);
+    }
+    Assert.assertEquals(5, histogram.count());
+    Assert.assertEquals(15, histogram.sum());
+    Assert.assertEquals(1, histogram.min());
+    Assert.assertEquals(5, histogram.max());
+    Assert.assertEquals(3, histogram.mean());
+    Assert.assertEquals(3, histogram.percentile(50));
+    Assert.assertEquals(5, histogram.percentile(99));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LogHistogram histogram = new LogHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    assertWithin(5000, histogram.percentile(50));
+    assertWithin(9000, histogram.percentile(90));
+    assertWithin(9900, histogram.percentile(99));
+    assertWithin(9990, histogram.percentile(99.9));
+    Assert.assertEquals(10000, histogram.percentile(100));
+  }
+
+  @Test
+  public void testOutOfRange() {
+    LogHistogram histogram = new LogHistogram();
+    histogram.record(-10);
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(0, histogram.min());
+    Assert.assertEquals(LogHistogram.MAX_VALUE, histogram.max());
+  }
+
+  @Test
+  public void testAddAndReset() {
+    LogHistogram a = new LogHistogram();
+    LogHistogram b = new LogHistogram();
+    a.record(10);
+    b.record(1000);
+    b.record(2000);
+    a.add(b);
+    Assert.assertEquals(3, a.count());
+    Assert.assertEquals(3010, a.sum());
+    Assert.assertEquals(10, a.min());
+    Assert.assertEquals(2000, a.max());
+    a.reset();
+    Assert.assertEquals(0, a.count());
+    Assert.assertEquals(0, a.percentile(50));
+    Assert.assertEquals(2, b.count());
+  }
+
+  @Test
+  public void testCountAtMost() {
+    LogHistogram histogram = new LogHistogram();
+    for (int i = 0; i < 1000; i++) {
+      histogram.record(i);
+    }
+    Assert.assertEquals(0, histogram.countAtMost(-1));
+    Assert.assertEquals(1, histogram.countAtMost(0));
+    Assert.assertEquals(256, histogram.countAtMost(255));
+    Assert.assertEquals(512, histogram.countAtMost(511));
+    Assert.assertEquals(1000, histogram.countAtMost(LogHistogram.MAX_VALUE));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue("Expected "+expected+" but was "+actual, actual >= expected && actual <= expected + expected / 8);
+  }
+
+}
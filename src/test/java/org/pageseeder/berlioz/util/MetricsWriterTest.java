@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>MetricsWriter</code>.
+ */
+public class MetricsWriterTest {
+
+  private static final String[] NO_LABELS = new String[0];
+
+  @Test
+  public void testFamily() throws IOException {
+    StringWriter out = new StringWriter();
+    new MetricsWriter(out).family("berlioz_requests_total", "Requests handled by Berlioz.", "counter");
+    Assert.assertEquals("# HELP berlioz_requests_total Requests handled by Berlioz.\n"
+        + "# TYPE berlioz_requests_total counter\n", out.toString());
+  }
+
+  @Test
+  public void testSample_Long() throws IOException {
+    StringWriter out = new StringWriter();
+    MetricsWriter writer = new MetricsWriter(out);
+    writer.sample("a", 0);
+    writer.sample("b", 1234567890123L);
+    writer.sample("c", -42);
+    writer.sample("d", Long.MIN_VALUE);
+    writer.sample("e", Long.MAX_VALUE);
+    Assert.assertEquals("a 0\nb 1234567890123\nc -42\nd -9223372036854775808\ne 9223372036854775807\n", out.toString());
+  }
+
+  @Test
+  public void testSample_Labels() throws IOException {
+    StringWriter out = new StringWriter();
+    MetricsWriter writer = new MetricsWriter(out);
+    writer.sample("berlioz_requests_total", new String[] { "service", "status" }, new String[] { "home", "200" }, 3);
+    Assert.assertEquals("berlioz_requests_total{service=\"home\",status=\"200\"} 3\n", out.toString());
+  }
+
+  @Test
+  public void testSample_LabelEscaping() throws IOException {
+    StringWriter out = new StringWriter();
+    MetricsWriter writer = new MetricsWriter(out);
+    writer.sample("m", new String[] { "l" }, new String[] { "a\"b\\c\nd" }, 1);
+    Assert.assertEquals("m{l=\"a\\\"b\\\\c\\nd\"} 1\n", out.toString());
+  }
+
+  @Test
+  public void testSample_Decimal() throws IOException {
+    StringWriter out = new StringWriter();
+    MetricsWriter writer = new MetricsWriter(out);
+    writer.sample("a", NO_LABELS, NO_LABELS, 0.0);
+    writer.sample("b", NO_LABELS, NO_LABELS, 0.5);
+    writer.sample("c", NO_LABELS, NO_LABELS, 12.0000004);
+    writer.sample("d", NO_LABELS, NO_LABELS, -1.25);
+    writer.sample("e", NO_LABELS, NO_LABELS, 0.0000015);
+    writer.sample("f", NO_LABELS, NO_LABELS, 3.0000005);
+    Assert.assertEquals("a 0.000000\nb 0.500000\nc 12.000000\nd -1.250000\ne 0.000002\nf 3.000001\n", out.toString());
+  }
+
+  @Test
+  public void testSample_SpecialDecimal() throws IOException {
+    StringWriter out = new StringWriter();
+    MetricsWriter writer = new MetricsWriter(out);
+    writer.sample("a", NO_LABELS, NO_LABELS, Double.NaN);
+    writer.sample("b", NO_LABELS, NO_LABELS, Double.POSITIVE_INFINITY);
+    writer.sample("c", NO_LABELS, NO_LABELS, Double.NEGATIVE_INFINITY);
+    Assert.assertEquals("a NaN\nb +Inf\nc -Inf\n", out.toString());
+  }
+
+  @Test
+  public void testHistogram_Empty() throws IOException {
+    StringWriter out = new StringWriter();
+    new MetricsWriter(out).histogram("h", NO_LABELS, NO_LABELS, new LogHistogram());
+    Assert.assertEquals("h_bucket{le=\"0.000256\"} 0\n"
+        + "h_bucket{le=\"0.001024\"} 0\n"
+        + "h_bucket{le=\"0.004096\"} 0\n"
+        + "h_bucket{le=\"0.016384\"} 0\n"
+        + "h_bucket{le=\"0.065536\"} 0\n"
+        + "h_bucket{le=\"0.262144\"} 0\n"
+        + "h_bucket{le=\"1.048576\"} 0\n"
+        + "h_bucket{le=\"4.194304\"} 0\n"
+        + "h_bucket{le=\"16.777216\"} 0\n"
+        + "h_bucket{le=\"67.108864\"} 0\n"
+        + "h_bucket{le=\"+Inf\"} 0\n"
+        + "h_sum 0.000000\n"
+        + "h_count 0\n", out.toString());
+  }
+
+  @Test
+  public void testHistogram_Labels() throws IOException {
+    LogHistogram histogram = new LogHistogram();
+    histogram.record(100);
+    histogram.record(300);
+    histogram.record(5000);
+    histogram.record(2000000);
+    histogram.record(100000000);
+    StringWriter out = new StringWriter();
+    new MetricsWriter(out).histogram("berlioz_request_duration_seconds", new String[] { "service" }, new String[] { "home" }, histogram);
+    Assert.assertEquals("berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.000256\"} 1\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.001024\"} 2\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.004096\"} 2\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.016384\"} 3\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.065536\"} 3\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"0.262144\"} 3\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"1.048576\"} 3\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"4.194304\"} 4\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"16.777216\"} 4\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"67.108864\"} 4\n"
+        + "berlioz_request_duration_seconds_bucket{service=\"home\",le=\"+Inf\"} 5\n"
+        + "berlioz_request_duration_seconds_sum{service=\"home\"} 102.005400\n"
+        + "berlioz_request_duration_seconds_count{service=\"home\"} 5\n", out.toString());
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.berlioz.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A test class for the <code>ResourceCompressor</code>.
+ */
+public class ResourceCompressorTest {
+
+  @Test
+  public void testCompress_Empty() throws IOException {
+    assertRoundTrip("", StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCompress_Small() throws IOException {
+    assertRoundTrip("<html><body>Hello World!</body></html>", StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCompress_Large() throws IOException {
+    assertRoundTrip(randomText(100000, false), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCompress_Unicode() throws IOException {
+    // Includes supplementary characters which may be split across buffers
+    assertRoundTrip(randomText(50000, true), StandardCharsets.UTF_8);
+    assertRoundTrip(randomText(50000, true), StandardCharsets.UTF_16);
+  }
+
+  @Test
+  public void testCompress_Unmappable() throws IOException {
+    byte[] compressed = ResourceCompressor.compress("caf\u00e9 \u4e2d", StandardCharsets.US_ASCII);
+    Assert.assertEquals("caf? ?", new String(decompress(compressed), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testCompress_Stream() throws IOException {
+    String text = randomText(20000, true);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long written = ResourceCompressor.compress(text, StandardCharsets.UTF_8, out);
+    Assert.assertEquals(out.size(), written);
+    Assert.assertArrayEquals(ResourceCompressor.compress(text, StandardCharsets.UTF_8), out.toByteArray());
+  }
+
+  @Test
+  public void testCompress_AfterShutdown() throws IOException {
+    assertRoundTrip("Before shutdown", StandardCharsets.UTF_8);
+    ResourceCompressor.shutdown();
+    assertRoundTrip("After shutdown", StandardCharsets.UTF_8);
+  }
+
+  // Private helpers
+  // ----------------------------------------------------------------------------------------------
+
+  private static void assertRoundTrip(String text, Charset charset) throws IOException {
+    byte[] compressed = ResourceCompressor.compress(text, charset);
+    Assert.assertEquals(text, new String(decompress(compressed), charset));
+  }
+
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static String randomText(int length, boolean unicode) {
+    Random random = new Random(length);
+    StringBuilder text = new StringBuilder(length);
+    while (text.length() < length) {
+      int type = random.nextInt(unicode? 4 : 1);
+      switch (type) {
+        case 1: text.append((char)(0xA0 + random.nextInt(0x500))); break;
+        case 2: text.append((char)(0x4E00 + random.nextInt(0x1000))); break;
+        case 3: text.appendCodePoint(0x1F600 + random.nextInt(0x40)); break;
+        default: text.append((char)('a' + random.nextInt(26)));
+      }
+    }
+    return text.toString();
+  }
+
+}